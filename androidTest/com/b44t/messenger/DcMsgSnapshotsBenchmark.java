@@ -0,0 +1,143 @@
+package com.b44t.messenger;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Micro-benchmark comparing per-field JNI accessors on DcMsg
+ * with the batched DcContext.getMsgSnapshots().
+ *
+ * Both variants read the fields needed to bind a ConversationItem
+ * of a page of messages in the device chat of a new database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DcMsgSnapshotsBenchmark {
+
+    private static final String TAG = DcMsgSnapshotsBenchmark.class.getSimpleName();
+
+    private static final int MESSAGES    = 250;
+    private static final int SCREEN_SIZE = 20;
+    private static final int ROUNDS      = 100;
+
+    private File      dbFile;
+    private DcContext dcContext;
+    private int[]     msgIds;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        dbFile = new File(context.getCacheDir(), "snapshots-benchmark.db");
+        dbFile.delete();
+
+        dcContext = new DcContext("android-test");
+        dcContext.open(dbFile.getAbsolutePath());
+        for (int i = 0; i < MESSAGES; i++) {
+            DcMsg msg = new DcMsg(dcContext, DcMsg.DC_MSG_TEXT);
+            // some texts repeat, unlike mime types and file names they are not shared in the snapshot buffer
+            msg.setText(i % 3 == 0 ? "same text" : "message " + i);
+            dcContext.addDeviceMsg(null, msg);
+        }
+        int chatId = dcContext.getChatIdByContactId(DcContact.DC_CONTACT_ID_DEVICE);
+        msgIds = dcContext.getChatMsgs(chatId, 0, 0);
+    }
+
+    @After
+    public void tearDown() {
+        dcContext.close();
+        dbFile.delete();
+    }
+
+    @Test
+    public void testSnapshotsMatchMessages() {
+        DcMsgSnapshots snapshots = dcContext.getMsgSnapshots(msgIds);
+        assertEquals(msgIds.length, snapshots.getCount());
+        for (int i = 0; i < snapshots.getCount(); i++) {
+            DcMsg msg = dcContext.getMsg(msgIds[i]);
+            assertEquals(msgIds[i], snapshots.getId(i));
+            assertEquals(msg.getType(), snapshots.getType(i));
+            assertEquals(msg.getState(), snapshots.getState(i));
+            assertEquals(msg.getChatId(), snapshots.getChatId(i));
+            assertEquals(msg.getFromId(), snapshots.getFromId(i));
+            assertEquals(msg.getTimestamp(), snapshots.getTimestamp(i));
+            assertEquals(msg.getSortTimestamp(), snapshots.getSortTimestamp(i));
+            assertEquals(msg.getText(), snapshots.getText(i));
+            assertEquals(msg.getFile(), snapshots.getFile(i));
+            assertEquals(msg.getFilemime(), snapshots.getFilemime(i));
+            assertEquals(msg.getFilename(), snapshots.getFilename(i));
+        }
+    }
+
+    @Test
+    public void benchmark() {
+        run(SCREEN_SIZE);
+        run(MESSAGES);
+    }
+
+    private void run(int screenSize) {
+        int count = Math.min(screenSize, msgIds.length);
+        int[] screenMsgIds = new int[count];
+        System.arraycopy(msgIds, msgIds.length - count, screenMsgIds, 0, count);
+
+        // warm up both variants, so that the database pages are cached
+        long sink = perField(dcContext, screenMsgIds) + batched(dcContext, screenMsgIds);
+
+        long perFieldStart = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            sink += perField(dcContext, screenMsgIds);
+        }
+        long perFieldNanos = System.nanoTime() - perFieldStart;
+
+        long batchedStart = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            sink += batched(dcContext, screenMsgIds);
+        }
+        long batchedNanos = System.nanoTime() - batchedStart;
+
+        Log.i(TAG, "binding " + count + " messages, " + ROUNDS + " rounds: "
+                + "per-field " + (perFieldNanos / ROUNDS / 1000) + " us/screen, "
+                + "batched " + (batchedNanos / ROUNDS / 1000) + " us/screen "
+                + "(checksum " + sink + ")");
+    }
+
+    private static long perField(DcContext dcContext, int[] msgIds) {
+        long sum = 0;
+        for (int msgId : msgIds) {
+            DcMsg msg = dcContext.getMsg(msgId);
+            sum += msg.getType() + msg.getState() + msg.getChatId() + msg.getFromId()
+                 + msg.getWidth(0) + msg.getHeight(0) + msg.getDuration() + msg.showPadlock()
+                 + (msg.isInfo()? 1 : 0) + (msg.isForwarded()? 1 : 0) + (msg.isSetupMessage()? 1 : 0)
+                 + (msg.hasLocation()? 1 : 0) + (msg.hasDeviatingTimestamp()? 1 : 0)
+                 + msg.getTimestamp() + msg.getSortTimestamp() + msg.getFilebytes()
+                 + msg.getText().length() + msg.getFile().length()
+                 + msg.getFilemime().length() + msg.getFilename().length();
+        }
+        return sum;
+    }
+
+    private static long batched(DcContext dcContext, int[] msgIds) {
+        long sum = 0;
+        DcMsgSnapshots snapshots = dcContext.getMsgSnapshots(msgIds);
+        for (int i = 0; i < snapshots.getCount(); i++) {
+            sum += snapshots.getType(i) + snapshots.getState(i) + snapshots.getChatId(i) + snapshots.getFromId(i)
+                 + snapshots.getWidth(i, 0) + snapshots.getHeight(i, 0) + snapshots.getDuration(i) + (snapshots.isSecure(i)? 1 : 0)
+                 + (snapshots.isInfo(i)? 1 : 0) + (snapshots.isForwarded(i)? 1 : 0) + (snapshots.isSetupMessage(i)? 1 : 0)
+                 + (snapshots.hasLocation(i)? 1 : 0) + (snapshots.hasDeviatingTimestamp(i)? 1 : 0)
+                 + snapshots.getTimestamp(i) + snapshots.getSortTimestamp(i) + snapshots.getFilebytes(i)
+                 + snapshots.getText(i).length() + snapshots.getFile(i).length()
+                 + snapshots.getFilemime(i).length() + snapshots.getFilename(i).length();
+        }
+        return sum;
+    }
+}
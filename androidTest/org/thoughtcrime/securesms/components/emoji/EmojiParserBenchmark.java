@@ -0,0 +1,94 @@
+package org.thoughtcrime.securesms.components.emoji;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Micro-benchmark of finding the emoji candidates in long messages dense with emojis,
+ * including skin tones and sequences missing the TERMINATOR.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EmojiParserBenchmark {
+
+  private static final String TAG = EmojiParserBenchmark.class.getSimpleName();
+
+  private static final int MESSAGES       = 200;
+  private static final int MESSAGE_LENGTH = 2000;
+  private static final int WARMUP         = 10;
+  private static final int ROUNDS         = 20;
+
+  private static final String[] WORDS      = { "hello", "ok", "see you", "\u00e4\u00f6\u00fc", "\u0431\u0443\u043a\u0432\u044b", "\u65e5\u672c", ":-)", "1234" };
+  private static final String[] SKIN_TONES = { "\ud83c\udffb", "\ud83c\udffc", "\ud83c\udffd", "\ud83c\udffe", "\ud83c\udfff" };
+
+  private final List<String> messages = new ArrayList<>();
+
+  private EmojiProvider provider;
+
+  @Before
+  public void setUp() {
+    Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    provider = EmojiProvider.getInstance(context);
+
+    List<String> all = new ArrayList<>();
+    for (EmojiPageModel page : EmojiPages.PAGES) {
+      if (page.hasSpriteMap()) {
+        all.addAll(Arrays.asList(page.getEmoji()));
+      }
+    }
+
+    Random random = new Random(42);
+    for (int i = 0; i < MESSAGES; i++) {
+      StringBuilder message = new StringBuilder();
+      while (message.length() < MESSAGE_LENGTH) {
+        String emoji = all.get(random.nextInt(all.size()));
+        switch (random.nextInt(6)) {
+          case 0:  message.append(WORDS[random.nextInt(WORDS.length)]).append(' '); break;
+          case 1:  message.append(emoji.replace("\ufe0f", "")); break;
+          case 2:  message.append(emoji).append(SKIN_TONES[random.nextInt(SKIN_TONES.length)]); break;
+          default: message.append(emoji);
+        }
+      }
+      messages.add(message.toString());
+    }
+  }
+
+  @Test
+  public void benchmark() {
+    int candidates = 0;
+    for (int i = 0; i < WARMUP; i++) {
+      candidates += parse();
+    }
+
+    long[] nanos = new long[ROUNDS];
+    for (int i = 0; i < ROUNDS; i++) {
+      long start = System.nanoTime();
+      candidates += parse();
+      nanos[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(nanos);
+
+    // the candidates are counted so that the parsing is not optimized away
+    Log.i(TAG, "parsing " + MESSAGES + " messages of " + MESSAGE_LENGTH + " chars: "
+               + "median " + (nanos[ROUNDS / 2] / 1000L) + " us (" + candidates + " candidates)");
+  }
+
+  private int parse() {
+    int count = 0;
+    for (String message : messages) {
+      count += provider.getCandidates(message).size();
+    }
+    return count;
+  }
+}
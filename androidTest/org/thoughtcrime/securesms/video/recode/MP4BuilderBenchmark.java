@@ -0,0 +1,134 @@
+package org.thoughtcrime.securesms.video.recode;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Micro-benchmark of MP4Builder on a synthetic recoding:
+ * 30 seconds of 720p H.264 at 30 fps with a sync frame every second, interleaved with 44.1 kHz AAC.
+ *
+ * The samples are prepared before, so only muxing and writing the file is measured.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MP4BuilderBenchmark {
+
+    private static final String TAG = MP4BuilderBenchmark.class.getSimpleName();
+
+    private static final int DURATION_SEC = 30;
+    private static final int FRAME_RATE = 30;
+    private static final int SAMPLE_RATE = 44100;
+    private static final int AAC_FRAME_SAMPLES = 1024;
+    private static final int WARMUP = 2;
+    private static final int ROUNDS = 5;
+
+    private final List<ByteBuffer>            buffers = new ArrayList<>();
+    private final List<MediaCodec.BufferInfo> infos   = new ArrayList<>();
+    private final List<Boolean>               audio   = new ArrayList<>();
+
+    private MediaFormat videoFormat;
+    private MediaFormat audioFormat;
+    private File        file;
+
+    @Before
+    public void setUp() {
+        videoFormat = MediaFormat.createVideoFormat("video/avc", 1280, 720);
+        audioFormat = MediaFormat.createAudioFormat("audio/mp4a-latm", SAMPLE_RATE, 2);
+
+        Random random = new Random(42);
+        int videoFrames = DURATION_SEC * FRAME_RATE;
+        int audioFrames = DURATION_SEC * SAMPLE_RATE / AAC_FRAME_SAMPLES;
+        int v = 0;
+        int a = 0;
+        while (v < videoFrames || a < audioFrames) {
+            long videoUs = v * 1000000L / FRAME_RATE;
+            long audioUs = a * AAC_FRAME_SAMPLES * 1000000L / SAMPLE_RATE;
+            if (v < videoFrames && (a >= audioFrames || videoUs <= audioUs)) {
+                boolean sync = v % FRAME_RATE == 0;
+                byte[] payload = new byte[sync ? 60000 + random.nextInt(20000) : 4000 + random.nextInt(16000)];
+                random.nextBytes(payload);
+                payload[0] = 0;
+                payload[1] = 0;
+                payload[2] = 0;
+                payload[3] = 1;
+                addFrame(payload, videoUs, sync ? MediaCodec.BUFFER_FLAG_SYNC_FRAME : 0, false);
+                v++;
+            } else {
+                byte[] payload = new byte[300 + random.nextInt(150)];
+                random.nextBytes(payload);
+                addFrame(payload, audioUs, 0, true);
+                a++;
+            }
+        }
+
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        file = new File(context.getCacheDir(), "mp4builder-benchmark.mp4");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            write();
+        }
+
+        long[] nanos = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            write();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+
+        Log.i(TAG, "writing " + buffers.size() + " samples, " + (file.length() / 1024) + " KiB: "
+                + "median " + (nanos[ROUNDS / 2] / 1000000L) + " ms");
+    }
+
+    private void write() throws Exception {
+        Mp4Movie movie = new Mp4Movie();
+        movie.setCacheFile(file);
+        movie.setSize(1280, 720);
+        movie.setEstimatedSampleCount((DURATION_SEC + 1) * (FRAME_RATE + 47));
+        MP4Builder builder = new MP4Builder().createMovie(movie);
+        int videoTrack = builder.addTrack(videoFormat, false);
+        int audioTrack = builder.addTrack(audioFormat, true);
+        for (int i = 0; i < buffers.size(); i++) {
+            boolean isAudio = audio.get(i);
+            ByteBuffer buffer = buffers.get(i);
+            buffer.clear();
+            builder.writeSampleData(isAudio ? audioTrack : videoTrack, buffer, infos.get(i), isAudio);
+        }
+        builder.finishMovie(false);
+    }
+
+    private void addFrame(byte[] payload, long presentationTimeUs, int flags, boolean isAudio) {
+        // encoder output buffers are direct
+        ByteBuffer buffer = ByteBuffer.allocateDirect(payload.length);
+        buffer.put(payload);
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.set(0, payload.length, presentationTimeUs, flags);
+        buffers.add(buffer);
+        infos.add(info);
+        audio.add(isAudio);
+    }
+}
@@ -629,6 +629,170 @@ JNIEXPORT jlong Java_com_b44t_messenger_DcContext_getMsgCPtr(JNIEnv *env, jobjec
 }
 
 
+// keep in sync with DcMsgSnapshots.java
+#define SNAPSHOT_INT_TYPE           0
+#define SNAPSHOT_INT_STATE          1
+#define SNAPSHOT_INT_CHAT_ID        2
+#define SNAPSHOT_INT_FROM_ID        3
+#define SNAPSHOT_INT_WIDTH          4
+#define SNAPSHOT_INT_HEIGHT         5
+#define SNAPSHOT_INT_DURATION       6
+#define SNAPSHOT_INT_SHOW_PADLOCK   7
+#define SNAPSHOT_INT_FLAGS          8
+#define SNAPSHOT_INTS_PER_MSG       9
+
+#define SNAPSHOT_LONG_TIMESTAMP      0
+#define SNAPSHOT_LONG_SORT_TIMESTAMP 1
+#define SNAPSHOT_LONG_FILEBYTES      2
+#define SNAPSHOT_LONGS_PER_MSG       3
+
+#define SNAPSHOT_STRS_PER_MSG       4
+#define SNAPSHOT_RECENT_STRS        8
+
+#define SNAPSHOT_FLAG_INFO                0x01
+#define SNAPSHOT_FLAG_FORWARDED           0x02
+#define SNAPSHOT_FLAG_SETUP_MESSAGE       0x04
+#define SNAPSHOT_FLAG_INCREATION          0x08
+#define SNAPSHOT_FLAG_HAS_LOCATION        0x10
+#define SNAPSHOT_FLAG_DEVIATING_TIMESTAMP 0x20
+
+
+typedef struct snapshot_strbuf_t {
+	char* bytes;
+	int   used;
+	int   allocated;
+} snapshot_strbuf_t;
+
+
+typedef struct snapshot_recent_t {
+	int slots[SNAPSHOT_RECENT_STRS];
+	int count;
+	int next;
+} snapshot_recent_t;
+
+
+static void snapshot_add_str(snapshot_strbuf_t* buf, jint* refs, int slot, snapshot_recent_t* recent, char* str)
+{
+	/* appends the string to the shared buffer and frees it.
+	if `recent` is given, the string is compared with the last SNAPSHOT_RECENT_STRS strings of the field
+	and stored only once if it repeats, as the mime types do; other fields as the text are always stored directly. */
+	int len = str? strlen(str) : 0;
+	refs[slot*2]   = 0;
+	refs[slot*2+1] = len;
+	if (len) {
+		if (recent) {
+			int i;
+			for (i = 0; i < recent->count; i++) {
+				int other = recent->slots[i];
+				if (refs[other*2+1]==len && memcmp(buf->bytes+refs[other*2], str, len)==0) {
+					refs[slot*2] = refs[other*2];
+					dc_str_unref(str);
+					return;
+				}
+			}
+		}
+
+		if (buf->used+len > buf->allocated) {
+			int new_allocated = (buf->used+len)*2;
+			char* new_bytes = realloc(buf->bytes, new_allocated);
+			if (new_bytes==NULL) {
+				refs[slot*2+1] = 0;
+				dc_str_unref(str);
+				return;
+			}
+			buf->bytes = new_bytes;
+			buf->allocated = new_allocated;
+		}
+		memcpy(buf->bytes+buf->used, str, len);
+		refs[slot*2] = buf->used;
+		buf->used += len;
+
+		if (recent) {
+			recent->slots[recent->next] = slot;
+			recent->next = (recent->next+1) % SNAPSHOT_RECENT_STRS;
+			if (recent->count < SNAPSHOT_RECENT_STRS) {
+				recent->count++;
+			}
+		}
+	}
+	dc_str_unref(str);
+}
+
+
+JNIEXPORT jbyteArray Java_com_b44t_messenger_DcContext_getMsgSnapshotsNative(JNIEnv *env, jobject obj, jintArray msg_ids, jintArray ints, jlongArray longs, jintArray str_refs)
+{
+	/* loads the fields of several messages with one JNI call.
+	the primitive fields are written to the given arrays,
+	the strings are returned as one UTF-8 buffer, offset and length of each string are written to str_refs. */
+	dc_context_t* context = get_dc_context(env, obj);
+	int i, icnt = 0;
+	uint32_t* ids = jintArray2uint32Pointer(env, msg_ids, &icnt);
+	jint*  c_ints  = calloc(icnt*SNAPSHOT_INTS_PER_MSG+1, sizeof(jint));
+	jlong* c_longs = calloc(icnt*SNAPSHOT_LONGS_PER_MSG+1, sizeof(jlong));
+	jint*  c_refs  = calloc(icnt*SNAPSHOT_STRS_PER_MSG*2+1, sizeof(jint));
+	snapshot_strbuf_t buf = { NULL, 0, 0 };
+	snapshot_recent_t recent_mimes = { {0}, 0, 0 };
+	snapshot_recent_t recent_filenames = { {0}, 0, 0 };
+	jbyteArray ret = NULL;
+
+	if (c_ints==NULL || c_longs==NULL || c_refs==NULL) {
+		goto cleanup;
+	}
+
+	for (i = 0; i < icnt; i++) {
+		dc_msg_t* msg = dc_get_msg(context, ids[i]);
+		jint* mi = c_ints + i*SNAPSHOT_INTS_PER_MSG;
+		jlong* ml = c_longs + i*SNAPSHOT_LONGS_PER_MSG;
+		int slot = i*SNAPSHOT_STRS_PER_MSG;
+
+		mi[SNAPSHOT_INT_TYPE]         = dc_msg_get_viewtype(msg);
+		mi[SNAPSHOT_INT_STATE]        = dc_msg_get_state(msg);
+		mi[SNAPSHOT_INT_CHAT_ID]      = dc_msg_get_chat_id(msg);
+		mi[SNAPSHOT_INT_FROM_ID]      = dc_msg_get_from_id(msg);
+		mi[SNAPSHOT_INT_WIDTH]        = dc_msg_get_width(msg);
+		mi[SNAPSHOT_INT_HEIGHT]       = dc_msg_get_height(msg);
+		mi[SNAPSHOT_INT_DURATION]     = dc_msg_get_duration(msg);
+		mi[SNAPSHOT_INT_SHOW_PADLOCK] = dc_msg_get_showpadlock(msg);
+		mi[SNAPSHOT_INT_FLAGS]        = (dc_msg_is_info(msg)?                SNAPSHOT_FLAG_INFO : 0)
+		                              | (dc_msg_is_forwarded(msg)?           SNAPSHOT_FLAG_FORWARDED : 0)
+		                              | (dc_msg_is_setupmessage(msg)?        SNAPSHOT_FLAG_SETUP_MESSAGE : 0)
+		                              | (dc_msg_is_increation(msg)?          SNAPSHOT_FLAG_INCREATION : 0)
+		                              | (dc_msg_has_location(msg)?           SNAPSHOT_FLAG_HAS_LOCATION : 0)
+		                              | (dc_msg_has_deviating_timestamp(msg)? SNAPSHOT_FLAG_DEVIATING_TIMESTAMP : 0);
+
+		ml[SNAPSHOT_LONG_TIMESTAMP]      = JTIMESTAMP(dc_msg_get_timestamp(msg));
+		ml[SNAPSHOT_LONG_SORT_TIMESTAMP] = JTIMESTAMP(dc_msg_get_sort_timestamp(msg));
+		ml[SNAPSHOT_LONG_FILEBYTES]      = (jlong)dc_msg_get_filebytes(msg);
+
+		snapshot_add_str(&buf, c_refs, slot+0, NULL, dc_msg_get_text(msg));
+		snapshot_add_str(&buf, c_refs, slot+1, NULL, dc_msg_get_file(msg));
+		snapshot_add_str(&buf, c_refs, slot+2, &recent_mimes, dc_msg_get_filemime(msg));
+		snapshot_add_str(&buf, c_refs, slot+3, &recent_filenames, dc_msg_get_filename(msg));
+
+		dc_msg_unref(msg);
+	}
+
+	if (icnt) {
+		(*env)->SetIntArrayRegion(env, ints, 0, icnt*SNAPSHOT_INTS_PER_MSG, c_ints);
+		(*env)->SetLongArrayRegion(env, longs, 0, icnt*SNAPSHOT_LONGS_PER_MSG, c_longs);
+		(*env)->SetIntArrayRegion(env, str_refs, 0, icnt*SNAPSHOT_STRS_PER_MSG*2, c_refs);
+	}
+
+	ret = (*env)->NewByteArray(env, buf.used);
+	if (ret && buf.used) {
+		(*env)->SetByteArrayRegion(env, ret, 0, buf.used, (const jbyte*)buf.bytes);
+	}
+
+cleanup:
+	free(buf.bytes);
+	free(c_refs);
+	free(c_longs);
+	free(c_ints);
+	free(ids);
+	return ret;
+}
+
+
 JNIEXPORT jlong Java_com_b44t_messenger_DcContext_createMsgCPtr(JNIEnv *env, jobject obj, jint viewtype)
 {
 	return (jlong)dc_msg_new(get_dc_context(env, obj), viewtype);
@@ -164,6 +164,13 @@ public class DcContext {
     public native boolean      setChatMuteDuration  (int chat_id, long duration);
     public native void         deleteChat           (int chat_id);
     public @NonNull DcMsg      getMsg               (int msg_id) { return new DcMsg(getMsgCPtr(msg_id)); }
+    public @NonNull DcMsgSnapshots getMsgSnapshots  (int[] msg_ids) {
+        int[]  ints    = new int [msg_ids.length * DcMsgSnapshots.INTS_PER_MSG];
+        long[] longs   = new long[msg_ids.length * DcMsgSnapshots.LONGS_PER_MSG];
+        int[]  strRefs = new int [msg_ids.length * DcMsgSnapshots.STRS_PER_MSG * 2];
+        byte[] strBytes = getMsgSnapshotsNative(msg_ids, ints, longs, strRefs);
+        return new DcMsgSnapshots(msg_ids, ints, longs, strRefs, strBytes!=null? strBytes : new byte[0]);
+    }
     public native String       getMsgInfo           (int id);
     public native int          getFreshMsgCount     (int chat_id);
     public native int          estimateDeletionCount(boolean from_server, long seconds);
@@ -207,6 +214,7 @@ public class DcContext {
     private native long getChatlistCPtr  (int listflags, String query, int queryId);
     private native long getChatCPtr      (int chat_id);
     private native long getMsgCPtr       (int id);
+    private native byte[] getMsgSnapshotsNative(int[] msg_ids, int[] ints, long[] longs, int[] strRefs);
     private native long getDraftCPtr    (int id);
     private native long getContactCPtr   (int id);
     private native long getLocationsCPtr (int chat_id, int contact_id, long timestamp_start, long timestamp_end);
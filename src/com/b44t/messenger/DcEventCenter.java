@@ -1,14 +1,41 @@
 package com.b44t.messenger;
 
+import android.util.Log;
+import android.util.SparseArray;
+
 import org.thoughtcrime.securesms.util.Util;
 
-import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Dispatches core events to registered observers.
+ *
+ * Observers are kept in copy-on-write arrays per event id, so sending an event does not take
+ * the registration lock. Events for main-thread observers are queued and delivered in batches
+ * by a single runnable; while a batch is pending, identical events (same id and payload)
+ * are coalesced into one delivery. This keeps bursts of eg. DC_EVENT_MSGS_CHANGED
+ * from flooding the main looper with one message per event and observer.
+ * A coalesced event moves to the position of its latest occurrence, so A,B,A is delivered as B,A
+ * and observers still see the latest event last.
+ */
 public class DcEventCenter {
-    private Hashtable<Integer, ArrayList<DcEventDelegate>> allObservers = new Hashtable<>();
+    private static final String TAG = DcEventCenter.class.getSimpleName();
+    private static final DcEventDelegate[] NO_OBSERVERS = new DcEventDelegate[0];
+
+    private volatile SparseArray<DcEventDelegate[]> allObservers = new SparseArray<>();
     private final Object LOCK = new Object();
 
+    private final Object pendingLock = new Object();
+    private LinkedHashMap<PendingEvent, PendingEvent> pendingEvents = new LinkedHashMap<>();
+    private boolean drainScheduled = false;
+
+    private final AtomicLong eventsReceived  = new AtomicLong();
+    private final AtomicLong eventsCoalesced = new AtomicLong();
+    private final AtomicLong eventsDelivered = new AtomicLong();
+
     public interface DcEventDelegate {
         void handleEvent(int eventId, Object data1, Object data2);
         default boolean runOnMain() {
@@ -26,63 +53,158 @@ public class DcEventCenter {
 
     public void addObserver(int eventId, DcEventDelegate observer) {
         synchronized (LOCK) {
-            ArrayList<DcEventDelegate> idObservers = allObservers.get(eventId);
-            if (idObservers == null) {
-                allObservers.put(eventId, (idObservers = new ArrayList<>()));
-            }
-            idObservers.add(observer);
+            SparseArray<DcEventDelegate[]> observers = allObservers.clone();
+            DcEventDelegate[] idObservers = observers.get(eventId, NO_OBSERVERS);
+            DcEventDelegate[] newObservers = Arrays.copyOf(idObservers, idObservers.length + 1);
+            newObservers[idObservers.length] = observer;
+            observers.put(eventId, newObservers);
+            allObservers = observers;
         }
     }
 
     public void removeObserver(int eventId, DcEventDelegate observer) {
         synchronized (LOCK) {
-            ArrayList<DcEventDelegate> idObservers = allObservers.get(eventId);
-            if (idObservers != null) {
-                idObservers.remove(observer);
+            SparseArray<DcEventDelegate[]> observers = allObservers.clone();
+            if (removeFrom(observers, observers.indexOfKey(eventId), observer)) {
+                allObservers = observers;
             }
         }
     }
 
     public void removeObservers(DcEventDelegate observer) {
         synchronized (LOCK) {
-            for(Integer eventId : allObservers.keySet()) {
-                ArrayList<DcEventDelegate> idObservers = allObservers.get(eventId);
-                if (idObservers != null) {
-                    idObservers.remove(observer);
-                }
+            SparseArray<DcEventDelegate[]> observers = allObservers.clone();
+            boolean changed = false;
+            for (int i = 0; i < observers.size(); i++) {
+                changed |= removeFrom(observers, i, observer);
+            }
+            if (changed) {
+                allObservers = observers;
+            }
+        }
+    }
+
+    private static boolean removeFrom(SparseArray<DcEventDelegate[]> observers, int index, DcEventDelegate observer) {
+        if (index < 0) {
+            return false;
+        }
+        DcEventDelegate[] idObservers = observers.valueAt(index);
+        for (int i = 0; i < idObservers.length; i++) {
+            if (idObservers[i] == observer) {
+                DcEventDelegate[] newObservers = new DcEventDelegate[idObservers.length - 1];
+                System.arraycopy(idObservers, 0, newObservers, 0, i);
+                System.arraycopy(idObservers, i + 1, newObservers, i, idObservers.length - i - 1);
+                observers.setValueAt(index, newObservers);
+                return true;
             }
         }
+        return false;
     }
 
     public void sendToObservers(int eventId, Object data1, Object data2) {
-        synchronized (LOCK) {
-            ArrayList<DcEventDelegate> idObservers = allObservers.get(eventId);
-            if (idObservers != null) {
-                for (DcEventDelegate observer : idObservers) {
-                    // using try/catch blocks as under some circumstances eg. getContext() may return NULL -
-                    // and as this function is used virtually everywhere, also in libs,
-                    // it's not feasible to check all single occurrences.
-                    if(observer.runOnMain()) {
-                        Util.runOnMain(() -> {
-                            try {
-                                observer.handleEvent(eventId, data1, data2);
-                            }
-                            catch(Exception e) {
-                                e.printStackTrace();
-                            }
-                        });
-                    } else {
-                        Util.runOnBackground(() -> {
-                            try {
-                                observer.handleEvent(eventId, data1, data2);
-                            }
-                            catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                        });
-                    }
+        eventsReceived.incrementAndGet();
+        DcEventDelegate[] idObservers = allObservers.get(eventId, NO_OBSERVERS);
+        boolean hasMainObservers = false;
+        for (DcEventDelegate observer : idObservers) {
+            if (observer.runOnMain()) {
+                hasMainObservers = true;
+            } else {
+                try {
+                    Util.runOnBackground(() -> deliver(observer, eventId, data1, data2));
+                } catch (RejectedExecutionException e) {
+                    // called on the core's event thread, which must not die; deliver here rather than lose the event
+                    Log.w(TAG, "background is congested, delivering event " + eventId + " directly", e);
+                    deliver(observer, eventId, data1, data2);
+                }
+            }
+        }
+
+        if (hasMainObservers) {
+            enqueueForMain(new PendingEvent(eventId, data1, data2));
+        }
+    }
+
+    private void enqueueForMain(PendingEvent event) {
+        boolean scheduleDrain = false;
+        synchronized (pendingLock) {
+            if (pendingEvents.remove(event) != null) {
+                eventsCoalesced.incrementAndGet();
+            }
+            pendingEvents.put(event, event);
+            if (!drainScheduled) {
+                drainScheduled = true;
+                scheduleDrain = true;
+            }
+        }
+
+        if (scheduleDrain) {
+            Util.handler.post(this::drainPendingEvents);
+        }
+    }
+
+    private void drainPendingEvents() {
+        LinkedHashMap<PendingEvent, PendingEvent> batch;
+        synchronized (pendingLock) {
+            batch = pendingEvents;
+            pendingEvents = new LinkedHashMap<>();
+            drainScheduled = false;
+        }
+
+        // observers are looked up at delivery time,
+        // so observers removed in the meantime (eg. in onDestroy()) are not called any longer.
+        for (PendingEvent event : batch.keySet()) {
+            for (DcEventDelegate observer : allObservers.get(event.eventId, NO_OBSERVERS)) {
+                if (observer.runOnMain()) {
+                    deliver(observer, event.eventId, event.data1, event.data2);
                 }
             }
         }
     }
+
+    private void deliver(DcEventDelegate observer, int eventId, Object data1, Object data2) {
+        // using try/catch blocks as under some circumstances eg. getContext() may return NULL -
+        // and as this function is used virtually everywhere, also in libs,
+        // it's not feasible to check all single occurrences.
+        try {
+            eventsDelivered.incrementAndGet();
+            observer.handleEvent(eventId, data1, data2);
+        }
+        catch(Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    public String getStats() {
+        return "events received=" + eventsReceived.get()
+                + ", coalesced=" + eventsCoalesced.get()
+                + ", delivered=" + eventsDelivered.get();
+    }
+
+    private static class PendingEvent {
+        final int eventId;
+        final Object data1;
+        final Object data2;
+
+        PendingEvent(int eventId, Object data1, Object data2) {
+            this.eventId = eventId;
+            this.data1 = data1;
+            this.data2 = data2;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PendingEvent)) {
+                return false;
+            }
+            PendingEvent other = (PendingEvent) o;
+            return eventId == other.eventId
+                    && Util.equals(data1, other.data1)
+                    && Util.equals(data2, other.data2);
+        }
+
+        @Override
+        public int hashCode() {
+            return Util.hashCode(eventId, data1, data2);
+        }
+    }
 }
@@ -29,6 +29,7 @@ public class DcMsg {
     public static final int DC_MSG_NO_ID = 0;
     public final static int DC_MSG_ID_MARKER1 = 1;
     public final static int DC_MSG_ID_DAYMARKER = 9;
+    public final static int DC_MSG_ID_LAST_SPECIAL = 9;
 
     public DcMsg(DcContext context, int viewtype) {
         msgCPtr = context.createMsgCPtr(viewtype);
@@ -55,6 +56,11 @@ public class DcMsg {
         return this.getId()==that.getId() && this.getId()!=0;
     }
 
+    @Override
+    public int hashCode() {
+        return getId();
+    }
+
     public native int     getId              ();
     public native String  getText            ();
     public native long    getTimestamp       ();
@@ -0,0 +1,116 @@
+package com.b44t.messenger;
+
+import androidx.annotation.NonNull;
+
+import java.nio.charset.Charset;
+
+/**
+ * Read-only field values of several messages, loaded by DcContext.getMsgSnapshots()
+ * with a single JNI call.
+ *
+ * The values are stored in flat primitive arrays, all strings share one UTF-8 buffer
+ * and are decoded on first access only.
+ * The layout constants are also used by jni/dc_wrapper.c - keep them in sync.
+ */
+public class DcMsgSnapshots {
+
+    static final int INT_TYPE          = 0;
+    static final int INT_STATE         = 1;
+    static final int INT_CHAT_ID       = 2;
+    static final int INT_FROM_ID       = 3;
+    static final int INT_WIDTH         = 4;
+    static final int INT_HEIGHT        = 5;
+    static final int INT_DURATION      = 6;
+    static final int INT_SHOW_PADLOCK  = 7;
+    static final int INT_FLAGS         = 8;
+    static final int INTS_PER_MSG      = 9;
+
+    static final int LONG_TIMESTAMP      = 0;
+    static final int LONG_SORT_TIMESTAMP = 1;
+    static final int LONG_FILEBYTES      = 2;
+    static final int LONGS_PER_MSG       = 3;
+
+    static final int STR_TEXT          = 0;
+    static final int STR_FILE          = 1;
+    static final int STR_FILEMIME      = 2;
+    static final int STR_FILENAME      = 3;
+    static final int STRS_PER_MSG      = 4;
+
+    static final int FLAG_INFO                  = 0x01;
+    static final int FLAG_FORWARDED             = 0x02;
+    static final int FLAG_SETUP_MESSAGE         = 0x04;
+    static final int FLAG_INCREATION            = 0x08;
+    static final int FLAG_HAS_LOCATION          = 0x10;
+    static final int FLAG_DEVIATING_TIMESTAMP   = 0x20;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int[]    ids;
+    private final int[]    ints;
+    private final long[]   longs;
+    private final int[]    strRefs; // offset and length into strBytes for each string
+    private final byte[]   strBytes;
+    private final String[] strings;
+
+    DcMsgSnapshots(@NonNull int[] ids, @NonNull int[] ints, @NonNull long[] longs, @NonNull int[] strRefs, @NonNull byte[] strBytes) {
+        this.ids      = ids;
+        this.ints     = ints;
+        this.longs    = longs;
+        this.strRefs  = strRefs;
+        this.strBytes = strBytes;
+        this.strings  = new String[ids.length * STRS_PER_MSG];
+    }
+
+    public int getCount() {
+        return ids.length;
+    }
+
+    /**
+     * @return the msg_id at the given index, 0 if the message does not exist (any longer).
+     */
+    public int getId(int index) {
+        return ints[index * INTS_PER_MSG + INT_TYPE] != DcMsg.DC_MSG_UNDEFINED ? ids[index] : 0;
+    }
+
+    public int     getType         (int index)          { return getInt(index, INT_TYPE); }
+    public int     getState        (int index)          { return getInt(index, INT_STATE); }
+    public int     getChatId       (int index)          { return getInt(index, INT_CHAT_ID); }
+    public int     getFromId       (int index)          { return getInt(index, INT_FROM_ID); }
+    public int     getWidth        (int index, int def) { int w = getInt(index, INT_WIDTH); return w != 0 ? w : def; }
+    public int     getHeight       (int index, int def) { int h = getInt(index, INT_HEIGHT); return h != 0 ? h : def; }
+    public int     getDuration     (int index)          { return getInt(index, INT_DURATION); }
+    public boolean isOutgoing      (int index)          { return getFromId(index) == DcContact.DC_CONTACT_ID_SELF; }
+    public boolean isSecure        (int index)          { return getInt(index, INT_SHOW_PADLOCK) != 0; }
+    public boolean isInfo          (int index)          { return hasFlag(index, FLAG_INFO); }
+    public boolean isForwarded     (int index)          { return hasFlag(index, FLAG_FORWARDED); }
+    public boolean isSetupMessage  (int index)          { return hasFlag(index, FLAG_SETUP_MESSAGE); }
+    public boolean isIncreation    (int index)          { return hasFlag(index, FLAG_INCREATION); }
+    public boolean hasLocation     (int index)          { return hasFlag(index, FLAG_HAS_LOCATION); }
+    public boolean hasDeviatingTimestamp(int index)     { return hasFlag(index, FLAG_DEVIATING_TIMESTAMP); }
+    public long    getTimestamp    (int index)          { return longs[index * LONGS_PER_MSG + LONG_TIMESTAMP]; }
+    public long    getSortTimestamp(int index)          { return longs[index * LONGS_PER_MSG + LONG_SORT_TIMESTAMP]; }
+    public long    getFilebytes    (int index)          { return longs[index * LONGS_PER_MSG + LONG_FILEBYTES]; }
+    public String  getText         (int index)          { return getString(index, STR_TEXT); }
+    public String  getFile         (int index)          { return getString(index, STR_FILE); }
+    public String  getFilemime     (int index)          { return getString(index, STR_FILEMIME); }
+    public String  getFilename     (int index)          { return getString(index, STR_FILENAME); }
+
+    private int getInt(int index, int field) {
+        return ints[index * INTS_PER_MSG + field];
+    }
+
+    private boolean hasFlag(int index, int flag) {
+        return (ints[index * INTS_PER_MSG + INT_FLAGS] & flag) != 0;
+    }
+
+    private @NonNull String getString(int index, int field) {
+        int slot = index * STRS_PER_MSG + field;
+        String str = strings[slot];
+        if (str == null) {
+            int length = strRefs[slot * 2 + 1];
+            str = length == 0 ? "" : new String(strBytes, strRefs[slot * 2], length, UTF_8);
+            strings[slot] = str;
+        }
+        return str;
+    }
+}
@@ -26,6 +26,8 @@ import org.thoughtcrime.securesms.util.DynamicLanguage;
 import org.thoughtcrime.securesms.util.DynamicNoActionBarTheme;
 import org.thoughtcrime.securesms.util.DynamicTheme;
 import org.thoughtcrime.securesms.util.ViewUtil;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 
 import java.lang.ref.WeakReference;
 
@@ -97,7 +99,7 @@ public abstract class ContactSelectionActivity extends PassphraseRequiredActionB
 
   @Override
   public void onRefresh() {
-    new RefreshDirectoryTask(this).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, getApplicationContext());
+    new RefreshDirectoryTask(this).executeOnExecutor(BackgroundScheduler.executor(Priority.HOUSEKEEPING), getApplicationContext());
   }
 
   @Override
@@ -18,11 +18,9 @@ package org.thoughtcrime.securesms;
 
 
 import android.Manifest;
-import android.annotation.SuppressLint;
 import android.content.res.Configuration;
 import android.content.res.TypedArray;
 import android.graphics.Color;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import androidx.annotation.NonNull;
@@ -53,7 +51,7 @@ import org.thoughtcrime.securesms.components.RecyclerViewFastScroller;
 import org.thoughtcrime.securesms.connect.ApplicationDcContext;
 import org.thoughtcrime.securesms.connect.DcContactsLoader;
 import org.thoughtcrime.securesms.connect.DcHelper;
-import org.thoughtcrime.securesms.contacts.ContactAccessor;
+import org.thoughtcrime.securesms.contacts.AddressBookSyncJob;
 import org.thoughtcrime.securesms.contacts.ContactSelectionListAdapter;
 import org.thoughtcrime.securesms.contacts.ContactSelectionListItem;
 import org.thoughtcrime.securesms.mms.GlideApp;
@@ -208,7 +206,7 @@ public class ContactSelectionListFragment extends    Fragment
       .setPositiveButton(R.string.delete, (dialogInterface, i) -> {
           ContactSelectionListAdapter adapter = getContactSelectionListAdapter();
           final SparseIntArray actionModeSelection = adapter.getActionModeSelection().clone();
-          new Thread(() -> {
+          Util.runOnBackground(() -> {
             boolean failed = false;
             for (int index = 0; index < actionModeSelection.size(); index++) {
               int contactId = actionModeSelection.valueAt(index);
@@ -220,7 +218,7 @@ public class ContactSelectionListFragment extends    Fragment
                 Toast.makeText(getActivity(), R.string.cannot_delete_contacts_in_use, Toast.LENGTH_LONG).show();
               });
             }
-          }).start();
+          });
           adapter.resetActionModeSelection();
           actionMode.finish();
           })
@@ -324,31 +322,15 @@ public class ContactSelectionListFragment extends    Fragment
     fastScroller.setVisibility(View.GONE);
   }
 
-  @SuppressLint("StaticFieldLeak")
   private void handleContactPermissionGranted() {
-    new AsyncTask<Void, Void, Void>() {
-
-      @Override
-      protected Void doInBackground(Void... voids) {
-        loadSystemContacts();
-        return null;
-      }
-
-    }.execute();
+    loadSystemContacts();
   }
 
   private void loadSystemContacts() {
-    Thread thread = new Thread() {
-      @Override
-      public void run() {
-        ContactAccessor contactAccessor = ContactAccessor.getInstance();
-        String allSystemContacts = contactAccessor.getAllSystemContactsAsString(getContext());
-        if (!allSystemContacts.isEmpty()) {
-          dcContext.addAddressBook(allSystemContacts);
-        }
-      }
-    };
-    thread.start();
+    if (getContext() == null) {
+      return;
+    }
+    AddressBookSyncJob.schedule(getContext(), false);
   }
 
   private class ListClickListener implements ContactSelectionListAdapter.ItemClickListener {
@@ -84,6 +84,7 @@ import org.thoughtcrime.securesms.components.emoji.EmojiDrawer;
 import org.thoughtcrime.securesms.components.reminder.ReminderView;
 import org.thoughtcrime.securesms.connect.ApplicationDcContext;
 import org.thoughtcrime.securesms.connect.DcHelper;
+import org.thoughtcrime.securesms.connect.SendPipeline;
 import org.thoughtcrime.securesms.map.MapActivity;
 import org.thoughtcrime.securesms.mms.AttachmentManager;
 import org.thoughtcrime.securesms.mms.AttachmentManager.MediaType;
@@ -98,7 +99,6 @@ import org.thoughtcrime.securesms.permissions.Permissions;
 import org.thoughtcrime.securesms.providers.PersistentBlobProvider;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.scribbles.ScribbleActivity;
-import org.thoughtcrime.securesms.util.BitmapUtil;
 import org.thoughtcrime.securesms.util.DynamicLanguage;
 import org.thoughtcrime.securesms.util.DynamicTheme;
 import org.thoughtcrime.securesms.util.MediaUtil;
@@ -111,6 +111,8 @@ import org.thoughtcrime.securesms.util.concurrent.AssertedSuccessListener;
 import org.thoughtcrime.securesms.util.concurrent.ListenableFuture;
 import org.thoughtcrime.securesms.util.concurrent.SettableFuture;
 import org.thoughtcrime.securesms.util.views.Stub;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 import org.thoughtcrime.securesms.video.recode.VideoRecoder;
 
 import java.io.File;
@@ -126,7 +128,6 @@ import java.util.concurrent.ExecutionException;
 
 import static org.thoughtcrime.securesms.TransportOption.Type;
 import static org.thoughtcrime.securesms.util.RelayUtil.getForwardedMessageIDs;
-import static org.thoughtcrime.securesms.util.RelayUtil.getSharedUris;
 import static org.thoughtcrime.securesms.util.RelayUtil.isForwarding;
 import static org.thoughtcrime.securesms.util.RelayUtil.isRelayingMessageContent;
 import static org.thoughtcrime.securesms.util.RelayUtil.isSharing;
@@ -641,7 +642,7 @@ public class ConversationActivity extends PassphraseRequiredActionBarActivity
   private void handleForwarding() {
     DcChat dcChat = dcContext.getChat(chatId);
     if (dcChat.isSelfTalk()) {
-      new RelayingTask(this, chatId).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+      new RelayingTask(this, chatId).executeOnExecutor(BackgroundScheduler.executor(Priority.SEND));
     } else {
       String name = dcChat.getName();
       if (!dcChat.isGroup()) {
@@ -652,7 +653,7 @@ public class ConversationActivity extends PassphraseRequiredActionBarActivity
       }
       new AlertDialog.Builder(this)
               .setMessage(getString(R.string.ask_forward, name))
-              .setPositiveButton(R.string.ok, (dialogInterface, i) -> new RelayingTask(this, chatId).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR))
+              .setPositiveButton(R.string.ok, (dialogInterface, i) -> new RelayingTask(this, chatId).executeOnExecutor(BackgroundScheduler.executor(Priority.SEND)))
               .setNegativeButton(R.string.cancel, (dialogInterface, i) -> finish())
               .show();
     }
@@ -670,12 +671,17 @@ public class ConversationActivity extends PassphraseRequiredActionBarActivity
               .setNegativeButton(android.R.string.cancel, ((dialog, which) -> {
                 finish();
               }))
-              .setPositiveButton(R.string.menu_send, (dialog, which) -> new RelayingTask(this, chatId).execute())
+              .setPositiveButton(R.string.menu_send, (dialog, which) -> {
+                setResult(RESULT_OK);
+                dcContext.sendPipeline.sendUris(chatId, uriList, new SharingProgressListener(this));
+              })
               .show();
     } else {
         if (uriList.size() == 1) {
-          DcMsg message = createMessage(this, uriList.get(0));
-          dcContext.setDraft(chatId, message);
+          DcMsg message = SendPipeline.createMessage(this, uriList.get(0));
+          if (message != null) {
+            dcContext.setDraft(chatId, message);
+          }
         }
         initializeDraft().addListener(new AssertedSuccessListener<Boolean>() {
           @Override
@@ -767,7 +773,7 @@ public class ConversationActivity extends PassphraseRequiredActionBarActivity
         updateToggleButtonState();
         future.set(draft!=null);
       }
-    }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }.executeOnExecutor(BackgroundScheduler.executor(Priority.INTERACTIVE));
 
     return future;
   }
@@ -1075,21 +1081,15 @@ public class ConversationActivity extends PassphraseRequiredActionBarActivity
 
           if(msg!=null)
           {
-            boolean doSend = true;
-            if(recompress!=0) {
-              if(recompress==DcMsg.DC_MSG_IMAGE) {
-                BitmapUtil.recodeImageMsg(ConversationActivity.this, msg);
-              }
-              else if(recompress==DcMsg.DC_MSG_VIDEO) {
-                doSend = VideoRecoder.prepareVideo(ConversationActivity.this, dcChat.getId(), msg);
-              }
+            if(msg.getType()!=DcMsg.DC_MSG_TEXT) {
+              // attachments are recoded and sent in order by the pipeline, text messages overtake them
+              dcContext.sendPipeline.sendMsg(dcChat.getId(), msg, recompress,
+                  (chatId, done, failed, total) -> sendComplete(chatId));
             }
-
-            if (doSend) {
+            else {
               dcContext.sendMsg(dcChat.getId(), msg);
+              Util.runOnMain(()-> sendComplete(dcChat.getId()));
             }
-
-            Util.runOnMain(()-> sendComplete(dcChat.getId()));
           }
         }
         else {
@@ -1102,7 +1102,7 @@ public class ConversationActivity extends PassphraseRequiredActionBarActivity
       protected void onPostExecute(Void result) {
         future.set(chatId);
       }
-    }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, msg, recompress);
+    }.executeOnExecutor(BackgroundScheduler.executor(Priority.SEND), msg, recompress);
 
     return future;
   }
@@ -1127,8 +1127,6 @@ public class ConversationActivity extends PassphraseRequiredActionBarActivity
       activity.setResult(RESULT_OK);
       if (isForwarding(activity)) {
         handleForwarding(activity);
-      } else if (isSharing(activity)) {
-        handleSharing(activity);
       }
       return null;
     }
@@ -1139,79 +1137,39 @@ public class ConversationActivity extends PassphraseRequiredActionBarActivity
       dcContext.forwardMsgs(getForwardedMessageIDs(activity), chatId);
     }
 
-    private void handleSharing(Activity activity) {
-      DcContext dcContext = DcHelper.getContext(activity);
-      ArrayList<Uri> uris = getSharedUris(activity);
-      try {
-        for(Uri uri : uris) {
-          DcMsg message = createMessage(activityRef.get(), uri);
-          dcContext.sendMsg(chatId, message);
-          cleanup(activity, uri);
-        }
-      } catch (NullPointerException npe) {
-        Log.w(TAG, "Activity destroyed before background task finished. " +
-                "Cancelling message relaying. " +
-                npe.getMessage());
-      }
-    }
+  }
 
-    private void cleanup(Context context, final @Nullable Uri uri) {
-      if (uri != null && PersistentBlobProvider.isAuthority(context, uri)) {
-        Log.w(TAG, "cleaning up " + uri);
-        PersistentBlobProvider.getInstance(context).delete(context, uri);
-      }
-    }
+  private static class SharingProgressListener implements SendPipeline.Listener {
 
-  }
+    private final WeakReference<Activity> activityRef;
+    private Toast toast;
 
-  private static DcMsg createMessage(Context context, Uri uri) throws NullPointerException {
-    DcContext dcContext = DcHelper.getContext(context);
-    DcMsg message;
-    String mimeType = MediaUtil.getMimeType(context, uri);
-    if (MediaUtil.isImageType(mimeType)) {
-      message = new DcMsg(dcContext, DcMsg.DC_MSG_IMAGE);
-    }
-    else if (MediaUtil.isAudioType(mimeType)) {
-      message = new DcMsg(dcContext,DcMsg.DC_MSG_AUDIO);
-    }
-    else if (MediaUtil.isVideoType(mimeType)) {
-      message = new DcMsg(dcContext, DcMsg.DC_MSG_VIDEO);
-    }
-    else {
-      message = new DcMsg(dcContext, DcMsg.DC_MSG_FILE);
+    SharingProgressListener(Activity activity) {
+      activityRef = new WeakReference<>(activity);
     }
-    message.setFile(getRealPathFromUri(context, uri), mimeType);
-    return message;
-  }
 
-  private static String getRealPathFromUri(Context context, Uri uri) throws NullPointerException {
-    ApplicationDcContext dcContext = DcHelper.getContext(context);
-    try {
-      String filename = uri.getPathSegments().get(2); // Get real file name from Uri
-      String ext = "";
-      int i = filename.lastIndexOf(".");
-      if(i>=0) {
-        ext = filename.substring(i);
-        filename = filename.substring(0, i);
+    @Override
+    public void onProgress(int chatId, int done, int failed, int total) {
+      Activity activity = activityRef.get();
+      if (activity == null || activity.isFinishing()) {
+        return;
       }
-      String path = dcContext.getBlobdirFile(filename, ext);
 
-      // copy content to this file
-      if(path != null) {
-        InputStream inputStream = PartAuthority.getAttachmentStream(context, uri);
-        OutputStream outputStream = new FileOutputStream(path);
-        Util.copy(inputStream, outputStream);
+      if (toast != null) {
+        toast.cancel();
+      }
+      if (done < total) {
+        toast = Toast.makeText(activity, activity.getString(R.string.share_sending_progress, done + 1, total), Toast.LENGTH_SHORT);
+        toast.show();
+      } else {
+        toast = null;
+        if (failed > 0) {
+          Toast.makeText(activity, activity.getString(R.string.share_sending_failed, failed, total), Toast.LENGTH_LONG).show();
+        }
       }
-
-      return path;
-    }
-    catch(Exception e) {
-      e.printStackTrace();
-      return null;
     }
   }
 
-
   protected void sendComplete(int chatId) {
     boolean refreshFragment = (chatId != this.chatId);
     this.chatId = chatId;
@@ -1324,13 +1282,9 @@ public class ConversationActivity extends PassphraseRequiredActionBarActivity
         processComposeControls(ACTION_SEND_OUT, "", slideDeck).addListener(new AssertedSuccessListener<Integer>() {
           @Override
           public void onSuccess(Integer chatId) {
-            new AsyncTask<Void, Void, Void>() {
-              @Override
-              protected Void doInBackground(Void... params) {
-                PersistentBlobProvider.getInstance(ConversationActivity.this).delete(ConversationActivity.this, result.first);
-                return null;
-              }
-            }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            Util.runOnBackground(Priority.HOUSEKEEPING, () -> {
+              PersistentBlobProvider.getInstance(ConversationActivity.this).delete(ConversationActivity.this, result.first);
+            });
           }
         });
       }
@@ -1353,13 +1307,9 @@ public class ConversationActivity extends PassphraseRequiredActionBarActivity
     future.addListener(new ListenableFuture.Listener<Pair<Uri, Long>>() {
       @Override
       public void onSuccess(final Pair<Uri, Long> result) {
-        new AsyncTask<Void, Void, Void>() {
-          @Override
-          protected Void doInBackground(Void... params) {
-            PersistentBlobProvider.getInstance(ConversationActivity.this).delete(ConversationActivity.this, result.first);
-            return null;
-          }
-        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        Util.runOnBackground(Priority.HOUSEKEEPING, () -> {
+          PersistentBlobProvider.getInstance(ConversationActivity.this).delete(ConversationActivity.this, result.first);
+        });
       }
 
       @Override
@@ -1547,6 +1497,8 @@ public class ConversationActivity extends PassphraseRequiredActionBarActivity
   private Menu  searchMenu = null;
   private int[] searchResult = {};
   private int   searchResultPosition = -1;
+  // incremented for each query, a search running for an older query is dropped
+  private volatile int searchGeneration = 0;
 
   private Toast lastToast = null;
 
@@ -1575,6 +1527,7 @@ public class ConversationActivity extends PassphraseRequiredActionBarActivity
   }
 
   private void searchCollapse(final Menu menu, final MenuItem searchItem) {
+    searchGeneration++;
     composePanel.setVisibility(beforeSearchComposeVisibility);
     attachmentManager.setVisibility(beforeSearchAttachVisibility);
 
@@ -1610,9 +1563,32 @@ public class ConversationActivity extends PassphraseRequiredActionBarActivity
       lastToast = null;
     }
 
-    String normQuery = query.trim();
-    searchResult = dcContext.searchMsgs(chatId, normQuery);
+    final String normQuery  = query.trim();
+    final int    generation = ++searchGeneration;
+    if (normQuery.isEmpty()) {
+      onSearchResult(normQuery, new int[0]);
+      return true;
+    }
 
+    // the index may first have to add recent messages, a large chat may also take a while in the core
+    final int searchChatId = chatId;
+    Util.runOnBackground(() -> {
+      if (generation != searchGeneration) {
+        return;
+      }
+      int[] indexed = dcContext.messageIndex.search(searchChatId, normQuery);
+      final int[] result = indexed != null ? indexed : dcContext.searchMsgs(searchChatId, normQuery);
+      Util.runOnMain(() -> {
+        if (generation == searchGeneration && !isFinishing()) {
+          onSearchResult(normQuery, result);
+        }
+      });
+    });
+    return true; // action handled by listener
+  }
+
+  private void onSearchResult(@NonNull String normQuery, @NonNull int[] result) {
+    searchResult = result;
     if(searchResult.length>0) {
       searchResultPosition = 0;
       fragment.scrollToMsgId(searchResult[searchResultPosition]);
@@ -1631,6 +1607,5 @@ public class ConversationActivity extends PassphraseRequiredActionBarActivity
         updateResultCounter(0, 0); // show as "0/0"
       }
     }
-    return true; // action handled by listener
   }
 }
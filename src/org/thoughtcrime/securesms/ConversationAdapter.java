@@ -35,18 +35,16 @@ import org.thoughtcrime.securesms.connect.DcHelper;
 import org.thoughtcrime.securesms.mms.GlideRequests;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.util.DateUtils;
-import org.thoughtcrime.securesms.util.LRUCache;
+import org.thoughtcrime.securesms.util.IdListDiff;
 import org.thoughtcrime.securesms.util.StickyHeaderDecoration;
 import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.util.ViewUtil;
 
-import java.lang.ref.SoftReference;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Set;
 
 /**
@@ -62,10 +60,7 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
   implements StickyHeaderDecoration.StickyHeaderAdapter<HeaderViewHolder>
 {
 
-  private static final int MAX_CACHE_SIZE = 40;
   private static final String TAG = ConversationAdapter.class.getSimpleName();
-  private final Map<Integer,SoftReference<DcMsg>> recordCache =
-      Collections.synchronizedMap(new LRUCache<Integer,SoftReference<DcMsg>>(MAX_CACHE_SIZE));
 
   private static final int MESSAGE_TYPE_OUTGOING           = 0;
   private static final int MESSAGE_TYPE_INCOMING           = 1;
@@ -88,6 +83,7 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
   private final @NonNull  Calendar          calendar;
 
   private ApplicationDcContext dcContext;
+  private ConversationMsgCache msgCache;
   private @NonNull DcChat      dcChat;
   private @NonNull int[]       dcMsgList = new int[0];
   private int                  positionToPulseHighlight = -1;
@@ -157,17 +153,17 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
       return new DcMsg(0);
     }
 
-    final SoftReference<DcMsg> reference = recordCache.get(position);
-    if (reference != null) {
-      final DcMsg fromCache = reference.get();
-      if (fromCache != null) {
-        return fromCache;
-      }
-    }
+    msgCache.prefetchAround(dcMsgList, position, true);
+    return msgCache.get((int)getItemId(position));
+  }
+
+  public void setVisibleItemCount(int visibleItemCount) {
+    msgCache.setVisibleItemCount(visibleItemCount);
+  }
 
-    final DcMsg fromDb = dcContext.getMsg((int)getItemId(position));
-    recordCache.put(position, new SoftReference<>(fromDb));
-    return fromDb;
+  public void logCacheStats() {
+    msgCache.logStats();
+    ConversationBodyCache.getInstance().logStats();
   }
 
   /**
@@ -221,6 +217,8 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
     this.inflater = LayoutInflater.from(context);
     this.calendar = Calendar.getInstance();
     this.dcContext     = DcHelper.getContext(context);
+    this.msgCache      = new ConversationMsgCache(dcContext);
+    this.msgCache.setPrepareBodies(true);
 
     setHasStableIds(true);
   }
@@ -349,15 +347,51 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
   }
 
 
+  /**
+   * Should be called when there are new or deleted messages.
+   * Only the ranges that differ from the previous list are notified,
+   * unchanged items are not rebound and their cached DcMsg objects are kept.
+   */
   public void changeData(@Nullable int[] dcMsgList) {
-    // should be called when there are new messages
-    this.dcMsgList = dcMsgList == null ? new int[0] : dcMsgList;
-    reloadData();
+    final int[] oldList = this.dcMsgList;
+    final int[] newList = dcMsgList == null ? new int[0] : dcMsgList;
+    this.dcMsgList = newList;
+
+    // the adapter shows the list reversed, position 0 is the last message
+    final int[] currentLength = { oldList.length };
+    boolean changed = IdListDiff.dispatch(oldList, newList, new IdListDiff.Callback() {
+      @Override
+      public void onRemoved(int index, int count) {
+        notifyItemRangeRemoved(currentLength[0] - index - count, count);
+        currentLength[0] -= count;
+      }
+
+      @Override
+      public void onInserted(int index, int count) {
+        notifyItemRangeInserted(currentLength[0] - index, count);
+        currentLength[0] += count;
+      }
+    });
+
+    if (changed) {
+      updateLastSeenPosition();
+    }
+  }
+
+  /**
+   * Should be called when a single message has changed, eg. its state.
+   */
+  public void changeMsg(int msgId) {
+    msgCache.remove(msgId);
+    int position = msgIdToPosition(msgId);
+    if (position != -1) {
+      notifyItemChanged(position);
+    }
   }
 
-  private void reloadData() {
+  public void reloadData() {
     // should be called when some items in a message are changed, eg. seen-state
-    recordCache.clear();
+    msgCache.clear();
     updateLastSeenPosition();
     notifyDataSetChanged();
   }
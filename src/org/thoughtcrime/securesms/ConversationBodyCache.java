@@ -0,0 +1,136 @@
+package org.thoughtcrime.securesms;
+
+import android.content.Context;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.URLSpan;
+import android.text.util.Linkify;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thoughtcrime.securesms.components.emoji.EmojiProvider;
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiParser;
+import org.thoughtcrime.securesms.util.LongClickCopySpan;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the message bodies shown by ConversationItem, linkified and with the emojis found in them, keyed by msg_id.
+ *
+ * Linkifying runs several regular expressions over the text and finding the emojis walks the emoji tree,
+ * so both are done once per message and, for messages prefetched by ConversationMsgCache, already on the background thread.
+ * The emoji spans themselves refer to the view showing them, so EmojiTextView creates them from the cached emojis.
+ * An entry is only used for the text it was created from, so a stale entry or one of another account is never shown.
+ * The bodies are not bound to a view and may be set to several views, TextView copies spannable text.
+ */
+class ConversationBodyCache {
+
+  private static final String TAG = ConversationBodyCache.class.getSimpleName();
+
+  private static final int CAPACITY = 200;
+
+  private static final ConversationBodyCache instance = new ConversationBodyCache();
+
+  private final BodyMap bodies = new BodyMap();
+
+  private long hits;
+  private long misses;
+
+  static @NonNull ConversationBodyCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns the body from the cache or creates it if it is not yet cached.
+   */
+  @NonNull Body get(@NonNull Context context, int msgId, @NonNull String text) {
+    synchronized (this) {
+      Body body = bodies.get(msgId);
+      if (body != null && body.text.equals(text)) {
+        hits++;
+        return body;
+      }
+      misses++;
+    }
+
+    Body body = create(context, text);
+    synchronized (this) {
+      bodies.put(msgId, body);
+    }
+    return body;
+  }
+
+  /**
+   * Creates the body unless it is cached already, to be called from a background thread.
+   */
+  void prepare(@NonNull Context context, int msgId, @NonNull String text) {
+    if (text.isEmpty()) {
+      return;
+    }
+    synchronized (this) {
+      Body body = bodies.get(msgId);
+      if (body != null && body.text.equals(text)) {
+        return;
+      }
+    }
+
+    Body body = create(context, text);
+    synchronized (this) {
+      bodies.put(msgId, body);
+    }
+  }
+
+  synchronized void remove(int msgId) {
+    bodies.remove(msgId);
+  }
+
+  synchronized void logStats() {
+    Log.i(TAG, "body cache: size=" + bodies.size() + "/" + CAPACITY + ", hits=" + hits + ", misses=" + misses);
+  }
+
+  private static @NonNull Body create(@NonNull Context context, @NonNull String text) {
+    Spanned linkified = linkify(text);
+    return new Body(text, linkified, EmojiProvider.getInstance(context).getCandidates(linkified));
+  }
+
+  private static @NonNull Spanned linkify(@NonNull String text) {
+    SpannableString messageBody = new SpannableString(text);
+    boolean hasLinks = Linkify.addLinks(messageBody, Linkify.EMAIL_ADDRESSES|Linkify.WEB_URLS|Linkify.PHONE_NUMBERS);
+
+    if (hasLinks) {
+      URLSpan[] urlSpans = messageBody.getSpans(0, messageBody.length(), URLSpan.class);
+      for (URLSpan urlSpan : urlSpans) {
+        int start = messageBody.getSpanStart(urlSpan);
+        int end = messageBody.getSpanEnd(urlSpan);
+        messageBody.setSpan(new LongClickCopySpan(urlSpan.getURL()), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+      }
+    }
+    return messageBody;
+  }
+
+  static class Body {
+    final           String                    text;
+    final           Spanned                   linkified;
+    final @Nullable EmojiParser.CandidateList emojis;
+
+    Body(@NonNull String text, @NonNull Spanned linkified, @Nullable EmojiParser.CandidateList emojis) {
+      this.text      = text;
+      this.linkified = linkified;
+      this.emojis    = emojis;
+    }
+  }
+
+  private static class BodyMap extends LinkedHashMap<Integer, Body> {
+    BodyMap() {
+      super(16, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(@Nullable Map.Entry<Integer, Body> eldest) {
+      return size() > CAPACITY;
+    }
+  }
+}
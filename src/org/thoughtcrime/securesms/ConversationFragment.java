@@ -69,7 +69,11 @@ import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.util.Debouncer;
 import org.thoughtcrime.securesms.util.SaveAttachmentTask;
 import org.thoughtcrime.securesms.util.StickyHeaderDecoration;
+import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.util.ViewUtil;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
+import org.thoughtcrime.securesms.video.recode.VideoRecoder;
 
 import java.util.Collections;
 import java.util.Comparator;
@@ -401,6 +405,9 @@ public class ConversationFragment extends Fragment
                 .setCancelable(true)
                 .setPositiveButton(R.string.delete, (dialog, which) -> {
                     int[] ids = DcMsg.msgSetToIds(messageRecords);
+                    for (int id : ids) {
+                        VideoRecoder.cancel(id);
+                    }
                     dcContext.deleteMsgs(ids);
                     actionMode.finish();
                 })
@@ -453,7 +460,7 @@ public class ConversationFragment extends Fragment
                         SaveAttachmentTask saveTask = new SaveAttachmentTask(getContext());
                         SaveAttachmentTask.Attachment attachment = new SaveAttachmentTask.Attachment(
                                 Uri.fromFile(message.getFileAsFile()), message.getFilemime(), message.getDateReceived(), message.getFilename());
-                        saveTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, attachment);
+                        saveTask.executeOnExecutor(BackgroundScheduler.executor(Priority.MEDIA), attachment);
                         actionMode.finish();
                     })
                     .execute();
@@ -575,10 +582,21 @@ public class ConversationFragment extends Fragment
 //            lastPositionId        = positionId;
 
             markseenDebouncer.publish(() -> manageMessageSeenState());
+
+            ConversationAdapter adapter = getListAdapter();
+            if (adapter != null) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) list.getLayoutManager();
+                int visibleItemCount = layoutManager.findLastVisibleItemPosition() - layoutManager.findFirstVisibleItemPosition() + 1;
+                adapter.setVisibleItemCount(visibleItemCount);
+            }
         }
 
         @Override
         public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+            ConversationAdapter adapter = getListAdapter();
+            if (adapter != null && newState == RecyclerView.SCROLL_STATE_IDLE) {
+                adapter.logCacheStats();
+            }
 //      if (newState == RecyclerView.SCROLL_STATE_DRAGGING) {
 //        conversationDateHeader.show();
 //      } else if (newState == RecyclerView.SCROLL_STATE_IDLE) {
@@ -845,6 +863,23 @@ public class ConversationFragment extends Fragment
             updateLocationButton();
         }
 
+        int eventChatId = Util.objectToInt(data1);
+        int eventMsgId  = Util.objectToInt(data2);
+        if (eventChatId != 0 && eventChatId != chatId) {
+            return; // event belongs to another chat
+        }
+
+        ConversationAdapter adapter = getListAdapter();
+        if (adapter != null && eventMsgId != 0) {
+            if (eventId == DcContext.DC_EVENT_MSG_DELIVERED
+             || eventId == DcContext.DC_EVENT_MSG_FAILED
+             || eventId == DcContext.DC_EVENT_MSG_READ) {
+                // the list of messages is unchanged, only refresh the affected message
+                adapter.changeMsg(eventMsgId);
+                return;
+            }
+        }
+
         // removing the "new message" marker on incoming messages may be a bit unexpected,
         // esp. when a series of message is coming in and after the first, the screen is turned on,
         // the "new message" marker will flash for a short moment and disappear.
@@ -853,5 +888,14 @@ public class ConversationFragment extends Fragment
         }*/
 
         reloadList();
+
+        if (adapter != null && eventId == DcContext.DC_EVENT_MSGS_CHANGED) {
+            if (eventMsgId != 0) {
+                adapter.changeMsg(eventMsgId);
+            } else {
+                // unspecified changes, eg. several messages marked as noticed
+                adapter.reloadData();
+            }
+        }
     }
 }
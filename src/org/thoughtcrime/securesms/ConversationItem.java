@@ -25,11 +25,7 @@ import androidx.annotation.DimenRes;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
-import android.text.SpannableString;
-import android.text.Spanned;
 import android.text.TextUtils;
-import android.text.style.URLSpan;
-import android.text.util.Linkify;
 import android.util.AttributeSet;
 import android.util.TypedValue;
 import android.view.View;
@@ -47,6 +43,7 @@ import org.thoughtcrime.securesms.components.AvatarImageView;
 import org.thoughtcrime.securesms.components.ConversationItemFooter;
 import org.thoughtcrime.securesms.components.ConversationItemThumbnail;
 import org.thoughtcrime.securesms.components.DocumentView;
+import org.thoughtcrime.securesms.components.emoji.EmojiTextView;
 import org.thoughtcrime.securesms.connect.ApplicationDcContext;
 import org.thoughtcrime.securesms.connect.DcHelper;
 import org.thoughtcrime.securesms.mms.AudioSlide;
@@ -56,7 +53,6 @@ import org.thoughtcrime.securesms.mms.Slide;
 import org.thoughtcrime.securesms.mms.SlideClickListener;
 import org.thoughtcrime.securesms.mms.VideoSlide;
 import org.thoughtcrime.securesms.recipients.Recipient;
-import org.thoughtcrime.securesms.util.LongClickCopySpan;
 import org.thoughtcrime.securesms.util.LongClickMovementMethod;
 import org.thoughtcrime.securesms.util.MediaUtil;
 import org.thoughtcrime.securesms.util.Prefs;
@@ -90,7 +86,7 @@ public class ConversationItem extends LinearLayout
   private GlideRequests glideRequests;
 
   protected ViewGroup              bodyBubble;
-  private   TextView               bodyText;
+  private   EmojiTextView          bodyText;
   private   ConversationItemFooter footer;
   private   TextView               groupSender;
   private   View                   groupSenderHolder;
@@ -337,7 +333,13 @@ public class ConversationItem extends LinearLayout
       bodyText.setVisibility(View.GONE);
     }
     else {
-      bodyText.setText(linkifyMessageBody(new SpannableString(text), batchSelected.isEmpty()));
+      if (batchSelected.isEmpty()) {
+        ConversationBodyCache.Body body = ConversationBodyCache.getInstance().get(context, messageRecord.getId(), text);
+        bodyText.setText(body.linkified, body.emojis);
+      } else {
+        // links are not active while messages are selected
+        bodyText.setText(text);
+      }
       bodyText.setVisibility(View.VISIBLE);
     }
 
@@ -500,21 +502,6 @@ public class ConversationItem extends LinearLayout
     }
   }
 
-  private SpannableString linkifyMessageBody(SpannableString messageBody, boolean shouldLinkifyAllLinks) {
-    boolean hasLinks = Linkify.addLinks(messageBody,
-        shouldLinkifyAllLinks ? Linkify.EMAIL_ADDRESSES|Linkify.WEB_URLS|Linkify.PHONE_NUMBERS : 0);
-
-    if (hasLinks) {
-      URLSpan[] urlSpans = messageBody.getSpans(0, messageBody.length(), URLSpan.class);
-      for (URLSpan urlSpan : urlSpans) {
-        int start = messageBody.getSpanStart(urlSpan);
-        int end = messageBody.getSpanEnd(urlSpan);
-        messageBody.setSpan(new LongClickCopySpan(urlSpan.getURL()), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-      }
-    }
-    return messageBody;
-  }
-
   private void setGutterSizes(@NonNull DcMsg current, boolean isGroupThread) {
     if (isGroupThread && current.isOutgoing()) {
       ViewUtil.setLeftMargin(container, readDimen(R.dimen.conversation_group_left_gutter));
@@ -27,10 +27,10 @@ import android.view.ViewGroup;
 
 import com.b44t.messenger.DcChat;
 import com.b44t.messenger.DcChatlist;
-import com.b44t.messenger.DcLot;
 
 import org.thoughtcrime.securesms.connect.ApplicationDcContext;
 import org.thoughtcrime.securesms.connect.DcHelper;
+import org.thoughtcrime.securesms.database.model.ThreadRecord;
 import org.thoughtcrime.securesms.mms.GlideRequests;
 
 import java.util.Collections;
@@ -130,9 +130,8 @@ class ConversationListAdapter extends RecyclerView.Adapter {
   @Override
   public void onBindViewHolder(RecyclerView.ViewHolder viewHolder, int i) {
     ViewHolder holder = (ViewHolder)viewHolder;
-    DcChat chat = dcContext.getChat(dcChatlist.getChatId(i));
-    DcLot summary = dcChatlist.getSummary(i, chat);
-    holder.getItem().bind(dcContext.getThreadRecord(summary, chat), dcChatlist.getMsgId(i), summary, glideRequests, locale, batchSet, batchMode);
+    ThreadRecord thread = dcContext.threadRecordCache.get(dcChatlist, i);
+    holder.getItem().bind(thread, dcChatlist.getMsgId(i), thread.getDcSummary(), glideRequests, locale, batchSet, batchMode);
   }
 
   @Override
@@ -68,6 +68,8 @@ import org.thoughtcrime.securesms.util.ViewUtil;
 import org.thoughtcrime.securesms.util.guava.Optional;
 import org.thoughtcrime.securesms.util.task.SnackbarAsyncTask;
 import org.thoughtcrime.securesms.util.views.ProgressDialog;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 
 import java.util.HashSet;
 import java.util.Locale;
@@ -218,7 +220,7 @@ public class ConversationListFragment extends Fragment
           reminderView.hide();
         }
       }
-    }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, getActivity());
+    }.executeOnExecutor(BackgroundScheduler.executor(Priority.INTERACTIVE), getActivity());
   }
 
   private void initializeListAdapter() {
@@ -289,7 +291,7 @@ public class ConversationListFragment extends Fragment
                   !archive? DcChat.DC_CHAT_VISIBILITY_NORMAL : DcChat.DC_CHAT_VISIBILITY_ARCHIVED);
         }
       }
-    }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }.executeOnExecutor(BackgroundScheduler.executor(Priority.INTERACTIVE));
   }
 
   @SuppressLint("StaticFieldLeak")
@@ -339,7 +341,7 @@ public class ConversationListFragment extends Fragment
               actionMode = null;
             }
           }
-        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }.executeOnExecutor(BackgroundScheduler.executor(Priority.INTERACTIVE));
       }
     });
 
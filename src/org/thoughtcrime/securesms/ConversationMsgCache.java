@@ -0,0 +1,218 @@
+package org.thoughtcrime.securesms;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.b44t.messenger.DcMsg;
+
+import org.thoughtcrime.securesms.connect.ApplicationDcContext;
+import org.thoughtcrime.securesms.util.Util;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Caches the DcMsg objects shown by the ConversationAdapter and the profile galleries, keyed by msg_id.
+ *
+ * The cache is sized to a few screens of messages; messages in scroll direction
+ * are loaded by a background thread before they are bound,
+ * so binding items does normally not need a blocking dcContext.getMsg().
+ * For the ConversationAdapter, the background thread also linkifies the message bodies and finds their emojis.
+ */
+class ConversationMsgCache {
+
+  private static final String TAG = ConversationMsgCache.class.getSimpleName();
+
+  private static final int MIN_CAPACITY = 40;
+  private static final int MIN_PREFETCH = 10;
+
+  private final ApplicationDcContext  dcContext;
+  private final Set<Integer>          prefetchedUnused = new HashSet<>();
+  private final MsgMap                msgs             = new MsgMap();
+  // msg_id -> number of prefetches loading it; ids removed meanwhile stay invalidated until the loads are done
+  private final Map<Integer, Integer> loading          = new HashMap<>();
+  private final Set<Integer>          invalidated      = new HashSet<>();
+
+  private boolean      prepareBodies;
+  private int          capacity         = MIN_CAPACITY;
+  private int          prefetchCount    = MIN_PREFETCH;
+  private volatile int prefetchGeneration = 0;
+
+  private int lastRequestedPosition = -1;
+  private int lastPrefetchPosition  = -1;
+
+  private long hits;
+  private long misses;
+  private long prefetched;
+  private long prefetchWasted;
+
+  ConversationMsgCache(@NonNull ApplicationDcContext dcContext) {
+    this.dcContext = dcContext;
+  }
+
+  /**
+   * Adapts the cache to the number of items visible at the same time.
+   */
+  synchronized void setVisibleItemCount(int visibleItemCount) {
+    capacity      = Math.max(MIN_CAPACITY, visibleItemCount * 5);
+    prefetchCount = Math.max(MIN_PREFETCH, visibleItemCount * 2);
+  }
+
+  /**
+   * Lets prefetching also prepare the bodies in the ConversationBodyCache.
+   */
+  synchronized void setPrepareBodies(boolean prepareBodies) {
+    this.prepareBodies = prepareBodies;
+  }
+
+  /**
+   * Returns the message from the cache or loads it synchronously if it is not yet cached.
+   */
+  @NonNull DcMsg get(int msgId) {
+    synchronized (this) {
+      DcMsg msg = msgs.get(msgId);
+      if (msg != null) {
+        hits++;
+        prefetchedUnused.remove(msgId);
+        return msg;
+      }
+      misses++;
+    }
+
+    DcMsg msg = dcContext.getMsg(msgId);
+    synchronized (this) {
+      msgs.put(msgId, msg);
+    }
+    return msg;
+  }
+
+  /**
+   * Loads the given messages in the background; a new call supersedes unfinished earlier calls.
+   */
+  void prefetch(@NonNull int[] msgIds) {
+    final int generation = ++prefetchGeneration;
+    Util.runOnBackground(Priority.INTERACTIVE, () -> {
+      for (int msgId : msgIds) {
+        if (generation != prefetchGeneration) {
+          return;
+        }
+        synchronized (this) {
+          if (msgs.containsKey(msgId)) {
+            continue;
+          }
+          Integer count = loading.get(msgId);
+          loading.put(msgId, count != null ? count + 1 : 1);
+        }
+        DcMsg   msg = dcContext.getMsg(msgId);
+        boolean prepareBody;
+        synchronized (this) {
+          // a message changed while it was loaded is loaded again when it is bound
+          boolean changed = invalidated.contains(msgId);
+          int     count   = loading.get(msgId) - 1;
+          if (count > 0) {
+            loading.put(msgId, count);
+          } else {
+            loading.remove(msgId);
+            invalidated.remove(msgId);
+          }
+          if (generation != prefetchGeneration) {
+            return;
+          }
+          if (changed) {
+            continue;
+          }
+          if (!msgs.containsKey(msgId)) {
+            msgs.put(msgId, msg);
+            prefetchedUnused.add(msgId);
+            prefetched++;
+          }
+          prepareBody = prepareBodies;
+        }
+        if (prepareBody && !msg.isSetupMessage()) {
+          ConversationBodyCache.getInstance().prepare(dcContext.context, msgId, msg.getText());
+        }
+      }
+    });
+  }
+
+  /**
+   * Loads the messages following `position` in scroll direction in the background;
+   * does nothing if the last prefetch was started close to `position`.
+   *
+   * @param msgIds all msg_ids in display order.
+   */
+  void prefetchAround(@NonNull int[] msgIds, int position) {
+    prefetchAround(msgIds, position, false);
+  }
+
+  /**
+   * @param reversed true if `msgIds` are in reverse display order, as the conversation lists them with the newest last.
+   */
+  void prefetchAround(@NonNull int[] msgIds, int position, boolean reversed) {
+    int count;
+    synchronized (this) {
+      int direction = position >= lastRequestedPosition ? 1 : -1;
+      lastRequestedPosition = position;
+
+      if (msgIds.length == 0 || (lastPrefetchPosition != -1 && Math.abs(position - lastPrefetchPosition) < prefetchCount / 2)) {
+        return;
+      }
+      lastPrefetchPosition = position;
+      count = direction * prefetchCount;
+    }
+
+    int first = Util.clamp(position + Integer.signum(count), 0, msgIds.length - 1);
+    int last  = Util.clamp(position + count, 0, msgIds.length - 1);
+    int[] ids = new int[Math.abs(last - first) + 1];
+    for (int i = 0; i < ids.length; i++) {
+      int index = first + Integer.signum(count) * i;
+      ids[i] = msgIds[reversed ? msgIds.length - 1 - index : index];
+    }
+    prefetch(ids);
+  }
+
+  synchronized void remove(int msgId) {
+    msgs.remove(msgId);
+    prefetchedUnused.remove(msgId);
+    if (loading.containsKey(msgId)) {
+      invalidated.add(msgId);
+    }
+  }
+
+  synchronized void clear() {
+    prefetchGeneration++;
+    prefetchWasted += prefetchedUnused.size();
+    prefetchedUnused.clear();
+    msgs.clear();
+    lastPrefetchPosition = -1;
+  }
+
+  synchronized void logStats() {
+    Log.i(TAG, "msg cache: size=" + msgs.size() + "/" + capacity
+        + ", hits=" + hits + ", misses=" + misses
+        + ", prefetched=" + prefetched + ", prefetch wasted=" + prefetchWasted);
+  }
+
+  private class MsgMap extends LinkedHashMap<Integer, DcMsg> {
+    MsgMap() {
+      super(16, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(@Nullable Map.Entry<Integer, DcMsg> eldest) {
+      if (size() > capacity) {
+        if (eldest != null && prefetchedUnused.remove(eldest.getKey())) {
+          prefetchWasted++;
+        }
+        return true;
+      }
+      return false;
+    }
+  }
+}
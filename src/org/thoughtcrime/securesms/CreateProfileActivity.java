@@ -46,6 +46,8 @@ import org.thoughtcrime.securesms.util.IntentUtils;
 import org.thoughtcrime.securesms.util.Prefs;
 import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.util.ViewUtil;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -282,7 +284,7 @@ public class CreateProfileActivity extends BaseActionBarActivity {
                     .into(avatar);
           }
         }
-      }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+      }.executeOnExecutor(BackgroundScheduler.executor(Priority.INTERACTIVE));
     }
   }
 
@@ -399,7 +401,7 @@ public class CreateProfileActivity extends BaseActionBarActivity {
           Toast.makeText(CreateProfileActivity.this, R.string.error, Toast.LENGTH_LONG).show();
         }
       }
-    }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }.executeOnExecutor(BackgroundScheduler.executor(Priority.INTERACTIVE));
   }
 
   private void setStatusText() {
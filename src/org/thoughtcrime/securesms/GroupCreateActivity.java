@@ -43,6 +43,8 @@ import org.thoughtcrime.securesms.util.ThemeUtil;
 import org.thoughtcrime.securesms.util.ViewUtil;
 import org.thoughtcrime.securesms.util.task.ProgressDialogAsyncTask;
 import org.thoughtcrime.securesms.util.guava.Optional;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -139,7 +141,7 @@ public class GroupCreateActivity extends PassphraseRequiredActionBarActivity
 
   private void addSelectedContacts(@NonNull Recipient... recipients) {
     getAdapter().clear();
-    new AddMembersTask(this).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, recipients);
+    new AddMembersTask(this).executeOnExecutor(BackgroundScheduler.executor(Priority.INTERACTIVE), recipients);
   }
 
   @Override
@@ -238,7 +240,7 @@ public class GroupCreateActivity extends PassphraseRequiredActionBarActivity
   private void initializeExistingGroup() {
     if (groupChatId != 0) {
       getWindow().setSoftInputMode(WindowManager.LayoutParams.SOFT_INPUT_STATE_ALWAYS_HIDDEN);
-      new FillExistingGroupInfoAsyncTask(this).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, groupChatId);
+      new FillExistingGroupInfoAsyncTask(this).executeOnExecutor(BackgroundScheduler.executor(Priority.INTERACTIVE), groupChatId);
     }
   }
 
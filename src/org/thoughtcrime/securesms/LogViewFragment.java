@@ -36,13 +36,15 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.EditText;
 
-import com.b44t.messenger.DcContext;
-
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiPageBitmap;
+import org.thoughtcrime.securesms.connect.ApplicationDcContext;
 import org.thoughtcrime.securesms.connect.DcHelper;
+import org.thoughtcrime.securesms.glide.ThumbnailStore;
 import org.thoughtcrime.securesms.database.NoExternalStorageException;
 import org.thoughtcrime.securesms.util.Prefs;
 import org.thoughtcrime.securesms.util.Scrubber;
 import org.thoughtcrime.securesms.util.StorageUtil;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -250,7 +252,12 @@ public class LogViewFragment extends Fragment {
     }
 
     builder.append("\n");
-    DcContext dcContext = DcHelper.getContext(context);
+    ApplicationDcContext dcContext = DcHelper.getContext(context);
+    builder.append(dcContext.getLoopStats()).append("\n\n");
+    builder.append(dcContext.eventCenter.getStats()).append("\n\n");
+    builder.append(BackgroundScheduler.getStats()).append("\n\n");
+    builder.append(ThumbnailStore.getInstance(context).getStats()).append("\n\n");
+    builder.append(EmojiPageBitmap.getStats()).append("\n\n");
     builder.append(dcContext.getInfo());
 
     return builder.toString();
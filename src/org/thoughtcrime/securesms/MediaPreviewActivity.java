@@ -64,6 +64,8 @@ import org.thoughtcrime.securesms.util.DynamicLanguage;
 import org.thoughtcrime.securesms.util.SaveAttachmentTask;
 import org.thoughtcrime.securesms.util.SaveAttachmentTask.Attachment;
 import org.thoughtcrime.securesms.util.Util;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 
 import java.io.IOException;
 import java.util.WeakHashMap;
@@ -288,7 +290,7 @@ public class MediaPreviewActivity extends PassphraseRequiredActionBarActivity
                    .onAllGranted(() -> {
                      SaveAttachmentTask saveTask = new SaveAttachmentTask(MediaPreviewActivity.this);
                      long saveDate = (mediaItem.date > 0) ? mediaItem.date : System.currentTimeMillis();
-                     saveTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, new Attachment(mediaItem.uri, mediaItem.type, saveDate, null));
+                     saveTask.executeOnExecutor(BackgroundScheduler.executor(Priority.MEDIA), new Attachment(mediaItem.uri, mediaItem.type, saveDate, null));
                    })
                    .execute();
       });
@@ -12,6 +12,7 @@ import com.codewaves.stickyheadergrid.StickyHeaderGridAdapter;
 
 import org.thoughtcrime.securesms.components.AudioView;
 import org.thoughtcrime.securesms.components.DocumentView;
+import org.thoughtcrime.securesms.connect.DcHelper;
 import org.thoughtcrime.securesms.database.loaders.BucketedThreadMediaLoader.BucketedThreadMedia;
 import org.thoughtcrime.securesms.mms.AudioSlide;
 import org.thoughtcrime.securesms.mms.DocumentSlide;
@@ -33,6 +34,7 @@ class ProfileDocumentsAdapter extends StickyHeaderGridAdapter {
   private final Locale              locale;
   private final ItemClickListener   itemClickListener;
   private final Set<DcMsg>          selected;
+  private final ConversationMsgCache msgCache;
 
   private  BucketedThreadMedia media;
 
@@ -68,12 +70,37 @@ class ProfileDocumentsAdapter extends StickyHeaderGridAdapter {
     this.media             = media;
     this.itemClickListener = clickListener;
     this.selected          = new HashSet<>();
+    this.msgCache          = new ConversationMsgCache(DcHelper.getContext(context));
   }
 
   public void setMedia(BucketedThreadMedia media) {
     this.media = media;
   }
 
+  public void setVisibleItemCount(int visibleItemCount) {
+    msgCache.setVisibleItemCount(visibleItemCount);
+  }
+
+  /**
+   * Drops the cached message, so that it is reloaded when bound the next time.
+   *
+   * @param msgId the changed message, 0 if any message may have changed.
+   */
+  public void invalidateMsg(int msgId) {
+    if (msgId == 0) {
+      msgCache.clear();
+    } else {
+      msgCache.remove(msgId);
+    }
+  }
+
+  private @NonNull DcMsg getMsg(int section, int offset) {
+    int[] msgIds   = media.getMsgIds();
+    int   position = media.getPosition(section, offset);
+    msgCache.prefetchAround(msgIds, position);
+    return msgCache.get(msgIds[position]);
+  }
+
   @Override
   public StickyHeaderGridAdapter.HeaderViewHolder onCreateHeaderViewHolder(ViewGroup parent, int headerType) {
     return new HeaderHolder(LayoutInflater.from(context).inflate(R.layout.contact_selection_list_divider, parent, false));
@@ -92,7 +119,7 @@ class ProfileDocumentsAdapter extends StickyHeaderGridAdapter {
   @Override
   public void onBindItemViewHolder(ItemViewHolder itemViewHolder, int section, int offset) {
     ViewHolder    viewHolder        = ((ViewHolder)itemViewHolder);
-    DcMsg         dcMsg             = media.get(section, offset);
+    DcMsg         dcMsg             = getMsg(section, offset);
     Slide         slide             = MediaUtil.getSlideForMsg(context, dcMsg);
 
     if (slide != null && slide.hasAudio()) {
@@ -31,6 +31,7 @@ import com.codewaves.stickyheadergrid.StickyHeaderGridLayoutManager;
 import org.thoughtcrime.securesms.connect.ApplicationDcContext;
 import org.thoughtcrime.securesms.connect.DcHelper;
 import org.thoughtcrime.securesms.database.loaders.BucketedThreadMediaLoader;
+import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.util.ViewUtil;
 import org.thoughtcrime.securesms.util.task.ProgressDialogAsyncTask;
 
@@ -95,7 +96,21 @@ public class ProfileDocumentsFragment
 
   @Override
   public void handleEvent(int eventId, Object data1, Object data2) {
-    getLoaderManager().restartLoader(0, null, this);
+    int eventChatId = Util.objectToInt(data1);
+    int eventMsgId  = Util.objectToInt(data2);
+    if (chatId != 0 && eventChatId != 0 && eventChatId != chatId) {
+      return; // event belongs to another chat
+    }
+
+    if (eventId == DcContext.DC_EVENT_MSGS_CHANGED) {
+      getListAdapter().invalidateMsg(eventMsgId);
+    }
+
+    // the loader only loads the timestamps of new messages
+    Loader<BucketedThreadMediaLoader.BucketedThreadMedia> loader = getLoaderManager().getLoader(0);
+    if (loader != null) {
+      loader.onContentChanged();
+    }
   }
 
   @Override
@@ -11,6 +11,7 @@ import com.b44t.messenger.DcMsg;
 import com.codewaves.stickyheadergrid.StickyHeaderGridAdapter;
 
 import org.thoughtcrime.securesms.components.ThumbnailView;
+import org.thoughtcrime.securesms.connect.DcHelper;
 import org.thoughtcrime.securesms.database.loaders.BucketedThreadMediaLoader.BucketedThreadMedia;
 import org.thoughtcrime.securesms.mms.GlideRequests;
 import org.thoughtcrime.securesms.mms.Slide;
@@ -31,6 +32,7 @@ class ProfileGalleryAdapter extends StickyHeaderGridAdapter {
   private final Locale              locale;
   private final ItemClickListener   itemClickListener;
   private final Set<DcMsg>    selected;
+  private final ConversationMsgCache msgCache;
 
   private  BucketedThreadMedia media;
 
@@ -66,12 +68,37 @@ class ProfileGalleryAdapter extends StickyHeaderGridAdapter {
     this.media             = media;
     this.itemClickListener = clickListener;
     this.selected          = new HashSet<>();
+    this.msgCache          = new ConversationMsgCache(DcHelper.getContext(context));
   }
 
   public void setMedia(BucketedThreadMedia media) {
     this.media = media;
   }
 
+  public void setVisibleItemCount(int visibleItemCount) {
+    msgCache.setVisibleItemCount(visibleItemCount);
+  }
+
+  /**
+   * Drops the cached message, so that it is reloaded when bound the next time.
+   *
+   * @param msgId the changed message, 0 if any message may have changed.
+   */
+  public void invalidateMsg(int msgId) {
+    if (msgId == 0) {
+      msgCache.clear();
+    } else {
+      msgCache.remove(msgId);
+    }
+  }
+
+  private @NonNull DcMsg getMsg(int section, int offset) {
+    int[] msgIds   = media.getMsgIds();
+    int   position = media.getPosition(section, offset);
+    msgCache.prefetchAround(msgIds, position);
+    return msgCache.get(msgIds[position]);
+  }
+
   @Override
   public StickyHeaderGridAdapter.HeaderViewHolder onCreateHeaderViewHolder(ViewGroup parent, int headerType) {
     return new HeaderHolder(LayoutInflater.from(context).inflate(R.layout.contact_selection_list_divider, parent, false));
@@ -89,7 +116,7 @@ class ProfileGalleryAdapter extends StickyHeaderGridAdapter {
 
   @Override
   public void onBindItemViewHolder(ItemViewHolder viewHolder, int section, int offset) {
-    DcMsg         mediaRecord       = media.get(section, offset);
+    DcMsg         mediaRecord       = getMsg(section, offset);
     ThumbnailView thumbnailView     = ((ViewHolder)viewHolder).imageView;
     View          selectedIndicator = ((ViewHolder)viewHolder).selectedIndicator;
     Slide         slide             = MediaUtil.getSlideForMsg(context, mediaRecord);
@@ -33,6 +33,7 @@ import org.thoughtcrime.securesms.connect.DcHelper;
 import org.thoughtcrime.securesms.database.Address;
 import org.thoughtcrime.securesms.database.loaders.BucketedThreadMediaLoader;
 import org.thoughtcrime.securesms.mms.GlideApp;
+import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.util.ViewUtil;
 import org.thoughtcrime.securesms.util.task.ProgressDialogAsyncTask;
 
@@ -82,6 +83,7 @@ public class ProfileGalleryFragment
                                                          new BucketedThreadMediaLoader.BucketedThreadMedia(getContext()),
                                                          locale,
                                                          this));
+    getListAdapter().setVisibleItemCount(getCols() * 6);
     this.recyclerView.setLayoutManager(gridManager);
     this.recyclerView.setHasFixedSize(true);
 
@@ -98,7 +100,21 @@ public class ProfileGalleryFragment
 
   @Override
   public void handleEvent(int eventId, Object data1, Object data2) {
-    getLoaderManager().restartLoader(0, null, this);
+    int eventChatId = Util.objectToInt(data1);
+    int eventMsgId  = Util.objectToInt(data2);
+    if (chatId != 0 && eventChatId != 0 && eventChatId != chatId) {
+      return; // event belongs to another chat
+    }
+
+    if (eventId == DcContext.DC_EVENT_MSGS_CHANGED) {
+      getListAdapter().invalidateMsg(eventMsgId);
+    }
+
+    // the loader only loads the timestamps of new messages
+    Loader<BucketedThreadMediaLoader.BucketedThreadMedia> loader = getLoaderManager().getLoader(0);
+    if (loader != null) {
+      loader.onContentChanged();
+    }
   }
 
   private int getCols() {
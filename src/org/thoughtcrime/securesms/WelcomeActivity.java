@@ -192,6 +192,7 @@ public class WelcomeActivity extends BaseActionBarActivity implements DcEventCen
                 progressUpdate((int)progress);
             }
             else if (progress==1000/*done*/) {
+                dcContext.messageIndex.onBackupImported();
                 progressSuccess(false);
             }
         }
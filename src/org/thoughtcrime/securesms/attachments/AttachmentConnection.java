@@ -0,0 +1,341 @@
+package org.thoughtcrime.securesms.attachments;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thoughtcrime.securesms.mms.PartAuthority;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * A keep-alive connection of the AttachmentServer:
+ * parses the requests and writes the requested range of the attachment
+ * as far as the socket accepts it without blocking.
+ */
+class AttachmentConnection {
+
+  private static final String TAG = AttachmentServer.class.getSimpleName();
+
+  private static final int     MAX_REQUEST_SIZE = 8192;
+  private static final long    MAX_TRANSFER     = 256 * 1024;
+  private static final Charset ISO_8859_1       = Charset.forName("ISO-8859-1");
+
+  private final SocketChannel client;
+  private final ByteBuffer    request = ByteBuffer.allocate(MAX_REQUEST_SIZE);
+
+  private @Nullable ByteBuffer       header;
+  private @Nullable String           path;
+  private @Nullable AttachmentSource source;
+  private long                       position;
+  private long                       end;
+  private boolean                    keepAlive;
+  private long                       lastActivity = System.currentTimeMillis();
+
+  AttachmentConnection(@NonNull SocketChannel client) {
+    this.client = client;
+  }
+
+  boolean isWriting() {
+    return header != null;
+  }
+
+  long getLastActivity() {
+    return lastActivity;
+  }
+
+  /**
+   * @return false if the connection should be closed.
+   */
+  boolean onReadable() throws IOException {
+    lastActivity = System.currentTimeMillis();
+    if (client.read(request) == -1) {
+      return false;
+    }
+    return processRequest();
+  }
+
+  /**
+   * @return false if the connection should be closed.
+   */
+  boolean onWritable() throws IOException {
+    lastActivity = System.currentTimeMillis();
+
+    if (header != null && header.hasRemaining()) {
+      client.write(header);
+      if (header.hasRemaining()) {
+        return true;
+      }
+    }
+
+    if (position < end) {
+      if (AttachmentServer.find(path) == null) {
+        return false; // stopped while streaming
+      }
+      position += source.transferTo(position, Math.min(end - position, MAX_TRANSFER), client);
+      if (position < end) {
+        return true;
+      }
+    }
+
+    // response complete
+    header = null;
+    if (!keepAlive) {
+      return false;
+    }
+    return processRequest(); // there may be a pipelined request already
+  }
+
+  void close() throws IOException {
+    if (source != null) {
+      source.close();
+      source = null;
+    }
+    client.close();
+  }
+
+  private boolean processRequest() throws IOException {
+    int headerEnd = findHeaderEnd(request.array(), request.position());
+    if (headerEnd == 0) {
+      if (!request.hasRemaining()) {
+        Log.w(TAG, "Request too large");
+        return false;
+      }
+      return true; // wait for more data
+    }
+
+    String   head  = new String(request.array(), 0, headerEnd, ISO_8859_1);
+    String[] lines = head.split("\r\n");
+
+    // keep bytes of a following request
+    request.flip();
+    request.position(headerEnd);
+    request.compact();
+
+    String[] requestLine = lines[0].split(" ");
+    if (requestLine.length < 3) {
+      keepAlive = false;
+      return respondError("400 Bad Request");
+    }
+
+    String method  = requestLine[0];
+    String uri     = requestLine[1];
+    String version = requestLine[2];
+    String range   = null;
+    String connection = null;
+    for (int i = 1; i < lines.length; i++) {
+      int colon = lines[i].indexOf(':');
+      if (colon <= 0) continue;
+      String name  = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+      String value = lines[i].substring(colon + 1).trim();
+      if      (name.equals("range"))      range      = value;
+      else if (name.equals("connection")) connection = value.toLowerCase(Locale.ROOT);
+    }
+
+    keepAlive = "HTTP/1.1".equals(version) ? !"close".equals(connection) : "keep-alive".equals(connection);
+
+    int query = uri.indexOf('?');
+    path = query >= 0 ? uri.substring(0, query) : uri;
+
+    AttachmentServer server = AttachmentServer.find(path);
+    if (server == null) {
+      Log.w(TAG, "Bad auth token!");
+      keepAlive = false;
+      return respondError("404 Not Found");
+    }
+
+    boolean isHead = "HEAD".equals(method);
+    if (!"GET".equals(method) && !isHead) {
+      Log.e(TAG, "Only GET is supported: " + method);
+      return respondError("405 Method Not Allowed");
+    }
+
+    if (source == null || source.getAttachment() != server.getAttachment()) {
+      if (source != null) source.close();
+      source = new AttachmentSource(server);
+    }
+
+    long   size        = source.getSize();
+    long[] bounds      = parseRange(range, size);
+    String contentType = server.getAttachment().getContentType();
+
+    StringBuilder builder = new StringBuilder(256);
+    if (bounds == null) {
+      builder.append("HTTP/1.1 416 Range Not Satisfiable\r\n")
+             .append("Content-Range: bytes */").append(size).append("\r\n")
+             .append("Content-Length: 0\r\n");
+      position = end = 0;
+    } else {
+      boolean partial = range != null && (bounds[0] > 0 || bounds[1] < size);
+      builder.append(partial ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n")
+             .append("Content-Type: ").append(contentType).append("\r\n")
+             .append("Accept-Ranges: bytes\r\n")
+             .append("Content-Length: ").append(bounds[1] - bounds[0]).append("\r\n");
+      if (partial) {
+        builder.append("Content-Range: bytes ").append(bounds[0]).append("-").append(bounds[1] - 1).append("/").append(size).append("\r\n");
+      }
+      position = isHead ? bounds[1] : bounds[0];
+      end      = bounds[1];
+    }
+    builder.append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n")
+           .append("\r\n");
+
+    header = ByteBuffer.wrap(builder.toString().getBytes(ISO_8859_1));
+    return true;
+  }
+
+  private boolean respondError(@NonNull String status) {
+    header   = ByteBuffer.wrap(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\n"
+                                + (keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n")
+                                + "\r\n").getBytes(ISO_8859_1));
+    position = end = 0;
+    return true;
+  }
+
+  /**
+   * Parses a Range header; multiple ranges are coalesced to one range covering all of them.
+   *
+   * @return start (inclusive) and end (exclusive) of the body, null if the range cannot be satisfied.
+   */
+  static @Nullable long[] parseRange(@Nullable String range, long size) {
+    if (range == null || !range.startsWith("bytes=")) {
+      return new long[] {0, size};
+    }
+
+    long start = Long.MAX_VALUE;
+    long end   = 0;
+    try {
+      for (String spec : range.substring(6).split(",")) {
+        spec = spec.trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+          return new long[] {0, size}; // malformed, ignore the header
+        }
+
+        long first, last;
+        if (dash == 0) { // suffix range, the last n bytes
+          long suffix = Long.parseLong(spec.substring(1));
+          first = Math.max(0, size - suffix);
+          last  = size - 1;
+          if (suffix == 0) continue;
+        } else {
+          first = Long.parseLong(spec.substring(0, dash));
+          last  = dash == spec.length() - 1 ? size - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), size - 1);
+          if (last < first) return new long[] {0, size};
+        }
+
+        if (first < size) {
+          start = Math.min(start, first);
+          end   = Math.max(end, last + 1);
+        }
+      }
+    } catch (NumberFormatException e) {
+      return new long[] {0, size};
+    }
+
+    return start < end ? new long[] {start, end} : null;
+  }
+
+  /**
+   * @return the index after the empty line separating header from body, 0 if it was not yet received.
+   */
+  private static int findHeaderEnd(final byte[] buf, int length) {
+    for (int i = 0; i + 3 < length; i++) {
+      if (buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r' && buf[i + 3] == '\n') {
+        return i + 4;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * The opened attachment; files are read with a FileChannel,
+   * other streams are reopened when seeking backwards.
+   */
+  private static class AttachmentSource {
+
+    private final AttachmentServer server;
+    private final long             size;
+    private final FileChannel      channel;
+
+    private InputStream stream;
+    private long        streamPosition;
+    private ByteBuffer  pending;
+
+    AttachmentSource(@NonNull AttachmentServer server) throws IOException {
+      this.server = server;
+
+      InputStream inputStream = PartAuthority.getAttachmentStream(server.getContext(), server.getAttachment().getDataUri());
+      if (inputStream instanceof FileInputStream) {
+        this.channel = ((FileInputStream) inputStream).getChannel();
+        this.size    = channel.size();
+      } else {
+        this.channel = null;
+        this.stream  = inputStream;
+        this.size    = server.getAttachment().getSize();
+      }
+    }
+
+    @NonNull Attachment getAttachment() {
+      return server.getAttachment();
+    }
+
+    long getSize() {
+      return size;
+    }
+
+    long transferTo(long position, long count, @NonNull SocketChannel target) throws IOException {
+      if (channel != null) {
+        return channel.transferTo(position, count, target);
+      }
+
+      if (pending == null) {
+        pending = ByteBuffer.allocate(64 * 1024);
+        pending.limit(0);
+      }
+
+      // the pending buffer holds the bytes before streamPosition that were read but not yet written
+      long pendingStart = streamPosition - pending.remaining();
+      if (position >= pendingStart && position < streamPosition) {
+        pending.position(pending.position() + (int) (position - pendingStart));
+      } else {
+        if (stream == null || position < streamPosition) {
+          if (stream != null) stream.close();
+          stream         = PartAuthority.getAttachmentStream(server.getContext(), server.getAttachment().getDataUri());
+          streamPosition = 0;
+        }
+
+        while (streamPosition < position) {
+          long skipped = stream.skip(position - streamPosition);
+          if (skipped <= 0) throw new IOException("cannot seek to " + position);
+          streamPosition += skipped;
+        }
+
+        int read = stream.read(pending.array(), 0, (int) Math.min(count, pending.capacity()));
+        if (read <= 0) throw new IOException("unexpected end of stream at " + position);
+        pending.position(0);
+        pending.limit(read);
+        streamPosition += read;
+      }
+
+      int limit = pending.limit();
+      pending.limit(pending.position() + (int) Math.min(count, pending.remaining()));
+      int written = target.write(pending);
+      pending.limit(limit);
+      return written;
+    }
+
+    void close() throws IOException {
+      if (channel != null) channel.close();
+      if (stream != null) stream.close();
+    }
+  }
+}
@@ -30,6 +30,8 @@ import org.thoughtcrime.securesms.util.MediaUtil;
 import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.util.concurrent.ListenableFuture;
 import org.thoughtcrime.securesms.util.concurrent.SettableFuture;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 
 import java.util.Locale;
 
@@ -271,7 +273,7 @@ public class ThumbnailView extends FrameLayout {
                 .transition(withCrossFade()), new CenterCrop());
             request.into(new GlideDrawableListeningTarget(img, result));
           }
-        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }.executeOnExecutor(BackgroundScheduler.executor(Priority.MEDIA));
       }
       else
       {
@@ -28,6 +28,8 @@ import org.thoughtcrime.securesms.mms.PartAuthority;
 import org.thoughtcrime.securesms.util.BitmapDecodingException;
 import org.thoughtcrime.securesms.util.BitmapUtil;
 import org.thoughtcrime.securesms.util.MediaUtil;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -92,7 +94,7 @@ public class ZoomingImageView extends FrameLayout {
           setSubsamplingImageViewUri(uri);
         }
       }
-    }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }.executeOnExecutor(BackgroundScheduler.executor(Priority.INTERACTIVE));
   }
 
   private void setImageViewUri(@NonNull GlideRequests glideRequests, @NonNull Uri uri) {
@@ -44,6 +44,8 @@ import org.thoughtcrime.securesms.util.BitmapUtil;
 import org.thoughtcrime.securesms.util.Prefs;
 import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.util.guava.Optional;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 
 import java.io.IOException;
 import java.util.Collections;
@@ -450,7 +452,7 @@ public class CameraView extends ViewGroup {
         Log.w(TAG, "previewFormat: " + camera.getParameters().getPreviewFormat());
         Log.w(TAG, "croppingRect: " + croppingRect.toString());
         Log.w(TAG, "rotation: " + rotation);
-        new CaptureTask(previewSize, rotation, croppingRect).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, data);
+        new CaptureTask(previewSize, rotation, croppingRect).executeOnExecutor(BackgroundScheduler.executor(Priority.INTERACTIVE), data);
       }
     });
   }
@@ -491,7 +493,10 @@ public class CameraView extends ViewGroup {
   private static abstract class SerialAsyncTask<Result> extends Job {
 
     public SerialAsyncTask() {
-      super(JobParameters.newBuilder().withGroupId(CameraView.class.getSimpleName()).create());
+      super(JobParameters.newBuilder()
+                         .withGroupId(CameraView.class.getSimpleName())
+                         .withPriority(Priority.INTERACTIVE)
+                         .create());
     }
 
     @Override public void onAdded() {}
@@ -1,7 +1,9 @@
 package org.thoughtcrime.securesms.components.emoji;
 
 import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.ColorFilter;
@@ -19,6 +21,7 @@ import android.util.Log;
 import android.widget.TextView;
 
 import org.thoughtcrime.securesms.R;
+import org.thoughtcrime.securesms.components.emoji.parsing.CompiledEmojiTree;
 import org.thoughtcrime.securesms.components.emoji.parsing.EmojiDrawInfo;
 import org.thoughtcrime.securesms.components.emoji.parsing.EmojiPageBitmap;
 import org.thoughtcrime.securesms.components.emoji.parsing.EmojiParser;
@@ -26,8 +29,12 @@ import org.thoughtcrime.securesms.components.emoji.parsing.EmojiTree;
 import org.thoughtcrime.securesms.util.FutureTaskListener;
 import org.thoughtcrime.securesms.util.Pair;
 import org.thoughtcrime.securesms.util.Util;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 class EmojiProvider {
@@ -36,15 +43,15 @@ class EmojiProvider {
   protected static volatile EmojiProvider instance = null;
   private static final    Paint         paint    = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
 
-  private final EmojiTree emojiTree = new EmojiTree();
+  private static final String TREE_CACHE_FILE = "emoji_tree";
+
+  private final CompiledEmojiTree     emojiTree;
+  private final List<EmojiPageBitmap> pageBitmaps = new ArrayList<>();
 
   private static final int EMOJI_RAW_HEIGHT = 64;
   private static final int EMOJI_RAW_WIDTH  = 64;
-  private static final int EMOJI_VERT_PAD   = 0;
-  private static final int EMOJI_PER_ROW    = 32;
 
   private final float decodeScale;
-  private final float verticalPad;
 
   public static EmojiProvider getInstance(Context context) {
     if (instance == null) {
@@ -59,24 +66,110 @@ class EmojiProvider {
 
   protected EmojiProvider(Context context) {
     this.decodeScale = Math.min(1f, context.getResources().getDimension(R.dimen.emoji_drawer_size) / EMOJI_RAW_HEIGHT);
-    this.verticalPad = EMOJI_VERT_PAD * this.decodeScale;
 
+    List<EmojiDrawInfo> drawInfos = new ArrayList<>();
     for (EmojiPageModel page : EmojiPages.PAGES) {
       if (page.hasSpriteMap()) {
         EmojiPageBitmap pageBitmap = new EmojiPageBitmap(context, page, decodeScale);
+        pageBitmaps.add(pageBitmap);
 
         for (int i=0;i<page.getEmoji().length;i++) {
-          emojiTree.add(page.getEmoji()[i], new EmojiDrawInfo(pageBitmap, i));
+          drawInfos.add(new EmojiDrawInfo(pageBitmap, i));
+        }
+      }
+    }
+    EmojiDrawInfo[] emojis = drawInfos.toArray(new EmojiDrawInfo[0]);
+
+    // the compiled tree is cached, so that it is not built again on each start
+    File              cacheFile = new File(context.getCacheDir(), TREE_CACHE_FILE);
+    int               key       = getEmojiPagesHash();
+    CompiledEmojiTree cached    = CompiledEmojiTree.read(cacheFile, key, emojis);
+
+    if (cached != null) {
+      this.emojiTree = cached;
+    } else {
+      EmojiTree tree  = new EmojiTree();
+      int       index = 0;
+      for (EmojiPageModel page : EmojiPages.PAGES) {
+        if (page.hasSpriteMap()) {
+          for (String emoji : page.getEmoji()) {
+            tree.add(emoji, emojis[index++]);
+          }
+        }
+      }
+
+      for (Pair<String,String> obsolete : EmojiPages.OBSOLETE) {
+        tree.add(obsolete.first(), tree.getEmoji(obsolete.second(), 0, obsolete.second().length()));
+      }
+
+      final CompiledEmojiTree compiled = tree.compile(emojis);
+      this.emojiTree = compiled;
+      Util.runOnBackground(Priority.HOUSEKEEPING, () -> compiled.write(cacheFile, key));
+    }
+
+    context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+      @Override
+      public void onTrimMemory(int level) {
+        trimMemory(level);
+      }
+
+      @Override
+      public void onLowMemory() {
+        trimMemory(TRIM_MEMORY_COMPLETE);
+      }
+
+      @Override
+      public void onConfigurationChanged(@NonNull Configuration newConfig) { }
+    });
+
+    final Context appContext = context.getApplicationContext();
+    Util.runOnBackground(Priority.HOUSEKEEPING, () -> prefetch(new RecentEmojiPageModel(appContext).getEmoji()));
+  }
+
+  private void trimMemory(int level) {
+    EmojiPageBitmap.trimMemory(level);
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+      for (EmojiPageBitmap pageBitmap : pageBitmaps) {
+        pageBitmap.releaseDecoder();
+      }
+    }
+  }
+
+  // the recently used emojis are the most likely ones to be shown, in the drawer as well as in chats
+  private void prefetch(@NonNull String[] emojis) {
+    for (String emoji : emojis) {
+      if (EmojiPageBitmap.isCacheHalfFull()) {
+        break;
+      }
+      EmojiDrawInfo drawInfo = emojiTree.getEmoji(emoji, 0, emoji.length());
+      if (drawInfo != null) {
+        try {
+          drawInfo.getPage().loadTile(EmojiPageBitmap.getTileIndex(drawInfo.getIndex()));
+        } catch (IOException e) {
+          Log.w(TAG, e);
         }
       }
     }
+  }
 
+  // changes whenever an emoji is added, removed or moved
+  private static int getEmojiPagesHash() {
+    int hash = 1;
+    for (EmojiPageModel page : EmojiPages.PAGES) {
+      if (page.hasSpriteMap()) {
+        for (String emoji : page.getEmoji()) {
+          hash = 31 * hash + emoji.hashCode();
+        }
+      }
+    }
     for (Pair<String,String> obsolete : EmojiPages.OBSOLETE) {
-      emojiTree.add(obsolete.first(), emojiTree.getEmoji(obsolete.second(), 0, obsolete.second().length()));
+      hash = 31 * hash + obsolete.first().hashCode();
+      hash = 31 * hash + obsolete.second().hashCode();
     }
+    return hash;
   }
 
-  @Nullable EmojiParser.CandidateList getCandidates(@Nullable CharSequence text) {
+  public @Nullable EmojiParser.CandidateList getCandidates(@Nullable CharSequence text) {
     if (text == null) return null;
     return new EmojiParser(emojiTree).findCandidates(text);
   }
@@ -115,14 +208,15 @@ class EmojiProvider {
     }
 
     final EmojiDrawable drawable = new EmojiDrawable(drawInfo, decodeScale);
+    final int           tile     = EmojiPageBitmap.getTileIndex(drawInfo.getIndex());
     if (background) {
       try {
-        drawable.setBitmap(drawInfo.getPage().loadPage(), background);
+        drawable.setBitmap(drawInfo.getPage().loadTile(tile), background);
       } catch (IOException e) {
         e.printStackTrace();
       }
     } else {
-      drawInfo.getPage().get().addListener(new FutureTaskListener<Bitmap>() {
+      drawInfo.getPage().getTile(tile).addListener(new FutureTaskListener<Bitmap>() {
         @Override public void onSuccess(final Bitmap result) {
           Util.runOnMain(() -> drawable.setBitmap(result));
         }
@@ -140,6 +234,7 @@ class EmojiProvider {
     private       Bitmap        bmp;
     private       float         intrinsicWidth;
     private       float         intrinsicHeight;
+    private final Rect          src = new Rect();
 
     @Override
     public int getIntrinsicWidth() {
@@ -163,16 +258,14 @@ class EmojiProvider {
         return;
       }
 
-      final int row = info.getIndex() / EMOJI_PER_ROW;
-      final int row_index = info.getIndex() % EMOJI_PER_ROW;
+      // the bitmap is the tile of the emoji, a part of a row of the page
+      final int tile_index = info.getIndex() % EmojiPageBitmap.GLYPHS_PER_TILE;
 
-      canvas.drawBitmap(bmp,
-                        new Rect((int)(row_index * intrinsicWidth),
-                                 (int)(row * intrinsicHeight + row * verticalPad)+1,
-                                 (int)(((row_index + 1) * intrinsicWidth)-1),
-                                 (int)((row + 1) * intrinsicHeight + row * verticalPad)-1),
-                        getBounds(),
-                        paint);
+      src.set((int)(tile_index * intrinsicWidth),
+              1,
+              (int)(((tile_index + 1) * intrinsicWidth)-1),
+              (int)intrinsicHeight-1);
+      canvas.drawBitmap(bmp, src, getBounds(), paint);
     }
 
     @TargetApi(VERSION_CODES.HONEYCOMB_MR1)
@@ -7,6 +7,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.widget.TextViewCompat;
 import androidx.appcompat.widget.AppCompatTextView;
+import android.text.Editable;
 import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
 import android.util.AttributeSet;
@@ -24,11 +25,12 @@ public class EmojiTextView extends AppCompatTextView {
   private final boolean scaleEmojis;
   private final boolean createInBackground;
 
-  private CharSequence previousText;
-  private BufferType   previousBufferType;
-  private float        originalFontSize;
-  private boolean      useSystemEmoji;
-  private boolean      sizeChangeInProgress;
+  private CharSequence              previousText;
+  private BufferType                previousBufferType;
+  private EmojiParser.CandidateList previousCandidates;
+  private float                     originalFontSize;
+  private boolean                   useSystemEmoji;
+  private boolean                   sizeChangeInProgress;
 
   public EmojiTextView(Context context) {
     this(context, null);
@@ -52,9 +54,19 @@ public class EmojiTextView extends AppCompatTextView {
   }
 
   @Override public void setText(@Nullable CharSequence text, BufferType type) {
-    EmojiProvider             provider   = EmojiProvider.getInstance(getContext());
-    EmojiParser.CandidateList candidates = provider.getCandidates(text);
+    // eg. a cached message body set again on rebinding is not parsed again
+    boolean reuse = text != null && text == previousText && !(text instanceof Editable);
+    setText(text, type, reuse ? previousCandidates : EmojiProvider.getInstance(getContext()).getCandidates(text));
+  }
+
+  /**
+   * Sets a text whose emojis were found before, eg. a message body from a cache, so it is not parsed again.
+   */
+  public void setText(@Nullable CharSequence text, @Nullable EmojiParser.CandidateList candidates) {
+    setText(text, BufferType.NORMAL, candidates);
+  }
 
+  private void setText(@Nullable CharSequence text, BufferType type, @Nullable EmojiParser.CandidateList candidates) {
     if (scaleEmojis && candidates != null && candidates.allEmojis) {
       int   emojis = candidates.size();
       float scale  = 1.0f;
@@ -75,6 +87,7 @@ public class EmojiTextView extends AppCompatTextView {
 
     previousText       = text;
     previousBufferType = type;
+    previousCandidates = candidates;
     useSystemEmoji     = useSystemEmoji();
 
     if (useSystemEmoji || candidates == null || candidates.size() == 0) {
@@ -82,7 +95,7 @@ public class EmojiTextView extends AppCompatTextView {
       return;
     }
 
-    CharSequence emojified = provider.emojify(candidates, text, this, createInBackground);
+    CharSequence emojified = EmojiProvider.getInstance(getContext()).emojify(candidates, text, this, createInBackground);
     super.setText(emojified, BufferType.SPANNABLE);
 
     // Android fails to ellipsize spannable strings. (https://issuetracker.google.com/issues/36991688)
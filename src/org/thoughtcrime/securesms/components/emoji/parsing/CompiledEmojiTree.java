@@ -0,0 +1,178 @@
+package org.thoughtcrime.securesms.components.emoji.parsing;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An EmojiTree compiled to flat arrays, matching without allocations.
+ *
+ * The nodes are numbered in breadth-first order with the children of a node sorted by their character,
+ * so the children of node n are the nodes childStart[n] to childStart[n+1]-1
+ * and are found by a binary search over nodeChar.
+ * nodeEmoji holds the emoji matched when a sequence ends at the node, considering an omitted TERMINATOR,
+ * as an index into the EmojiDrawInfo array the tree was compiled for.
+ */
+public class CompiledEmojiTree {
+
+  private static final String TAG = CompiledEmojiTree.class.getSimpleName();
+
+  private static final int  FORMAT_VERSION = 1;
+  private static final int  HEADER_INTS    = 5;
+
+  private final int[]           childStart;
+  private final char[]          nodeChar;
+  private final int[]           nodeEmoji;
+  private final EmojiDrawInfo[] emojis;
+
+  CompiledEmojiTree(@NonNull int[] childStart, @NonNull char[] nodeChar, @NonNull int[] nodeEmoji, @NonNull EmojiDrawInfo[] emojis) {
+    this.childStart = childStart;
+    this.nodeChar   = nodeChar;
+    this.nodeEmoji  = nodeEmoji;
+    this.emojis     = emojis;
+  }
+
+  /**
+   * @return the end of the longest emoji starting at startPosition, -1 if there is none.
+   */
+  public int getEmojiEnd(@NonNull CharSequence sequence, int startPosition) {
+    int best   = -1;
+    int node   = 0;
+    int length = sequence.length();
+
+    for (int i = startPosition; i < length; i++) {
+      node = getChild(node, sequence.charAt(i));
+      if (node < 0) {
+        break;
+      }
+      if (nodeEmoji[node] >= 0) {
+        best = i + 1;
+      }
+    }
+
+    return best;
+  }
+
+  public @Nullable EmojiDrawInfo getEmoji(@NonNull CharSequence unicode, int startPosition, int endPosition) {
+    int node = 0;
+
+    for (int i = startPosition; i < endPosition; i++) {
+      node = getChild(node, unicode.charAt(i));
+      if (node < 0) {
+        return null;
+      }
+    }
+
+    return node > 0 && nodeEmoji[node] >= 0 ? emojis[nodeEmoji[node]] : null;
+  }
+
+  private int getChild(int node, char c) {
+    int index = Arrays.binarySearch(nodeChar, childStart[node], childStart[node + 1], c);
+    return index >= 0 ? index : -1;
+  }
+
+  /**
+   * Reads a tree written by write().
+   *
+   * @return null if there is no tree for the given key and number of emojis.
+   */
+  public static @Nullable CompiledEmojiTree read(@NonNull File file, int key, @NonNull EmojiDrawInfo[] emojis) {
+    if (!file.exists()) {
+      return null;
+    }
+
+    try {
+      byte[]      bytes = new byte[(int) file.length()];
+      InputStream input = new FileInputStream(file);
+      try {
+        int read = 0;
+        while (read < bytes.length) {
+          int count = input.read(bytes, read, bytes.length - read);
+          if (count < 0) throw new IOException("unexpected end of " + file);
+          read += count;
+        }
+      } finally {
+        input.close();
+      }
+
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      if (buffer.getInt() != FORMAT_VERSION || buffer.getInt() != key || buffer.getInt() != emojis.length) {
+        return null;
+      }
+
+      int nodeCount = buffer.getInt();
+      int expected  = HEADER_INTS * 4 + (nodeCount + 1) * 4 + nodeCount * 2 + nodeCount * 4;
+      if (buffer.getInt() != expected || bytes.length != expected) {
+        Log.w(TAG, "invalid emoji tree in " + file);
+        return null;
+      }
+
+      int[]  childStart = new int[nodeCount + 1];
+      char[] nodeChar   = new char[nodeCount];
+      int[]  nodeEmoji  = new int[nodeCount];
+
+      buffer.asIntBuffer().get(childStart);
+      buffer.position(buffer.position() + childStart.length * 4);
+      buffer.asCharBuffer().get(nodeChar);
+      buffer.position(buffer.position() + nodeChar.length * 2);
+      buffer.asIntBuffer().get(nodeEmoji);
+
+      for (int emoji : nodeEmoji) {
+        if (emoji >= emojis.length) {
+          Log.w(TAG, "invalid emoji tree in " + file);
+          return null;
+        }
+      }
+
+      return new CompiledEmojiTree(childStart, nodeChar, nodeEmoji, emojis);
+    } catch (IOException | RuntimeException e) {
+      Log.w(TAG, "cannot read emoji tree from " + file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Writes the tree, so that it can be read instead of being compiled again.
+   */
+  @WorkerThread
+  public void write(@NonNull File file, int key) {
+    int        nodeCount = nodeChar.length;
+    int        size      = HEADER_INTS * 4 + (nodeCount + 1) * 4 + nodeCount * 2 + nodeCount * 4;
+    ByteBuffer buffer    = ByteBuffer.allocate(size);
+
+    buffer.putInt(FORMAT_VERSION).putInt(key).putInt(emojis.length).putInt(nodeCount).putInt(size);
+    buffer.asIntBuffer().put(childStart);
+    buffer.position(buffer.position() + childStart.length * 4);
+    buffer.asCharBuffer().put(nodeChar);
+    buffer.position(buffer.position() + nodeChar.length * 2);
+    buffer.asIntBuffer().put(nodeEmoji);
+
+    // written to a temporary file first, so that an incomplete file is never read
+    File temp = new File(file.getPath() + ".tmp");
+    try {
+      OutputStream output = new FileOutputStream(temp);
+      try {
+        output.write(buffer.array());
+      } finally {
+        output.close();
+      }
+      if (!temp.renameTo(file)) {
+        throw new IOException("cannot rename " + temp);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "cannot write emoji tree to " + file, e);
+      temp.delete();
+    }
+  }
+}
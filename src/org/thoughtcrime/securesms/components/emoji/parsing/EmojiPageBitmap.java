@@ -1,100 +1,215 @@
 package org.thoughtcrime.securesms.components.emoji.parsing;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
 import android.os.AsyncTask;
-import androidx.annotation.NonNull;
 import android.util.Log;
+import android.util.LruCache;
+import android.util.SparseArray;
 
-import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
 
 import org.thoughtcrime.securesms.components.emoji.EmojiPageModel;
-import org.thoughtcrime.securesms.mms.GlideApp;
 import org.thoughtcrime.securesms.util.ListenableFutureTask;
 import org.thoughtcrime.securesms.util.Util;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 
 import java.io.IOException;
-import java.lang.ref.SoftReference;
+import java.io.InputStream;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 
+/**
+ * The sprite of an emoji page, decoded in tiles of GLYPHS_PER_TILE emojis of a row.
+ *
+ * Tiles are decoded on demand with a BitmapRegionDecoder and kept in an LRU cache
+ * shared by all pages and bounded in bytes, so only the emojis in use are resident instead of whole pages.
+ */
 public class EmojiPageBitmap {
 
   private static final String TAG = EmojiPageBitmap.class.getName();
 
+  public  static final int GLYPHS_PER_TILE = 8;
+  private static final int GLYPH_RAW_SIZE  = 64;
+  private static final int GLYPHS_PER_ROW  = 32;
+
+  private static final TileCache tiles = new TileCache((int) Math.min(8 * 1024 * 1024, Runtime.getRuntime().maxMemory() / 16));
+  private static       int       nextId;
+
   private final Context        context;
   private final EmojiPageModel model;
   private final float          decodeScale;
+  private final int            id;
 
-  private SoftReference<Bitmap>        bitmapReference;
-  private ListenableFutureTask<Bitmap> task;
+  private final SparseArray<ListenableFutureTask<Bitmap>> tasks = new SparseArray<>();
+  private       BitmapRegionDecoder                       decoder;
 
   public EmojiPageBitmap(@NonNull Context context, @NonNull EmojiPageModel model, float decodeScale) {
     this.context     = context.getApplicationContext();
     this.model       = model;
     this.decodeScale = decodeScale;
+    synchronized (EmojiPageBitmap.class) {
+      this.id = nextId++;
+    }
   }
 
-  public ListenableFutureTask<Bitmap> get() {
+  public static int getTileIndex(int glyphIndex) {
+    return glyphIndex / GLYPHS_PER_TILE;
+  }
+
+  /**
+   * @return the tile, from the cache or decoded in the background.
+   */
+  public ListenableFutureTask<Bitmap> getTile(int tileIndex) {
     Util.assertMainThread();
 
-    if (bitmapReference != null && bitmapReference.get() != null) {
-      return new ListenableFutureTask<>(bitmapReference.get());
-    } else if (task != null) {
+    Bitmap cached = tiles.get(getKey(tileIndex));
+    if (cached != null) {
+      return new ListenableFutureTask<>(cached);
+    }
+
+    ListenableFutureTask<Bitmap> task = tasks.get(tileIndex);
+    if (task != null) {
       return task;
-    } else {
-      Callable<Bitmap> callable = () -> {
-        try {
-          Log.w(TAG, "loading page " + model.getSprite());
-          return loadPage();
-        } catch (IOException ioe) {
-          Log.w(TAG, ioe);
-        }
+    }
+
+    Callable<Bitmap> callable = () -> {
+      try {
+        return decodeTile(tileIndex);
+      } catch (IOException ioe) {
+        Log.w(TAG, ioe);
+      }
+      return null;
+    };
+    final ListenableFutureTask<Bitmap> newTask = new ListenableFutureTask<>(callable);
+    tasks.put(tileIndex, newTask);
+    new AsyncTask<Void, Void, Void>() {
+      @Override protected Void doInBackground(Void... params) {
+        newTask.run();
         return null;
-      };
-      task = new ListenableFutureTask<>(callable);
-      new AsyncTask<Void, Void, Void>() {
-        @Override protected Void doInBackground(Void... params) {
-          task.run();
-          return null;
-        }
+      }
+
+      @Override protected void onPostExecute(Void aVoid) {
+        tasks.remove(tileIndex);
+      }
+    }.executeOnExecutor(BackgroundScheduler.executor(Priority.INTERACTIVE));
+    return newTask;
+  }
+
+  @WorkerThread
+  public Bitmap loadTile(int tileIndex) throws IOException {
+    Bitmap cached = tiles.get(getKey(tileIndex));
+    return cached != null ? cached : decodeTile(tileIndex);
+  }
+
+  private Bitmap decodeTile(int tileIndex) throws IOException {
+    int tilesPerRow = GLYPHS_PER_ROW / GLYPHS_PER_TILE;
+    int left        = (tileIndex % tilesPerRow) * GLYPHS_PER_TILE * GLYPH_RAW_SIZE;
+    int top         = (tileIndex / tilesPerRow) * GLYPH_RAW_SIZE;
+
+    // subsample as far as possible without getting below the scaled size
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inSampleSize = 1;
+    while (decodeScale * options.inSampleSize * 2 <= 1) {
+      options.inSampleSize *= 2;
+    }
 
-        @Override protected void onPostExecute(Void aVoid) {
-          task = null;
+    Bitmap decoded;
+    synchronized (this) {
+      if (decoder == null) {
+        InputStream input = context.getAssets().open(model.getSprite());
+        try {
+          decoder = BitmapRegionDecoder.newInstance(input, false);
+        } finally {
+          input.close();
         }
-      }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+      }
+      Rect region = new Rect(left, top,
+                             Math.min(left + GLYPHS_PER_TILE * GLYPH_RAW_SIZE, decoder.getWidth()),
+                             Math.min(top + GLYPH_RAW_SIZE, decoder.getHeight()));
+      if (region.isEmpty()) {
+        throw new IOException("no tile " + tileIndex + " in " + model.getSprite());
+      }
+      decoded = decoder.decodeRegion(region, options);
+      if (decoded == null) {
+        throw new IOException("cannot decode tile " + tileIndex + " of " + model.getSprite());
+      }
+    }
+
+    int    width  = Math.max(1, (int) (decoded.getWidth()  * options.inSampleSize * decodeScale));
+    int    height = Math.max(1, (int) (decoded.getHeight() * options.inSampleSize * decodeScale));
+    Bitmap tile   = decoded;
+    if (width != decoded.getWidth() || height != decoded.getHeight()) {
+      tile = Bitmap.createScaledBitmap(decoded, width, height, false);
+      decoded.recycle();
+    }
+
+    tiles.put(getKey(tileIndex), tile);
+    return tile;
+  }
+
+  /**
+   * Closes the decoder, it is opened again for the next tile.
+   */
+  public synchronized void releaseDecoder() {
+    if (decoder != null) {
+      decoder.recycle();
+      decoder = null;
     }
-    return task;
   }
 
-  public Bitmap loadPage() throws IOException {
-    if (bitmapReference != null && bitmapReference.get() != null) return bitmapReference.get();
-
-    try {
-      Bitmap originalBitmap = GlideApp.with(context.getApplicationContext())
-                                      .asBitmap()
-                                      .load("file:///android_asset/" + model.getSprite())
-                                      .skipMemoryCache(true)
-                                      .diskCacheStrategy(DiskCacheStrategy.NONE)
-                                      .submit()
-                                      .get();
-
-      Bitmap scaledBitmap = Bitmap.createScaledBitmap(originalBitmap, (int)(originalBitmap.getWidth() * decodeScale), (int)(originalBitmap.getHeight() * decodeScale), false);
-
-      bitmapReference = new SoftReference<>(scaledBitmap);
-      Log.w(TAG, "onPageLoaded(" + model.getSprite() + ")");
-      return scaledBitmap;
-    } catch (InterruptedException e) {
-      Log.w(TAG, e);
-      throw new IOException(e);
-    } catch (ExecutionException e) {
-      Log.w(TAG, e);
-      throw new IOException(e);
+  private long getKey(int tileIndex) {
+    return ((long) id << 32) | tileIndex;
+  }
+
+  /**
+   * @return true if prefetching further tiles would evict tiles that are in use.
+   */
+  public static boolean isCacheHalfFull() {
+    return tiles.size() >= tiles.maxSize() / 2;
+  }
+
+  /**
+   * Shrinks the cache according to a level of ComponentCallbacks2.onTrimMemory().
+   * Evicted tiles are not recycled, they may still be shown by an EmojiDrawable.
+   */
+  public static void trimMemory(int level) {
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+      tiles.evictAll();
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      tiles.trimToSize(tiles.maxSize() / 2);
     }
   }
 
+  public static @NonNull String getStats() {
+    int hits     = tiles.hitCount();
+    int requests = hits + tiles.missCount();
+    return "emoji tiles: resident=" + (tiles.size() / 1024) + "/" + (tiles.maxSize() / 1024) + "kb"
+        + " tiles=" + tiles.snapshot().size()
+        + " hits=" + hits + " misses=" + tiles.missCount()
+        + " hit rate=" + (requests > 0 ? hits * 100 / requests : 0) + "%"
+        + " evicted=" + tiles.evictionCount();
+  }
+
   @Override
   public String toString() {
     return model.getSprite();
   }
+
+  private static class TileCache extends LruCache<Long, Bitmap> {
+
+    TileCache(int maxBytes) {
+      super(maxBytes);
+    }
+
+    @Override
+    protected int sizeOf(@NonNull Long key, @NonNull Bitmap value) {
+      return value.getRowBytes() * value.getHeight();
+    }
+  }
 }
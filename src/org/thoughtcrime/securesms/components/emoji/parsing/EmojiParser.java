@@ -24,30 +24,33 @@ package org.thoughtcrime.securesms.components.emoji.parsing;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
  * Based in part on code from emoji-java
+ *
+ * The text is scanned once, without allocations for text not containing emojis.
  */
 public class EmojiParser {
 
-  private final EmojiTree emojiTree;
+  private final CompiledEmojiTree emojiTree;
 
-  public EmojiParser(EmojiTree emojiTree) {
+  public EmojiParser(CompiledEmojiTree emojiTree) {
     this.emojiTree = emojiTree;
   }
 
   public @NonNull CandidateList findCandidates(@Nullable CharSequence text) {
-    List<Candidate> results = new LinkedList<>();
+    List<Candidate> results = Collections.emptyList();
 
     if (text == null) return new CandidateList(results, false);
 
     boolean allEmojis = text.length() > 0;
 
     for (int i = 0; i < text.length(); i++) {
-      int emojiEnd = getEmojiEndPos(text, i);
+      int emojiEnd = emojiTree.getEmojiEnd(text, i);
 
       if (emojiEnd != -1) {
         EmojiDrawInfo drawInfo = emojiTree.getEmoji(text, i, emojiEnd);
@@ -58,6 +61,9 @@ public class EmojiParser {
           }
         }
 
+        if (results.isEmpty()) {
+          results = new ArrayList<>();
+        }
         results.add(new Candidate(i, emojiEnd, drawInfo));
 
         i = emojiEnd - 1;
@@ -69,22 +75,6 @@ public class EmojiParser {
     return new CandidateList(results, allEmojis);
   }
 
-  private int getEmojiEndPos(CharSequence text, int startPos) {
-    int best = -1;
-
-    for (int j = startPos + 1; j <= text.length(); j++) {
-      EmojiTree.Matches status = emojiTree.isEmoji(text, startPos, j);
-
-      if (status.exactMatch()) {
-        best = j;
-      } else if (status.impossibleMatch()) {
-        return best;
-      }
-    }
-
-    return best;
-  }
-
   public static class Candidate {
 
     private final int           startIndex;
@@ -20,13 +20,20 @@
 
 package org.thoughtcrime.securesms.components.emoji.parsing;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Based in part on code from emoji-java
+ *
+ * The tree is used to collect the emojis, matching is done by the CompiledEmojiTree returned by compile().
  */
 public class EmojiTree {
 
@@ -93,6 +100,57 @@ public class EmojiTree {
   }
 
 
+  /**
+   * @param emojis all EmojiDrawInfo objects added to the tree, the compiled tree refers to them by index.
+   */
+  public @NonNull CompiledEmojiTree compile(@NonNull EmojiDrawInfo[] emojis) {
+    Map<EmojiDrawInfo, Integer> emojiIndex = new IdentityHashMap<>();
+    for (int i = 0; i < emojis.length; i++) {
+      emojiIndex.put(emojis[i], i);
+    }
+
+    // number the nodes in breadth-first order, the children of a node sorted by their character
+    List<EmojiTreeNode> nodes     = new ArrayList<>();
+    List<Character>     chars     = new ArrayList<>();
+    List<Integer>       childFrom = new ArrayList<>();
+    nodes.add(root);
+    chars.add('\0');
+
+    for (int n = 0; n < nodes.size(); n++) {
+      EmojiTreeNode node     = nodes.get(n);
+      Character[]   children = node.children.keySet().toArray(new Character[0]);
+      Arrays.sort(children);
+
+      childFrom.add(nodes.size());
+      for (Character c : children) {
+        nodes.add(node.getChild(c));
+        chars.add(c);
+      }
+    }
+
+    int    nodeCount  = nodes.size();
+    int[]  childStart = new int[nodeCount + 1];
+    char[] nodeChar   = new char[nodeCount];
+    int[]  nodeEmoji  = new int[nodeCount];
+
+    for (int n = 0; n < nodeCount; n++) {
+      EmojiTreeNode node = nodes.get(n);
+      childStart[n] = childFrom.get(n);
+      nodeChar[n]   = chars.get(n);
+
+      // like isEmoji(), a sequence missing the TERMINATOR matches the emoji ending with it
+      EmojiDrawInfo emoji = node.getEmoji();
+      if (emoji == null && n > 0 && nodeChar[n] != TERMINATOR && node.hasChild(TERMINATOR)) {
+        emoji = node.getChild(TERMINATOR).getEmoji();
+      }
+      Integer index = emoji != null ? emojiIndex.get(emoji) : null;
+      nodeEmoji[n] = index != null ? index : -1;
+    }
+    childStart[nodeCount] = nodeCount;
+
+    return new CompiledEmojiTree(childStart, nodeChar, nodeEmoji, emojis);
+  }
+
   private static class EmojiTreeNode {
 
     private Map<Character, EmojiTreeNode> children = new HashMap<>();
@@ -17,6 +17,7 @@ import org.thoughtcrime.securesms.ApplicationContext;
 import org.thoughtcrime.securesms.ConversationListActivity;
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.WelcomeActivity;
+import org.thoughtcrime.securesms.search.index.MessageIndex;
 import org.thoughtcrime.securesms.util.Prefs;
 import org.thoughtcrime.securesms.util.task.ProgressDialogAsyncTask;
 
@@ -98,6 +99,7 @@ public class AccountManager {
         // create an empty DcContext object - this will be set up then, starting with
         // getSelectedAccount()
         ApplicationContext appContext = (ApplicationContext)context.getApplicationContext();
+        appContext.dcContext.messageIndex.close();
         appContext.dcContext.stopThreads();
         appContext.dcContext.close();
         appContext.dcContext = new ApplicationDcContext(context);
@@ -205,6 +207,8 @@ public class AccountManager {
 
             File dbFile = new File(context.getFilesDir(), dbName);
             dbFile.delete();
+            MessageIndex.deleteFiles(dbFile);
+            Prefs.removeAddressBookSyncedTimestamp(context, dbName);
         } catch(Exception e) {
             e.printStackTrace();
         }
@@ -10,6 +10,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
 import androidx.core.content.FileProvider;
@@ -29,9 +30,12 @@ import com.b44t.messenger.DcMsg;
 
 import org.thoughtcrime.securesms.BuildConfig;
 import org.thoughtcrime.securesms.R;
+import org.thoughtcrime.securesms.database.Address;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
 import org.thoughtcrime.securesms.notifications.MessageNotifierCompat;
 import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.recipients.RecipientCache;
+import org.thoughtcrime.securesms.search.index.MessageIndex;
 import org.thoughtcrime.securesms.util.Prefs;
 import org.thoughtcrime.securesms.util.Util;
 
@@ -57,6 +61,8 @@ public class ApplicationDcContext extends DcContext {
   public ApplicationDcContext(Context context) {
     super("Android "+BuildConfig.VERSION_NAME);
     this.context = context;
+    this.recipientCache = new RecipientCache(context, eventCenter);
+    this.sendPipeline = new SendPipeline(context, this);
 
     File dbfile = AccountManager.getInstance().getSelectedAccount(context);
     open(dbfile.getAbsolutePath());
@@ -121,7 +127,10 @@ public class ApplicationDcContext extends DcContext {
       Log.e(TAG, "Cannot create wakeLocks");
     }
 
+    createLoops();
     startThreads(0);
+
+    this.messageIndex = new MessageIndex(this, dbfile);
   }
 
   public void setStockTranslations() {
@@ -282,13 +291,28 @@ public class ApplicationDcContext extends DcContext {
 
   @NonNull
   public Recipient getRecipient(DcChat chat) {
-    return new Recipient(context, chat, null);
+    int chatId = chat.getId();
+    Recipient recipient = chatId!=0? recipientCache.get(Address.fromChat(chatId)) : null;
+    if (recipient == null) {
+      recipient = new Recipient(context, chat, null);
+      if (chatId!=0) {
+        recipient = recipientCache.intern(recipient);
+      }
+    }
+    return recipient;
   }
 
   @NonNull
-
   public Recipient getRecipient(DcContact contact) {
-    return new Recipient(context, null, contact);
+    int contactId = contact.getId();
+    Recipient recipient = contactId!=0? recipientCache.get(Address.fromContact(contactId)) : null;
+    if (recipient == null) {
+      recipient = new Recipient(context, null, contact);
+      if (contactId!=0) {
+        recipient = recipientCache.intern(recipient);
+      }
+    }
+    return recipient;
   }
 
   @NonNull
@@ -317,158 +341,104 @@ public class ApplicationDcContext extends DcContext {
    **********************************************************************************************/
 
   private final Object threadsCritical = new Object();
-  private final Object incLoopsCritical= new Object();
 
-  public Thread imapThread = null;
   private PowerManager.WakeLock imapWakeLock = null;
-  private int inboxLoops = 0;
-
-  public Thread mvboxThread = null;
   private PowerManager.WakeLock mvboxWakeLock = null;
-  private int mvboxLoops = 0;
-
-  public Thread sentboxThread = null;
   private PowerManager.WakeLock sentboxWakeLock = null;
-
-  public Thread smtpThread = null;
   private PowerManager.WakeLock smtpWakeLock = null;
-  private int smtpLoops = 0;
+
+  private DcWorkerLoop imapLoop;
+  private DcWorkerLoop mvboxLoop;
+  private DcWorkerLoop sentboxLoop;
+  private DcWorkerLoop smtpLoop;
 
   public final static int INTERRUPT_IDLE = 0x01; // interrupt idle if the thread is already running
 
+  private static final long STOP_THREADS_TIMEOUT_MS = 60 * 1000;
+
   public boolean run = true;
 
+  private void createLoops() {
+    imapLoop = new DcWorkerLoop("imapThread", Thread.NORM_PRIORITY, imapWakeLock,
+        this::performImapJobs, this::performImapFetch, this::performImapIdle, this::interruptImapIdle);
+    mvboxLoop = new DcWorkerLoop("mvboxThread", Thread.NORM_PRIORITY, mvboxWakeLock,
+        this::performMvboxJobs, this::performMvboxFetch, this::performMvboxIdle, this::interruptMvboxIdle);
+    sentboxLoop = new DcWorkerLoop("sentboxThread", Thread.NORM_PRIORITY-1, sentboxWakeLock,
+        this::performSentboxJobs, this::performSentboxFetch, this::performSentboxIdle, this::interruptSentboxIdle);
+    smtpLoop = new DcWorkerLoop("smtpThread", Thread.MAX_PRIORITY, smtpWakeLock,
+        this::performSmtpJobs, null, this::performSmtpIdle, this::interruptSmtpIdle);
+  }
+
   public void startThreads(int flags) {
     synchronized (threadsCritical) {
-
-      if (imapThread == null || !imapThread.isAlive()) {
-
-        imapThread = new Thread(() -> {
-          Log.i(TAG, "###################### IMAP-Thread started. ######################");
-          while (run) {
-            imapWakeLock.acquire();
-            performImapJobs();
-            performImapFetch();
-            imapWakeLock.release();
-            synchronized (incLoopsCritical) {
-              inboxLoops++;
-            }
-            performImapIdle();
-          }
-          Log.i(TAG, "!!!!!!!!!!!! IMAP-Thread stopped");
-        }, "imapThread");
-        imapThread.setPriority(Thread.NORM_PRIORITY);
-        imapThread.start();
-      } else {
-        if ((flags & INTERRUPT_IDLE) != 0) {
-          interruptImapIdle();
-        }
-      }
-
-
-      if (mvboxThread == null || !mvboxThread.isAlive()) {
-
-        mvboxThread = new Thread(() -> {
-          Log.i(TAG, "###################### MVBOX-Thread started. ######################");
-          while (run) {
-            mvboxWakeLock.acquire();
-            performMvboxJobs();
-            performMvboxFetch();
-            mvboxWakeLock.release();
-            synchronized (incLoopsCritical) {
-              mvboxLoops++;
-            }
-            performMvboxIdle();
-          }
-          Log.i(TAG, "!!!!!!!!!!!! MVBOX-Thread stopped");
-        }, "mvboxThread");
-        mvboxThread.setPriority(Thread.NORM_PRIORITY);
-        mvboxThread.start();
-      } else {
-        if ((flags & INTERRUPT_IDLE) != 0) {
-          interruptMvboxIdle();
-        }
+      if (!run) {
+        return;
       }
 
-
-      if (sentboxThread == null || !sentboxThread.isAlive()) {
-
-        sentboxThread = new Thread(() -> {
-          Log.i(TAG, "###################### SENTBOX-Thread started. ######################");
-          while (run) {
-            sentboxWakeLock.acquire();
-            performSentboxJobs();
-            performSentboxFetch();
-            sentboxWakeLock.release();
-            performSentboxIdle();
-          }
-          Log.i(TAG, "!!!!!!!!!!!! SENTBOX-Thread stopped");
-        }, "sentboxThread");
-        sentboxThread.setPriority(Thread.NORM_PRIORITY-1);
-        sentboxThread.start();
-      } else {
-        if ((flags & INTERRUPT_IDLE) != 0) {
-          interruptSentboxIdle();
+      for (DcWorkerLoop loop : new DcWorkerLoop[]{imapLoop, mvboxLoop, sentboxLoop}) {
+        if (!loop.start() && (flags & INTERRUPT_IDLE) != 0) {
+          loop.interruptIdle();
         }
       }
-
-      if (smtpThread == null || !smtpThread.isAlive()) {
-        smtpThread = new Thread(() -> {
-          Log.i(TAG, "###################### SMTP-Thread started. ######################");
-          while (run) {
-            smtpWakeLock.acquire();
-            performSmtpJobs();
-            smtpWakeLock.release();
-            synchronized (incLoopsCritical) {
-              smtpLoops++;
-            }
-            performSmtpIdle();
-          }
-          Log.i(TAG, "!!!!!!!!!!!! SMTP-Thread stopped");
-        }, "smtpThread");
-        smtpThread.setPriority(Thread.MAX_PRIORITY);
-        smtpThread.start();
-      }
+      smtpLoop.start();
     }
   }
 
-  public void waitForThreadsExecutedOnce() {
-    while(true) {
-      synchronized (incLoopsCritical) {
-        if(inboxLoops>0 && mvboxLoops>0 && smtpLoops>0) {
-          break;
+  /**
+   * Lets the IMAP-, MVBOX- and SMTP-loop run their jobs and fetch once
+   * and waits until this is done; the loops keep running afterwards.
+   *
+   * @return true if all loops completed within the timeout.
+   */
+  public boolean runLoopsOnce(long timeoutMillis) {
+    DcWorkerLoop[] loops = {imapLoop, mvboxLoop, smtpLoop};
+    long[] completedBefore = new long[loops.length];
+    for (int i = 0; i < loops.length; i++) {
+      completedBefore[i] = loops[i].getCompletedLoops();
+    }
+
+    startThreads(INTERRUPT_IDLE);
+    smtpLoop.interruptIdle();
+
+    long deadline = SystemClock.elapsedRealtime() + timeoutMillis;
+    try {
+      for (int i = 0; i < loops.length; i++) {
+        if (!loops[i].awaitCompletedLoops(completedBefore[i] + 1, deadline)) {
+          Log.w(TAG, "loops not completed within " + timeoutMillis + " ms: " + getLoopStats());
+          return false;
         }
       }
-      Util.sleep(500);
+    } catch (InterruptedException e) {
+      Log.w(TAG, "waiting for loops interrupted");
+      return false;
     }
+    return true;
   }
 
   public void stopThreads() {
-    run = false;
     synchronized (threadsCritical) {
-      while (true) {
-
-        // in theory, interrupting once outside the loop should be sufficient,
-        // but there are some corner cases, see https://github.com/deltachat/deltachat-core-rust/issues/925
-        Log.i(TAG, "!!!!!!!!!!!! Stopping threads ...");
-        if (imapThread!=null    && imapThread.isAlive())    { interruptImapIdle(); }
-        if (mvboxThread!=null   && mvboxThread.isAlive())   { interruptMvboxIdle(); }
-        if (sentboxThread!=null && sentboxThread.isAlive()) { interruptSentboxIdle(); }
-        if (smtpThread!=null    && smtpThread.isAlive())    { interruptSmtpIdle(); }
-
-        Util.sleep(300);
-
-        if ( (imapThread==null    || !imapThread.isAlive())
-          && (mvboxThread==null   || !mvboxThread.isAlive())
-          && (sentboxThread==null || !sentboxThread.isAlive())
-          && (smtpThread==null    || !smtpThread.isAlive())) {
-          break;
+      run = false;
+      Log.i(TAG, "!!!!!!!!!!!! Stopping threads ...");
+      try {
+        for (DcWorkerLoop loop : new DcWorkerLoop[]{imapLoop, mvboxLoop, sentboxLoop, smtpLoop}) {
+          if (!loop.stop(STOP_THREADS_TIMEOUT_MS)) {
+            Log.e(TAG, "cannot stop thread: " + loop.getStats());
+          }
         }
+      } catch (InterruptedException e) {
+        Log.w(TAG, "stopping threads interrupted");
       }
     }
     Log.i(TAG, "!!!!!!!!!!!! threads stopped");
   }
 
+  public String getLoopStats() {
+    return imapLoop.getStats() + "\n"
+        + mvboxLoop.getStats() + "\n"
+        + sentboxLoop.getStats() + "\n"
+        + smtpLoop.getStats();
+  }
+
 
   /***********************************************************************************************
    * Tools
@@ -492,6 +462,10 @@ public class ApplicationDcContext extends DcContext {
    **********************************************************************************************/
 
   public DcEventCenter eventCenter = new DcEventCenter();
+  public final ThreadRecordCache threadRecordCache = new ThreadRecordCache(this);
+  public final RecipientCache recipientCache;
+  public final SendPipeline sendPipeline;
+  public final MessageIndex messageIndex;
 
   private final Object lastErrorLock = new Object();
   private String lastErrorString = "";
@@ -556,6 +530,8 @@ public class ApplicationDcContext extends DcContext {
 
   @Override
   public long handleEvent(final int event, long data1, long data2) {
+    threadRecordCache.handleEvent(event, data1, data2);
+
     switch (event) {
       case DC_EVENT_INFO:
         Log.i(TAG, dataToString(data2));
@@ -27,7 +27,11 @@ public class DcChatlistLoader extends AsyncLoader<DcChatlist> {
     public @NonNull
     DcChatlist loadInBackground() {
         try {
-            return DcHelper.getContext(getContext()).getChatlist(listflags, query, queryId);
+            ApplicationDcContext dcContext = DcHelper.getContext(getContext());
+            int loadEpoch = dcContext.threadRecordCache.getEpoch();
+            DcChatlist chatlist = dcContext.getChatlist(listflags, query, queryId);
+            dcContext.threadRecordCache.prebuild(chatlist, loadEpoch);
+            return chatlist;
 
         } catch (Exception e) {
             Log.w(TAG, e);
@@ -0,0 +1,167 @@
+package org.thoughtcrime.securesms.connect;
+
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * One of the worker loops of the core (IMAP, MVBOX, SENTBOX, SMTP):
+ * a thread running jobs, fetch and idle over and over until it is stopped.
+ *
+ * Completed loops are counted and signalled, so that callers can wait
+ * for the next loop to be done instead of polling.
+ * The time spent in jobs, fetch and idle is recorded for the log.
+ */
+class DcWorkerLoop {
+
+  private static final String TAG = ApplicationDcContext.TAG;
+
+  interface Step {
+    void run();
+  }
+
+  private final @NonNull  String                name;
+  private final           int                   priority;
+  private final @Nullable PowerManager.WakeLock wakeLock;
+  private final @Nullable Step                  jobs;
+  private final @Nullable Step                  fetch;
+  private final @NonNull  Step                  idle;
+  private final @NonNull  Step                  interruptIdle;
+
+  private final Object    loopLock = new Object();
+  private volatile Thread thread;
+  private volatile boolean running;
+  private long            completedLoops;
+
+  private long lastJobsMs, totalJobsMs;
+  private long lastFetchMs, totalFetchMs;
+  private long lastIdleMs, totalIdleMs;
+
+  DcWorkerLoop(@NonNull String name, int priority, @Nullable PowerManager.WakeLock wakeLock,
+               @Nullable Step jobs, @Nullable Step fetch, @NonNull Step idle, @NonNull Step interruptIdle) {
+    this.name          = name;
+    this.priority      = priority;
+    this.wakeLock      = wakeLock;
+    this.jobs          = jobs;
+    this.fetch         = fetch;
+    this.idle          = idle;
+    this.interruptIdle = interruptIdle;
+  }
+
+  /**
+   * @return true if a new thread was started, false if the loop is already running.
+   */
+  synchronized boolean start() {
+    if (thread != null && thread.isAlive()) {
+      return false;
+    }
+
+    running = true;
+    thread = new Thread(this::loop, name);
+    thread.setPriority(priority);
+    thread.start();
+    return true;
+  }
+
+  private void loop() {
+    Log.i(TAG, "###################### " + name + " started. ######################");
+    while (running) {
+      if (wakeLock != null) wakeLock.acquire();
+      long start = SystemClock.elapsedRealtime();
+      if (jobs != null) jobs.run();
+      long jobsDone = SystemClock.elapsedRealtime();
+      if (fetch != null) fetch.run();
+      long fetchDone = SystemClock.elapsedRealtime();
+      if (wakeLock != null) wakeLock.release();
+
+      synchronized (loopLock) {
+        lastJobsMs = jobsDone - start;
+        totalJobsMs += lastJobsMs;
+        lastFetchMs = fetchDone - jobsDone;
+        totalFetchMs += lastFetchMs;
+        completedLoops++;
+        loopLock.notifyAll();
+      }
+
+      idle.run();
+
+      synchronized (loopLock) {
+        lastIdleMs = SystemClock.elapsedRealtime() - fetchDone;
+        totalIdleMs += lastIdleMs;
+      }
+    }
+
+    synchronized (loopLock) {
+      loopLock.notifyAll(); // wake up waiters, the loop will not complete any longer
+    }
+    Log.i(TAG, "!!!!!!!!!!!! " + name + " stopped");
+  }
+
+  void interruptIdle() {
+    interruptIdle.run();
+  }
+
+  /**
+   * @return the number of loops that have run jobs and fetch; idle may still be in progress.
+   */
+  long getCompletedLoops() {
+    synchronized (loopLock) {
+      return completedLoops;
+    }
+  }
+
+  /**
+   * Waits until at least `count` loops are completed.
+   *
+   * @param deadline in SystemClock.elapsedRealtime() milliseconds.
+   * @return true if the loops were completed, false on timeout or if the thread is not running.
+   */
+  boolean awaitCompletedLoops(long count, long deadline) throws InterruptedException {
+    synchronized (loopLock) {
+      while (completedLoops < count) {
+        long remaining = deadline - SystemClock.elapsedRealtime();
+        if (remaining <= 0 || !running) {
+          return false;
+        }
+        loopLock.wait(remaining);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Stops the loop and waits for the thread to terminate.
+   *
+   * @return true if the thread has terminated, false on timeout.
+   */
+  boolean stop(long timeoutMillis) throws InterruptedException {
+    running = false;
+    long deadline = SystemClock.elapsedRealtime() + timeoutMillis;
+    Thread t = thread;
+    while (t != null && t.isAlive()) {
+      long remaining = deadline - SystemClock.elapsedRealtime();
+      if (remaining <= 0) {
+        return false;
+      }
+
+      // in theory, interrupting once should be sufficient,
+      // but there are some corner cases, see https://github.com/deltachat/deltachat-core-rust/issues/925
+      interruptIdle.run();
+      t.join(Math.min(remaining, 300));
+    }
+    return true;
+  }
+
+  @NonNull String getStats() {
+    synchronized (loopLock) {
+      long loops = Math.max(completedLoops, 1);
+      return name + ": loops=" + completedLoops
+          + " jobs=" + lastJobsMs + "ms (avg " + (totalJobsMs / loops) + "ms)"
+          + " fetch=" + lastFetchMs + "ms (avg " + (totalFetchMs / loops) + "ms)"
+          + " idle=" + lastIdleMs + "ms (avg " + (totalIdleMs / loops) + "ms)";
+    }
+  }
+}
@@ -8,6 +8,8 @@ import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
 public class FetchWorker extends Worker {
+    private static final long FETCH_TIMEOUT_MS = 3 * 60 * 1000;
+
     private @NonNull Context context;
 
     public FetchWorker(
@@ -26,8 +28,7 @@ public class FetchWorker extends Worker {
 
         Log.i("DeltaChat", "-------------------- FetchWorker.doWork() started --------------------");
         ApplicationDcContext dcContext = DcHelper.getContext(context);
-        dcContext.startThreads(ApplicationDcContext.INTERRUPT_IDLE);
-        dcContext.waitForThreadsExecutedOnce();
+        dcContext.runLoopsOnce(FETCH_TIMEOUT_MS);
         Log.i("DeltaChat", "-------------------- FetchWorker.doWork() done --------------------");
 
         return Result.success(); // when returning, the os may terminate the app again
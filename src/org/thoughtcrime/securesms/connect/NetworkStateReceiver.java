@@ -7,6 +7,9 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.util.Log;
 
+import org.thoughtcrime.securesms.util.Util;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
+
 public class NetworkStateReceiver extends BroadcastReceiver {
 
     @Override
@@ -19,7 +22,7 @@ public class NetworkStateReceiver extends BroadcastReceiver {
             if (ni != null && ni.getState() == NetworkInfo.State.CONNECTED) {
                 Log.i("DeltaChat", "++++++++++++++++++ Connected ++++++++++++++++++");
                 ApplicationDcContext dcContext = DcHelper.getContext(context);
-                new Thread(() -> {
+                Util.runOnBackground(Priority.SEND, () -> {
                     // call dc_maybe_network() from a worker thread.
                     // theoretically, dc_maybe_network() can be called from the main thread and returns at once,
                     // however, in reality, it does currently halt things for some seconds.
@@ -27,7 +30,7 @@ public class NetworkStateReceiver extends BroadcastReceiver {
                     Log.i("DeltaChat", "calling maybeNetwork()");
                     dcContext.maybeNetwork();
                     Log.i("DeltaChat", "maybeNetwork() returned");
-                }).start();
+                });
             }
         }
         catch (Exception e) {
@@ -0,0 +1,313 @@
+package org.thoughtcrime.securesms.connect;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Process;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.b44t.messenger.DcMsg;
+
+import org.thoughtcrime.securesms.mms.PartAuthority;
+import org.thoughtcrime.securesms.providers.PersistentBlobProvider;
+import org.thoughtcrime.securesms.util.ImageRecoder;
+import org.thoughtcrime.securesms.util.MediaUtil;
+import org.thoughtcrime.securesms.util.ThreadUtil;
+import org.thoughtcrime.securesms.util.Util;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
+import org.thoughtcrime.securesms.video.recode.VideoRecoder;
+
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Sends messages with attachments in stages:
+ * shared files are resolved and copied to the blobdir and images are recoded in parallel,
+ * bounded by the number of cores and the memory budget of the ImageRecoder;
+ * the messages are then sent one after the other, in the order they were added to their chat.
+ *
+ * Text messages do not go through the pipeline and overtake pending attachments.
+ * Videos are prepared and recoded only after all preceding messages of the chat are sent,
+ * as VideoRecoder.prepareVideo() puts the message into the chat before recoding.
+ * Recoding takes minutes and may wait for a codec, so videos are sent on threads of their own
+ * and do not hold the MEDIA lane used for images and thumbnails.
+ */
+public class SendPipeline {
+
+  private static final String TAG = SendPipeline.class.getSimpleName();
+
+  // videos of different chats are recoded in parallel, as far as VideoRecoder gets codecs
+  private static final int             MAX_VIDEO_SENDS = 3;
+  private static final ExecutorService videoExecutor   = ThreadUtil.newDynamicThreadPoolExecutor(MAX_VIDEO_SENDS);
+
+  public interface Listener {
+    /**
+     * Called on the main thread each time a message of the batch was sent or has failed.
+     */
+    void onProgress(int chatId, int done, int failed, int total);
+  }
+
+  private enum State {
+    WAITING,
+    PREPARING,
+    PREPARED,
+    FAILED
+  }
+
+  private final Context                       context;
+  private final ApplicationDcContext          dcContext;
+  private final int                           maxPreparing;
+  private final ArrayDeque<Item>              waiting = new ArrayDeque<>();
+  private final SparseArray<ArrayDeque<Item>> chats   = new SparseArray<>();
+  private final SparseBooleanArray            sending = new SparseBooleanArray();
+  private int                                 preparing;
+
+  SendPipeline(@NonNull Context context, @NonNull ApplicationDcContext dcContext) {
+    this.context   = context.getApplicationContext();
+    this.dcContext = dcContext;
+
+    int cores = Runtime.getRuntime().availableProcessors();
+    this.maxPreparing = Util.clamp(cores - 1, 1, 4);
+  }
+
+  /**
+   * Sends the shared files unmodified; the files are removed from the PersistentBlobProvider when sent.
+   */
+  public void sendUris(int chatId, @NonNull List<Uri> uris, @Nullable Listener listener) {
+    Batch batch = new Batch(chatId, uris.size(), listener);
+    synchronized (this) {
+      for (Uri uri : uris) {
+        add(new Item(batch, uri, null, 0));
+      }
+    }
+    schedule(chatId);
+  }
+
+  /**
+   * Sends a message that is already set up, after recoding its file.
+   *
+   * @param recompress DcMsg.DC_MSG_IMAGE, DcMsg.DC_MSG_VIDEO or 0 to send the file unmodified.
+   */
+  public void sendMsg(int chatId, @NonNull DcMsg msg, int recompress, @Nullable Listener listener) {
+    Batch batch = new Batch(chatId, 1, listener);
+    synchronized (this) {
+      add(new Item(batch, null, msg, recompress));
+    }
+    schedule(chatId);
+  }
+
+  /**
+   * @return the number of messages of the chat that are not yet sent.
+   */
+  public synchronized int getPendingCount(int chatId) {
+    ArrayDeque<Item> items = chats.get(chatId);
+    return items != null ? items.size() : 0;
+  }
+
+  private void add(@NonNull Item item) {
+    int chatId = item.batch.chatId;
+    ArrayDeque<Item> items = chats.get(chatId);
+    if (items == null) {
+      items = new ArrayDeque<>();
+      chats.put(chatId, items);
+    }
+    items.add(item);
+
+    if (!item.isVideo()) {
+      waiting.add(item);
+    }
+  }
+
+  private synchronized void schedule(int chatId) {
+    while (preparing < maxPreparing && !waiting.isEmpty()) {
+      Item item = waiting.poll();
+      item.state = State.PREPARING;
+      preparing++;
+      Util.runOnBackground(Priority.MEDIA, () -> prepare(item));
+    }
+
+    ArrayDeque<Item> items = chats.get(chatId);
+    Item head = items != null ? items.peek() : null;
+    if (head != null && head.isReadyToSend() && !sending.get(chatId)) {
+      sending.put(chatId, true);
+      if (head.isVideo()) {
+        videoExecutor.execute(() -> {
+          Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+          send(chatId, head);
+        });
+      } else {
+        Util.runOnBackground(Priority.SEND, () -> send(chatId, head));
+      }
+    }
+  }
+
+  // stage 1: resolve the uri, copy the file to the blobdir and recode images
+  private void prepare(@NonNull Item item) {
+    boolean prepared = false;
+    try {
+      if (item.msg == null) {
+        item.msg = createMessage(context, item.uri);
+      }
+      if (item.msg != null) {
+        if (item.recompress == DcMsg.DC_MSG_IMAGE) {
+          ImageRecoder.recodeImageMsg(context, item.msg);
+        }
+        prepared = true;
+      }
+    } catch (Exception e) {
+      Log.w(TAG, "cannot prepare " + item.uri, e);
+    }
+
+    synchronized (this) {
+      preparing--;
+      item.state = prepared ? State.PREPARED : State.FAILED;
+    }
+    schedule(item.batch.chatId);
+  }
+
+  // stage 2: send the messages of a chat in order; videos are recoded here
+  private void send(int chatId, @NonNull Item item) {
+    boolean sent = false;
+    if (item.state != State.FAILED) {
+      try {
+        boolean doSend = true;
+        if (item.isVideo()) {
+          doSend = VideoRecoder.prepareVideo(context, chatId, item.msg);
+        }
+        if (doSend) {
+          sent = dcContext.sendMsg(chatId, item.msg) != 0;
+        }
+      } catch (Exception e) {
+        Log.w(TAG, "cannot send " + item.uri, e);
+      }
+    }
+    cleanup(item.uri);
+
+    Batch batch = item.batch;
+    synchronized (this) {
+      chats.get(chatId).poll();
+      if (chats.get(chatId).isEmpty()) {
+        chats.remove(chatId);
+      }
+      sending.delete(chatId);
+      batch.done++;
+      if (!sent) batch.failed++;
+    }
+
+    if (batch.listener != null) {
+      int done = batch.done, failed = batch.failed;
+      Util.runOnMain(() -> batch.listener.onProgress(chatId, done, failed, batch.total));
+    }
+    schedule(chatId);
+  }
+
+  private void cleanup(final @Nullable Uri uri) {
+    if (uri != null && PersistentBlobProvider.isAuthority(context, uri)) {
+      Log.w(TAG, "cleaning up " + uri);
+      PersistentBlobProvider.getInstance(context).delete(context, uri);
+    }
+  }
+
+  /**
+   * Creates a message for the file of the given uri, the file is copied to the blobdir.
+   *
+   * @return the message or null if the file cannot be copied.
+   */
+  public static @Nullable DcMsg createMessage(@NonNull Context context, @NonNull Uri uri) {
+    ApplicationDcContext dcContext = DcHelper.getContext(context);
+    DcMsg message;
+    String mimeType = MediaUtil.getMimeType(context, uri);
+    if (MediaUtil.isImageType(mimeType)) {
+      message = new DcMsg(dcContext, DcMsg.DC_MSG_IMAGE);
+    }
+    else if (MediaUtil.isAudioType(mimeType)) {
+      message = new DcMsg(dcContext,DcMsg.DC_MSG_AUDIO);
+    }
+    else if (MediaUtil.isVideoType(mimeType)) {
+      message = new DcMsg(dcContext, DcMsg.DC_MSG_VIDEO);
+    }
+    else {
+      message = new DcMsg(dcContext, DcMsg.DC_MSG_FILE);
+    }
+
+    String path = copyToBlobdir(context, uri);
+    if (path == null) {
+      return null;
+    }
+    message.setFile(path, mimeType);
+    return message;
+  }
+
+  private static @Nullable String copyToBlobdir(Context context, Uri uri) {
+    ApplicationDcContext dcContext = DcHelper.getContext(context);
+    try {
+      String filename = uri.getPathSegments().get(2); // Get real file name from Uri
+      String ext = "";
+      int i = filename.lastIndexOf(".");
+      if(i>=0) {
+        ext = filename.substring(i);
+        filename = filename.substring(0, i);
+      }
+      String path = dcContext.getBlobdirFile(filename, ext);
+
+      // copy content to this file
+      if(path != null) {
+        InputStream inputStream = PartAuthority.getAttachmentStream(context, uri);
+        OutputStream outputStream = new FileOutputStream(path);
+        Util.copy(inputStream, outputStream);
+      }
+
+      return path;
+    }
+    catch(Exception e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  private static class Batch {
+    final int                chatId;
+    final int                total;
+    final @Nullable Listener listener;
+    int                      done;
+    int                      failed;
+
+    Batch(int chatId, int total, @Nullable Listener listener) {
+      this.chatId   = chatId;
+      this.total    = total;
+      this.listener = listener;
+    }
+  }
+
+  private static class Item {
+    final Batch     batch;
+    final Uri       uri;
+    final int       recompress;
+    DcMsg           msg;
+    State           state = State.WAITING;
+
+    Item(Batch batch, @Nullable Uri uri, @Nullable DcMsg msg, int recompress) {
+      this.batch      = batch;
+      this.uri        = uri;
+      this.msg        = msg;
+      this.recompress = recompress;
+    }
+
+    boolean isVideo() {
+      return recompress == DcMsg.DC_MSG_VIDEO;
+    }
+
+    // videos are prepared when sending, failed items are just reported
+    boolean isReadyToSend() {
+      return state == State.PREPARED || state == State.FAILED || (state == State.WAITING && isVideo());
+    }
+  }
+}
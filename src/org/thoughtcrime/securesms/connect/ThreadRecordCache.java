@@ -0,0 +1,155 @@
+package org.thoughtcrime.securesms.connect;
+
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import androidx.annotation.NonNull;
+
+import com.b44t.messenger.DcChat;
+import com.b44t.messenger.DcChatlist;
+import com.b44t.messenger.DcContext;
+import com.b44t.messenger.DcLot;
+
+import org.thoughtcrime.securesms.database.model.ThreadRecord;
+import org.thoughtcrime.securesms.util.Util;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
+
+import java.util.WeakHashMap;
+
+/**
+ * Caches the ThreadRecord of each chat shown in the chatlist, keyed by chat_id.
+ *
+ * Building a ThreadRecord needs several database queries and a new Recipient;
+ * the records are built in the background when a chatlist is loaded
+ * so that binding the chatlist items is a pure memory read.
+ * Records are invalidated per chat by the core events that affect them;
+ * this is done from ApplicationDcContext.handleEvent() before the events are passed to the observers,
+ * so that observers reloading the chatlist never get outdated records.
+ */
+public class ThreadRecordCache {
+
+  // number of records built before a loaded chatlist is shown, the remaining ones are built afterwards
+  private static final int PREBUILD_SYNC_COUNT = 30;
+
+  private final ApplicationDcContext      dcContext;
+  private final SparseArray<ThreadRecord> records       = new SparseArray<>();
+  private final SparseIntArray            invalidatedAt = new SparseIntArray();
+  private int                             allInvalidatedAt;
+  private int                             epoch;
+  private volatile DcChatlist             prebuildingChatlist;
+
+  // the epoch at which each chatlist was loaded, records are built from the chatlist's summaries
+  // and must not be cached if the chat was invalidated after the chatlist was loaded
+  private final WeakHashMap<DcChatlist, Integer> chatlistEpochs = new WeakHashMap<>();
+
+  ThreadRecordCache(@NonNull ApplicationDcContext dcContext) {
+    this.dcContext = dcContext;
+  }
+
+  /**
+   * Returns the record for the chat at the given index of the chatlist,
+   * the record is built if it is not yet cached.
+   */
+  public @NonNull ThreadRecord get(@NonNull DcChatlist chatlist, int index) {
+    int chatId = chatlist.getChatId(index);
+    int startEpoch;
+    synchronized (this) {
+      ThreadRecord record = records.get(chatId);
+      if (record != null) {
+        return record;
+      }
+      Integer chatlistEpoch = chatlistEpochs.get(chatlist);
+      startEpoch = chatlistEpoch != null ? chatlistEpoch : -1;
+    }
+
+    ThreadRecord record = build(chatlist, index);
+    put(chatId, record, startEpoch);
+    return record;
+  }
+
+  /**
+   * Returns the current epoch, to be passed to prebuild() for a chatlist loaded afterwards.
+   */
+  public synchronized int getEpoch() {
+    return epoch;
+  }
+
+  /**
+   * Builds the missing records of a newly loaded chatlist.
+   * The first records are built immediately, the remaining ones on a background thread.
+   * Should not be called from the main thread.
+   */
+  public void prebuild(@NonNull DcChatlist chatlist, int loadEpoch) {
+    synchronized (this) {
+      chatlistEpochs.put(chatlist, loadEpoch);
+    }
+    prebuildingChatlist = chatlist;
+    int cnt = chatlist.getCnt();
+    int syncCnt = Math.min(cnt, PREBUILD_SYNC_COUNT);
+    for (int i = 0; i < syncCnt; i++) {
+      get(chatlist, i);
+    }
+
+    if (cnt > syncCnt) {
+      Util.runOnBackground(Priority.HOUSEKEEPING, () -> {
+        for (int i = syncCnt; i < cnt; i++) {
+          if (prebuildingChatlist != chatlist) {
+            return; // a newer chatlist was loaded in between
+          }
+          get(chatlist, i);
+        }
+      });
+    }
+  }
+
+  public synchronized void invalidate(int chatId) {
+    epoch++;
+    records.remove(chatId);
+    invalidatedAt.put(chatId, epoch);
+  }
+
+  public synchronized void invalidateAll() {
+    epoch++;
+    records.clear();
+    invalidatedAt.clear();
+    allInvalidatedAt = epoch;
+  }
+
+  private synchronized void put(int chatId, @NonNull ThreadRecord record, int startEpoch) {
+    // do not cache records that were invalidated while being built
+    if (startEpoch >= 0 && startEpoch >= allInvalidatedAt && startEpoch >= invalidatedAt.get(chatId, 0)) {
+      records.put(chatId, record);
+    }
+  }
+
+  private @NonNull ThreadRecord build(@NonNull DcChatlist chatlist, int index) {
+    DcChat chat = dcContext.getChat(chatlist.getChatId(index));
+    DcLot summary = chatlist.getSummary(index, chat);
+    return dcContext.getThreadRecord(summary, chat);
+  }
+
+  void handleEvent(int event, long data1, long data2) {
+    switch (event) {
+      case DcContext.DC_EVENT_CONTACTS_CHANGED:
+        invalidateAll();
+        break;
+
+      case DcContext.DC_EVENT_CHAT_MODIFIED:
+      case DcContext.DC_EVENT_INCOMING_MSG:
+      case DcContext.DC_EVENT_MSGS_CHANGED:
+      case DcContext.DC_EVENT_MSG_DELIVERED:
+      case DcContext.DC_EVENT_MSG_FAILED:
+      case DcContext.DC_EVENT_MSG_READ:
+        if (data1 == 0) {
+          invalidateAll();
+        } else {
+          invalidate((int) data1);
+          // the deaddrop and the link to the archived chats summarize several chats;
+          // they are single records, so they are rebuilt instead of checking whether the chat belongs to them
+          invalidate(DcChat.DC_CHAT_ID_DEADDROP);
+          invalidate(DcChat.DC_CHAT_ID_ARCHIVED_LINK);
+        }
+        break;
+    }
+  }
+}
@@ -0,0 +1,233 @@
+package org.thoughtcrime.securesms.contacts;
+
+import android.Manifest;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Build;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.b44t.messenger.DcContext;
+
+import org.thoughtcrime.securesms.ApplicationContext;
+import org.thoughtcrime.securesms.connect.AccountManager;
+import org.thoughtcrime.securesms.connect.DcHelper;
+import org.thoughtcrime.securesms.jobmanager.ContextDependent;
+import org.thoughtcrime.securesms.jobmanager.Job;
+import org.thoughtcrime.securesms.jobmanager.JobParameters;
+import org.thoughtcrime.securesms.permissions.Permissions;
+import org.thoughtcrime.securesms.util.Prefs;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Adds the system contacts changed since the last sync to the address book of the current account
+ * and updates the ContactPhotoIndex.
+ *
+ * The time of the newest change seen is kept in the preferences per account,
+ * so a new account gets the whole address book and later syncs only read the contacts changed or deleted since.
+ * The contacts are passed to the core in chunks, so that a large address book is never held as a single string.
+ * Devices before Android 4.3 do not track changes and always sync the whole address book.
+ *
+ * Syncs run one at a time; further requests while a sync is queued are merged into it.
+ * A queued sync is persisted, so that it still runs if the app is stopped before.
+ */
+public class AddressBookSyncJob extends Job implements ContextDependent {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final String TAG = AddressBookSyncJob.class.getSimpleName();
+
+  private static final int CHUNK_SIZE = 250;
+
+  private static final AtomicBoolean queued        = new AtomicBoolean(false);
+  private static final AtomicBoolean fullRequested = new AtomicBoolean(false);
+
+  private transient Context context;
+
+  // set for full syncs requested before the job was persisted, the static flag does not survive a restart
+  private final boolean full;
+
+  private AddressBookSyncJob(@NonNull Context context, boolean full) {
+    super(JobParameters.newBuilder()
+                       .withGroupId(AddressBookSyncJob.class.getSimpleName())
+                       .withPriority(Priority.HOUSEKEEPING)
+                       .withRetryCount(1)
+                       .withPersistence()
+                       .create());
+    this.context = context;
+    this.full    = full;
+  }
+
+  /**
+   * Schedules a sync unless one is queued already.
+   *
+   * @param full true to read the whole address book, eg. if the ContactPhotoIndex was lost.
+   */
+  public static void schedule(@NonNull Context context, boolean full) {
+    if (full) {
+      fullRequested.set(true);
+    }
+    if (queued.compareAndSet(false, true)) {
+      ApplicationContext.getInstance(context).getJobManager().add(new AddressBookSyncJob(context.getApplicationContext(), full));
+    }
+  }
+
+  @Override
+  public void setContext(Context context) {
+    this.context = context;
+  }
+
+  @Override
+  public void onAdded() {}
+
+  @Override
+  protected void onRun() {
+    // changes from now on need another sync
+    queued.set(false);
+    boolean full = fullRequested.getAndSet(false) || this.full;
+
+    if (!Permissions.hasAll(context, Manifest.permission.READ_CONTACTS)) {
+      return;
+    }
+
+    DcContext dcContext = DcHelper.getContext(context);
+    String    account   = AccountManager.getInstance().getSelectedAccount(context).getName();
+    long      since     = full ? 0 : Prefs.getAddressBookSyncedTimestamp(context, account);
+    if (Build.VERSION.SDK_INT < 18) {
+      syncAll(dcContext);
+    } else if (since > 0 && since < System.currentTimeMillis() - ContactsContract.DeletedContacts.DAYS_KEPT_MILLISECONDS) {
+      // deletions that old are no longer logged
+      syncChanges(dcContext, account, 0);
+    } else {
+      syncChanges(dcContext, account, since);
+    }
+  }
+
+  @Override
+  public boolean onShouldRetry(Exception exception) {
+    return false;
+  }
+
+  @Override
+  public void onCanceled() {}
+
+  private void syncAll(@NonNull DcContext dcContext) {
+    ContactPhotoIndex.Builder contactPhotos = new ContactPhotoIndex.Builder();
+    Cursor                    cursor        = ContactAccessor.getInstance().getAllSystemContacts(context);
+    if (cursor == null) {
+      return;
+    }
+    try {
+      addContacts(dcContext, cursor, contactPhotos);
+    } finally {
+      cursor.close();
+    }
+    ContactPhotoIndex.getInstance(context).replace(contactPhotos);
+  }
+
+  private void syncChanges(@NonNull DcContext dcContext, @NonNull String account, long since) {
+    ContactAccessor accessor = ContactAccessor.getInstance();
+    long            newest   = since;
+
+    // contacts that were changed or deleted lose their old entries in the photo index
+    Set<Long> changedContactIds = new HashSet<>();
+    if (since > 0) {
+      newest = Math.max(newest, collectContactIds(accessor.getSystemContactIdsChangedSince(context, since), changedContactIds));
+      newest = Math.max(newest, collectContactIds(accessor.getSystemContactIdsDeletedSince(context, since), changedContactIds));
+    }
+
+    ContactPhotoIndex.Builder contactPhotos = new ContactPhotoIndex.Builder();
+    Cursor                    cursor        = accessor.getSystemContactsChangedSince(context, since);
+    if (cursor == null) {
+      return;
+    }
+    try {
+      newest = Math.max(newest, addContacts(dcContext, cursor, contactPhotos));
+    } finally {
+      cursor.close();
+    }
+
+    if (since > 0) {
+      ContactPhotoIndex.getInstance(context).merge(changedContactIds, contactPhotos);
+    } else {
+      ContactPhotoIndex.getInstance(context).replace(contactPhotos);
+    }
+    Prefs.setAddressBookSyncedTimestamp(context, account, newest);
+  }
+
+  /**
+   * Passes the addresses of the email rows to the core, CHUNK_SIZE at a time,
+   * and collects the contact photos.
+   *
+   * @return the newest update time of the rows, 0 if the cursor has no update times.
+   */
+  private static long addContacts(@NonNull DcContext dcContext, @NonNull Cursor cursor,
+                                 @NonNull ContactPhotoIndex.Builder contactPhotos)
+  {
+    Set<String>   addresses     = new HashSet<>();
+    StringBuilder chunk         = new StringBuilder();
+    int           chunkSize     = 0;
+    boolean       hasTimestamps = cursor.getColumnCount() > ContactAccessor.CONTACT_CURSOR_LAST_UPDATED;
+    long          newest        = 0;
+
+    while (cursor.moveToNext()) {
+      if (hasTimestamps) {
+        newest = Math.max(newest, cursor.getLong(ContactAccessor.CONTACT_CURSOR_LAST_UPDATED));
+      }
+
+      String name = cursor.getString(ContactAccessor.CONTACT_CURSOR_NAME);
+      String mail = cursor.getString(ContactAccessor.CONTACT_CURSOR_MAIL);
+      if (mail == null) {
+        continue;
+      }
+
+      // remove characters used as field separator
+      name = name != null ? name.replace("\r", "").replace("\n", "") : "";
+      mail = mail.replace("\r", "").replace("\n", "");
+
+      if (!cursor.isNull(ContactAccessor.CONTACT_CURSOR_CONTACT_ID)) {
+        contactPhotos.add(name, mail, cursor.getLong(ContactAccessor.CONTACT_CURSOR_CONTACT_ID));
+      }
+
+      if (!mail.isEmpty() && addresses.add(mail)) {
+        chunk.append(name.isEmpty() ? mail : name).append("\n").append(mail).append("\n");
+        if (++chunkSize >= CHUNK_SIZE) {
+          dcContext.addAddressBook(chunk.toString());
+          chunk.setLength(0);
+          chunkSize = 0;
+        }
+      }
+    }
+
+    if (chunkSize > 0) {
+      dcContext.addAddressBook(chunk.toString());
+    }
+    Log.i(TAG, "synced " + addresses.size() + " addresses");
+    return newest;
+  }
+
+  /**
+   * @return the newest timestamp of the cursor's rows, 0 if there are none.
+   */
+  private static long collectContactIds(Cursor cursor, @NonNull Set<Long> contactIds) {
+    long newest = 0;
+    if (cursor == null) {
+      return newest;
+    }
+    try {
+      while (cursor.moveToNext()) {
+        contactIds.add(cursor.getLong(0));
+        newest = Math.max(newest, cursor.getLong(1));
+      }
+    } finally {
+      cursor.close();
+    }
+    return newest;
+  }
+}
@@ -16,18 +16,11 @@
  */
 package org.thoughtcrime.securesms.contacts;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.Cursor;
 import android.provider.ContactsContract;
 
-import org.thoughtcrime.securesms.util.Hash;
-import org.thoughtcrime.securesms.util.Prefs;
-
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-
 /**
  * This class was originally a layer of indirection between
  * ContactAccessorNewApi and ContactAccesorOldApi, which corresponded
@@ -42,11 +35,13 @@ import java.util.Set;
 
 public class ContactAccessor {
 
-  private static final int CONTACT_CURSOR_NAME = 0;
+  public static final int CONTACT_CURSOR_NAME = 0;
+
+  public static final int CONTACT_CURSOR_MAIL = 1;
 
-  private static final int CONTACT_CURSOR_MAIL = 1;
+  public static final int CONTACT_CURSOR_CONTACT_ID = 2;
 
-  private static final int CONTACT_CURSOR_CONTACT_ID = 2;
+  public static final int CONTACT_CURSOR_LAST_UPDATED = 3;
 
   private static final ContactAccessor instance = new ContactAccessor();
 
@@ -59,36 +54,37 @@ public class ContactAccessor {
     return context.getContentResolver().query(ContactsContract.CommonDataKinds.Email.CONTENT_URI, projection, null, null, null);
   }
 
-  public String getAllSystemContactsAsString(Context context) {
-    Cursor systemContactsCursor = getAllSystemContacts(context);
-    StringBuilder result = new StringBuilder();
-    List<String> mailList = new ArrayList<>();
-    Set<String> contactPhotoIdentifiers = new HashSet<>();
-    while (systemContactsCursor != null && systemContactsCursor.moveToNext()) {
-
-      String name = systemContactsCursor.getString(CONTACT_CURSOR_NAME);
-      name = name.replace("\r", ""); // remove characters later used as field separator
-      name = name.replace("\n", "");
+  /**
+   * @return the email rows of the system contacts changed after the given time, all rows if the time is 0.
+   */
+  @TargetApi(18)
+  public Cursor getSystemContactsChangedSince(Context context, long timestamp) {
+    String[] projection = {ContactsContract.Data.DISPLAY_NAME, ContactsContract.CommonDataKinds.Email.ADDRESS, ContactsContract.Data.CONTACT_ID, ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP};
+    return context.getContentResolver().query(ContactsContract.CommonDataKinds.Email.CONTENT_URI, projection,
+                                              ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?",
+                                              new String[] {String.valueOf(timestamp)}, null);
+  }
 
-      String mail = systemContactsCursor.getString(CONTACT_CURSOR_MAIL);
-      mail = mail.replace("\r", ""); // remove characters later used as field separator
-      mail = mail.replace("\n", "");
+  /**
+   * @return the ids and update times of the system contacts changed after the given time,
+   *         including contacts without email rows.
+   */
+  @TargetApi(18)
+  public Cursor getSystemContactIdsChangedSince(Context context, long timestamp) {
+    String[] projection = {ContactsContract.Contacts._ID, ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP};
+    return context.getContentResolver().query(ContactsContract.Contacts.CONTENT_URI, projection,
+                                              ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?",
+                                              new String[] {String.valueOf(timestamp)}, null);
+  }
 
-      String contactId = systemContactsCursor.getString(CONTACT_CURSOR_CONTACT_ID);
-      if (contactId != null) {
-        String identifier = name + mail;
-        String hashedIdentifierAndId = Hash.sha256(identifier) + "|" + contactId;
-        contactPhotoIdentifiers.add(hashedIdentifierAndId);
-      }
-      if (mail != null && !mail.isEmpty() && !mailList.contains(mail)) {
-          mailList.add(mail);
-          if (name.isEmpty()) {
-            name = mail;
-          }
-          result.append(name).append("\n").append(mail).append("\n");
-      }
-    }
-    Prefs.setSystemContactPhotos(context, contactPhotoIdentifiers);
-    return result.toString();
+  /**
+   * @return the ids and deletion times of the system contacts deleted after the given time.
+   */
+  @TargetApi(18)
+  public Cursor getSystemContactIdsDeletedSince(Context context, long timestamp) {
+    String[] projection = {ContactsContract.DeletedContacts.CONTACT_ID, ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP};
+    return context.getContentResolver().query(ContactsContract.DeletedContacts.CONTENT_URI, projection,
+                                              ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP + " > ?",
+                                              new String[] {String.valueOf(timestamp)}, null);
   }
 }
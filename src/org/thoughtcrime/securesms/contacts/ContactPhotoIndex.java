@@ -0,0 +1,276 @@
+package org.thoughtcrime.securesms.contacts;
+
+import android.Manifest;
+import android.content.ContentUris;
+import android.content.Context;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.thoughtcrime.securesms.permissions.Permissions;
+import org.thoughtcrime.securesms.util.Prefs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Maps the name and address of a contact to the id of the system contact with the same name and address,
+ * used to show the photos of system contacts.
+ *
+ * The map is an open-addressing hash table of primitive arrays keyed by a 64-bit hash of name and address,
+ * so a lookup needs neither allocations nor a cryptographic hash.
+ * It is updated from the address book by AddressBookSyncJob, persisted in a small file and loaded on first use.
+ */
+public class ContactPhotoIndex {
+
+  private static final String TAG = ContactPhotoIndex.class.getSimpleName();
+
+  private static final String FILE_NAME      = "contact_photo_index";
+  private static final int    FORMAT_VERSION = 1;
+  private static final long   EMPTY          = 0;
+
+  private static ContactPhotoIndex instance;
+
+  private final Context    context;
+  private final File       file;
+  private volatile Table   table;
+
+  public static synchronized @NonNull ContactPhotoIndex getInstance(@NonNull Context context) {
+    if (instance == null) {
+      instance = new ContactPhotoIndex(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  private ContactPhotoIndex(@NonNull Context context) {
+    this.context = context;
+    this.file    = new File(context.getFilesDir(), FILE_NAME);
+  }
+
+  /**
+   * @return the photo of the system contact with the given name and address, null if there is none.
+   */
+  public @Nullable Uri getSystemContactPhoto(@NonNull String name, @NonNull String addr) {
+    long contactId = getTable().get(hash(name, addr));
+    return contactId != EMPTY ? ContentUris.withAppendedId(ContactsContract.Contacts.CONTENT_URI, contactId) : null;
+  }
+
+  /**
+   * Replaces the index by the given entries.
+   */
+  @WorkerThread
+  synchronized void replace(@NonNull Builder builder) {
+    update(builder.table);
+  }
+
+  /**
+   * Replaces the entries of the given contacts by the given entries, keeping the entries of all other contacts.
+   */
+  @WorkerThread
+  synchronized void merge(@NonNull Set<Long> changedContactIds, @NonNull Builder builder) {
+    Table   current = getTable();
+    Builder merged  = new Builder();
+    for (int i = 0; i < current.keys.length; i++) {
+      if (current.keys[i] != EMPTY && !changedContactIds.contains(current.values[i])) {
+        merged.put(current.keys[i], current.values[i]);
+      }
+    }
+    for (int i = 0; i < builder.table.keys.length; i++) {
+      if (builder.table.keys[i] != EMPTY) {
+        merged.put(builder.table.keys[i], builder.table.values[i]);
+      }
+    }
+    update(merged.table);
+  }
+
+  // the file is written only if an entry changed
+  private void update(@NonNull Table updated) {
+    int changed = updated.countDifferences(getTable());
+    if (changed == 0 && file.exists()) {
+      return;
+    }
+
+    table = updated;
+    write(updated);
+    Log.i(TAG, changed + " entries changed, " + updated.size + " system contacts with photo");
+  }
+
+  private @NonNull Table getTable() {
+    Table loaded = table;
+    if (loaded == null) {
+      synchronized (this) {
+        if (table == null) {
+          table = read();
+        }
+        loaded = table;
+      }
+    }
+    return loaded;
+  }
+
+  private @NonNull Table read() {
+    if (!file.exists()) {
+      // no index yet, eg. after an update from the version keeping the photos in the preferences
+      Prefs.removeSystemContactPhotos(context);
+      if (Permissions.hasAll(context, Manifest.permission.READ_CONTACTS)) {
+        AddressBookSyncJob.schedule(context, true);
+      }
+      return new Table(0);
+    }
+
+    try {
+      DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        if (input.readInt() != FORMAT_VERSION) {
+          throw new IOException("unknown version");
+        }
+        int   count = input.readInt();
+        Table read  = new Table(count);
+        for (int i = 0; i < count; i++) {
+          read.put(input.readLong(), input.readLong());
+        }
+        return read;
+      } finally {
+        input.close();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "cannot read " + file, e);
+      file.delete();
+      return new Table(0);
+    }
+  }
+
+  private void write(@NonNull Table written) {
+    // written to a temporary file first, so that an incomplete file is never read
+    File temp = new File(file.getPath() + ".tmp");
+    try {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+      try {
+        output.writeInt(FORMAT_VERSION);
+        output.writeInt(written.size);
+        for (int i = 0; i < written.keys.length; i++) {
+          if (written.keys[i] != EMPTY) {
+            output.writeLong(written.keys[i]);
+            output.writeLong(written.values[i]);
+          }
+        }
+      } finally {
+        output.close();
+      }
+      if (!temp.renameTo(file)) {
+        throw new IOException("cannot rename " + temp);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "cannot write " + file, e);
+      temp.delete();
+    }
+  }
+
+  /**
+   * 64-bit FNV-1a of the name followed by the address, as the characters of both were concatenated.
+   */
+  static long hash(@NonNull String name, @NonNull String addr) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < name.length(); i++) {
+      hash = (hash ^ name.charAt(i)) * 0x100000001b3L;
+    }
+    for (int i = 0; i < addr.length(); i++) {
+      hash = (hash ^ addr.charAt(i)) * 0x100000001b3L;
+    }
+    // EMPTY marks free slots
+    return hash != EMPTY ? hash : 1;
+  }
+
+  /**
+   * Collects the entries of a new index.
+   */
+  static class Builder {
+
+    private Table table = new Table(256);
+
+    void add(@NonNull String name, @NonNull String addr, long contactId) {
+      put(hash(name, addr), contactId);
+    }
+
+    private void put(long key, long contactId) {
+      if (table.size * 2 >= table.keys.length) {
+        Table grown = new Table(table.size * 2);
+        for (int i = 0; i < table.keys.length; i++) {
+          if (table.keys[i] != EMPTY) grown.put(table.keys[i], table.values[i]);
+        }
+        table = grown;
+      }
+      table.put(key, contactId);
+    }
+  }
+
+  private static class Table {
+
+    final long[] keys;
+    final long[] values;
+    int          size;
+
+    Table(int expectedSize) {
+      // a power of two at least twice the size, keeping probe sequences short
+      int capacity = 16;
+      while (capacity < expectedSize * 2) {
+        capacity *= 2;
+      }
+      keys   = new long[capacity];
+      values = new long[capacity];
+    }
+
+    long get(long key) {
+      int mask = keys.length - 1;
+      for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+        if (keys[i] == key)   return values[i];
+        if (keys[i] == EMPTY) return EMPTY;
+      }
+    }
+
+    void put(long key, long value) {
+      int mask = keys.length - 1;
+      int i    = mix(key) & mask;
+      while (keys[i] != EMPTY && keys[i] != key) {
+        i = (i + 1) & mask;
+      }
+      if (keys[i] == EMPTY) size++;
+      keys[i]   = key;
+      values[i] = value;
+    }
+
+    /**
+     * @return the number of entries added, removed or changed compared to the other table.
+     */
+    int countDifferences(@NonNull Table other) {
+      int differences = 0;
+      int common      = 0;
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] == EMPTY) continue;
+        long otherValue = other.get(keys[i]);
+        if (otherValue == EMPTY) {
+          differences++;
+        } else {
+          common++;
+          if (otherValue != values[i]) differences++;
+        }
+      }
+      return differences + other.size - common;
+    }
+
+    private static int mix(long key) {
+      return (int) (key ^ (key >>> 32));
+    }
+  }
+}
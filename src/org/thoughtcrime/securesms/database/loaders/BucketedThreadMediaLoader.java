@@ -5,34 +5,47 @@ import android.content.Context;
 import androidx.annotation.NonNull;
 import androidx.loader.content.AsyncTaskLoader;
 
-import com.annimon.stream.Stream;
 import com.b44t.messenger.DcContext;
-import com.b44t.messenger.DcMsg;
+import com.b44t.messenger.DcMsgSnapshots;
 
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.connect.DcHelper;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-
+import java.util.TreeMap;
+
+/**
+ * Buckets the media of a chat by time, using only msg_ids and timestamps;
+ * the DcMsg objects are loaded by the adapters for the visible items only.
+ *
+ * The loader remembers the timestamps of the messages it has already seen,
+ * so when the content changes, only the timestamps of new messages are loaded.
+ * To update, call onContentChanged() instead of restarting the loader.
+ */
 public class BucketedThreadMediaLoader extends AsyncTaskLoader<BucketedThreadMediaLoader.BucketedThreadMedia> {
 
   @SuppressWarnings("unused")
   private static final String TAG = BucketedThreadMediaLoader.class.getSimpleName();
 
+  private static final int SNAPSHOT_CHUNK_SIZE = 500;
+
   private final int chatId;
   private final int msgType1;
   private final int msgType2;
   private final int msgType3;
 
+  // msg_ids sorted ascending and their timestamps, as of the last load
+  private int[]  knownIds        = new int[0];
+  private long[] knownTimestamps = new long[0];
+
   public BucketedThreadMediaLoader(@NonNull Context context, int chatId, int msgType1, int msgType2, int msgType3) {
     super(context);
     this.chatId = chatId;
@@ -64,15 +77,62 @@ public class BucketedThreadMediaLoader extends AsyncTaskLoader<BucketedThreadMed
     BucketedThreadMedia result   = new BucketedThreadMedia(getContext());
     DcContext context = DcHelper.getContext(getContext());
     if(chatId!=-1 /*0=all, -1=none*/) {
-      int[] messages = context.getChatMedia(chatId, msgType1, msgType2, msgType3);
-      for(int nextId : messages) {
-        result.add(context.getMsg(nextId));
+      int[]  messages   = context.getChatMedia(chatId, msgType1, msgType2, msgType3);
+      long[] timestamps = getTimestamps(context, messages);
+      for (int i = 0; i < messages.length; i++) {
+        result.add(messages[i], timestamps[i]);
       }
     }
 
+    result.build(); // not on the main thread
     return result;
   }
 
+  /**
+   * Looks up the timestamps of the known messages
+   * and loads the timestamps of the others with as few JNI calls as possible.
+   */
+  private synchronized long[] getTimestamps(@NonNull DcContext context, @NonNull int[] msgIds) {
+    long[] timestamps = new long[msgIds.length];
+    int[]  unknown    = new int[msgIds.length];
+    int    unknownCount = 0;
+
+    for (int i = 0; i < msgIds.length; i++) {
+      int known = Arrays.binarySearch(knownIds, msgIds[i]);
+      if (known >= 0) {
+        timestamps[i] = knownTimestamps[known];
+      } else {
+        unknown[unknownCount++] = i;
+      }
+    }
+
+    for (int chunk = 0; chunk < unknownCount; chunk += SNAPSHOT_CHUNK_SIZE) {
+      int[] ids = new int[Math.min(SNAPSHOT_CHUNK_SIZE, unknownCount - chunk)];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = msgIds[unknown[chunk + i]];
+      }
+      DcMsgSnapshots snapshots = context.getMsgSnapshots(ids);
+      for (int i = 0; i < ids.length; i++) {
+        timestamps[unknown[chunk + i]] = snapshots.getTimestamp(i);
+      }
+    }
+
+    // remember the current messages, deleted ones are dropped
+    long[] order = new long[msgIds.length]; // msg_id in the upper, index in the lower bits
+    for (int i = 0; i < order.length; i++) {
+      order[i] = ((long) msgIds[i] << 32) | i;
+    }
+    Arrays.sort(order);
+    knownIds        = new int[order.length];
+    knownTimestamps = new long[order.length];
+    for (int i = 0; i < order.length; i++) {
+      knownIds[i]        = (int) (order[i] >>> 32);
+      knownTimestamps[i] = timestamps[(int) order[i]];
+    }
+
+    return timestamps;
+  }
+
   public static class BucketedThreadMedia {
 
     private final TimeBucket   TODAY;
@@ -85,6 +145,11 @@ public class BucketedThreadMediaLoader extends AsyncTaskLoader<BucketedThreadMed
 
     private final TimeBucket[] TIME_SECTIONS;
 
+    // the msg_ids of all sections in display order and the position each section starts at
+    private int[]        msgIds;
+    private int[]        sectionStarts;
+    private List<Bucket> sections;
+
     public BucketedThreadMedia(@NonNull Context context) {
       // from today midnight until the end of human time
       this.TODAY         = new TimeBucket(context.getString(R.string.today),
@@ -108,42 +173,80 @@ public class BucketedThreadMediaLoader extends AsyncTaskLoader<BucketedThreadMed
       this.OLDER         = new MonthBuckets();
     }
 
-    public void add(DcMsg imageMessage) {
+    public void add(int msgId, long timestamp) {
+      sections = null;
       for (TimeBucket timeSection : TIME_SECTIONS) {
-        if (timeSection.inRange(imageMessage.getTimestamp())) {
-          timeSection.add(imageMessage);
+        if (timeSection.inRange(timestamp)) {
+          timeSection.add(msgId);
           return;
         }
       }
-      OLDER.add(imageMessage);
+      OLDER.add(msgId, timestamp);
     }
 
     public int getSectionCount() {
-      return (int)Stream.of(TIME_SECTIONS)
-                        .filter(timeBucket -> !timeBucket.isEmpty())
-                        .count() +
-             OLDER.getSectionCount();
+      build();
+      return sections.size();
     }
 
     public int getSectionItemCount(int section) {
-      List<TimeBucket> activeTimeBuckets = Stream.of(TIME_SECTIONS).filter(timeBucket -> !timeBucket.isEmpty()).toList();
+      build();
+      return sections.get(section).getItemCount();
+    }
 
-      if (section < activeTimeBuckets.size()) return activeTimeBuckets.get(section).getItemCount();
-      else                                    return OLDER.getSectionItemCount(section - activeTimeBuckets.size());
+    public int getMsgId(int section, int item) {
+      int position = getPosition(section, item);
+      return msgIds[position];
     }
 
-    public DcMsg get(int section, int item) {
-      List<TimeBucket> activeTimeBuckets = Stream.of(TIME_SECTIONS).filter(timeBucket -> !timeBucket.isEmpty()).toList();
+    /**
+     * @return the position of the item in getMsgIds()
+     */
+    public int getPosition(int section, int item) {
+      build();
+      return sectionStarts[section] + item;
+    }
 
-      if (section < activeTimeBuckets.size()) return activeTimeBuckets.get(section).getItem(item);
-      else                                    return OLDER.getItem(section - activeTimeBuckets.size(), item);
+    /**
+     * @return the msg_ids of all sections in display order; the array must not be modified.
+     */
+    public @NonNull int[] getMsgIds() {
+      build();
+      return msgIds;
     }
 
     public String getName(int section, Locale locale) {
-      List<TimeBucket> activeTimeBuckets = Stream.of(TIME_SECTIONS).filter(timeBucket -> !timeBucket.isEmpty()).toList();
+      build();
+      return sections.get(section).getName(locale);
+    }
+
+    private void build() {
+      if (sections != null) {
+        return;
+      }
+
+      sections = new ArrayList<>();
+      for (TimeBucket timeSection : TIME_SECTIONS) {
+        if (!timeSection.isEmpty()) {
+          sections.add(timeSection);
+        }
+      }
+      sections.addAll(OLDER.getBuckets());
 
-      if (section < activeTimeBuckets.size()) return activeTimeBuckets.get(section).getName();
-      else                                    return OLDER.getName(section - activeTimeBuckets.size(), locale);
+      int count = 0;
+      sectionStarts = new int[sections.size()];
+      for (int i = 0; i < sectionStarts.length; i++) {
+        sectionStarts[i] = count;
+        count += sections.get(i).getItemCount();
+      }
+
+      msgIds = new int[count];
+      for (int i = 0; i < sectionStarts.length; i++) {
+        Bucket bucket = sections.get(i);
+        for (int item = 0; item < bucket.getItemCount(); item++) {
+          msgIds[sectionStarts[i] + item] = bucket.getItem(item);
+        }
+      }
     }
 
     // tests should override this function to deliver a preset calendar.
@@ -179,9 +282,36 @@ public class BucketedThreadMediaLoader extends AsyncTaskLoader<BucketedThreadMed
       calendar.set(Calendar.MILLISECOND, 0);
     }
 
-    private static class TimeBucket {
+    private static abstract class Bucket {
 
-      private final LinkedList<DcMsg> records = new LinkedList<>();
+      private int[] ids = new int[16];
+      private int   count;
+
+      void add(int msgId) {
+        if (count == ids.length) {
+          ids = Arrays.copyOf(ids, count * 2);
+        }
+        ids[count++] = msgId;
+      }
+
+      boolean isEmpty() {
+        return count == 0;
+      }
+
+      int getItemCount() {
+        return count;
+      }
+
+      int getAdded(int index) {
+        return ids[index];
+      }
+
+      abstract int getItem(int position);
+
+      abstract String getName(Locale locale);
+    }
+
+    private static class TimeBucket extends Bucket {
 
       private final long   startTime;
       private final long endTime;
@@ -193,75 +323,64 @@ public class BucketedThreadMediaLoader extends AsyncTaskLoader<BucketedThreadMed
         this.endTime = endTime;
       }
 
-      void add(DcMsg record) {
-        this.records.addFirst(record);
-      }
-
       boolean inRange(long timestamp) {
         return timestamp >= startTime && timestamp < endTime;
       }
 
-      boolean isEmpty() {
-        return records.isEmpty();
+      // the most recent item first
+      @Override
+      int getItem(int position) {
+        return getAdded(getItemCount() - 1 - position);
       }
 
-      int getItemCount() {
-        return records.size();
+      @Override
+      String getName(Locale locale) {
+        return name;
       }
+    }
+
+    private static class MonthBucket extends Bucket {
 
-      DcMsg getItem(int position) {
-        return records.get(position);
+      private final Date date;
+
+      MonthBucket(Date date) {
+        this.date = date;
       }
 
-      String getName() {
-        return name;
+      @Override
+      int getItem(int position) {
+        return getAdded(position);
+      }
+
+      @Override
+      String getName(Locale locale) {
+        return new SimpleDateFormat("MMMM yyyy", locale).format(date);
       }
     }
 
     private static class MonthBuckets {
 
-      private final Map<Date, List<DcMsg>> months = new HashMap<>();
+      private final Map<Date, MonthBucket> months = new TreeMap<>(Collections.reverseOrder());
+      private final Calendar               calendar = Calendar.getInstance();
 
-      void add(DcMsg record) {
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTimeInMillis(record.getTimestamp());
+      void add(int msgId, long timestamp) {
+        calendar.setTimeInMillis(timestamp);
 
         int  year  = calendar.get(Calendar.YEAR) - 1900;
         int  month = calendar.get(Calendar.MONTH);
         Date date  = new Date(year, month, 1);
 
-        if (months.containsKey(date)) {
-          months.get(date).add(record);
-        } else {
-          List<DcMsg> list = new LinkedList<>();
-          list.add(record);
-          months.put(date, list);
+        MonthBucket bucket = months.get(date);
+        if (bucket == null) {
+          bucket = new MonthBucket(date);
+          months.put(date, bucket);
         }
+        bucket.add(msgId);
       }
 
-      int getSectionCount() {
-        return months.size();
-      }
-
-      int getSectionItemCount(int section) {
-        return months.get(getSection(section)).size();
-      }
-
-      DcMsg getItem(int section, int position) {
-        return months.get(getSection(section)).get(position);
-      }
-
-      Date getSection(int section) {
-        ArrayList<Date> keys = new ArrayList<>(months.keySet());
-        Collections.sort(keys, Collections.reverseOrder());
-
-        return keys.get(section);
-      }
-
-      String getName(int section, Locale locale) {
-        Date sectionDate = getSection(section);
-
-        return new SimpleDateFormat("MMMM yyyy", locale).format(sectionDate);
+      // the most recent month first
+      List<MonthBucket> getBuckets() {
+        return new ArrayList<>(months.values());
       }
     }
   }
@@ -128,4 +128,8 @@ public class ThreadRecord {
   public boolean isMuted() {
     return  isMuted;
   }
+
+  public @Nullable DcLot getDcSummary() {
+    return dcSummary;
+  }
 }
@@ -0,0 +1,64 @@
+package org.thoughtcrime.securesms.glide;
+
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.data.DataFetcher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+class ThumbnailFetcher implements DataFetcher<InputStream> {
+
+  private final ThumbnailStore store;
+  private final File           file;
+  private final int            width;
+  private final int            height;
+
+  private InputStream inputStream;
+
+  ThumbnailFetcher(@NonNull ThumbnailStore store, @NonNull File file, int width, int height) {
+    this.store  = store;
+    this.file   = file;
+    this.width  = width;
+    this.height = height;
+  }
+
+  @Override
+  public void loadData(@NonNull Priority priority, @NonNull DataCallback<? super InputStream> callback) {
+    try {
+      inputStream = new FileInputStream(store.get(file, width, height));
+      callback.onDataReady(inputStream);
+    } catch (IOException e) {
+      callback.onLoadFailed(e);
+    }
+  }
+
+  @Override
+  public void cleanup() {
+    try {
+      if (inputStream != null) inputStream.close();
+    } catch (IOException e) {}
+  }
+
+  @Override
+  public void cancel() {
+
+  }
+
+  @NonNull
+  @Override
+  public Class<InputStream> getDataClass() {
+    return InputStream.class;
+  }
+
+  @NonNull
+  @Override
+  public DataSource getDataSource() {
+    return DataSource.LOCAL;
+  }
+}
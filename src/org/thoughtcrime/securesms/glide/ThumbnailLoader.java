@@ -0,0 +1,63 @@
+package org.thoughtcrime.securesms.glide;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.MultiModelLoaderFactory;
+import com.bumptech.glide.signature.ObjectKey;
+
+import org.thoughtcrime.securesms.mms.DecryptableStreamUriLoader.DecryptableUri;
+
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * Loads local files requested at thumbnail size from the ThumbnailStore;
+ * other requests are left to the DecryptableStreamUriLoader.
+ */
+public class ThumbnailLoader implements ModelLoader<DecryptableUri, InputStream> {
+
+  private final ThumbnailStore store;
+
+  private ThumbnailLoader(ThumbnailStore store) {
+    this.store = store;
+  }
+
+  @Nullable
+  @Override
+  public LoadData<InputStream> buildLoadData(@NonNull DecryptableUri decryptableUri, int width, int height, @NonNull Options options) {
+    if (width <= 0 || height <= 0 || width > ThumbnailStore.MAX_TARGET_SIZE || height > ThumbnailStore.MAX_TARGET_SIZE) {
+      return null;
+    }
+
+    File file = new File(decryptableUri.uri.getPath());
+    return new LoadData<>(new ObjectKey(decryptableUri.uri + "@" + width + "x" + height),
+                          new ThumbnailFetcher(store, file, width, height));
+  }
+
+  @Override
+  public boolean handles(@NonNull DecryptableUri decryptableUri) {
+    return "file".equals(decryptableUri.uri.getScheme()) && decryptableUri.uri.getPath() != null;
+  }
+
+  public static class Factory implements ModelLoaderFactory<DecryptableUri, InputStream> {
+
+    private final Context context;
+
+    public Factory(Context context) {
+      this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public @NonNull ModelLoader<DecryptableUri, InputStream> build(@NonNull MultiModelLoaderFactory multiFactory) {
+      return new ThumbnailLoader(ThumbnailStore.getInstance(context));
+    }
+
+    @Override
+    public void teardown() {}
+  }
+}
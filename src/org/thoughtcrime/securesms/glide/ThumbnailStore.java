@@ -0,0 +1,312 @@
+package org.thoughtcrime.securesms.glide;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.exifinterface.media.ExifInterface;
+
+import org.thoughtcrime.securesms.util.Hex;
+import org.thoughtcrime.securesms.util.ImageRecoder;
+import org.thoughtcrime.securesms.util.MediaUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent store of downscaled images, used for the thumbnails in chats and gallery grids.
+ *
+ * A thumbnail is keyed by path, modification time and length of the original and by the target size,
+ * rounded up to SIZE_STEP pixels; a changed original gets a new thumbnail and the old one is evicted eventually.
+ * When the store exceeds its maximum size, the least recently used thumbnails are deleted;
+ * thumbnails returned within the last IN_USE_MS and files still being written are kept, as they may be opened right now.
+ */
+public class ThumbnailStore {
+
+  private static final String TAG = ThumbnailStore.class.getSimpleName();
+
+  private static final String DIRECTORY         = "thumbnails";
+  private static final long   DEFAULT_MAX_SIZE  = 64 * 1024 * 1024;
+  private static final int    SIZE_STEP         = 128;
+  private static final long   TOUCH_INTERVAL_MS = 24 * 60 * 60 * 1000;
+  private static final int    JPEG_QUALITY      = 85;
+  private static final long   IN_USE_MS         = 10 * 1000;
+  private static final int    IN_USE_CAPACITY   = 64;
+  private static final long   STALE_TEMP_MS     = 60 * 60 * 1000;
+  private static final String TEMP_SUFFIX       = ".tmp";
+
+  // larger targets are not thumbnails, they are loaded from the original
+  static final int MAX_TARGET_SIZE = 1024;
+
+  private static ThumbnailStore instance;
+
+  private final File     dir;
+  private final Object[] locks = new Object[16];
+  private final InUseMap inUse = new InUseMap();
+  private long           maxSize;
+  private long           size = -1; // unknown until the directory is scanned
+
+  private long hits;
+  private long generated;
+  private long passedThrough;
+
+  public static synchronized @NonNull ThumbnailStore getInstance(@NonNull Context context) {
+    if (instance == null) {
+      instance = new ThumbnailStore(new File(context.getApplicationContext().getCacheDir(), DIRECTORY), DEFAULT_MAX_SIZE);
+    }
+    return instance;
+  }
+
+  private ThumbnailStore(@NonNull File dir, long maxSize) {
+    this.dir     = dir;
+    this.maxSize = maxSize;
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  @WorkerThread
+  public synchronized void setMaxSize(long maxSize) {
+    this.maxSize = maxSize;
+    evictIfNeeded();
+  }
+
+  /**
+   * Returns a file showing the image with at least the given size:
+   * the stored thumbnail, a newly generated thumbnail, or the original if it is not larger
+   * than needed or should not be thumbnailed, eg. an animated GIF.
+   *
+   * @throws IOException if the original is no image that can be decoded.
+   */
+  @WorkerThread
+  public @NonNull File get(@NonNull File original, int width, int height) throws IOException {
+    int    targetWidth  = roundUp(width);
+    int    targetHeight = roundUp(height);
+    String key          = getKey(original, targetWidth, targetHeight);
+    File   thumbnail    = new File(dir, key);
+
+    synchronized (locks[(key.hashCode() & 0x7fffffff) % locks.length]) {
+      if (touch(thumbnail)) {
+        return thumbnail;
+      }
+
+      if (!generate(original, thumbnail, targetWidth, targetHeight)) {
+        synchronized (this) {
+          passedThrough++;
+        }
+        return original;
+      }
+    }
+
+    synchronized (this) {
+      generated++;
+      inUse.put(thumbnail.getName(), System.currentTimeMillis());
+      if (size >= 0) {
+        size += thumbnail.length();
+      }
+      evictIfNeeded();
+    }
+    return thumbnail;
+  }
+
+  public synchronized @NonNull String getStats() {
+    return "thumbnails: size=" + (size / 1024) + "/" + (maxSize / 1024) + "kb"
+        + " hits=" + hits + " generated=" + generated + " passed through=" + passedThrough;
+  }
+
+  /**
+   * @return false if there is no need for a thumbnail.
+   */
+  private boolean generate(@NonNull File original, @NonNull File thumbnail, int targetWidth, int targetHeight)
+      throws IOException
+  {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeFile(original.getPath(), options);
+
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      throw new IOException("cannot decode " + original);
+    }
+    if (MediaUtil.IMAGE_GIF.equals(options.outMimeType)) {
+      return false;
+    }
+
+    int     orientation = ImageRecoder.getOrientation(original.getPath());
+    boolean swapped     = orientation >= ExifInterface.ORIENTATION_TRANSPOSE;
+    int     neededW     = swapped ? targetHeight : targetWidth;
+    int     neededH     = swapped ? targetWidth  : targetHeight;
+
+    // the largest power of two keeping both sides at least as large as needed, eg. for a CenterCrop
+    int sampleSize = 1;
+    while (options.outWidth / (sampleSize * 2) >= neededW && options.outHeight / (sampleSize * 2) >= neededH) {
+      sampleSize *= 2;
+    }
+    if (sampleSize == 1 && orientation <= ExifInterface.ORIENTATION_NORMAL) {
+      return false;
+    }
+
+    options.inJustDecodeBounds = false;
+    options.inSampleSize       = sampleSize;
+    Bitmap bitmap = BitmapFactory.decodeFile(original.getPath(), options);
+    if (bitmap == null) {
+      throw new IOException("cannot decode " + original);
+    }
+
+    if (orientation > ExifInterface.ORIENTATION_NORMAL) {
+      Matrix matrix = new Matrix();
+      ImageRecoder.applyOrientation(matrix, orientation);
+      Bitmap oriented = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+      if (oriented != bitmap) {
+        bitmap.recycle();
+        bitmap = oriented;
+      }
+    }
+
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new IOException("cannot create " + dir);
+    }
+
+    // written to a temporary file first, so that a thumbnail is never read incomplete
+    File         temp   = new File(dir, thumbnail.getName() + TEMP_SUFFIX);
+    OutputStream output = new FileOutputStream(temp);
+    try {
+      Bitmap.CompressFormat format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+      if (!bitmap.compress(format, JPEG_QUALITY, output)) {
+        throw new IOException("cannot compress thumbnail of " + original);
+      }
+    } finally {
+      output.close();
+      bitmap.recycle();
+    }
+
+    if (!temp.renameTo(thumbnail)) {
+      temp.delete();
+      throw new IOException("cannot store thumbnail of " + original);
+    }
+    return true;
+  }
+
+  /**
+   * Marks the thumbnail as used, so that it is not evicted while it is opened.
+   *
+   * @return false if there is no such thumbnail.
+   */
+  private synchronized boolean touch(@NonNull File thumbnail) {
+    // checked under the same lock as evictions, so that an existing thumbnail is not evicted before it is returned
+    if (!thumbnail.exists()) {
+      return false;
+    }
+    hits++;
+    long now = System.currentTimeMillis();
+    inUse.put(thumbnail.getName(), now);
+    // the modification time is the last use; updated only now and then to avoid a write for each hit
+    if (now - thumbnail.lastModified() > TOUCH_INTERVAL_MS) {
+      thumbnail.setLastModified(now);
+    }
+    return true;
+  }
+
+  private void evictIfNeeded() {
+    File[] files = null;
+    if (size < 0) {
+      files = listFiles();
+      size  = 0;
+      for (File file : files) {
+        if (!isTemp(file)) {
+          size += file.length();
+        }
+      }
+    }
+
+    if (size <= maxSize) {
+      return;
+    }
+
+    if (files == null) {
+      files = listFiles();
+    }
+
+    final long[] lastModified = new long[files.length];
+    Integer[]    order        = new Integer[files.length];
+    for (int i = 0; i < files.length; i++) {
+      lastModified[i] = files[i].lastModified();
+      order[i]        = i;
+    }
+    Arrays.sort(order, (a, b) -> Long.compare(lastModified[a], lastModified[b]));
+
+    // evict a bit more than needed, so that the directory is not listed for every new thumbnail
+    long now     = System.currentTimeMillis();
+    long limit   = maxSize * 3 / 4;
+    int  evicted = 0;
+    for (int i = 0; i < order.length && size > limit; i++) {
+      File file = files[order[i]];
+      if (isTemp(file)) {
+        // being written by another thread, or left over if the app was killed while writing
+        if (now - lastModified[order[i]] > STALE_TEMP_MS) {
+          file.delete();
+        }
+        continue;
+      }
+
+      // a thumbnail just written or returned may be opened right now
+      Long used = inUse.get(file.getName());
+      if (now - lastModified[order[i]] < IN_USE_MS || (used != null && now - used < IN_USE_MS)) {
+        continue;
+      }
+
+      long length = file.length();
+      if (file.delete()) {
+        size -= length;
+        evicted++;
+      }
+    }
+    Log.i(TAG, "evicted " + evicted + " thumbnails, " + getStats());
+  }
+
+  private @NonNull File[] listFiles() {
+    File[] files = dir.listFiles();
+    return files != null ? files : new File[0];
+  }
+
+  private static boolean isTemp(@NonNull File file) {
+    return file.getName().endsWith(TEMP_SUFFIX);
+  }
+
+  private static int roundUp(int size) {
+    return Math.max(1, (size + SIZE_STEP - 1) / SIZE_STEP) * SIZE_STEP;
+  }
+
+  private static @NonNull String getKey(@NonNull File original, int width, int height) {
+    String key = original.getAbsolutePath() + ":" + original.lastModified() + ":" + original.length()
+               + ":" + width + "x" + height;
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      return Hex.toStringCondensed(digest.digest(key.getBytes()));
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static class InUseMap extends LinkedHashMap<String, Long> {
+    InUseMap() {
+      super(16, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(@Nullable Map.Entry<String, Long> eldest) {
+      return size() > IN_USE_CAPACITY;
+    }
+  }
+}
@@ -0,0 +1,11 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.content.Context;
+
+/**
+ * Implemented by persistent jobs needing a Context, which cannot be serialized;
+ * the JobManager sets it when the job is restored after a restart.
+ */
+public interface ContextDependent {
+  void setContext(Context context);
+}
@@ -19,6 +19,7 @@ package org.thoughtcrime.securesms.jobmanager;
 import android.os.PowerManager;
 
 import org.thoughtcrime.securesms.jobmanager.requirements.Requirement;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 
 import java.io.Serializable;
 import java.util.List;
@@ -97,6 +98,10 @@ public abstract class Job implements Serializable {
     return parameters.getWakeLockTimeout();
   }
 
+  public Priority getPriority() {
+    return parameters.getPriority();
+  }
+
   public void setWakeLock(PowerManager.WakeLock wakeLock) {
     this.wakeLock = wakeLock;
   }
@@ -19,7 +19,7 @@ package org.thoughtcrime.securesms.jobmanager;
 import androidx.annotation.NonNull;
 import android.util.Log;
 
-class JobConsumer extends Thread {
+class JobConsumer {
 
   private static final String TAG = JobConsumer.class.getSimpleName();
 
@@ -30,33 +30,35 @@ class JobConsumer extends Thread {
   }
 
   private final JobQueue          jobQueue;
+  private final JobJournal        journal;
 
-  public JobConsumer(String name, JobQueue jobQueue) {
-    super(name);
+  public JobConsumer(JobQueue jobQueue, JobJournal journal) {
     this.jobQueue          = jobQueue;
+    this.journal           = journal;
   }
 
-  @Override
-  public void run() {
-    while (true) {
-      Job       job    = jobQueue.getNext();
-      JobResult result = runJob(job);
+  /**
+   * Runs a job taken from the queue.
+   */
+  public void consume(@NonNull Job job) {
+    JobResult result = runJob(job);
 
-      if (result == JobResult.DEFERRED) {
-        jobQueue.push(job);
-      } else {
-        if (result == JobResult.FAILURE) {
-          job.onCanceled();
-        }
+    if (result == JobResult.DEFERRED) {
+      jobQueue.push(job);
+    } else {
+      if (result == JobResult.FAILURE) {
+        job.onCanceled();
+      }
 
-        if (job.getWakeLock() != null && job.getWakeLockTimeout() == 0) {
-          job.getWakeLock().release();
-        }
+      if (job.getWakeLock() != null && job.getWakeLockTimeout() == 0) {
+        job.getWakeLock().release();
+      }
 
-        if (job.getGroupId() != null) {
-          jobQueue.setGroupIdAvailable(job.getGroupId());
-        }
+      if (job.isPersistent()) {
+        journal.remove(job);
       }
+
+      jobQueue.onFinished(job);
     }
   }
 
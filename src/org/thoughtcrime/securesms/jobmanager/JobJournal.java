@@ -0,0 +1,200 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The durable queue of persistent jobs, an append-only file of records adding a serialized job
+ * or removing a finished one.
+ *
+ * On load, the records are replayed and the file is rewritten with the jobs still pending only;
+ * a record cut off by a crash ends the replay. When no job is pending, the file is truncated.
+ */
+class JobJournal {
+
+  private static final String TAG = JobJournal.class.getSimpleName();
+
+  private static final int  VERSION        = 1;
+  private static final byte RECORD_ADD     = 1;
+  private static final byte RECORD_REMOVE  = 2;
+
+  private final File              file;
+  private final Map<Long, byte[]> pending = new LinkedHashMap<>();
+
+  private DataOutputStream output;
+  private long             nextId = 1;
+
+  JobJournal(@NonNull File file) {
+    this.file = file;
+  }
+
+  /**
+   * Reads the pending jobs and compacts the file, to be called once before any other method.
+   *
+   * @return the pending jobs in the order they were added, with their persistent id set.
+   */
+  synchronized @NonNull List<Job> load() {
+    replay();
+
+    List<Job> jobs = new LinkedList<>();
+    for (Map.Entry<Long, byte[]> entry : new LinkedHashMap<>(pending).entrySet()) {
+      try {
+        ObjectInputStream in  = new ObjectInputStream(new ByteArrayInputStream(entry.getValue()));
+        Job               job = (Job) in.readObject();
+        job.setPersistentId(entry.getKey());
+        jobs.add(job);
+      } catch (IOException | ClassNotFoundException | ClassCastException e) {
+        // eg. the job class changed incompatibly with an update
+        Log.w(TAG, "dropping job " + entry.getKey(), e);
+        pending.remove(entry.getKey());
+      }
+    }
+
+    rewrite();
+    return jobs;
+  }
+
+  /**
+   * Appends the job and sets its persistent id.
+   */
+  synchronized void add(@NonNull Job job) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream    out   = new ObjectOutputStream(bytes);
+    out.writeObject(job);
+    out.close();
+
+    long id = nextId++;
+    pending.put(id, bytes.toByteArray());
+    job.setPersistentId(id);
+
+    DataOutputStream journal = getOutput();
+    journal.writeByte(RECORD_ADD);
+    journal.writeLong(id);
+    journal.writeInt(bytes.size());
+    bytes.writeTo(journal);
+    journal.flush();
+  }
+
+  synchronized void remove(@NonNull Job job) {
+    if (pending.remove(job.getPersistentId()) == null) {
+      return;
+    }
+
+    try {
+      if (pending.isEmpty()) {
+        // nothing to keep, start over instead of growing the file
+        rewrite();
+      } else {
+        DataOutputStream journal = getOutput();
+        journal.writeByte(RECORD_REMOVE);
+        journal.writeLong(job.getPersistentId());
+        journal.flush();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, e);
+    }
+  }
+
+  private void replay() {
+    if (!file.exists()) {
+      return;
+    }
+
+    try {
+      DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        if (input.readInt() != VERSION) {
+          Log.w(TAG, "unknown journal version, dropping " + file);
+          return;
+        }
+        while (true) {
+          byte type = input.readByte();
+          long id   = input.readLong();
+          if (type == RECORD_ADD) {
+            byte[] job = new byte[input.readInt()];
+            input.readFully(job);
+            pending.put(id, job);
+          } else if (type == RECORD_REMOVE) {
+            pending.remove(id);
+          } else {
+            throw new IOException("unknown record type " + type);
+          }
+          nextId = Math.max(nextId, id + 1);
+        }
+      } finally {
+        input.close();
+      }
+    } catch (EOFException e) {
+      // end of the journal, maybe within a record written while the process died
+    } catch (IOException e) {
+      Log.w(TAG, "cannot read " + file, e);
+    }
+  }
+
+  private void rewrite() {
+    closeOutput();
+
+    File temp = new File(file.getPath() + ".tmp");
+    try {
+      DataOutputStream journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+      try {
+        journal.writeInt(VERSION);
+        for (Map.Entry<Long, byte[]> entry : pending.entrySet()) {
+          journal.writeByte(RECORD_ADD);
+          journal.writeLong(entry.getKey());
+          journal.writeInt(entry.getValue().length);
+          journal.write(entry.getValue());
+        }
+      } finally {
+        journal.close();
+      }
+      if (!temp.renameTo(file)) {
+        throw new IOException("cannot rename " + temp);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "cannot write " + file, e);
+      temp.delete();
+    }
+  }
+
+  private @NonNull DataOutputStream getOutput() throws IOException {
+    if (output == null) {
+      boolean exists = file.exists();
+      output = new DataOutputStream(new FileOutputStream(file, true));
+      if (!exists) {
+        output.writeInt(VERSION);
+      }
+    }
+    return output;
+  }
+
+  private void closeOutput() {
+    if (output != null) {
+      try {
+        output.close();
+      } catch (IOException e) {
+        Log.w(TAG, e);
+      }
+      output = null;
+    }
+  }
+}
@@ -2,27 +2,44 @@ package org.thoughtcrime.securesms.jobmanager;
 
 import android.content.Context;
 import android.os.PowerManager;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
 
 import org.thoughtcrime.securesms.jobmanager.requirements.RequirementListener;
 import org.thoughtcrime.securesms.jobmanager.requirements.RequirementProvider;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * A JobManager allows you to enqueue {@link org.thoughtcrime.securesms.jobmanager.Job} tasks
  * that are executed once a Job's {@link org.thoughtcrime.securesms.jobmanager.requirements.Requirement}s
  * are met.
+ *
+ * Jobs are run on the {@link org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler}
+ * in the lane of their priority. Persistent jobs are kept in a journal file until they are finished
+ * and are added again when the JobManager is created after a restart.
  */
 public class JobManager implements RequirementListener {
 
+  private static final String TAG = JobManager.class.getSimpleName();
+
   private final JobQueue      jobQueue           = new JobQueue();
   private final Executor      eventExecutor      = Executors.newSingleThreadExecutor();
 
   private final Context                     context;
+  private final JobJournal                  journal;
+  private final JobConsumer                 jobConsumer;
   private final List<RequirementProvider>   requirementProviders;
+  private final int                         consumers;
+  private       int                         activeConsumers;
 
   private JobManager(Context context, String name,
                      List<RequirementProvider> requirementProviders,
@@ -30,6 +47,9 @@ public class JobManager implements RequirementListener {
   {
     this.context              = context;
     this.requirementProviders = requirementProviders;
+    this.consumers            = consumers;
+    this.journal              = new JobJournal(new File(context.getFilesDir(), name + ".journal"));
+    this.jobConsumer          = new JobConsumer(jobQueue, journal);
 
     if (requirementProviders != null && !requirementProviders.isEmpty()) {
       for (RequirementProvider provider : requirementProviders) {
@@ -37,9 +57,8 @@ public class JobManager implements RequirementListener {
       }
     }
 
-    for (int i=0;i<consumers;i++) {
-      new JobConsumer("JobConsumer-" + i, jobQueue).start();
-    }
+    // runs before any job added from now on
+    eventExecutor.execute(this::restorePersistentJobs);
   }
 
   /**
@@ -63,8 +82,16 @@ public class JobManager implements RequirementListener {
     eventExecutor.execute(new Runnable() {
       @Override
       public void run() {
+        if (job.isPersistent()) {
+          try {
+            journal.add(job);
+          } catch (IOException e) {
+            Log.w(TAG, "cannot persist " + job, e);
+          }
+        }
         job.onAdded();
         jobQueue.add(job);
+        scheduleConsumers();
       }
     });
   }
@@ -75,10 +102,60 @@ public class JobManager implements RequirementListener {
       @Override
       public void run() {
         jobQueue.onRequirementStatusChanged();
+        scheduleConsumers();
       }
     });
   }
 
+  private void restorePersistentJobs() {
+    List<Job> jobs = journal.load();
+    for (Job job : jobs) {
+      if (job instanceof ContextDependent) {
+        ((ContextDependent) job).setContext(context);
+      }
+      if (job.needsWakeLock()) {
+        job.setWakeLock(acquireWakeLock(context, job.toString(), job.getWakeLockTimeout()));
+      }
+    }
+    if (!jobs.isEmpty()) {
+      Log.i(TAG, "restored " + jobs.size() + " persistent jobs");
+      jobQueue.addAll(jobs);
+      scheduleConsumers();
+    }
+  }
+
+  /**
+   * Hands each job that can run now to a consumer of its own, as long as there are free consumers.
+   */
+  private synchronized void scheduleConsumers() {
+    Job job;
+    while (activeConsumers < consumers && (job = jobQueue.getNext()) != null) {
+      final Job next = job;
+      activeConsumers++;
+      try {
+        BackgroundScheduler.execute(next.getPriority(), () -> consume(next));
+      } catch (RejectedExecutionException e) {
+        // this may be called on the core's event thread, the job stays queued and is scheduled again with the next change
+        Log.w(TAG, "cannot schedule job, retrying later", e);
+        activeConsumers--;
+        jobQueue.putBack(next);
+        return;
+      }
+    }
+  }
+
+  private void consume(@NonNull Job job) {
+    try {
+      jobConsumer.consume(job);
+    } finally {
+      synchronized (this) {
+        activeConsumers--;
+      }
+      // the finished job may have unblocked jobs of the same group
+      scheduleConsumers();
+    }
+  }
+
   private PowerManager.WakeLock acquireWakeLock(Context context, String name, long timeout) {
     PowerManager          powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
     PowerManager.WakeLock wakeLock     = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, name);
@@ -113,9 +190,9 @@ public class JobManager implements RequirementListener {
     }
 
     /**
-     * Set the number of threads dedicated to consuming Jobs from the queue and executing them.
+     * Set the number of Jobs that are executed concurrently on the BackgroundScheduler.
      *
-     * @param consumerThreads The number of threads.
+     * @param consumerThreads The number of concurrent Jobs.
      * @return The builder.
      */
     public Builder withConsumerThreads(int consumerThreads) {
@@ -17,6 +17,7 @@
 package org.thoughtcrime.securesms.jobmanager;
 
 import org.thoughtcrime.securesms.jobmanager.requirements.Requirement;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 
 import java.io.Serializable;
 import java.util.LinkedList;
@@ -36,11 +37,13 @@ public class JobParameters implements Serializable {
   private final String            groupId;
   private final boolean           wakeLock;
   private final long              wakeLockTimeout;
+  private final Priority          priority;
+  private final boolean           persistent;
 
   private JobParameters(List<Requirement> requirements,
                         String groupId,
                         int retryCount, long retryUntil, boolean wakeLock,
-                        long wakeLockTimeout)
+                        long wakeLockTimeout, Priority priority, boolean persistent)
   {
     this.requirements    = requirements;
     this.groupId         = groupId;
@@ -48,6 +51,8 @@ public class JobParameters implements Serializable {
     this.retryUntil      = retryUntil;
     this.wakeLock        = wakeLock;
     this.wakeLockTimeout = wakeLockTimeout;
+    this.priority        = priority;
+    this.persistent      = persistent;
   }
 
   public List<Requirement> getRequirements() {
@@ -55,7 +60,7 @@ public class JobParameters implements Serializable {
   }
 
   public boolean isPersistent() {
-    return false;
+    return persistent;
   }
 
   public int getRetryCount() {
@@ -85,6 +90,10 @@ public class JobParameters implements Serializable {
     return wakeLockTimeout;
   }
 
+  public Priority getPriority() {
+    return priority;
+  }
+
   public static class Builder {
     private List<Requirement> requirements    = new LinkedList<>();
     private int               retryCount      = 100;
@@ -92,6 +101,8 @@ public class JobParameters implements Serializable {
     private String            groupId         = null;
     private boolean           wakeLock        = false;
     private long              wakeLockTimeout = 0;
+    private Priority          priority        = Priority.HOUSEKEEPING;
+    private boolean           persistent      = false;
 
     /**
      * Specify a {@link org.thoughtcrime.securesms.jobmanager.requirements.Requirement }that must be met
@@ -160,11 +171,34 @@ public class JobParameters implements Serializable {
       return withWakeLock(needsWakeLock, 0, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Specify the lane of the BackgroundScheduler the job is run in, defaults to HOUSEKEEPING.
+     *
+     * @param priority The job's priority.
+     * @return the builder.
+     */
+    public Builder withPriority(Priority priority) {
+      this.priority = priority;
+      return this;
+    }
+
+    /**
+     * Specify that the job should be written to disk before it is added, so that it survives a restart
+     * of the app. The job and its requirements must be serializable; a Context is set again on restore
+     * for jobs implementing {@link org.thoughtcrime.securesms.jobmanager.ContextDependent}.
+     *
+     * @return the builder.
+     */
+    public Builder withPersistence() {
+      this.persistent = true;
+      return this;
+    }
+
     /**
      * @return the JobParameters instance that describes a Job.
      */
     public JobParameters create() {
-      return new JobParameters(requirements, groupId, retryCount, System.currentTimeMillis() + retryDuration, wakeLock, wakeLockTimeout);
+      return new JobParameters(requirements, groupId, retryCount, System.currentTimeMillis() + retryDuration, wakeLock, wakeLockTimeout, priority, persistent);
     }
   }
 }
@@ -17,102 +17,130 @@
 package org.thoughtcrime.securesms.jobmanager;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 
+/**
+ * The jobs of a JobManager.
+ *
+ * Only one job of a group is a candidate to run at a time, the other jobs of the group wait in the group's queue
+ * until it is finished. Candidates are kept in one ready queue per priority and are taken in priority order,
+ * first in first out within a priority, so finding the next job does not scan the whole queue.
+ * Candidates whose requirements are not met are set aside until the requirements change.
+ */
 class JobQueue {
 
-  private final Map<String, Job> activeGroupIds = new HashMap<>();
-  private final LinkedList<Job>  jobQueue       = new LinkedList<>();
+  private final EnumMap<Priority, ArrayDeque<Job>> ready       = new EnumMap<>(Priority.class);
+  private final LinkedList<Job>                    waiting     = new LinkedList<>();
+  private final Map<String, ArrayDeque<Job>>       groupQueues = new HashMap<>();
+  // the candidate or running job of each group having one
+  private final Map<String, Job>                   groupHeads  = new HashMap<>();
 
-  synchronized void onRequirementStatusChanged() {
-    notifyAll();
-  }
-
-  synchronized void add(Job job) {
-    jobQueue.add(job);
-    processJobAddition(job);
-    notifyAll();
-  }
-
-  synchronized void addAll(List<Job> jobs) {
-    jobQueue.addAll(jobs);
-
-    for (Job job : jobs) {
-      processJobAddition(job);
+  JobQueue() {
+    for (Priority priority : Priority.values()) {
+      ready.put(priority, new ArrayDeque<>());
     }
-
-    notifyAll();
   }
 
-  private void processJobAddition(@NonNull Job job) {
-    if (isJobActive(job) && isGroupIdAvailable(job)) {
-      setGroupIdUnavailable(job);
-    } else if (!isGroupIdAvailable(job)) {
-      Job blockingJob = activeGroupIds.get(job.getGroupId());
-      blockingJob.resetRunStats();
+  synchronized void add(@NonNull Job job) {
+    String groupId = job.getGroupId();
+    if (groupId == null) {
+      ready.get(job.getPriority()).add(job);
+      return;
     }
-  }
 
-  synchronized void push(Job job) {
-    jobQueue.addFirst(job);
-  }
-
-  synchronized Job getNext() {
-    try {
-      Job nextAvailableJob;
-
-      while ((nextAvailableJob = getNextAvailableJob()) == null) {
-        wait();
+    Job head = groupHeads.get(groupId);
+    if (head == null) {
+      groupHeads.put(groupId, job);
+      ready.get(job.getPriority()).add(job);
+    } else {
+      // the group's head is retried from the start as there is new work depending on it
+      head.resetRunStats();
+      ArrayDeque<Job> groupQueue = groupQueues.get(groupId);
+      if (groupQueue == null) {
+        groupQueue = new ArrayDeque<>();
+        groupQueues.put(groupId, groupQueue);
       }
-
-      return nextAvailableJob;
-    } catch (InterruptedException e) {
-      throw new AssertionError(e);
+      groupQueue.add(job);
     }
   }
 
-  synchronized void setGroupIdAvailable(String groupId) {
-    if (groupId != null) {
-      activeGroupIds.remove(groupId);
-      notifyAll();
+  synchronized void addAll(@NonNull List<Job> jobs) {
+    for (Job job : jobs) {
+      add(job);
     }
   }
 
-  private Job getNextAvailableJob() {
-    if (jobQueue.isEmpty()) return null;
+  /**
+   * Returns a job taken by getNext() that could not be started to the front of its ready queue.
+   */
+  synchronized void putBack(@NonNull Job job) {
+    ready.get(job.getPriority()).addFirst(job);
+  }
 
-    ListIterator<Job> iterator = jobQueue.listIterator();
-    while (iterator.hasNext()) {
-      Job job = iterator.next();
+  /**
+   * Sets a job aside that was taken but could not run as its requirements are not met.
+   */
+  synchronized void push(@NonNull Job job) {
+    waiting.add(job);
+  }
 
-      if (job.isRequirementsMet() && isGroupIdAvailable(job)) {
-        iterator.remove();
-        setGroupIdUnavailable(job);
-        return job;
+  /**
+   * @return the next job that can be run or null if there is none; the job is removed from the queue.
+   */
+  synchronized @Nullable Job getNext() {
+    for (ArrayDeque<Job> queue : ready.values()) {
+      Job job;
+      while ((job = queue.poll()) != null) {
+        if (job.isRequirementsMet()) {
+          return job;
+        }
+        waiting.add(job);
       }
     }
-
     return null;
   }
 
-  private boolean isJobActive(@NonNull Job job) {
-    return job.getRetryUntil() > 0 && job.getRunIteration() > 0;
-  }
-
-  private boolean isGroupIdAvailable(@NonNull Job requester) {
-    String groupId = requester.getGroupId();
-    return groupId == null || !activeGroupIds.containsKey(groupId) || activeGroupIds.get(groupId).equals(requester);
+  /**
+   * Returns the jobs set aside to the front of their ready queues, to be checked again.
+   */
+  synchronized void onRequirementStatusChanged() {
+    ListIterator<Job> iterator = waiting.listIterator(waiting.size());
+    while (iterator.hasPrevious()) {
+      Job job = iterator.previous();
+      ready.get(job.getPriority()).addFirst(job);
+    }
+    waiting.clear();
   }
 
-  private void setGroupIdUnavailable(@NonNull Job job) {
+  /**
+   * Called when a job taken by getNext() is finished, makes the next job of its group a candidate.
+   */
+  synchronized void onFinished(@NonNull Job job) {
     String groupId = job.getGroupId();
-    if (groupId != null) {
-      activeGroupIds.put(groupId, job);
+    if (groupId == null) {
+      return;
+    }
+
+    ArrayDeque<Job> groupQueue = groupQueues.get(groupId);
+    Job             next       = groupQueue != null ? groupQueue.poll() : null;
+    if (next != null) {
+      groupHeads.put(groupId, next);
+      ready.get(next.getPriority()).add(next);
+      if (groupQueue.isEmpty()) {
+        groupQueues.remove(groupId);
+      }
+    } else {
+      groupHeads.remove(groupId);
     }
   }
 }
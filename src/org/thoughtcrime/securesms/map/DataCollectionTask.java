@@ -4,16 +4,14 @@ import android.os.AsyncTask;
 import android.util.Log;
 
 import com.b44t.messenger.DcContext;
-import com.mapbox.geojson.Feature;
 import com.mapbox.mapboxsdk.geometry.LatLngBounds;
 
+import org.thoughtcrime.securesms.map.model.LocationTrack;
 import org.thoughtcrime.securesms.map.model.MapSource;
 
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.concurrent.ConcurrentHashMap;
 
-import static org.thoughtcrime.securesms.map.MapDataManager.TIMESTAMP_NOW;
 import static org.thoughtcrime.securesms.map.MapDataManager.TIME_FRAME;
 
 /**
@@ -32,8 +30,7 @@ public class DataCollectionTask extends AsyncTask<Void, Void, Void> {
     private final int chatId;
     private final int[] contactIds;
     private ConcurrentHashMap<Integer, MapSource> contactMapSources;
-    private ConcurrentHashMap<String, LinkedList<Feature>> featureCollections;
-    private ConcurrentHashMap<Integer, Feature> lastPositions;
+    private ConcurrentHashMap<Integer, LocationTrack> tracks;
     private final LatLngBounds.Builder boundingBuilder;
     private final DcContext dcContext;
     private final DataCollectionCallback callback;
@@ -42,14 +39,12 @@ public class DataCollectionTask extends AsyncTask<Void, Void, Void> {
                               int chatId,
                               int[] contactIds,
                               ConcurrentHashMap<Integer, MapSource> contactMapSources,
-                              ConcurrentHashMap featureCollections,
-                              ConcurrentHashMap<Integer, Feature> lastPositions,
+                              ConcurrentHashMap<Integer, LocationTrack> tracks,
                               LatLngBounds.Builder boundingBuilder,
                               DataCollectionCallback callback) {
         this.chatId = chatId;
         this.contactMapSources = contactMapSources;
-        this.featureCollections = featureCollections;
-        this.lastPositions = lastPositions;
+        this.tracks = tracks;
         this.boundingBuilder = boundingBuilder;
         this.dcContext = context;
         this.callback = callback;
@@ -68,14 +63,13 @@ public class DataCollectionTask extends AsyncTask<Void, Void, Void> {
         Log.d(TAG, "performance test - collect Data start");
         DataCollector dataCollector = new DataCollector(dcContext,
                 contactMapSources,
-                featureCollections,
-                lastPositions,
+                tracks,
                 boundingBuilder);
         for (int contactId : contactIds) {
-           dataCollector.updateSource(chatId,
+            // a track loaded before, eg. before the map was paused, only needs the locations added since
+            dataCollector.appendNewLocations(chatId,
                     contactId,
-                    System.currentTimeMillis() - TIME_FRAME,
-                    TIMESTAMP_NOW);
+                    System.currentTimeMillis() - TIME_FRAME);
             if (this.isCancelled()) {
                 break;
             }
@@ -6,15 +6,13 @@ import com.b44t.messenger.DcContext;
 import com.b44t.messenger.DcMsg;
 import com.google.gson.JsonObject;
 import com.mapbox.geojson.Feature;
-import com.mapbox.geojson.LineString;
 import com.mapbox.geojson.Point;
 import com.mapbox.mapboxsdk.geometry.LatLng;
 import com.mapbox.mapboxsdk.geometry.LatLngBounds;
 
+import org.thoughtcrime.securesms.map.model.LocationTrack;
 import org.thoughtcrime.securesms.map.model.MapSource;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.concurrent.ConcurrentHashMap;
 
 import static org.thoughtcrime.securesms.map.MapDataManager.ACCURACY;
@@ -29,6 +27,7 @@ import static org.thoughtcrime.securesms.map.MapDataManager.MARKER_SELECTED;
 import static org.thoughtcrime.securesms.map.MapDataManager.MESSAGE_ID;
 import static org.thoughtcrime.securesms.map.MapDataManager.POI_LONG_DESCRIPTION;
 import static org.thoughtcrime.securesms.map.MapDataManager.TIMESTAMP;
+import static org.thoughtcrime.securesms.map.MapDataManager.TIMESTAMP_NOW;
 
 /**
  * Created by cyberta on 18.04.19.
@@ -36,48 +35,76 @@ import static org.thoughtcrime.securesms.map.MapDataManager.TIMESTAMP;
 
 public class DataCollector {
 
+    // room for the locations arriving while the map is shown, before the track has to grow
+    private static final int TRACK_HEADROOM = 64;
 
     private final DcContext dcContext;
     private ConcurrentHashMap<Integer, MapSource> contactMapSources;
-    private ConcurrentHashMap<String, LinkedList<Feature>> featureCollections;
-    private ConcurrentHashMap<Integer, Feature> lastPositions;
+    private ConcurrentHashMap<Integer, LocationTrack> tracks;
     private LatLngBounds.Builder boundingBuilder;
 
     public DataCollector(DcContext dcContext,
                          ConcurrentHashMap<Integer, MapSource> contactMapSources,
-                         ConcurrentHashMap<String, LinkedList<Feature>> featureCollections,
-                         ConcurrentHashMap<Integer, Feature> lastPositions,
+                         ConcurrentHashMap<Integer, LocationTrack> tracks,
                          LatLngBounds.Builder boundingBuilder) {
         this.dcContext = dcContext;
         this.contactMapSources = contactMapSources;
-        this.featureCollections = featureCollections;
-        this.lastPositions = lastPositions;
+        this.tracks = tracks;
         this.boundingBuilder = boundingBuilder;
     }
 
-
+    /**
+     * Loads the locations of the contact into a new track, replacing the previous one.
+     */
     public void updateSource(int chatId,
                               int contactId,
                               long startTimestamp,
                               long endTimestamp) {
         DcArray locations = dcContext.getLocations(chatId, contactId, startTimestamp, endTimestamp);
 
-        MapSource contactMapMetadata = contactMapSources.get(contactId);
-        if (contactMapMetadata == null) {
-            contactMapMetadata = addContactMapSource(contactMapSources, contactId);
+        if (contactMapSources.get(contactId) == null) {
+            addContactMapSource(contactMapSources, contactId);
         }
-        int count = locations.getCnt();
 
-        LinkedList<Feature> sortedPointFeatures = featureCollections.get(contactMapMetadata.getMarkerFeatureCollection());
-        if (sortedPointFeatures != null && sortedPointFeatures.size() == count) {
-            return;
-        } else {
-            sortedPointFeatures = new LinkedList<>();
+        LocationTrack track = new LocationTrack(contactId, locations.getCnt() + TRACK_HEADROOM);
+        appendLocations(track, locations);
+        tracks.put(contactId, track);
+    }
+
+    /**
+     * Appends the locations added since the newest location of the contact's track.
+     *
+     * @return the number of appended locations.
+     */
+    public int appendNewLocations(int chatId, int contactId, long startTimestamp) {
+        LocationTrack track = tracks.get(contactId);
+        if (track == null || track.size() == 0) {
+            updateSource(chatId, contactId, startTimestamp, TIMESTAMP_NOW);
+            return tracks.get(contactId).size();
+        }
+
+        DcArray locations = dcContext.getLocations(chatId, contactId, track.getNewestTimestamp(), TIMESTAMP_NOW);
+        int appended = appendLocations(track, locations);
+        if (appended < 0) {
+            // a location older than the newest one showed up, the track has to be loaded again
+            updateSource(chatId, contactId, startTimestamp, TIMESTAMP_NOW);
+            return tracks.get(contactId).size();
         }
-        LinkedList<Feature> sortedLineFeatures = new LinkedList<>();
+        return appended;
+    }
 
-        for (int i = count - 1; i >= 0; i--) {
-            Point point = Point.fromLngLat(locations.getLongitude(i), locations.getLatitude(i));
+    /**
+     * @return the number of appended locations, -1 if a location is older than the track.
+     */
+    private int appendLocations(LocationTrack track, DcArray locations) {
+        int appended = 0;
+        // the locations are sorted newest first
+        for (int i = locations.getCnt() - 1; i >= 0; i--) {
+            long timestamp = locations.getTimestamp(i);
+            int locationId = locations.getLocationId(i);
+            if (timestamp == track.getNewestTimestamp() && track.containsNewest(locationId)) {
+                continue;
+            }
 
             String codepointChar =
                     locations.getMarker(i) != null ?
@@ -85,59 +112,56 @@ public class DataCollector {
                             "";
             boolean isPoi = locations.isIndependent(i);
             int messageId = locations.getMsgId(i);
-
-            Feature pointFeature = Feature.fromGeometry(point, new JsonObject(), String.valueOf(locations.getLocationId(i)));
-            pointFeature.addBooleanProperty(MARKER_SELECTED, false);
-            pointFeature.addBooleanProperty(LAST_LOCATION, false);
-            pointFeature.addNumberProperty(CONTACT_ID, contactId);
-            pointFeature.addNumberProperty(TIMESTAMP, locations.getTimestamp(i));
-            pointFeature.addNumberProperty(MESSAGE_ID, messageId);
-            pointFeature.addNumberProperty(ACCURACY, locations.getAccuracy(i));
-            pointFeature.addStringProperty(MARKER_CHAR, codepointChar);
-            pointFeature.addStringProperty(MARKER_ICON, isPoi ?
-                    contactMapMetadata.getMarkerPoi() :
-                    contactMapMetadata.getMarkerIcon());
-            pointFeature.addBooleanProperty(IS_POI, isPoi);
+            String poiLongDescription = null;
             if (isPoi && codepointChar.length() == 0 && messageId != 0) {
                 //has a long poi label
                 DcMsg poiMsg = dcContext.getMsg(messageId);
-                String poiLongDescription = poiMsg.getText();
-                pointFeature.addStringProperty(POI_LONG_DESCRIPTION, poiLongDescription);
+                poiLongDescription = poiMsg.getText();
             }
 
-            sortedPointFeatures.addFirst(pointFeature);
-
-            if (!locations.isIndependent(i) && sortedPointFeatures.size() > 1) {
-                Point lastPoint = (Point) sortedPointFeatures.get(1).geometry();
-                ArrayList<Point> lineSegmentPoints = new ArrayList<>(3);
-                lineSegmentPoints.add(lastPoint);
-                lineSegmentPoints.add(point);
-                LineString l = LineString.fromLngLats(lineSegmentPoints);
-                Feature lineFeature = Feature.fromGeometry(l, new JsonObject(), "l_" + pointFeature.id());
-                lineFeature.addNumberProperty(TIMESTAMP, pointFeature.getNumberProperty(TIMESTAMP));
-                sortedLineFeatures.addFirst(lineFeature);
+            if (!track.append(locations.getLatitude(i), locations.getLongitude(i), locations.getAccuracy(i),
+                    timestamp, messageId, locationId, isPoi, codepointChar, poiLongDescription)) {
+                return -1;
             }
+            appended++;
 
             if (boundingBuilder != null) {
                 boundingBuilder.include(new LatLng(locations.getLatitude(i), locations.getLongitude(i)));
             }
         }
+        return appended;
+    }
 
-        if (sortedPointFeatures.size() > 0) {
-            for (Feature position : sortedPointFeatures) {
-                if (!position.getBooleanProperty(IS_POI)) {
-                    position.addStringProperty(LAST_POSITION_ICON, contactMapMetadata.getMarkerLastPositon());
-                    position.addStringProperty(LAST_POSITION_LABEL, contactMapMetadata.getDisplayName());
-                    position.removeProperty(MARKER_ICON);
-                    position.addBooleanProperty(LAST_LOCATION, true);
-                    lastPositions.put(contactId, position);
-                    break;
-                }
-            }
+    /**
+     * Creates the feature of the location at the given index of the track.
+     */
+    public static Feature createFeature(LocationTrack track, int index, MapSource contactMapMetadata, boolean lastPosition) {
+        Point point = Point.fromLngLat(track.getLongitude(index), track.getLatitude(index));
+        String codepointChar = track.getMarker(index);
+        boolean isPoi = track.isIndependent(index);
+
+        Feature pointFeature = Feature.fromGeometry(point, new JsonObject(), String.valueOf(track.getLocationId(index)));
+        pointFeature.addBooleanProperty(MARKER_SELECTED, false);
+        pointFeature.addBooleanProperty(LAST_LOCATION, lastPosition);
+        pointFeature.addNumberProperty(CONTACT_ID, track.getContactId());
+        pointFeature.addNumberProperty(TIMESTAMP, track.getTimestamp(index));
+        pointFeature.addNumberProperty(MESSAGE_ID, track.getMsgId(index));
+        pointFeature.addNumberProperty(ACCURACY, track.getAccuracy(index));
+        pointFeature.addStringProperty(MARKER_CHAR, codepointChar);
+        pointFeature.addBooleanProperty(IS_POI, isPoi);
+        if (track.getDescription(index) != null) {
+            pointFeature.addStringProperty(POI_LONG_DESCRIPTION, track.getDescription(index));
         }
 
-        featureCollections.put(contactMapMetadata.getMarkerFeatureCollection(), sortedPointFeatures);
-        featureCollections.put(contactMapMetadata.getLineFeatureCollection(), sortedLineFeatures);
+        if (lastPosition) {
+            pointFeature.addStringProperty(LAST_POSITION_ICON, contactMapMetadata.getMarkerLastPositon());
+            pointFeature.addStringProperty(LAST_POSITION_LABEL, contactMapMetadata.getDisplayName());
+        } else {
+            pointFeature.addStringProperty(MARKER_ICON, isPoi ?
+                    contactMapMetadata.getMarkerPoi() :
+                    contactMapMetadata.getMarkerIcon());
+        }
+        return pointFeature;
     }
 
     private MapSource addContactMapSource(ConcurrentHashMap<Integer, MapSource> contactMapSources, int contactId) {
@@ -164,6 +164,10 @@ public class MapActivity extends BaseActivity implements Observer, TimeRangeSlid
                 });
             });
 
+            mapboxMap.addOnCameraIdleListener(() ->
+                    mapDataManager.setViewport(mapboxMap.getProjection().getVisibleRegion().latLngBounds,
+                            mapboxMap.getCameraPosition().zoom));
+
             TimeRangeSlider timeRangeSlider = this.findViewById(R.id.timeRangeSlider);
             timeRangeSlider.setOnTimestampChangedListener(this);
 
@@ -7,8 +7,11 @@ import android.util.Log;
 
 import com.b44t.messenger.DcEventCenter;
 import com.mapbox.android.core.permissions.PermissionsManager;
+import com.google.gson.JsonObject;
 import com.mapbox.geojson.Feature;
 import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.LineString;
+import com.mapbox.geojson.Point;
 import com.mapbox.mapboxsdk.exceptions.InvalidLatLngBoundsException;
 import com.mapbox.mapboxsdk.geometry.LatLngBounds;
 import com.mapbox.mapboxsdk.location.LocationComponent;
@@ -27,11 +30,13 @@ import org.thoughtcrime.securesms.connect.DcHelper;
 import org.thoughtcrime.securesms.map.DataCollectionTask.DataCollectionCallback;
 import org.thoughtcrime.securesms.map.GenerateInfoWindowTask.GenerateInfoWindowCallback;
 import org.thoughtcrime.securesms.map.model.FilterProvider;
+import org.thoughtcrime.securesms.map.model.LocationTrack;
 import org.thoughtcrime.securesms.map.model.MapSource;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -72,7 +77,6 @@ import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.textOffset;
 import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.textSize;
 import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.visibility;
 import static org.thoughtcrime.securesms.map.model.MapSource.INFO_WINDOW_LAYER;
-import static org.thoughtcrime.securesms.map.model.MapSource.LINE_FEATURE_LIST;
 import static org.thoughtcrime.securesms.util.BitmapUtil.generateColoredBitmap;
 
 
@@ -102,12 +106,18 @@ public class MapDataManager implements DcEventCenter.DcEventDelegate, GenerateIn
     public static final long TIMESTAMP_NOW = 0L;
     public static final long TIME_FRAME = 1000 * 60 * 60 * 24 * 2; // 2d
     private static final long DEFAULT_LAST_POSITION_DELTA = 1000 * 60 * 60 * 24; // 1d
+    // part of the viewport rendered beyond each edge, so that small moves need no new features
+    private static final double VIEWPORT_MARGIN = 0.5;
+    // maximum distance in pixels of a location dropped from a simplified trace
+    private static final double SIMPLIFY_TOLERANCE_PX = 1.5;
 
     private static final String TAG = MapDataManager.class.getSimpleName();
     private Style mapboxStyle;
     private ConcurrentHashMap<Integer, MapSource> contactMapSources = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<String, LinkedList<Feature>> featureCollections = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<Integer, Feature> lastPositions = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<Integer, LocationTrack> tracks = new ConcurrentHashMap<>();
+    // features of the rendered locations per contact, reused as long as they are rendered
+    private HashMap<Integer, HashMap<String, Feature>> renderedFeatures = new HashMap<>();
+    private HashMap<Integer, Feature> lastPositions = new HashMap<>();
     private FilterProvider filterProvider = new FilterProvider();
     private Feature selectedFeature;
     private int chatId;
@@ -118,6 +128,16 @@ public class MapDataManager implements DcEventCenter.DcEventDelegate, GenerateIn
     private boolean isInitial = true;
     private boolean showTraces = false;
     private LocationComponent locationComponent;
+    private long rangeStart;
+    private long rangeEnd = Long.MAX_VALUE;
+    private LatLngBounds viewport;
+    private double zoom = -1;
+    private boolean hasRenderedBounds;
+    private double renderedNorth;
+    private double renderedSouth;
+    private double renderedEast;
+    private double renderedWest;
+    private int renderedZoom;
 
     public interface MapDataState {
         void onDataInitialized(LatLngBounds bounds);
@@ -138,7 +158,8 @@ public class MapDataManager implements DcEventCenter.DcEventDelegate, GenerateIn
         initLocationComponent();
 
         filterProvider.setMessageFilter(true);
-        filterProvider.setLastPositionFilter(System.currentTimeMillis() - DEFAULT_LAST_POSITION_DELTA);
+        rangeStart = System.currentTimeMillis() - DEFAULT_LAST_POSITION_DELTA;
+        filterProvider.setLastPositionFilter(rangeStart);
         applyLastPositionFilter();
 
         updateSources();
@@ -170,16 +191,73 @@ public class MapDataManager implements DcEventCenter.DcEventDelegate, GenerateIn
         return context;
     }
 
+    /**
+     * Sets the features of the contact's locations in the selected time range and in the rendered part of the map,
+     * the trace simplified for the current zoom level.
+     */
     public void refreshSource(int contactId) {
         MapSource source = contactMapSources.get(contactId);
-        LinkedList<Feature> collection = featureCollections.get(source.getMarkerFeatureCollection());
+        LocationTrack track = tracks.get(contactId);
+        if (source == null || track == null) {
+            return;
+        }
         GeoJsonSource pointSource = (GeoJsonSource) mapboxStyle.getSource(source.getMarkerSource());
-        pointSource.setGeoJson(FeatureCollection.fromFeatures(collection));
-        LinkedList<Feature> lineFeatures = featureCollections.get(source.getLineFeatureCollection());
         GeoJsonSource lineSource = (GeoJsonSource) mapboxStyle.getSource(source.getLineSource());
-        lineSource.setGeoJson(FeatureCollection.fromFeatures(lineFeatures));
-        GeoJsonSource lastPostionSource = (GeoJsonSource) mapboxStyle.getSource(LAST_POSITION_SOURCE);
-        lastPostionSource.setGeoJson(FeatureCollection.fromFeatures(new LinkedList<>(lastPositions.values())));
+        if (pointSource == null || lineSource == null) {
+            return;
+        }
+
+        HashMap<String, Feature> previous = renderedFeatures.get(contactId);
+        HashMap<String, Feature> current = new HashMap<>();
+        int from = track.lowerBound(rangeStart);
+        int to = track.upperBound(rangeEnd);
+        int lastPosition = track.getLastPositionIndex();
+        int[] trace = track.simplify(from, to, getSimplifyTolerance());
+
+        ArrayList<Feature> markers = new ArrayList<>();
+        int t = 0;
+        for (int i = from; i < to; i++) {
+            while (t < trace.length && trace[t] < i) {
+                t++;
+            }
+            boolean onTrace = t < trace.length && trace[t] == i;
+            if (i == lastPosition || !isRendered(track.getLatitude(i), track.getLongitude(i))) {
+                continue;
+            }
+            // locations without message are shown only with the traces, and then only where the simplified trace bends
+            if (track.getMsgId(i) == 0 && !(showTraces && (onTrace || track.isIndependent(i)))) {
+                continue;
+            }
+            markers.add(getFeature(previous, current, source, track, i, false));
+        }
+
+        if (lastPosition >= 0) {
+            lastPositions.put(contactId, getFeature(previous, current, source, track, lastPosition, true));
+        } else {
+            lastPositions.remove(contactId);
+        }
+        renderedFeatures.put(contactId, current);
+
+        pointSource.setGeoJson(FeatureCollection.fromFeatures(markers));
+        lineSource.setGeoJson(FeatureCollection.fromFeatures(showTraces ?
+                getLineFeatures(contactId, track, trace) :
+                new ArrayList<>()));
+        refreshLastPositions();
+    }
+
+    /**
+     * Renders the features of the locations in the visible part of the map,
+     * the rendered part is larger than the viewport and only rendered again if the viewport leaves it or the zoom level changes.
+     */
+    public void setViewport(LatLngBounds viewport, double zoom) {
+        this.viewport = viewport;
+        this.zoom = zoom;
+        if (hasRenderedBounds && (int) zoom == renderedZoom
+                && viewport.getLatNorth() <= renderedNorth && viewport.getLatSouth() >= renderedSouth
+                && viewport.getLonEast() <= renderedEast && viewport.getLonWest() >= renderedWest) {
+            return;
+        }
+        refreshAllSources();
     }
 
     @Override
@@ -189,14 +267,19 @@ public class MapDataManager implements DcEventCenter.DcEventDelegate, GenerateIn
         if (contactMapSources.containsKey(contactId)) {
             DataCollector collector = new DataCollector(dcContext,
                     contactMapSources,
-                    featureCollections,
-                    lastPositions, null);
-            collector.updateSource(chatId,
+                    tracks,
+                    null);
+            int appended = collector.appendNewLocations(chatId,
                     contactId,
-                    System.currentTimeMillis() - TIME_FRAME,
-                    TIMESTAMP_NOW);
+                    System.currentTimeMillis() - TIME_FRAME);
 
-            refreshSource(contactId);
+            if (appended > 0) {
+                if (isAnyRendered(tracks.get(contactId), appended)) {
+                    refreshSource(contactId);
+                } else {
+                    refreshLastPosition(contactId);
+                }
+            }
         }
         Log.d(TAG, "updateEvent in MapDataManager called. finished: " + eventId);
     }
@@ -259,7 +342,6 @@ public class MapDataManager implements DcEventCenter.DcEventDelegate, GenerateIn
             initContactBasedLayers(source);
             refreshSource(source.getContactId());
             applyMarkerFilter(source);
-            applyLineFilter(source);
         }
 
         if (boundingBuilder != null && callback != null) {
@@ -275,14 +357,20 @@ public class MapDataManager implements DcEventCenter.DcEventDelegate, GenerateIn
 
     public void filterRange(long startTimestamp, long endTimestamp) {
         int[] contactIds = getContactIds(chatId);
+        rangeStart = startTimestamp;
+        rangeEnd = endTimestamp;
         filterProvider.setRangeFilter(startTimestamp, endTimestamp);
         applyFilters(contactIds);
+        refreshAllSources();
     }
 
     public void filterLastPositions(long timestamp) {
         int[] contactIds = getContactIds(chatId);
+        rangeStart = timestamp;
+        rangeEnd = Long.MAX_VALUE;
         filterProvider.setLastPositionFilter(timestamp);
         applyFilters(contactIds);
+        refreshAllSources();
     }
 
     public void showTraces(boolean show) {
@@ -290,6 +378,7 @@ public class MapDataManager implements DcEventCenter.DcEventDelegate, GenerateIn
         this.showTraces = show;
         filterProvider.setMessageFilter(!show);
         applyFilters(contactIds);
+        refreshAllSources();
     }
 
     public int getChatId() {
@@ -311,7 +400,6 @@ public class MapDataManager implements DcEventCenter.DcEventDelegate, GenerateIn
             }
             showLineLayer(contactMapMetadata);
             applyMarkerFilter(contactMapMetadata);
-            applyLineFilter(contactMapMetadata);
         }
         applyLastPositionFilter();
     }
@@ -330,13 +418,6 @@ public class MapDataManager implements DcEventCenter.DcEventDelegate, GenerateIn
         }
     }
 
-    private void applyLineFilter(MapSource source) {
-        LineLayer lineLayer = (LineLayer) mapboxStyle.getLayer(source.getLineLayer());
-        if (lineLayer != null) {
-            lineLayer.setFilter(filterProvider.getTimeFilter());
-        }
-    }
-
     private int[] getContactIds(int chatId) {
         if (chatId == ALL_CHATS_GLOBAL_MAP) {
             return dcContext.getContacts(DC_GCL_ADD_SELF, "");
@@ -445,8 +526,7 @@ public class MapDataManager implements DcEventCenter.DcEventDelegate, GenerateIn
                         lineOpacity(0.5f),
                         lineColor(source.getColorArgb()),
                         visibility(NONE)
-                )
-                .withFilter(filterProvider.getTimeFilter()),
+                ),
                 LAST_POSITION_LAYER);
 
 
@@ -503,8 +583,7 @@ public class MapDataManager implements DcEventCenter.DcEventDelegate, GenerateIn
                 chatId,
                 getContactIds(chatId),
                 contactMapSources,
-                featureCollections,
-                lastPositions,
+                tracks,
                 boundingBuilder,
                 this).execute();
     }
@@ -539,19 +618,145 @@ public class MapDataManager implements DcEventCenter.DcEventDelegate, GenerateIn
     }
 
     private Feature getFeatureWithId(String id) {
-        for (Map.Entry<String, LinkedList<Feature>> e : featureCollections.entrySet()) {
-            String key = e.getKey();
-            if (key.startsWith(LINE_FEATURE_LIST)) {
-                continue;
+        for (HashMap<String, Feature> features : renderedFeatures.values()) {
+            Feature feature = features.get(id);
+            if (feature != null) {
+                return feature;
             }
-            LinkedList<Feature> featureCollection = e.getValue();
-            for (Feature f : featureCollection) {
-                if (f.id().equals(id)) {
-                    return f;
+        }
+        return null;
+    }
+
+    private void refreshAllSources() {
+        updateRenderedBounds();
+        for (int contactId : contactMapSources.keySet()) {
+            refreshSource(contactId);
+        }
+    }
+
+    private void refreshLastPositions() {
+        GeoJsonSource lastPostionSource = (GeoJsonSource) mapboxStyle.getSource(LAST_POSITION_SOURCE);
+        lastPostionSource.setGeoJson(FeatureCollection.fromFeatures(new ArrayList<>(lastPositions.values())));
+    }
+
+    /**
+     * Updates only the last position of the contact, eg. when new locations are outside of the rendered part of the map.
+     */
+    private void refreshLastPosition(int contactId) {
+        MapSource source = contactMapSources.get(contactId);
+        LocationTrack track = tracks.get(contactId);
+        int lastPosition = track != null ? track.getLastPositionIndex() : -1;
+        if (source == null || lastPosition < 0) {
+            return;
+        }
+
+        HashMap<String, Feature> features = renderedFeatures.get(contactId);
+        if (features == null) {
+            features = new HashMap<>();
+            renderedFeatures.put(contactId, features);
+        }
+        lastPositions.put(contactId, getFeature(features, features, source, track, lastPosition, true));
+        refreshLastPositions();
+    }
+
+    /**
+     * @return the feature rendered for the location before, if there is one in the same role, a new feature otherwise.
+     */
+    private Feature getFeature(HashMap<String, Feature> previous, HashMap<String, Feature> current,
+                               MapSource source, LocationTrack track, int index, boolean lastPosition) {
+        String id = String.valueOf(track.getLocationId(index));
+        Feature feature = previous != null ? previous.get(id) : null;
+        if (feature == null || feature.getBooleanProperty(LAST_LOCATION) != lastPosition) {
+            boolean selected = feature != null && feature.getBooleanProperty(MARKER_SELECTED);
+            feature = DataCollector.createFeature(track, index, source, lastPosition);
+            feature.addBooleanProperty(MARKER_SELECTED, selected);
+            if (selectedFeature != null && selectedFeature.id().equals(id)) {
+                selectedFeature = feature;
+            }
+        }
+        current.put(id, feature);
+        return feature;
+    }
+
+    private List<Feature> getLineFeatures(int contactId, LocationTrack track, int[] trace) {
+        ArrayList<Feature> lines = new ArrayList<>();
+        ArrayList<Point> points = new ArrayList<>();
+        for (int i = 1; i < trace.length; i++) {
+            if (isSegmentRendered(track, trace[i - 1], trace[i])) {
+                if (points.isEmpty()) {
+                    points.add(Point.fromLngLat(track.getLongitude(trace[i - 1]), track.getLatitude(trace[i - 1])));
                 }
+                points.add(Point.fromLngLat(track.getLongitude(trace[i]), track.getLatitude(trace[i])));
+            } else if (!points.isEmpty()) {
+                lines.add(Feature.fromGeometry(LineString.fromLngLats(points), new JsonObject(), "l_" + contactId + "_" + lines.size()));
+                points = new ArrayList<>();
             }
         }
-        return null;
+        if (points.size() > 1) {
+            lines.add(Feature.fromGeometry(LineString.fromLngLats(points), new JsonObject(), "l_" + contactId + "_" + lines.size()));
+        }
+        return lines;
+    }
+
+    /**
+     * @return true if one of the appended locations or the location before them is rendered.
+     */
+    private boolean isAnyRendered(LocationTrack track, int appended) {
+        for (int i = Math.max(0, track.size() - appended - 1); i < track.size(); i++) {
+            long timestamp = track.getTimestamp(i);
+            if (timestamp >= rangeStart && timestamp <= rangeEnd && isRendered(track.getLatitude(i), track.getLongitude(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isRendered(double latitude, double longitude) {
+        return !hasRenderedBounds
+                || (latitude <= renderedNorth && latitude >= renderedSouth
+                    && longitude <= renderedEast && longitude >= renderedWest);
+    }
+
+    private boolean isSegmentRendered(LocationTrack track, int from, int to) {
+        return !hasRenderedBounds
+                || (Math.min(track.getLatitude(from), track.getLatitude(to)) <= renderedNorth
+                    && Math.max(track.getLatitude(from), track.getLatitude(to)) >= renderedSouth
+                    && Math.min(track.getLongitude(from), track.getLongitude(to)) <= renderedEast
+                    && Math.max(track.getLongitude(from), track.getLongitude(to)) >= renderedWest);
+    }
+
+    private void updateRenderedBounds() {
+        if (viewport == null) {
+            return;
+        }
+        double latMargin = (viewport.getLatNorth() - viewport.getLatSouth()) * VIEWPORT_MARGIN;
+        renderedNorth = Math.min(90, viewport.getLatNorth() + latMargin);
+        renderedSouth = Math.max(-90, viewport.getLatSouth() - latMargin);
+
+        double west = viewport.getLonWest();
+        double east = viewport.getLonEast();
+        double lonMargin = (east - west) * VIEWPORT_MARGIN;
+        if (west > east || east - west + 2 * lonMargin >= 360) {
+            // crossing the antimeridian or showing the whole world
+            renderedWest = -180;
+            renderedEast = 180;
+        } else {
+            renderedWest = west - lonMargin;
+            renderedEast = east + lonMargin;
+        }
+        renderedZoom = (int) zoom;
+        hasRenderedBounds = true;
+    }
+
+    /**
+     * @return the tolerance in degrees for simplifying traces at the current zoom level, 0 if the zoom level is unknown.
+     */
+    private double getSimplifyTolerance() {
+        if (zoom < 0) {
+            return 0;
+        }
+        // a 512 pixel tile shows the whole world at zoom level 0
+        return SIMPLIFY_TOLERANCE_PX * 360 / (512 * Math.pow(2, zoom));
     }
 
 }
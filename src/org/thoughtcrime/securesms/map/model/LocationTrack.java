@@ -0,0 +1,260 @@
+package org.thoughtcrime.securesms.map.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * The locations of a contact in primitive arrays, oldest first.
+ *
+ * Locations are appended in timestamp order, so the timestamps are an index for time ranges;
+ * the arrays grow when they are full, so no location of the loaded time range is dropped.
+ */
+public class LocationTrack {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final int contactId;
+    private float[] latitudes;
+    private float[] longitudes;
+    private float[] accuracies;
+    private long[] timestamps;
+    private int[] msgIds;
+    private int[] locationIds;
+    private boolean[] independent;
+    private String[] markers;
+    private String[] descriptions;
+    private int size;
+
+    /**
+     * @param capacity the number of locations expected, eg. the number of loaded locations.
+     */
+    public LocationTrack(int contactId, int capacity) {
+        this.contactId = contactId;
+        capacity = Math.max(capacity, MIN_CAPACITY);
+        latitudes = new float[capacity];
+        longitudes = new float[capacity];
+        accuracies = new float[capacity];
+        timestamps = new long[capacity];
+        msgIds = new int[capacity];
+        locationIds = new int[capacity];
+        independent = new boolean[capacity];
+        markers = new String[capacity];
+        descriptions = new String[capacity];
+    }
+
+    public int getContactId() {
+        return contactId;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return false if the location is older than the newest one and was not appended.
+     */
+    public synchronized boolean append(float latitude, float longitude, float accuracy, long timestamp, int msgId,
+                                       int locationId, boolean isIndependent, @NonNull String marker,
+                                       @Nullable String description) {
+        if (size > 0 && timestamp < getTimestamp(size - 1)) {
+            return false;
+        }
+
+        if (size == timestamps.length) {
+            grow();
+        }
+        int slot = size++;
+
+        latitudes[slot] = latitude;
+        longitudes[slot] = longitude;
+        accuracies[slot] = accuracy;
+        timestamps[slot] = timestamp;
+        msgIds[slot] = msgId;
+        locationIds[slot] = locationId;
+        independent[slot] = isIndependent;
+        markers[slot] = marker;
+        descriptions[slot] = description;
+        return true;
+    }
+
+    /**
+     * @return true if the location is among the newest locations, the ones having the newest timestamp.
+     */
+    public synchronized boolean containsNewest(int locationId) {
+        for (int i = size - 1; i >= 0 && timestamps[i] == timestamps[size - 1]; i--) {
+            if (locationIds[i] == locationId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized long getNewestTimestamp() {
+        return size > 0 ? getTimestamp(size - 1) : 0;
+    }
+
+    public synchronized float getLatitude(int index) { return latitudes[index]; }
+
+    public synchronized float getLongitude(int index) { return longitudes[index]; }
+
+    public synchronized float getAccuracy(int index) { return accuracies[index]; }
+
+    public synchronized long getTimestamp(int index) { return timestamps[index]; }
+
+    public synchronized int getMsgId(int index) { return msgIds[index]; }
+
+    public synchronized int getLocationId(int index) { return locationIds[index]; }
+
+    public synchronized boolean isIndependent(int index) { return independent[index]; }
+
+    public synchronized String getMarker(int index) { return markers[index]; }
+
+    public synchronized @Nullable String getDescription(int index) { return descriptions[index]; }
+
+    /**
+     * @return the index of the first location at or after the timestamp, size() if there is none.
+     */
+    public synchronized int lowerBound(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first location after the timestamp, size() if there is none.
+     */
+    public synchronized int upperBound(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the newest location that is no POI, -1 if there is none.
+     */
+    public synchronized int getLastPositionIndex() {
+        for (int i = size - 1; i >= 0; i--) {
+            if (!independent[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Simplifies the trace, the locations that are no POIs, from index from to index to (exclusive)
+     * with the Douglas-Peucker algorithm.
+     *
+     * @param tolerance the maximum distance in degrees of a dropped location to the simplified trace
+     * @return the indices of the kept locations, in order.
+     */
+    public synchronized @NonNull int[] simplify(int from, int to, double tolerance) {
+        int[] trace = new int[Math.max(0, to - from)];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (!independent[i]) {
+                trace[count++] = i;
+            }
+        }
+        if (count <= 2) {
+            return Arrays.copyOf(trace, count);
+        }
+
+        boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+
+        // ranges still to simplify, iterative to not overflow the stack for long traces
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        double squaredTolerance = tolerance * tolerance;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            int farthest = -1;
+            double farthestDistance = squaredTolerance;
+            for (int i = first + 1; i < last; i++) {
+                double distance = squaredSegmentDistance(trace[i], trace[first], trace[last]);
+                if (distance > farthestDistance) {
+                    farthest = i;
+                    farthestDistance = distance;
+                }
+            }
+            if (farthest >= 0) {
+                keep[farthest] = true;
+                if (top + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = first;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = last;
+            }
+        }
+
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) {
+                trace[kept++] = trace[i];
+            }
+        }
+        return Arrays.copyOf(trace, kept);
+    }
+
+    private double squaredSegmentDistance(int point, int segmentStart, int segmentEnd) {
+        double x = longitudes[point];
+        double y = latitudes[point];
+        double x1 = longitudes[segmentStart];
+        double y1 = latitudes[segmentStart];
+        double dx = longitudes[segmentEnd] - x1;
+        double dy = latitudes[segmentEnd] - y1;
+
+        if (dx != 0 || dy != 0) {
+            double t = ((x - x1) * dx + (y - y1) * dy) / (dx * dx + dy * dy);
+            if (t > 1) {
+                x1 = longitudes[segmentEnd];
+                y1 = latitudes[segmentEnd];
+            } else if (t > 0) {
+                x1 += dx * t;
+                y1 += dy * t;
+            }
+        }
+
+        dx = x - x1;
+        dy = y - y1;
+        return dx * dx + dy * dy;
+    }
+
+    private void grow() {
+        int capacity = timestamps.length * 2;
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        accuracies = Arrays.copyOf(accuracies, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        msgIds = Arrays.copyOf(msgIds, capacity);
+        locationIds = Arrays.copyOf(locationIds, capacity);
+        independent = Arrays.copyOf(independent, capacity);
+        markers = Arrays.copyOf(markers, capacity);
+        descriptions = Arrays.copyOf(descriptions, capacity);
+    }
+}
@@ -17,8 +17,6 @@ public class MapSource {
     public static final String MARKER_ICON = "marker_icon_id";
     public static final String MARKER_POI = "marker_poi";
     public static final String MARKER_LAST_POSITON = "marker_last_position";
-    public static final String MARKER_FEATURE_LIST = "marker_feature_list";
-    public static final String LINE_FEATURE_LIST = "line_feature_list";
 
     private final String markerSource;
     private final String lineSource;
@@ -29,8 +27,6 @@ public class MapSource {
     private final String markerIcon;
     private final String markerLastPositon;
     private final String markerPoi;
-    private final String markerFeatureCollection;
-    private final String lineFeatureCollection;
     private final String displayName;
 
     private int color;
@@ -46,8 +42,6 @@ public class MapSource {
         markerIcon = MARKER_ICON + "_" + contactId;
         markerLastPositon = MARKER_LAST_POSITON + "_" + contactId;
         markerPoi = MARKER_POI + "_" + contactId;
-        markerFeatureCollection = MARKER_FEATURE_LIST + "_" + contactId;
-        lineFeatureCollection = LINE_FEATURE_LIST + "_" + contactId;
         this.contactId = contactId;
         displayName = contact.getDisplayName();
         color = contact.getColor();
@@ -90,10 +84,6 @@ public class MapSource {
         return markerPoi;
     }
 
-    public String getMarkerFeatureCollection() { return markerFeatureCollection; }
-
-    public String getLineFeatureCollection() { return lineFeatureCollection; }
-
     public int getContactId() { return contactId; }
 
     public String getDisplayName() {
@@ -5,10 +5,11 @@ package org.thoughtcrime.securesms.notifications;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.os.AsyncTask;
 
 import org.thoughtcrime.securesms.connect.ApplicationDcContext;
 import org.thoughtcrime.securesms.connect.DcHelper;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 
 public class MarkReadReceiver extends BroadcastReceiver {
 
@@ -25,6 +26,6 @@ public class MarkReadReceiver extends BroadcastReceiver {
       final int[] chatIds         = intent.getIntArrayExtra(CHAT_IDS_EXTRA);
       MessageNotifierCompat.removeNotifications(chatIds);
       ApplicationDcContext dcContext = DcHelper.getContext(context);
-      new MarkAsNoticedAsyncTask(chatIds, dcContext, true).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+      new MarkAsNoticedAsyncTask(chatIds, dcContext, true).executeOnExecutor(BackgroundScheduler.executor(Priority.HOUSEKEEPING));
   }
 }
@@ -16,6 +16,7 @@ import android.util.Log;
 import com.b44t.messenger.DcChat;
 import com.b44t.messenger.DcContext;
 import com.b44t.messenger.DcMsg;
+import com.b44t.messenger.DcMsgSnapshots;
 
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.connect.ApplicationDcContext;
@@ -25,10 +26,17 @@ import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.util.Prefs;
 import org.thoughtcrime.securesms.util.ServiceUtil;
 import org.thoughtcrime.securesms.util.SpanUtil;
+import org.thoughtcrime.securesms.util.Util;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import static org.thoughtcrime.securesms.notifications.MessageNotifierCompat.NO_VISIBLE_CHAT_ID;
@@ -42,12 +50,18 @@ abstract class MessageNotifier {
     private static final long   MIN_AUDIBLE_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(20);
     private static final long   STARTUP_SILENCE_DELTA     = TimeUnit.MINUTES.toMillis(1);
     private static final long   INITIAL_STARTUP           = System.currentTimeMillis();
+    private static final long   BATCH_DELAY_MILLIS        = 250;
 
             static volatile int                visibleChatId                = NO_VISIBLE_CHAT_ID;
             static volatile long               lastAudibleNotification      = -1;
                     final   NotificationState  notificationState;
                     final   Context            appContext;
                     final   Object             lock;
+                    // chats with a bundled notification showing their current messages
+                    final   Set<Integer>       postedChats                  = new HashSet<>();
+    private         final   List<Integer>      pendingChatIds               = new ArrayList<>();
+    private         final   List<Integer>      pendingMsgIds                = new ArrayList<>();
+    private                 boolean            flushScheduled;
     private         final   SoundPool          soundPool;
     private         final   AudioManager       audioManager;
     private         final   int                soundIn;
@@ -88,27 +102,84 @@ abstract class MessageNotifier {
         }
     }
 
+    /**
+     * Incoming messages are collected for BATCH_DELAY_MILLIS and then notified together,
+     * so that a burst of messages, eg. after being offline, updates the notifications only once.
+     */
     void updateNotification(int chatId, int messageId) {
-        updateNotification(DcHelper.getContext(appContext).getChat(chatId), messageId);
+        synchronized (pendingMsgIds) {
+            pendingChatIds.add(chatId);
+            pendingMsgIds.add(messageId);
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        Util.runOnBackgroundDelayed(this::flushPendingNotifications, BATCH_DELAY_MILLIS);
     }
 
-    private void updateNotification(DcChat chat, int messageId) {
-        boolean isVisible = visibleChatId == chat.getId();
+    private void flushPendingNotifications() {
+        int[] chatIds;
+        int[] msgIds;
+        synchronized (pendingMsgIds) {
+            chatIds = Util.toIntArray(pendingChatIds);
+            msgIds  = Util.toIntArray(pendingMsgIds);
+            pendingChatIds.clear();
+            pendingMsgIds.clear();
+            flushScheduled = false;
+        }
 
-        if (!Prefs.isNotificationsEnabled(appContext) ||
-                Prefs.isChatMuted(chat))
-        {
+        if (!Prefs.isNotificationsEnabled(appContext)) {
             return;
         }
 
-        if (isVisible) {
-            sendInChatNotification(chat);
-        } else if (visibleChatId != NO_VISIBLE_CHAT_ID) {
-            //different chat is on top
-            sendNotifications(chat, messageId, false);
-        } else {
-            //app is in background or different Activity is on top
-            sendNotifications(chat, messageId, true);
+        ApplicationDcContext    dcContext       = DcHelper.getContext(appContext);
+        DcMsgSnapshots          snapshots       = dcContext.getMsgSnapshots(msgIds);
+        Map<Integer, DcChat>    chats           = new HashMap<>();
+        Map<Integer, Recipient> recipients      = new HashMap<>();
+        Set<Integer>            changedChats    = new HashSet<>();
+        DcChat                  visibleChat     = null;
+        boolean                 signal          = false;
+
+        for (int i = 0; i < chatIds.length; i++) {
+            DcChat chat = chats.get(chatIds[i]);
+            if (chat == null) {
+                chat = dcContext.getChat(chatIds[i]);
+                chats.put(chatIds[i], chat);
+            }
+
+            if (Prefs.isChatMuted(chat)) {
+                continue;
+            }
+
+            if (visibleChatId == chat.getId()) {
+                visibleChat = chat;
+                continue;
+            }
+
+            if (chat.isDeviceTalk()) {
+                // currently, we just never notify on device chat.
+                // esp. on first start, this is annoying.
+                continue;
+            }
+
+            // if a different chat is on top, there is no sound;
+            // if the app is in background or a different Activity is on top, there may be one
+            signal |= visibleChatId == NO_VISIBLE_CHAT_ID;
+            if (addMessageToNotificationState(dcContext, chat, snapshots, i, recipients)) {
+                changedChats.add(chat.getId());
+            }
+        }
+
+        if (visibleChat != null) {
+            sendInChatNotification(visibleChat);
+        }
+
+        if (!changedChats.isEmpty()) {
+            if (signal = isSignalAllowed(signal)) {
+                lastAudibleNotification = System.currentTimeMillis();
+            }
+            sendNotifications(changedChats, signal);
         }
     }
 
@@ -124,9 +195,11 @@ abstract class MessageNotifier {
         clearNotifications();
         ApplicationDcContext dcContext = DcHelper.getContext(appContext);
         int[] freshMessages = dcContext.getFreshMsgs();
-        for (int message : freshMessages) {
-            DcMsg record = dcContext.getMsg(message);
-            updateNotification(dcContext.getChat(record.getChatId()), record.getId());
+        DcMsgSnapshots snapshots = dcContext.getMsgSnapshots(freshMessages);
+        for (int i = 0; i < snapshots.getCount(); i++) {
+            if (snapshots.getId(i) != 0) {
+                updateNotification(snapshots.getChatId(i), snapshots.getId(i));
+            }
         }
     }
 
@@ -135,6 +208,7 @@ abstract class MessageNotifier {
         synchronized (lock) {
             for (int id : chatIds) {
                 removedItems.addAll(notificationState.removeNotificationsForChat(id));
+                cancelBundledNotification(id);
             }
         }
         cancelNotifications(removedItems);
@@ -145,11 +219,18 @@ abstract class MessageNotifier {
         List<NotificationItem> removedItems;
         synchronized (lock) {
             removedItems = notificationState.removeNotificationsForChat(chatId);
+            cancelBundledNotification(chatId);
         }
         cancelNotifications(removedItems);
         recreateSummaryNotification();
     }
 
+    private void cancelBundledNotification(int chatId) {
+        if (postedChats.remove(chatId)) {
+            ServiceUtil.getNotificationManager(appContext).cancel(SUMMARY_NOTIFICATION_ID + chatId);
+        }
+    }
+
     void cancelNotifications(List<NotificationItem> removedItems) {
         NotificationManager notifications = ServiceUtil.getNotificationManager(appContext);
         for (NotificationItem item : removedItems) {
@@ -162,14 +243,7 @@ abstract class MessageNotifier {
         notifications.cancel(SUMMARY_NOTIFICATION_ID);
 
         synchronized (lock) {
-            if (notificationState.hasMultipleChats()) {
-                for (Integer id : notificationState.getChats()) {
-                    sendSingleChatNotification(appContext, new NotificationState(notificationState.getNotificationsForChat(id)), false, true);
-                }
-                sendMultipleChatNotification(appContext, notificationState, false);
-            } else {
-                sendSingleChatNotification(appContext, notificationState, false, false);
-            }
+            sendNotifications(Collections.emptySet(), false);
         }
     }
 
@@ -178,26 +252,22 @@ abstract class MessageNotifier {
         notifications.cancel(SUMMARY_NOTIFICATION_ID);
     }
 
-    void sendNotifications(DcChat chat, int messageId, boolean signal) {
-        ApplicationDcContext dcContext = DcHelper.getContext(appContext);
-        if (signal = isSignalAllowed(signal)) {
-            lastAudibleNotification = System.currentTimeMillis();
-        }
-
-        if (chat.isDeviceTalk()) {
-            // currently, we just never notify on device chat.
-            // esp. on first start, this is annoying.
-            return;
-        }
-
+    /**
+     * Posts the notifications of the notification state,
+     * the bundled notifications of chats that are posted already and not changed are left as they are.
+     */
+    void sendNotifications(@NonNull Set<Integer> changedChats, boolean signal) {
         synchronized (lock) {
-            addMessageToNotificationState(dcContext, chat, messageId);
             if (notificationState.hasMultipleChats()) {
                 for (int id : notificationState.getChats()) {
-                    sendSingleChatNotification(appContext, new NotificationState(notificationState.getNotificationsForChat(id)), false, true);
+                    if (changedChats.contains(id) || !postedChats.contains(id)) {
+                        sendSingleChatNotification(appContext, new NotificationState(notificationState.getNotificationsForChat(id)), false, true);
+                        postedChats.add(id);
+                    }
                 }
                 sendMultipleChatNotification(appContext, notificationState, signal);
             } else {
+                postedChats.clear();
                 sendSingleChatNotification(appContext, notificationState, signal, false);
             }
         }
@@ -213,6 +283,7 @@ abstract class MessageNotifier {
     private void clearNotifications() {
         synchronized (lock) {
             notificationState.reset();
+            postedChats.clear();
         }
         cancelActiveNotifications();
     }
@@ -368,45 +439,60 @@ abstract class MessageNotifier {
         }
     }
 
-    void addMessageToNotificationState(ApplicationDcContext dcContext, DcChat chat, int msgId) {
-        if (Prefs.isChatMuted(chat)) {
-            return;
-        }
-
-        DcMsg record = dcContext.getMsg(msgId);
-        if (record.isInfo()) {
-            return;
+    /**
+     * Adds the message at the given index of the snapshots to the notification state,
+     * the full message is loaded only if it has a file.
+     *
+     * @param recipients the recipients created for the chats and senders, by chat id and negated contact id
+     * @return false if the message is not notified.
+     */
+    private boolean addMessageToNotificationState(ApplicationDcContext dcContext, DcChat chat, DcMsgSnapshots snapshots,
+                                                  int index, Map<Integer, Recipient> recipients) {
+        int id = snapshots.getId(index);
+        if (id == 0 || snapshots.isInfo(index)) {
+            return false;
         }
 
-        int          id                    = record.getId();
-        CharSequence body                  = record.getDisplayBody();
-        DcMsg        dcMsg                 = dcContext.getMsg(msgId);
-        Recipient    chatRecipient         = new Recipient(appContext, dcContext.getChat(dcMsg.getChatId()), null);
-        Recipient    individualRecipient   = new Recipient(appContext, null, dcContext.getContact(dcMsg.getFromId()));
-        SlideDeck slideDeck             = new SlideDeck(dcContext.context, record);
-        long         timestamp             = record.getTimestamp();
-
+        CharSequence body                  = snapshots.getText(index);
+        Recipient    chatRecipient         = recipients.get(chat.getId());
+        Recipient    individualRecipient   = recipients.get(-snapshots.getFromId(index));
+        SlideDeck    slideDeck             = null;
+        long         timestamp             = snapshots.getTimestamp(index);
 
-        if(slideDeck.getSlides().isEmpty())
-            slideDeck = null;
+        if (chatRecipient == null) {
+            chatRecipient = new Recipient(appContext, chat, null);
+            recipients.put(chat.getId(), chatRecipient);
+        }
+        if (individualRecipient == null) {
+            individualRecipient = new Recipient(appContext, null, dcContext.getContact(snapshots.getFromId(index)));
+            recipients.put(-snapshots.getFromId(index), individualRecipient);
+        }
 
         // TODO: if message content should be hidden on screen lock, do it here.
-        if (record.hasFile() && TextUtils.isEmpty(body)) {
-            String summaryText = record.getSummarytext(100);
-            if (summaryText.isEmpty()) {
-                body = SpanUtil.italic(appContext.getString(R.string.notify_media_message));
-            } else {
-                body = SpanUtil.italic(summaryText);
+        if (!snapshots.getFile(index).isEmpty()) {
+            DcMsg record = dcContext.getMsg(id);
+            slideDeck = new SlideDeck(dcContext.context, record);
+            if (slideDeck.getSlides().isEmpty())
+                slideDeck = null;
+
+            if (TextUtils.isEmpty(body)) {
+                String summaryText = record.getSummarytext(100);
+                if (summaryText.isEmpty()) {
+                    body = SpanUtil.italic(appContext.getString(R.string.notify_media_message));
+                } else {
+                    body = SpanUtil.italic(summaryText);
+                }
+            } else if (!record.isMediaPending()) {
+                String message      = appContext.getString(R.string.notify_media_message_with_text, body);
+                int    italicLength = message.length() - body.length();
+                body = SpanUtil.italic(message, italicLength);
             }
-        } else if (record.hasFile() && !record.isMediaPending()) {
-            String message      = appContext.getString(R.string.notify_media_message_with_text, body);
-            int    italicLength = message.length() - body.length();
-            body = SpanUtil.italic(message, italicLength);
         }
 
         synchronized (lock) {
             notificationState.addNotification(new NotificationItem(id, chatRecipient, individualRecipient, chat.getId(), body, timestamp, slideDeck));
         }
+        return true;
     }
 }
 
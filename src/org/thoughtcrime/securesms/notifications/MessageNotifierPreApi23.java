@@ -1,14 +1,11 @@
 package org.thoughtcrime.securesms.notifications;
 
 import android.content.Context;
+import androidx.annotation.NonNull;
 import androidx.core.app.NotificationManagerCompat;
 
-import com.b44t.messenger.DcChat;
-
-import org.thoughtcrime.securesms.connect.ApplicationDcContext;
-import org.thoughtcrime.securesms.connect.DcHelper;
-
 import java.util.List;
+import java.util.Set;
 
 import static org.thoughtcrime.securesms.notifications.MessageNotifierCompat.SUMMARY_NOTIFICATION_ID;
 
@@ -42,19 +39,7 @@ class MessageNotifierPreApi23 extends MessageNotifier {
     }
 
     @Override
-    void sendNotifications(DcChat chat, int messageId, boolean signal) {
-        ApplicationDcContext dcContext = DcHelper.getContext(appContext);
-        if (signal = isSignalAllowed(signal)) {
-            lastAudibleNotification = System.currentTimeMillis();
-        }
-
-        if (chat.isDeviceTalk()) {
-            // currently, we just never notify on device chat.
-            // esp. on first start, this is annoying.
-            return;
-        }
-
-        addMessageToNotificationState(dcContext, chat, messageId);
+    void sendNotifications(@NonNull Set<Integer> changedChats, boolean signal) {
         synchronized (lock) {
             if (notificationState.hasMultipleChats()) {
                 sendMultipleChatNotification(appContext, notificationState, signal);
@@ -29,6 +29,8 @@ import org.thoughtcrime.securesms.util.DynamicLanguage;
 import org.thoughtcrime.securesms.util.DynamicTheme;
 import org.thoughtcrime.securesms.util.ServiceUtil;
 import org.thoughtcrime.securesms.util.Prefs;
+import org.thoughtcrime.securesms.util.Util;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -107,15 +109,11 @@ public class ChatBackgroundActivity extends PassphraseRequiredActionBarActivity
             Context context = getApplicationContext();
             if(imageUpdate) {
                 if (imageUri != null) {
-                    Thread thread = new Thread() {
-                        @Override
-                        public void run() {
-                            String destination = context.getFilesDir().getAbsolutePath() + "/background";
-                            Prefs.setBackgroundImagePath(context, destination);
-                            scaleAndSaveImage(context, destination);
-                        }
-                    };
-                    thread.start();
+                    Util.runOnBackground(Priority.MEDIA, () -> {
+                        String destination = context.getFilesDir().getAbsolutePath() + "/background";
+                        Prefs.setBackgroundImagePath(context, destination);
+                        scaleAndSaveImage(context, destination);
+                    });
                 } else {
                     Prefs.setBackgroundImagePath(context, "");
                 }
@@ -185,18 +183,14 @@ public class ChatBackgroundActivity extends PassphraseRequiredActionBarActivity
             imageUri = data.getData();
             if (imageUri != null) {
                 acceptMenuItem.setEnabled(true);
-                Thread thread = new Thread(){
-                    @Override
-                    public void run() {
-                        tempDestinationPath = context.getFilesDir().getAbsolutePath() + "/background-temp";
-                        scaleAndSaveImage(context, tempDestinationPath);
-                        runOnUiThread(() -> {
-                            // Stuff that updates the UI
-                            setLayoutBackgroundImage(tempDestinationPath);
-                        });
-                    }
-                };
-                thread.start();
+                Util.runOnBackground(Priority.MEDIA, () -> {
+                    tempDestinationPath = context.getFilesDir().getAbsolutePath() + "/background-temp";
+                    scaleAndSaveImage(context, tempDestinationPath);
+                    runOnUiThread(() -> {
+                        // Stuff that updates the UI
+                        setLayoutBackgroundImage(tempDestinationPath);
+                    });
+                });
             }
             imageUpdate=true;
         }
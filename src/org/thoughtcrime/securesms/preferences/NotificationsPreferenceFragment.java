@@ -20,6 +20,8 @@ import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.connect.KeepAliveService;
 import org.thoughtcrime.securesms.notifications.MessageNotifierCompat;
 import org.thoughtcrime.securesms.util.Prefs;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 
 import static android.app.Activity.RESULT_OK;
 
@@ -162,7 +164,7 @@ public class NotificationsPreferenceFragment extends ListSummaryPreferenceFragme
           MessageNotifierCompat.onNotificationPrivacyChanged();
           return null;
         }
-      }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+      }.executeOnExecutor(BackgroundScheduler.executor(Priority.INTERACTIVE));
 
       return super.onPreferenceChange(preference, value);
     }
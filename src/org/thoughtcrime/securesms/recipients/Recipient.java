@@ -31,6 +31,7 @@ import com.b44t.messenger.DcContext;
 
 import org.thoughtcrime.securesms.connect.ApplicationDcContext;
 import org.thoughtcrime.securesms.connect.DcHelper;
+import org.thoughtcrime.securesms.contacts.ContactPhotoIndex;
 import org.thoughtcrime.securesms.contacts.avatars.ContactPhoto;
 import org.thoughtcrime.securesms.contacts.avatars.FallbackContactPhoto;
 import org.thoughtcrime.securesms.contacts.avatars.GeneratedContactPhoto;
@@ -39,8 +40,6 @@ import org.thoughtcrime.securesms.contacts.avatars.LocalFileContactPhoto;
 import org.thoughtcrime.securesms.contacts.avatars.ProfileContactPhoto;
 import org.thoughtcrime.securesms.contacts.avatars.SystemContactPhoto;
 import org.thoughtcrime.securesms.database.Address;
-import org.thoughtcrime.securesms.util.Hash;
-import org.thoughtcrime.securesms.util.Prefs;
 import org.thoughtcrime.securesms.util.Util;
 
 import java.util.ArrayList;
@@ -66,8 +65,8 @@ public class Recipient {
   private @Nullable String         profileAvatar;
 
   // either dcChat or dcContact are set
-  private @Nullable DcChat dcChat;
-  private @Nullable DcContact dcContact;
+  private volatile @Nullable DcChat dcChat;
+  private volatile @Nullable DcContact dcContact;
 
   public static @NonNull Recipient fromChat(@NonNull Context context, int dcMsgId) {
     ApplicationDcContext dcContext = DcHelper.getContext(context);
@@ -113,21 +112,24 @@ public class Recipient {
       }
     }
     else if(dcChat!=null) {
-      int chatId = dcChat.getId();
-      this.address = Address.fromChat(chatId);
-      if (!dcChat.isGroup()) {
-        DcContext dcContext = DcHelper.getContext(context);
-        int[] contacts = dcContext.getChatContacts(chatId);
-        if( contacts.length>=1 ) {
-          maybeSetSystemContactPhoto(context, dcContext.getContact(contacts[0]));
-        }
-      }
+      this.address = Address.fromChat(dcChat.getId());
+      maybeSetSystemContactPhotoOfChat(context, dcChat);
     }
     else {
       this.address = Address.UNKNOWN;
     }
   }
 
+  private void maybeSetSystemContactPhotoOfChat(@NonNull Context context, @NonNull DcChat dcChat) {
+    if (!dcChat.isGroup()) {
+      DcContext dcContext = DcHelper.getContext(context);
+      int[] contacts = dcContext.getChatContacts(dcChat.getId());
+      if( contacts.length>=1 ) {
+        maybeSetSystemContactPhoto(context, dcContext.getContact(contacts[0]));
+      }
+    }
+  }
+
   public @Nullable Uri getContactUri() {
     return this.contactUri;
   }
@@ -232,8 +234,7 @@ public class Recipient {
   }
 
   private void maybeSetSystemContactPhoto(@NonNull Context context, DcContact contact) {
-    String identifier = Hash.sha256(contact.getDisplayName() + contact.getAddr());
-    Uri systemContactPhoto = Prefs.getSystemContactPhoto(context, identifier);
+    Uri systemContactPhoto = ContactPhotoIndex.getInstance(context).getSystemContactPhoto(contact.getDisplayName(), contact.getAddr());
     if (systemContactPhoto != null) {
       setSystemContactPhoto(systemContactPhoto);
     }
@@ -304,6 +305,25 @@ public class Recipient {
     }
   }
 
+  /**
+   * Reloads the chat or contact and notifies the listeners on the main thread.
+   * Used by RecipientCache to update interned recipients in place.
+   */
+  void refresh(@NonNull Context context) {
+    reload(context);
+
+    DcContact contact = dcContact;
+    DcChat    chat    = dcChat;
+    if (contact!=null) {
+      maybeSetSystemContactPhoto(context, contact);
+    }
+    else if (chat!=null) {
+      maybeSetSystemContactPhotoOfChat(context, chat);
+    }
+
+    Util.runOnMain(this::notifyListeners);
+  }
+
   public DcChat getChat()
   {
     return dcChat!=null? dcChat : new DcChat(0);
@@ -0,0 +1,133 @@
+package org.thoughtcrime.securesms.recipients;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.b44t.messenger.DcContext;
+import com.b44t.messenger.DcEventCenter;
+
+import org.thoughtcrime.securesms.database.Address;
+import org.thoughtcrime.securesms.util.LRUCache;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Interns the Recipient objects of chats and contacts, keyed by Address,
+ * so that the native lookups and the system-contact-photo lookup are done once per recipient.
+ *
+ * Recipients in use are reachable through weak references, the most recently requested ones
+ * are additionally held by a bounded LRU. When chats or contacts change,
+ * the interned recipients are refreshed in place and their RecipientModifiedListeners are notified.
+ */
+public class RecipientCache implements DcEventCenter.DcEventDelegate {
+
+  private static final int MAX_STRONG_SIZE = 300;
+
+  private final Context                                  context;
+  private final HashMap<Address, RecipientReference>     recipients = new HashMap<>();
+  private final LRUCache<Address, Recipient>             recent     = new LRUCache<>(MAX_STRONG_SIZE);
+  private final ReferenceQueue<Recipient>                collected  = new ReferenceQueue<>();
+
+  public RecipientCache(@NonNull Context context, @NonNull DcEventCenter eventCenter) {
+    this.context = context.getApplicationContext();
+    eventCenter.addObserver(DcContext.DC_EVENT_CHAT_MODIFIED, this);
+    eventCenter.addObserver(DcContext.DC_EVENT_CONTACTS_CHANGED, this);
+  }
+
+  /**
+   * Returns the interned recipient for the address or null if there is none.
+   */
+  public synchronized @Nullable Recipient get(@NonNull Address address) {
+    purgeCollected();
+    RecipientReference reference = recipients.get(address);
+    Recipient recipient = reference != null ? reference.get() : null;
+    if (recipient != null) {
+      recent.remove(address);
+      recent.put(address, recipient);
+    }
+    return recipient;
+  }
+
+  /**
+   * Adds the recipient to the cache; if another thread has interned a recipient
+   * for the same address in the meantime, that one is returned instead.
+   */
+  public synchronized @NonNull Recipient intern(@NonNull Recipient recipient) {
+    Address address = recipient.getAddress();
+    Recipient existing = get(address);
+    if (existing != null) {
+      return existing;
+    }
+
+    recipients.put(address, new RecipientReference(address, recipient, collected));
+    recent.put(address, recipient);
+    return recipient;
+  }
+
+  public synchronized void clear() {
+    recipients.clear();
+    recent.clear();
+  }
+
+  private void purgeCollected() {
+    RecipientReference reference;
+    while ((reference = (RecipientReference) collected.poll()) != null) {
+      if (recipients.get(reference.address) == reference) {
+        recipients.remove(reference.address);
+      }
+    }
+  }
+
+  private synchronized @NonNull List<Recipient> getLiveRecipients() {
+    purgeCollected();
+    List<Recipient> live = new ArrayList<>(recipients.size());
+    for (RecipientReference reference : recipients.values()) {
+      Recipient recipient = reference.get();
+      if (recipient != null) {
+        live.add(recipient);
+      }
+    }
+    return live;
+  }
+
+  @Override
+  public void handleEvent(int eventId, Object data1, Object data2) {
+    int id = data1 instanceof Long ? ((Long) data1).intValue() : 0;
+
+    for (Recipient recipient : getLiveRecipients()) {
+      Address address = recipient.getAddress();
+      boolean affected;
+      if (eventId == DcContext.DC_EVENT_CHAT_MODIFIED) {
+        affected = address.isDcChat() && (id == 0 || address.getDcChatId() == id);
+      } else {
+        // names and avatars of contacts are also shown for one-to-one chats
+        affected = address.isDcContact() ? (id == 0 || address.getDcContactId() == id)
+                                         : !recipient.isGroupRecipient();
+      }
+
+      if (affected) {
+        recipient.refresh(context);
+      }
+    }
+  }
+
+  @Override
+  public boolean runOnMain() {
+    return false;
+  }
+
+  private static class RecipientReference extends WeakReference<Recipient> {
+    private final Address address;
+
+    RecipientReference(Address address, Recipient recipient, ReferenceQueue<Recipient> queue) {
+      super(recipient, queue);
+      this.address = address;
+    }
+  }
+}
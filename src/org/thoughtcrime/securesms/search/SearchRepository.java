@@ -1,53 +1,132 @@
 package org.thoughtcrime.securesms.search;
 
 import android.content.Context;
-import android.database.DatabaseUtils;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import android.text.TextUtils;
+import android.util.Log;
 
 import com.b44t.messenger.DcChatlist;
 import com.b44t.messenger.DcContext;
+import com.b44t.messenger.DcEventCenter;
+import com.b44t.messenger.DcMsg;
+import com.b44t.messenger.DcMsgSnapshots;
 
 
 import org.thoughtcrime.securesms.connect.ApplicationDcContext;
 import org.thoughtcrime.securesms.connect.DcHelper;
 import org.thoughtcrime.securesms.search.model.SearchResult;
+import org.thoughtcrime.securesms.util.Util;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Manages data retrieval for search.
+ *
+ * Each query supersedes the previous one: a superseded query is not started or stops between its stages,
+ * and its results are not delivered.
+ * Contacts and chats are delivered first, messages after.
+ * Messages found by the MessageIndex, which folds case and diacritics, are delivered at once;
+ * the messages found by the core, which also matches substrings and sender names, are appended when known.
+ * The messages found by the core for recent queries are cached; if a query contains a cached one,
+ * the cached messages are narrowed down page by page instead of searching all messages again.
+ * A new or changed message only drops the cached queries it matches, so read and delivery updates keep the cache;
+ * changes not naming a message clear it.
  */
-class SearchRepository {
+class SearchRepository implements DcEventCenter.DcEventDelegate {
+
+  private static final String TAG = SearchRepository.class.getSimpleName();
+
+  private static final int CACHED_QUERIES    = 8;
+  private static final int MAX_NARROWED_MSGS = 5000;
+  private static final int PAGE_SIZE         = 250;
 
   private final ApplicationDcContext dcContext;
   private final Executor             executor;
-  private boolean                    queryMessages = true;
+  private final AtomicInteger        generation     = new AtomicInteger();
+  private final Map<String, int[]>   cachedMessages = new LinkedHashMap<String, int[]>(CACHED_QUERIES, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Entry<String, int[]> eldest) {
+      return size() > CACHED_QUERIES;
+    }
+  };
+  private volatile boolean           queryMessages  = true;
+
+  // guarded by cachedMessages
+  private int  cacheChanges;
+  private long cacheHits;
+  private long cacheMisses;
 
   SearchRepository(@NonNull Context          context,
                    @NonNull Executor         executor)
   {
     this.dcContext        = DcHelper.getContext(context.getApplicationContext());
     this.executor         = executor;
+
+    dcContext.eventCenter.addObserver(DcContext.DC_EVENT_MSGS_CHANGED, this);
+    dcContext.eventCenter.addObserver(DcContext.DC_EVENT_INCOMING_MSG, this);
   }
 
   void query(@NonNull String query, @NonNull Callback callback) {
+    final int queryGeneration = generation.incrementAndGet();
+
     if (TextUtils.isEmpty(query)) {
       callback.onResult(SearchResult.EMPTY);
       return;
     }
 
     executor.execute(() -> {
+      if (isSuperseded(queryGeneration)) return;
+
       int[]      contacts      = dcContext.getContacts(DcContext.DC_GCL_ADD_SELF, query);
       DcChatlist conversations = dcContext.getChatlist(0, query, 0);
-      int[]      messages      = new int[0];
-      if (queryMessages) {
-        messages = dcContext.searchMsgs(0, query);
+      if (isSuperseded(queryGeneration)) return;
+
+      if (!queryMessages) {
+        callback.onResult(new SearchResult(query, contacts, conversations, new int[0]));
+        return;
+      }
+
+      String msgQuery = query.trim();
+      int[]  indexed  = dcContext.messageIndex.search(0, query);
+      if (isSuperseded(queryGeneration)) return;
+
+      // only results of the core are cached
+      int[] messages;
+      int   changes;
+      synchronized (cachedMessages) {
+        messages = cachedMessages.get(msgQuery);
+        changes  = cacheChanges;
+        if (messages != null) cacheHits++;
+        else                  cacheMisses++;
       }
 
-      callback.onResult(new SearchResult(query, contacts, conversations, messages));
+      if (messages == null) {
+        callback.onResult(new SearchResult(query, contacts, conversations, indexed != null ? indexed : new int[0]));
+
+        int[] narrowable = getNarrowableMessages(msgQuery);
+        if (narrowable != null) {
+          messages = narrowMessages(narrowable, msgQuery, indexed, queryGeneration, query, contacts, conversations, callback);
+        } else {
+          messages = dcContext.searchMsgs(0, query);
+        }
+        if (messages == null || isSuperseded(queryGeneration)) return;
+
+        synchronized (cachedMessages) {
+          // results of a search overlapping a change may miss the changed message
+          if (changes == cacheChanges) {
+            cachedMessages.put(msgQuery, messages);
+          }
+        }
+      }
+
+      callback.onResult(new SearchResult(query, contacts, conversations, merge(indexed, messages)));
     });
   }
 
@@ -55,6 +134,184 @@ class SearchRepository {
     this.queryMessages = includeMessageQueries;
   }
 
+  void close() {
+    generation.incrementAndGet();
+    dcContext.eventCenter.removeObservers(this);
+    synchronized (cachedMessages) {
+      Log.i(TAG, "message cache: hits=" + cacheHits + ", misses=" + cacheMisses);
+    }
+  }
+
+  @Override
+  public void handleEvent(int eventId, Object data1, Object data2) {
+    int msgId = Util.objectToInt(data2);
+    synchronized (cachedMessages) {
+      cacheChanges++;
+      if (cachedMessages.isEmpty()) return;
+      if (msgId <= DcMsg.DC_MSG_ID_LAST_SPECIAL) {
+        cachedMessages.clear();
+        return;
+      }
+    }
+
+    DcMsgSnapshots snapshot = dcContext.getMsgSnapshots(new int[]{msgId});
+    boolean        exists   = snapshot.getId(0) != 0;
+    String         text     = exists ? snapshot.getText(0) : null;
+    String         sender   = exists ? getContactName(snapshot.getFromId(0), new HashMap<>()) : null;
+
+    synchronized (cachedMessages) {
+      Iterator<Map.Entry<String, int[]>> iterator = cachedMessages.entrySet().iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<String, int[]> entry = iterator.next();
+        boolean                  found = containsMsgId(entry.getValue(), msgId);
+        boolean                  stale;
+        if (exists) {
+          // a new match; read and delivery updates of found or unmatched messages change nothing
+          stale = !found && (hasWildcards(entry.getKey()) || matches(text, sender, entry.getKey()));
+        } else {
+          stale = found;
+        }
+        if (stale) {
+          iterator.remove();
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean runOnMain() {
+    return false;
+  }
+
+  private boolean isSuperseded(int queryGeneration) {
+    return generation.get() != queryGeneration;
+  }
+
+  /**
+   * @return the cached messages of the longest query contained in the given one, null if there is none.
+   */
+  private @Nullable int[] getNarrowableMessages(@NonNull String msgQuery) {
+    if (hasWildcards(msgQuery)) {
+      return null;
+    }
+
+    String best         = null;
+    int[]  bestMessages = null;
+    synchronized (cachedMessages) {
+      for (Map.Entry<String, int[]> entry : cachedMessages.entrySet()) {
+        String cached = entry.getKey();
+        if (!cached.isEmpty() && containsIgnoreAsciiCase(msgQuery, cached)
+            && (best == null || cached.length() > best.length()))
+        {
+          best         = cached;
+          bestMessages = entry.getValue();
+        }
+      }
+    }
+
+    return bestMessages != null && bestMessages.length <= MAX_NARROWED_MSGS ? bestMessages : null;
+  }
+
+  /**
+   * Keeps the messages whose text or sender's name contains the query, as the core does,
+   * the first page of results is delivered as soon as it is known, following the messages found by the index.
+   *
+   * @return the matching messages, null if the query was superseded.
+   */
+  private @Nullable int[] narrowMessages(@NonNull int[] messages, @NonNull String msgQuery, @Nullable int[] indexed, int queryGeneration,
+                                         @NonNull String query, @NonNull int[] contacts, @NonNull DcChatlist conversations,
+                                         @NonNull Callback callback)
+  {
+    int[]                matches = new int[messages.length];
+    int                  count   = 0;
+    Map<Integer, String> names   = new HashMap<>();
+
+    for (int start = 0; start < messages.length; start += PAGE_SIZE) {
+      if (isSuperseded(queryGeneration)) return null;
+
+      DcMsgSnapshots snapshots = dcContext.getMsgSnapshots(Arrays.copyOfRange(messages, start, Math.min(start + PAGE_SIZE, messages.length)));
+      for (int i = 0; i < snapshots.getCount(); i++) {
+        if (snapshots.getId(i) != 0
+            && matches(snapshots.getText(i), getContactName(snapshots.getFromId(i), names), msgQuery)) {
+          matches[count++] = snapshots.getId(i);
+        }
+      }
+
+      if (start == 0 && start + PAGE_SIZE < messages.length && count > 0) {
+        callback.onResult(new SearchResult(query, contacts, conversations, merge(indexed, Arrays.copyOf(matches, count))));
+      }
+    }
+
+    Log.i(TAG, "narrowed " + messages.length + " to " + count + " messages");
+    return Arrays.copyOf(matches, count);
+  }
+
+  private @NonNull String getContactName(int contactId, @NonNull Map<Integer, String> names) {
+    String name = names.get(contactId);
+    if (name == null) {
+      name = dcContext.getContact(contactId).getName();
+      if (name == null) name = "";
+      names.put(contactId, name);
+    }
+    return name;
+  }
+
+  /**
+   * @return the messages found by the index followed by the other messages found by the core.
+   */
+  private static @NonNull int[] merge(@Nullable int[] indexed, @NonNull int[] messages) {
+    if (indexed == null || indexed.length == 0) {
+      return messages;
+    }
+
+    int[] sorted = indexed.clone();
+    Arrays.sort(sorted);
+    int[] merged = Arrays.copyOf(indexed, indexed.length + messages.length);
+    int   count  = indexed.length;
+    for (int msgId : messages) {
+      if (Arrays.binarySearch(sorted, msgId) < 0) {
+        merged[count++] = msgId;
+      }
+    }
+    return Arrays.copyOf(merged, count);
+  }
+
+  private static boolean containsMsgId(@NonNull int[] msgIds, int msgId) {
+    for (int id : msgIds) {
+      if (id == msgId) return true;
+    }
+    return false;
+  }
+
+  // the core matches messages by `m.txt LIKE %query% OR ct.name LIKE %query%`
+  private static boolean matches(@Nullable String text, @NonNull String sender, @NonNull String msgQuery) {
+    return (text != null && containsIgnoreAsciiCase(text, msgQuery)) || containsIgnoreAsciiCase(sender, msgQuery);
+  }
+
+  // with LIKE, % and _ are wildcards
+  private static boolean hasWildcards(@NonNull String msgQuery) {
+    return msgQuery.indexOf('%') >= 0 || msgQuery.indexOf('_') >= 0;
+  }
+
+  // like SQLite's LIKE, only ASCII letters are compared case-insensitively
+  private static boolean containsIgnoreAsciiCase(@NonNull String text, @NonNull String part) {
+    int last = text.length() - part.length();
+    for (int i = 0; i <= last; i++) {
+      int j = 0;
+      while (j < part.length() && toLowerAscii(text.charAt(i + j)) == toLowerAscii(part.charAt(j))) {
+        j++;
+      }
+      if (j == part.length()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static char toLowerAscii(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+  }
+
   public interface Callback {
     void onResult(@NonNull SearchResult result);
   }
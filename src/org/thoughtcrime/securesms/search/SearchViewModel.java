@@ -63,6 +63,7 @@ class SearchViewModel extends ViewModel {
   @Override
   protected void onCleared() {
     debouncer.clear();
+    searchRepository.close();
   }
 
   private static class ObservingLiveData extends MutableLiveData<SearchResult> {
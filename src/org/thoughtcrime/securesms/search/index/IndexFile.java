@@ -0,0 +1,444 @@
+package org.thoughtcrime.securesms.search.index;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * The persisted part of the message index, a read-only file that is memory-mapped.
+ *
+ * Layout, all ints big-endian:
+ * - header: MAGIC, VERSION, document count, term count, total length of all documents (long),
+ *   offset of the term bytes, offset of the postings
+ * - documents: msgId, chatId and length in terms of each indexed message, sorted by msgId
+ * - terms: offset of the term in the term bytes, offset of its postings and its document frequency;
+ *   sorted by the unsigned UTF-8 bytes of the terms and followed by an entry holding the end offsets
+ * - term bytes: the UTF-8 bytes of all terms
+ * - postings: for each document containing the term, in msgId order,
+ *   the varint delta to the previous msgId, the number of occurrences and the varint deltas of the positions
+ */
+class IndexFile {
+
+  private static final int MAGIC       = 0x4d534749; // "MSGI"
+  private static final int VERSION     = 1;
+  private static final int HEADER_SIZE = 32;
+  private static final int DOC_SIZE    = 12;
+  private static final int TERM_SIZE   = 12;
+
+  private final ByteBuffer buffer;
+  private final int        docCount;
+  private final int        termCount;
+  private final long       totalLength;
+  private final int        termsOffset;
+  private final int        termBytesOffset;
+  private final int        postingsOffset;
+
+  private IndexFile(@NonNull ByteBuffer buffer) throws IOException {
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+      throw new IOException("no message index of version " + VERSION);
+    }
+    this.buffer          = buffer;
+    this.docCount        = buffer.getInt(8);
+    this.termCount       = buffer.getInt(12);
+    this.totalLength     = buffer.getLong(16);
+    this.termBytesOffset = buffer.getInt(24);
+    this.postingsOffset  = buffer.getInt(28);
+    this.termsOffset     = HEADER_SIZE + docCount * DOC_SIZE;
+
+    if (docCount < 0 || termCount < 0
+        || termBytesOffset != termsOffset + (termCount + 1) * TERM_SIZE
+        || postingsOffset < termBytesOffset || postingsOffset > buffer.capacity())
+    {
+      throw new IOException("invalid message index");
+    }
+  }
+
+  static @NonNull IndexFile open(@NonNull File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      // the mapping stays valid after the file is closed
+      return new IndexFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      raf.close();
+    }
+  }
+
+  int getDocCount() {
+    return docCount;
+  }
+
+  long getTotalLength() {
+    return totalLength;
+  }
+
+  int getDocMsgId(int doc) {
+    return buffer.getInt(HEADER_SIZE + doc * DOC_SIZE);
+  }
+
+  int getDocChatId(int doc) {
+    return buffer.getInt(HEADER_SIZE + doc * DOC_SIZE + 4);
+  }
+
+  int getDocLength(int doc) {
+    return buffer.getInt(HEADER_SIZE + doc * DOC_SIZE + 8);
+  }
+
+  /**
+   * @return the index of the document of the message, -1 if it is not indexed.
+   */
+  int findDoc(int msgId) {
+    int low  = 0;
+    int high = docCount - 1;
+    while (low <= high) {
+      int mid   = (low + high) >>> 1;
+      int midId = getDocMsgId(mid);
+      if      (midId < msgId) low  = mid + 1;
+      else if (midId > msgId) high = mid - 1;
+      else                    return mid;
+    }
+    return -1;
+  }
+
+  int getTermCount() {
+    return termCount;
+  }
+
+  int getDocFreq(int term) {
+    return buffer.getInt(termsOffset + term * TERM_SIZE + 8);
+  }
+
+  @NonNull byte[] getTerm(int term) {
+    int    start = buffer.getInt(termsOffset + term * TERM_SIZE);
+    int    end   = buffer.getInt(termsOffset + (term + 1) * TERM_SIZE);
+    byte[] bytes = new byte[end - start];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buffer.get(termBytesOffset + start + i);
+    }
+    return bytes;
+  }
+
+  /**
+   * @return the index of the first term not sorted before the given bytes, getTermCount() if there is none.
+   */
+  int findFirstTerm(@NonNull byte[] term) {
+    int low  = 0;
+    int high = termCount;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (compareTerm(mid, term, false) < 0) low  = mid + 1;
+      else                                   high = mid;
+    }
+    return low;
+  }
+
+  /**
+   * @return the index of the term, -1 if no document contains it.
+   */
+  int findTerm(@NonNull byte[] term) {
+    int index = findFirstTerm(term);
+    return index < termCount && compareTerm(index, term, false) == 0 ? index : -1;
+  }
+
+  boolean termStartsWith(int term, @NonNull byte[] prefix) {
+    return compareTerm(term, prefix, true) == 0;
+  }
+
+  private int compareTerm(int term, @NonNull byte[] other, boolean prefixOnly) {
+    int start  = termBytesOffset + buffer.getInt(termsOffset + term * TERM_SIZE);
+    int length = buffer.getInt(termsOffset + (term + 1) * TERM_SIZE) - buffer.getInt(termsOffset + term * TERM_SIZE);
+    int common = Math.min(length, other.length);
+    for (int i = 0; i < common; i++) {
+      int diff = (buffer.get(start + i) & 0xff) - (other[i] & 0xff);
+      if (diff != 0) return diff;
+    }
+    if (prefixOnly && length >= other.length) return 0;
+    return length - other.length;
+  }
+
+  @NonNull Postings getPostings(int term) {
+    return new Postings(buffer,
+                        postingsOffset + buffer.getInt(termsOffset + term * TERM_SIZE + 4),
+                        postingsOffset + buffer.getInt(termsOffset + (term + 1) * TERM_SIZE + 4));
+  }
+
+  static int compareTerms(@NonNull byte[] a, @NonNull byte[] b) {
+    int common = Math.min(a.length, b.length);
+    for (int i = 0; i < common; i++) {
+      int diff = (a[i] & 0xff) - (b[i] & 0xff);
+      if (diff != 0) return diff;
+    }
+    return a.length - b.length;
+  }
+
+  /**
+   * Iterates over the documents containing a term.
+   */
+  static class Postings {
+
+    private final ByteBuffer buffer;
+    private final int        end;
+    private int              offset;
+    private int              msgId;
+    private int              freq;
+    private int              positionsOffset;
+
+    private Postings(@NonNull ByteBuffer buffer, int start, int end) {
+      this.buffer = buffer;
+      this.offset = start;
+      this.end    = end;
+    }
+
+    /**
+     * @return false if there are no more documents.
+     */
+    boolean next() {
+      if (positionsOffset > 0) {
+        skipPositions();
+      }
+      if (offset >= end) {
+        return false;
+      }
+      msgId          += readVarint();
+      freq            = readVarint();
+      positionsOffset = offset;
+      return true;
+    }
+
+    int getMsgId() {
+      return msgId;
+    }
+
+    int getFreq() {
+      return freq;
+    }
+
+    /**
+     * Reads the positions of the current document, positions must hold at least getFreq() ints.
+     */
+    void readPositions(@NonNull int[] positions) {
+      int position = 0;
+      offset = positionsOffset;
+      for (int i = 0; i < freq; i++) {
+        position    += readVarint();
+        positions[i] = position;
+      }
+      positionsOffset = 0;
+    }
+
+    private void skipPositions() {
+      offset = positionsOffset;
+      for (int i = 0; i < freq; i++) {
+        while ((buffer.get(offset++) & 0x80) != 0);
+      }
+      positionsOffset = 0;
+    }
+
+    private int readVarint() {
+      int  value = 0;
+      int  shift = 0;
+      byte b;
+      do {
+        b      = buffer.get(offset++);
+        value |= (b & 0x7f) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+  }
+
+  /**
+   * Encodes the postings of one term, the documents have to be added in msgId order.
+   */
+  static class PostingsBuilder {
+
+    private byte[] bytes = new byte[64];
+    private int    length;
+    private int    lastMsgId;
+    private int    docFreq;
+
+    void add(int msgId, @NonNull int[] positions, int freq) {
+      writeVarint(msgId - lastMsgId);
+      writeVarint(freq);
+      int last = 0;
+      for (int i = 0; i < freq; i++) {
+        writeVarint(positions[i] - last);
+        last = positions[i];
+      }
+      lastMsgId = msgId;
+      docFreq++;
+    }
+
+    int getDocFreq() {
+      return docFreq;
+    }
+
+    boolean isEmpty() {
+      return docFreq == 0;
+    }
+
+    @NonNull Postings read() {
+      return new Postings(ByteBuffer.wrap(bytes), 0, length);
+    }
+
+    void reset() {
+      length    = 0;
+      lastMsgId = 0;
+      docFreq   = 0;
+    }
+
+    private void writeVarint(int value) {
+      if (length + 5 > bytes.length) {
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+      while ((value & ~0x7f) != 0) {
+        bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      bytes[length++] = (byte) value;
+    }
+  }
+
+  /**
+   * Writes an index file, documents and terms have to be added in their sort order.
+   *
+   * The postings are streamed to a temporary file, only the document and term tables are kept in memory;
+   * the index is written to a temporary file as well and renamed on commit(), so that it is never read incomplete.
+   */
+  static class Writer {
+
+    private final File             file;
+    private final File             postingsFile;
+    private final OutputStream     postings;
+
+    private int[]                  docs       = new int[3 * 1024];
+    private int                    docCount;
+    private long                   totalLength;
+    private int[]                  terms      = new int[3 * 1024];
+    private int                    termCount;
+    private byte[]                 termBytes  = new byte[8 * 1024];
+    private int                    termBytesLength;
+    private int                    postingsLength;
+    private int                    lastMsgId  = -1;
+    private @Nullable byte[]       lastTerm;
+
+    Writer(@NonNull File file) throws IOException {
+      this.file         = file;
+      this.postingsFile = new File(file.getPath() + ".postings");
+      this.postings     = new BufferedOutputStream(new FileOutputStream(postingsFile), 64 * 1024);
+    }
+
+    void addDoc(int msgId, int chatId, int length) {
+      if (msgId <= lastMsgId) {
+        throw new IllegalArgumentException("documents not sorted: " + msgId + " after " + lastMsgId);
+      }
+      if (docCount * 3 + 3 > docs.length) {
+        docs = Arrays.copyOf(docs, docs.length * 2);
+      }
+      docs[docCount * 3]     = msgId;
+      docs[docCount * 3 + 1] = chatId;
+      docs[docCount * 3 + 2] = length;
+      docCount++;
+      totalLength += length;
+      lastMsgId    = msgId;
+    }
+
+    void addTerm(@NonNull byte[] term, @NonNull PostingsBuilder builder) throws IOException {
+      if (lastTerm != null && compareTerms(lastTerm, term) >= 0) {
+        throw new IllegalArgumentException("terms not sorted");
+      }
+      if (termCount * 3 + 3 > terms.length) {
+        terms = Arrays.copyOf(terms, terms.length * 2);
+      }
+      if (termBytesLength + term.length > termBytes.length) {
+        termBytes = Arrays.copyOf(termBytes, Math.max(termBytes.length * 2, termBytesLength + term.length));
+      }
+
+      terms[termCount * 3]     = termBytesLength;
+      terms[termCount * 3 + 1] = postingsLength;
+      terms[termCount * 3 + 2] = builder.getDocFreq();
+      termCount++;
+
+      System.arraycopy(term, 0, termBytes, termBytesLength, term.length);
+      termBytesLength += term.length;
+      postings.write(builder.bytes, 0, builder.length);
+      postingsLength  += builder.length;
+      lastTerm         = term;
+    }
+
+    void commit() throws IOException {
+      postings.close();
+
+      File temp = new File(file.getPath() + ".tmp");
+      try {
+        int termsOffset     = HEADER_SIZE + docCount * DOC_SIZE;
+        int termBytesOffset = termsOffset + (termCount + 1) * TERM_SIZE;
+        int postingsOffset  = termBytesOffset + termBytesLength;
+
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+        try {
+          output.writeInt(MAGIC);
+          output.writeInt(VERSION);
+          output.writeInt(docCount);
+          output.writeInt(termCount);
+          output.writeLong(totalLength);
+          output.writeInt(termBytesOffset);
+          output.writeInt(postingsOffset);
+
+          for (int i = 0; i < docCount * 3; i++) {
+            output.writeInt(docs[i]);
+          }
+          for (int i = 0; i < termCount * 3; i++) {
+            output.writeInt(terms[i]);
+          }
+          output.writeInt(termBytesLength);
+          output.writeInt(postingsLength);
+          output.writeInt(0);
+
+          output.write(termBytes, 0, termBytesLength);
+
+          InputStream input = new FileInputStream(postingsFile);
+          try {
+            byte[] buf = new byte[64 * 1024];
+            int    count;
+            while ((count = input.read(buf)) > 0) {
+              output.write(buf, 0, count);
+            }
+          } finally {
+            input.close();
+          }
+        } finally {
+          output.close();
+        }
+
+        if (!temp.renameTo(file)) {
+          throw new IOException("cannot rename " + temp);
+        }
+      } finally {
+        temp.delete();
+        postingsFile.delete();
+      }
+    }
+
+    void abort() {
+      try {
+        postings.close();
+      } catch (IOException e) {
+        // the file is deleted anyway
+      }
+      postingsFile.delete();
+    }
+  }
+}
@@ -0,0 +1,900 @@
+package org.thoughtcrime.securesms.search.index;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.b44t.messenger.DcChat;
+import com.b44t.messenger.DcChatlist;
+import com.b44t.messenger.DcContext;
+import com.b44t.messenger.DcEventCenter;
+import com.b44t.messenger.DcMsg;
+import com.b44t.messenger.DcMsgSnapshots;
+
+import org.thoughtcrime.securesms.connect.ApplicationDcContext;
+import org.thoughtcrime.securesms.util.Util;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index over the texts of the messages of an account.
+ * The in-chat search uses it instead of DcContext.searchMsgs(), the global search shows its results
+ * before those of the core, which also matches substrings and sender names.
+ *
+ * The index consists of an IndexFile next to the database and a small in-memory delta
+ * holding the messages added, changed or deleted since the file was written.
+ * The delta is kept up to date from DC_EVENT_INCOMING_MSG and DC_EVENT_MSGS_CHANGED
+ * and merged into a new file in the background when it grows; if there is no valid file,
+ * the index is built chat by chat in the background and searches fall back to the core until it is ready.
+ *
+ * A query matches messages containing all its terms; the last term of the query and terms ending with *
+ * also match longer terms, quoted terms have to occur as a phrase.
+ * Global results are ranked by BM25, newer messages first on equal ranks, results in a chat are in chat order.
+ * Results are checked against the database, so deleted messages are never returned.
+ */
+public class MessageIndex implements DcEventCenter.DcEventDelegate {
+
+  private static final String TAG = MessageIndex.class.getSimpleName();
+
+  private static final String  FILE_SUFFIX        = "-msgindex";
+  private static final String  BUILDING_SUFFIX    = ".building";
+  private static final int     PAGE_SIZE          = 250;
+  private static final int     COMPACT_DELTA_DOCS = 2000;
+  private static final int     BUILD_BATCH_DOCS   = 50000;
+  private static final int     MAX_PREFIX_TERMS   = 256;
+  private static final int     MAX_GLOBAL_RESULTS = 1000;
+  private static final float   BM25_K1            = 1.2f;
+  private static final float   BM25_B             = 0.75f;
+  private static final Charset UTF_8              = Charset.forName("UTF-8");
+
+  private final ApplicationDcContext dcContext;
+  private final File                 file;
+  private final File                 buildingFile;
+
+  private @Nullable IndexFile          base;
+  private final Map<Integer, DeltaDoc> delta    = new HashMap<>();
+  private final Map<String, String>    termPool = new HashMap<>();
+  private final Set<Integer>           pending  = new HashSet<>();
+  private int                          caughtUpMsgId;
+  // incremented when a backup is imported, the msg_ids known to the index may then refer to other messages
+  private int                          importCount;
+  private long                         deltaLength;
+  private boolean                      ready;
+  private boolean                      closed;
+  private boolean                      drainScheduled;
+  private boolean                      catchUpScheduled;
+  private boolean                      compactScheduled;
+
+  public MessageIndex(@NonNull ApplicationDcContext dcContext, @NonNull File dbFile) {
+    this.dcContext    = dcContext;
+    this.file         = getFile(dbFile);
+    this.buildingFile = new File(file.getPath() + BUILDING_SUFFIX);
+
+    dcContext.eventCenter.addObserver(DcContext.DC_EVENT_INCOMING_MSG, this);
+    dcContext.eventCenter.addObserver(DcContext.DC_EVENT_MSGS_CHANGED, this);
+    execute(this::load);
+  }
+
+  public static @NonNull File getFile(@NonNull File dbFile) {
+    return new File(dbFile.getPath() + FILE_SUFFIX);
+  }
+
+  /**
+   * Deletes the index of a database, eg. when the account is deleted.
+   */
+  public static void deleteFiles(@NonNull File dbFile) {
+    File file = getFile(dbFile);
+    file.delete();
+    new File(file.getPath() + BUILDING_SUFFIX).delete();
+  }
+
+  public synchronized boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * Indexes all messages again after a backup was imported into the account.
+   */
+  public void onBackupImported() {
+    synchronized (this) {
+      importCount++;
+      caughtUpMsgId = 0;
+      // a running build catches up from the start when it is done
+      if (catchUpScheduled || !ready) return;
+      catchUpScheduled = true;
+    }
+    execute(this::catchUp);
+  }
+
+  /**
+   * Stops updating the index, eg. before the database is closed.
+   */
+  public void close() {
+    synchronized (this) {
+      closed = true;
+    }
+    dcContext.eventCenter.removeObservers(this);
+  }
+
+  /**
+   * @param chatId the chat to search in, 0 to search all chats
+   * @return the matching messages, null if the index is not ready, the query has no terms
+   *         or contains text of scripts without word separators; DcContext.searchMsgs() has to be used then.
+   */
+  @WorkerThread
+  public @Nullable int[] search(int chatId, @NonNull String query) {
+    if (Tokenizer.hasUnsegmentedText(query)) {
+      // words are not separated, the core finds them as substrings
+      return null;
+    }
+    List<Clause> clauses = parseQuery(query);
+    if (clauses.isEmpty() || !isReady()) {
+      return null;
+    }
+
+    long start = SystemClock.elapsedRealtime();
+    drainPending();
+
+    Matches matches = null;
+    synchronized (this) {
+      for (Clause clause : clauses) {
+        Matches clauseMatches = evaluate(clause, chatId);
+        matches = matches == null ? clauseMatches : matches.intersect(clauseMatches);
+        if (matches.count == 0) break;
+      }
+    }
+
+    int[] result = chatId != 0 ? inChatOrder(chatId, matches) : ranked(matches);
+    Log.i(TAG, "found " + result.length + " messages in " + (SystemClock.elapsedRealtime() - start) + " ms");
+    return result;
+  }
+
+  @Override
+  public void handleEvent(int eventId, Object data1, Object data2) {
+    int msgId = Util.objectToInt(data2);
+    if (msgId > DcMsg.DC_MSG_ID_LAST_SPECIAL) {
+      synchronized (this) {
+        pending.add(msgId);
+        if (drainScheduled) return;
+        drainScheduled = true;
+      }
+      execute(this::drainPending);
+    } else if (eventId == DcContext.DC_EVENT_MSGS_CHANGED) {
+      // changes not naming a message, eg. messages sent from another device were added
+      synchronized (this) {
+        if (catchUpScheduled || !ready) return;
+        catchUpScheduled = true;
+      }
+      execute(this::catchUp);
+    }
+  }
+
+  @Override
+  public boolean runOnMain() {
+    return false;
+  }
+
+  private void execute(@NonNull Runnable task) {
+    Util.runOnBackground(Priority.HOUSEKEEPING, () -> {
+      synchronized (this) {
+        if (closed) return;
+      }
+      task.run();
+    });
+  }
+
+  /***********************************************************************************************
+   * Updating
+   **********************************************************************************************/
+
+  @WorkerThread
+  private void load() {
+    buildingFile.delete();
+    if (file.exists()) {
+      try {
+        IndexFile loaded = IndexFile.open(file);
+        synchronized (this) {
+          base          = loaded;
+          ready         = true;
+          caughtUpMsgId = loaded.getDocCount() > 0 ? loaded.getDocMsgId(loaded.getDocCount() - 1) : 0;
+        }
+        Log.i(TAG, "loaded index of " + loaded.getDocCount() + " messages");
+        catchUp();
+        return;
+      } catch (IOException e) {
+        Log.w(TAG, "cannot load " + file + ", rebuilding", e);
+        file.delete();
+      }
+    }
+
+    Log.i(TAG, "building index");
+    int imports;
+    synchronized (this) {
+      imports = importCount;
+    }
+    int   newestMsgId = getNewestMsgId();
+    int[] chatIds     = getChatIds();
+    execute(() -> buildStep(chatIds, 0, newestMsgId, imports, SystemClock.elapsedRealtime()));
+  }
+
+  /**
+   * Indexes one chat, each chat is a task of its own so that other housekeeping is not blocked for the whole build.
+   */
+  @WorkerThread
+  private void buildStep(@NonNull int[] chatIds, int index, int newestMsgId, int imports, long startTime) {
+    try {
+      if (index < chatIds.length) {
+        indexChat(chatIds[index], 0);
+        if (getDeltaSize() >= BUILD_BATCH_DOCS) {
+          compact(buildingFile);
+        }
+        execute(() -> buildStep(chatIds, index + 1, newestMsgId, imports, startTime));
+        return;
+      }
+
+      compact(buildingFile);
+      if (!buildingFile.renameTo(file)) {
+        throw new IOException("cannot rename " + buildingFile);
+      }
+      synchronized (this) {
+        ready         = true;
+        caughtUpMsgId = imports == importCount ? newestMsgId : 0;
+      }
+      Log.i(TAG, "built index of " + chatIds.length + " chats in " + (SystemClock.elapsedRealtime() - startTime) + " ms");
+      // messages announced only by a DC_EVENT_MSGS_CHANGED without id during the build
+      catchUp();
+    } catch (IOException | RuntimeException e) {
+      Log.e(TAG, "cannot build index", e);
+      buildingFile.delete();
+    }
+  }
+
+  /**
+   * Indexes the messages of the chats that got messages newer than the last catch-up, message ids only grow.
+   */
+  @WorkerThread
+  private void catchUp() {
+    int knownMsgId;
+    int imports;
+    synchronized (this) {
+      catchUpScheduled = false;
+      knownMsgId       = caughtUpMsgId;
+      imports          = importCount;
+    }
+
+    int newestMsgId = knownMsgId;
+    for (int listflags : new int[]{DcContext.DC_GCL_NO_SPECIALS, DcContext.DC_GCL_ARCHIVED_ONLY}) {
+      DcChatlist chatlist = dcContext.getChatlist(listflags, null, 0);
+      for (int i = 0; i < chatlist.getCnt(); i++) {
+        if (chatlist.getChatId(i) > DcChat.DC_CHAT_ID_LAST_SPECIAL && chatlist.getMsgId(i) > knownMsgId) {
+          indexChat(chatlist.getChatId(i), knownMsgId);
+          newestMsgId = Math.max(newestMsgId, chatlist.getMsgId(i));
+        }
+      }
+    }
+
+    synchronized (this) {
+      // after an import during the catch-up, the next catch-up starts over
+      if (imports == importCount) {
+        caughtUpMsgId = Math.max(caughtUpMsgId, newestMsgId);
+      }
+    }
+    compactIfNeeded();
+  }
+
+  @WorkerThread
+  private void drainPending() {
+    int[] msgIds;
+    synchronized (this) {
+      drainScheduled = false;
+      if (pending.isEmpty()) return;
+      msgIds = Util.toIntArray(pending);
+      pending.clear();
+    }
+    indexMsgs(msgIds);
+    compactIfNeeded();
+  }
+
+  private void indexChat(int chatId, int afterMsgId) {
+    int[] msgIds = dcContext.getChatMsgs(chatId, 0, 0);
+    int   count  = 0;
+    for (int msgId : msgIds) {
+      if (msgId > afterMsgId && msgId > DcMsg.DC_MSG_ID_LAST_SPECIAL) {
+        msgIds[count++] = msgId;
+      }
+    }
+    indexMsgs(Arrays.copyOf(msgIds, count));
+  }
+
+  private void indexMsgs(@NonNull int[] msgIds) {
+    for (int start = 0; start < msgIds.length; start += PAGE_SIZE) {
+      int[]          page      = Arrays.copyOfRange(msgIds, start, Math.min(start + PAGE_SIZE, msgIds.length));
+      DcMsgSnapshots snapshots = dcContext.getMsgSnapshots(page);
+      DeltaDoc[]     docs      = new DeltaDoc[page.length];
+
+      for (int i = 0; i < page.length; i++) {
+        if (snapshots.getId(i) != 0) {
+          String text = snapshots.getText(i);
+          docs[i] = new DeltaDoc(snapshots.getChatId(i), Tokenizer.tokenize(text != null ? text : ""));
+        } else {
+          docs[i] = new DeltaDoc(0, null);
+        }
+      }
+
+      synchronized (this) {
+        for (int i = 0; i < page.length; i++) {
+          putDeltaDoc(page[i], docs[i]);
+        }
+      }
+    }
+  }
+
+  private void putDeltaDoc(int msgId, @NonNull DeltaDoc doc) {
+    if (doc.terms != null) {
+      for (int i = 0; i < doc.terms.length; i++) {
+        String pooled = termPool.get(doc.terms[i]);
+        if (pooled == null) {
+          termPool.put(doc.terms[i], doc.terms[i]);
+        } else {
+          doc.terms[i] = pooled;
+        }
+      }
+      deltaLength += doc.terms.length;
+    }
+
+    DeltaDoc previous = delta.put(msgId, doc);
+    if (previous != null && previous.terms != null) {
+      deltaLength -= previous.terms.length;
+    }
+  }
+
+  private synchronized int getDeltaSize() {
+    return delta.size();
+  }
+
+  private void compactIfNeeded() {
+    synchronized (this) {
+      if (!ready || compactScheduled || delta.size() < COMPACT_DELTA_DOCS) return;
+      compactScheduled = true;
+    }
+    execute(() -> {
+      try {
+        compact(file);
+      } catch (IOException | RuntimeException e) {
+        Log.e(TAG, "cannot compact index", e);
+      } finally {
+        synchronized (this) {
+          compactScheduled = false;
+        }
+      }
+    });
+  }
+
+  /**
+   * Merges the file and the delta into a new file, the merged messages are removed from the delta.
+   * Messages added to the delta meanwhile stay there.
+   */
+  @WorkerThread
+  private void compact(@NonNull File target) throws IOException {
+    long                   start = SystemClock.elapsedRealtime();
+    IndexFile              oldBase;
+    Map<Integer, DeltaDoc> merged;
+    synchronized (this) {
+      oldBase = base;
+      merged  = new HashMap<>(delta);
+    }
+
+    int[] deltaIds = Util.toIntArray(merged.keySet());
+    Arrays.sort(deltaIds);
+
+    IndexFile.Writer writer = new IndexFile.Writer(target);
+    try {
+      // documents of the file not replaced by the delta and documents of the delta, in msgId order
+      int baseDocs = oldBase != null ? oldBase.getDocCount() : 0;
+      int b        = 0;
+      int d        = 0;
+      while (b < baseDocs || d < deltaIds.length) {
+        int baseId  = b < baseDocs ? oldBase.getDocMsgId(b) : Integer.MAX_VALUE;
+        int deltaId = d < deltaIds.length ? deltaIds[d] : Integer.MAX_VALUE;
+        if (deltaId <= baseId) {
+          DeltaDoc doc = merged.get(deltaId);
+          if (doc.terms != null) writer.addDoc(deltaId, doc.chatId, doc.terms.length);
+          if (deltaId == baseId) b++;
+          d++;
+        } else {
+          writer.addDoc(baseId, oldBase.getDocChatId(b), oldBase.getDocLength(b));
+          b++;
+        }
+      }
+
+      // postings of the delta per term
+      Map<String, IndexFile.PostingsBuilder> deltaPostings = new HashMap<>();
+      int[]                                  positions     = new int[16];
+      for (int msgId : deltaIds) {
+        String[] terms = merged.get(msgId).terms;
+        if (terms == null) continue;
+
+        int[]                nextSame = new int[terms.length];
+        Map<String, Integer> last     = new HashMap<>();
+        for (int i = 0; i < terms.length; i++) {
+          nextSame[i] = -1;
+          Integer previous = last.put(terms[i], i);
+          if (previous != null) nextSame[previous] = i;
+        }
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < terms.length; i++) {
+          if (!seen.add(terms[i])) continue;
+          int freq = 0;
+          for (int j = i; j >= 0; j = nextSame[j]) {
+            if (freq == positions.length) positions = Arrays.copyOf(positions, freq * 2);
+            positions[freq++] = j;
+          }
+          IndexFile.PostingsBuilder builder = deltaPostings.get(terms[i]);
+          if (builder == null) {
+            builder = new IndexFile.PostingsBuilder();
+            deltaPostings.put(terms[i], builder);
+          }
+          builder.add(msgId, positions, freq);
+        }
+      }
+
+      byte[][] deltaTerms = new byte[deltaPostings.size()][];
+      String[] termNames  = deltaPostings.keySet().toArray(new String[0]);
+      for (int i = 0; i < termNames.length; i++) {
+        deltaTerms[i] = termNames[i].getBytes(UTF_8);
+      }
+      Integer[] order = new Integer[termNames.length];
+      for (int i = 0; i < order.length; i++) order[i] = i;
+      Arrays.sort(order, (x, y) -> IndexFile.compareTerms(deltaTerms[x], deltaTerms[y]));
+
+      // terms of the file and of the delta, in term order
+      IndexFile.PostingsBuilder out       = new IndexFile.PostingsBuilder();
+      int                       baseTerms = oldBase != null ? oldBase.getTermCount() : 0;
+      int                       bt        = 0;
+      int                       dt        = 0;
+      while (bt < baseTerms || dt < order.length) {
+        byte[] baseTerm  = bt < baseTerms ? oldBase.getTerm(bt) : null;
+        byte[] deltaTerm = dt < order.length ? deltaTerms[order[dt]] : null;
+        int    compare   = baseTerm == null ? 1 : deltaTerm == null ? -1 : IndexFile.compareTerms(baseTerm, deltaTerm);
+
+        if (compare > 0) {
+          writer.addTerm(deltaTerm, deltaPostings.get(termNames[order[dt]]));
+          dt++;
+          continue;
+        }
+
+        IndexFile.Postings basePostings = oldBase.getPostings(bt);
+        IndexFile.Postings newPostings  = compare == 0 ? deltaPostings.get(termNames[order[dt]]).read() : null;
+        boolean            hasBase      = nextNotReplaced(basePostings, merged);
+        boolean            hasNew       = newPostings != null && newPostings.next();
+        while (hasBase || hasNew) {
+          if (hasNew && (!hasBase || newPostings.getMsgId() < basePostings.getMsgId())) {
+            positions = copyPostings(newPostings, out, positions);
+            hasNew    = newPostings.next();
+          } else {
+            positions = copyPostings(basePostings, out, positions);
+            hasBase   = nextNotReplaced(basePostings, merged);
+          }
+        }
+
+        if (!out.isEmpty()) {
+          writer.addTerm(baseTerm, out);
+          out.reset();
+        }
+        bt++;
+        if (compare == 0) dt++;
+      }
+
+      writer.commit();
+    } catch (IOException | RuntimeException e) {
+      writer.abort();
+      throw e;
+    }
+
+    IndexFile newBase = IndexFile.open(target);
+    synchronized (this) {
+      base = newBase;
+      for (Map.Entry<Integer, DeltaDoc> entry : merged.entrySet()) {
+        if (delta.get(entry.getKey()) == entry.getValue()) {
+          DeltaDoc doc = delta.remove(entry.getKey());
+          if (doc.terms != null) deltaLength -= doc.terms.length;
+        }
+      }
+      if (delta.isEmpty()) termPool.clear();
+    }
+    Log.i(TAG, "merged " + merged.size() + " messages into index of " + newBase.getDocCount()
+        + " messages in " + (SystemClock.elapsedRealtime() - start) + " ms");
+  }
+
+  private static boolean nextNotReplaced(@NonNull IndexFile.Postings postings, @NonNull Map<Integer, DeltaDoc> replaced) {
+    while (postings.next()) {
+      if (!replaced.containsKey(postings.getMsgId())) return true;
+    }
+    return false;
+  }
+
+  private static @NonNull int[] copyPostings(@NonNull IndexFile.Postings postings, @NonNull IndexFile.PostingsBuilder out, @NonNull int[] positions) {
+    if (positions.length < postings.getFreq()) {
+      positions = new int[Math.max(postings.getFreq(), positions.length * 2)];
+    }
+    postings.readPositions(positions);
+    out.add(postings.getMsgId(), positions, postings.getFreq());
+    return positions;
+  }
+
+  private int getNewestMsgId() {
+    int newestMsgId = 0;
+    for (int listflags : new int[]{DcContext.DC_GCL_NO_SPECIALS, DcContext.DC_GCL_ARCHIVED_ONLY}) {
+      DcChatlist chatlist = dcContext.getChatlist(listflags, null, 0);
+      for (int i = 0; i < chatlist.getCnt(); i++) {
+        newestMsgId = Math.max(newestMsgId, chatlist.getMsgId(i));
+      }
+    }
+    return newestMsgId;
+  }
+
+  private @NonNull int[] getChatIds() {
+    List<Integer> chatIds = new ArrayList<>();
+    for (int listflags : new int[]{DcContext.DC_GCL_NO_SPECIALS, DcContext.DC_GCL_ARCHIVED_ONLY}) {
+      DcChatlist chatlist = dcContext.getChatlist(listflags, null, 0);
+      for (int i = 0; i < chatlist.getCnt(); i++) {
+        if (chatlist.getChatId(i) > DcChat.DC_CHAT_ID_LAST_SPECIAL) {
+          chatIds.add(chatlist.getChatId(i));
+        }
+      }
+    }
+    return Util.toIntArray(chatIds);
+  }
+
+  /***********************************************************************************************
+   * Searching
+   **********************************************************************************************/
+
+  /**
+   * Splits the query into clauses, a quoted phrase or a word splitting into several terms, eg. "e-mail",
+   * is a clause of several terms.
+   */
+  static @NonNull List<Clause> parseQuery(@NonNull String query) {
+    List<Clause> clauses  = new ArrayList<>();
+    String[]     parts    = query.split("\"", -1);
+    boolean      endsOpen = !query.isEmpty() && !Character.isWhitespace(query.charAt(query.length() - 1));
+
+    for (int p = 0; p < parts.length; p++) {
+      if (p % 2 == 1) {
+        List<String> terms = Tokenizer.tokenize(parts[p]);
+        if (!terms.isEmpty()) {
+          clauses.add(new Clause(terms.toArray(new String[0]), false));
+        }
+        continue;
+      }
+
+      String[] words = parts[p].trim().split("\\s+");
+      for (int w = 0; w < words.length; w++) {
+        List<String> terms = Tokenizer.tokenize(words[w]);
+        if (terms.isEmpty()) continue;
+        boolean last = p == parts.length - 1 && w == words.length - 1;
+        clauses.add(new Clause(terms.toArray(new String[0]), words[w].endsWith("*") || (last && endsOpen)));
+      }
+    }
+    return clauses;
+  }
+
+  private @NonNull Matches evaluate(@NonNull Clause clause, int chatId) {
+    boolean phrase  = clause.terms.length > 1;
+    Matches matches = getTermMatches(clause.terms[0], clause.prefix && !phrase, chatId, phrase);
+    for (int i = 1; i < clause.terms.length && matches.count > 0; i++) {
+      boolean prefix = clause.prefix && i == clause.terms.length - 1;
+      matches = matches.followedBy(getTermMatches(clause.terms[i], prefix, chatId, true), i);
+    }
+
+    long docCount    = (base != null ? base.getDocCount() : 0) + delta.size();
+    long totalLength = (base != null ? base.getTotalLength() : 0) + deltaLength;
+    matches.score(docCount, docCount > 0 ? (float) totalLength / docCount : 1);
+    return matches;
+  }
+
+  private @NonNull Matches getTermMatches(@NonNull String term, boolean prefix, int chatId, boolean withPositions) {
+    Matches.Builder builder   = new Matches.Builder(withPositions);
+    int[]           positions = new int[16];
+
+    if (base != null) {
+      byte[] bytes = term.getBytes(UTF_8);
+      int    first = prefix ? base.findFirstTerm(bytes) : base.findTerm(bytes);
+      int    end   = prefix ? Math.min(base.getTermCount(), first + MAX_PREFIX_TERMS) : first + 1;
+      for (int t = first; t >= 0 && t < end; t++) {
+        if (prefix && !base.termStartsWith(t, bytes)) break;
+
+        IndexFile.Postings postings = base.getPostings(t);
+        int                doc      = 0;
+        while (postings.next()) {
+          int msgId = postings.getMsgId();
+          if (delta.containsKey(msgId)) continue;
+
+          int found = findDocFrom(msgId, doc);
+          if (found < 0) continue;
+          doc = found;
+          if (chatId != 0 && base.getDocChatId(doc) != chatId) continue;
+
+          if (withPositions) {
+            if (positions.length < postings.getFreq()) positions = new int[postings.getFreq()];
+            postings.readPositions(positions);
+          }
+          builder.add(msgId, base.getDocLength(doc), positions, postings.getFreq());
+        }
+      }
+    }
+
+    for (Map.Entry<Integer, DeltaDoc> entry : delta.entrySet()) {
+      DeltaDoc doc = entry.getValue();
+      if (doc.terms == null || (chatId != 0 && doc.chatId != chatId)) continue;
+
+      int freq = 0;
+      for (int i = 0; i < doc.terms.length; i++) {
+        if (prefix ? doc.terms[i].startsWith(term) : doc.terms[i].equals(term)) {
+          if (freq == positions.length) positions = Arrays.copyOf(positions, freq * 2);
+          positions[freq++] = i;
+        }
+      }
+      if (freq > 0) {
+        builder.add(entry.getKey(), doc.terms.length, positions, freq);
+      }
+    }
+
+    return builder.build();
+  }
+
+  /**
+   * @return the document of the message in the file, searching from the given document on.
+   */
+  private int findDocFrom(int msgId, int from) {
+    int low  = from;
+    int high = base.getDocCount() - 1;
+    while (low <= high) {
+      int mid   = (low + high) >>> 1;
+      int midId = base.getDocMsgId(mid);
+      if      (midId < msgId) low  = mid + 1;
+      else if (midId > msgId) high = mid - 1;
+      else                    return mid;
+    }
+    return -1;
+  }
+
+  /**
+   * @return the matches that are still in the chat, in chat order.
+   */
+  private @NonNull int[] inChatOrder(int chatId, @NonNull Matches matches) {
+    int[] chatMsgs = dcContext.getChatMsgs(chatId, 0, 0);
+    int   count    = 0;
+    for (int msgId : chatMsgs) {
+      if (Arrays.binarySearch(matches.msgIds, 0, matches.count, msgId) >= 0) {
+        chatMsgs[count++] = msgId;
+      }
+    }
+    return Arrays.copyOf(chatMsgs, count);
+  }
+
+  /**
+   * @return the best matches that still exist, best first.
+   */
+  private @NonNull int[] ranked(@NonNull Matches matches) {
+    // scores are positive, so the order of their bits is the order of the scores
+    long[] keys = new long[matches.count];
+    for (int i = 0; i < matches.count; i++) {
+      keys[i] = ((long) Float.floatToIntBits(matches.scores[i]) << 32) | matches.msgIds[i];
+    }
+    Arrays.sort(keys);
+
+    int[] best = new int[Math.min(keys.length, MAX_GLOBAL_RESULTS)];
+    for (int i = 0; i < best.length; i++) {
+      best[i] = (int) keys[keys.length - 1 - i];
+    }
+
+    int[] result = new int[best.length];
+    int   count  = 0;
+    for (int start = 0; start < best.length; start += PAGE_SIZE) {
+      DcMsgSnapshots snapshots = dcContext.getMsgSnapshots(Arrays.copyOfRange(best, start, Math.min(start + PAGE_SIZE, best.length)));
+      for (int i = 0; i < snapshots.getCount(); i++) {
+        if (snapshots.getId(i) != 0) {
+          result[count++] = snapshots.getId(i);
+        }
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  static class Clause {
+    final String[] terms;
+    final boolean  prefix;
+
+    Clause(@NonNull String[] terms, boolean prefix) {
+      this.terms  = terms;
+      this.prefix = prefix;
+    }
+  }
+
+  private static class DeltaDoc {
+    final int                chatId;
+    final @Nullable String[] terms; // null if the message was deleted
+
+    DeltaDoc(int chatId, @Nullable List<String> terms) {
+      this.chatId = chatId;
+      this.terms  = terms != null ? terms.toArray(new String[0]) : null;
+    }
+  }
+
+  /**
+   * The messages matching a clause, sorted by msgId, with the occurrences and positions of the clause.
+   */
+  private static class Matches {
+
+    int       count;
+    int[]     msgIds;
+    int[]     freqs;
+    int[]     lengths;
+    float[]   scores;
+    int[]     positionStart; // positions of match i are positions[positionStart[i]] to positions[positionStart[i+1]-1]
+    int[]     positions;
+
+    /**
+     * @return the matches where the given matches occur offset terms after the start of these matches.
+     */
+    @NonNull Matches followedBy(@NonNull Matches next, int offset) {
+      Builder builder = new Builder(true);
+      int[]   found   = new int[16];
+      int     i       = 0;
+      int     j       = 0;
+      while (i < count && j < next.count) {
+        if      (msgIds[i] < next.msgIds[j]) i++;
+        else if (msgIds[i] > next.msgIds[j]) j++;
+        else {
+          int freq = 0;
+          for (int p = positionStart[i]; p < positionStart[i + 1]; p++) {
+            if (Arrays.binarySearch(next.positions, next.positionStart[j], next.positionStart[j + 1], positions[p] + offset) >= 0) {
+              if (freq == found.length) found = Arrays.copyOf(found, freq * 2);
+              found[freq++] = positions[p];
+            }
+          }
+          if (freq > 0) builder.add(msgIds[i], lengths[i], found, freq);
+          i++;
+          j++;
+        }
+      }
+      return builder.build();
+    }
+
+    /**
+     * @return the messages of both matches, with the sum of their scores.
+     */
+    @NonNull Matches intersect(@NonNull Matches other) {
+      Matches result = new Matches();
+      result.msgIds  = new int[Math.min(count, other.count)];
+      result.scores  = new float[result.msgIds.length];
+      int i = 0;
+      int j = 0;
+      while (i < count && j < other.count) {
+        if      (msgIds[i] < other.msgIds[j]) i++;
+        else if (msgIds[i] > other.msgIds[j]) j++;
+        else {
+          result.msgIds[result.count] = msgIds[i];
+          result.scores[result.count] = scores[i] + other.scores[j];
+          result.count++;
+          i++;
+          j++;
+        }
+      }
+      return result;
+    }
+
+    void score(long docCount, float averageLength) {
+      float idf = (float) Math.log(1 + (docCount - count + 0.5) / (count + 0.5));
+      scores = new float[count];
+      for (int i = 0; i < count; i++) {
+        float norm = BM25_K1 * (1 - BM25_B + BM25_B * lengths[i] / averageLength);
+        // a small epsilon keeps scores positive for terms occurring in nearly all messages
+        scores[i] = Math.max(idf, 0.0001f) * freqs[i] * (BM25_K1 + 1) / (freqs[i] + norm);
+      }
+    }
+
+    static class Builder {
+
+      private final boolean withPositions;
+      private int           count;
+      private int[]         msgIds    = new int[64];
+      private int[]         freqs     = new int[64];
+      private int[]         lengths   = new int[64];
+      private int[]         posStart  = new int[64];
+      private int[]         positions = new int[64];
+      private int           positionCount;
+      private boolean       sorted    = true;
+
+      Builder(boolean withPositions) {
+        this.withPositions = withPositions;
+      }
+
+      void add(int msgId, int length, @NonNull int[] matchPositions, int freq) {
+        if (count == msgIds.length) {
+          msgIds   = Arrays.copyOf(msgIds,   count * 2);
+          freqs    = Arrays.copyOf(freqs,    count * 2);
+          lengths  = Arrays.copyOf(lengths,  count * 2);
+          posStart = Arrays.copyOf(posStart, count * 2);
+        }
+        if (count > 0 && msgId <= msgIds[count - 1]) {
+          sorted = false;
+        }
+        msgIds[count]   = msgId;
+        freqs[count]    = freq;
+        lengths[count]  = length;
+        posStart[count] = positionCount;
+        count++;
+
+        if (withPositions) {
+          if (positionCount + freq > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(positions.length * 2, positionCount + freq));
+          }
+          System.arraycopy(matchPositions, 0, positions, positionCount, freq);
+          positionCount += freq;
+        }
+      }
+
+      @NonNull Matches build() {
+        Matches matches = new Matches();
+        if (sorted) {
+          matches.count         = count;
+          matches.msgIds        = msgIds;
+          matches.freqs         = freqs;
+          matches.lengths       = lengths;
+          matches.positionStart = Arrays.copyOf(posStart, count + 1);
+          matches.positionStart[count] = positionCount;
+          matches.positions     = positions;
+          return matches;
+        }
+
+        // matches of several terms of a prefix or of the file and the delta: sort and merge the matches of a message
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+          keys[i] = ((long) msgIds[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        matches.msgIds        = new int[count];
+        matches.freqs         = new int[count];
+        matches.lengths       = new int[count];
+        matches.positionStart = new int[count + 1];
+        matches.positions     = new int[withPositions ? positionCount : 0];
+        int positionsOut      = 0;
+        for (int k = 0; k < count; k++) {
+          int i = (int) keys[k];
+          int n = matches.count;
+          if (n == 0 || matches.msgIds[n - 1] != msgIds[i]) {
+            matches.msgIds[n]        = msgIds[i];
+            matches.lengths[n]       = lengths[i];
+            matches.positionStart[n] = positionsOut;
+            matches.count++;
+            n++;
+          }
+          matches.freqs[n - 1] += freqs[i];
+          if (withPositions) {
+            System.arraycopy(positions, posStart[i], matches.positions, positionsOut, freqs[i]);
+            positionsOut += freqs[i];
+            Arrays.sort(matches.positions, matches.positionStart[n - 1], positionsOut);
+          }
+        }
+        matches.positionStart[matches.count] = positionsOut;
+        return matches;
+      }
+    }
+  }
+}
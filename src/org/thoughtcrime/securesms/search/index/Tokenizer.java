@@ -0,0 +1,114 @@
+package org.thoughtcrime.securesms.search.index;
+
+import androidx.annotation.NonNull;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Splits text into the terms of the message index.
+ *
+ * A term is a run of letters and digits, folded to lower case and with diacritics removed,
+ * so that eg. an accented and a plain "e" are the same.
+ * The position of a term is its number in the text, used to match phrases.
+ *
+ * Scripts written without spaces between words, eg. Chinese or Thai, cannot be split into words this way;
+ * their characters are not indexed and queries containing them are left to the substring search of the core.
+ */
+class Tokenizer {
+
+  static final int MAX_TERM_LENGTH = 64;
+
+  private static final Pattern DIACRITICS = Pattern.compile("\\p{Mn}+");
+
+  private static final Set<Character.UnicodeBlock> UNSEGMENTED_BLOCKS = new HashSet<>(Arrays.asList(
+      Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS,
+      Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A,
+      Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_B,
+      Character.UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS,
+      Character.UnicodeBlock.HIRAGANA,
+      Character.UnicodeBlock.KATAKANA,
+      Character.UnicodeBlock.KATAKANA_PHONETIC_EXTENSIONS,
+      Character.UnicodeBlock.HANGUL_SYLLABLES,
+      Character.UnicodeBlock.HANGUL_JAMO,
+      Character.UnicodeBlock.THAI,
+      Character.UnicodeBlock.LAO,
+      Character.UnicodeBlock.KHMER,
+      Character.UnicodeBlock.MYANMAR,
+      Character.UnicodeBlock.TIBETAN));
+
+  static @NonNull String fold(@NonNull String text) {
+    String folded = text;
+    if (!isAscii(text)) {
+      folded = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+    }
+    return folded.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * @return the terms of the text in order, a term occurring several times is returned several times.
+   */
+  static @NonNull List<String> tokenize(@NonNull String text) {
+    List<String> terms  = new ArrayList<>();
+    String       folded = fold(text);
+    int          length = folded.length();
+    int          start  = -1;
+
+    for (int i = 0; i < length; ) {
+      int     c    = folded.codePointAt(i);
+      boolean word = Character.isLetterOrDigit(c) && !isUnsegmented(c);
+      if (word && start < 0) {
+        start = i;
+      } else if (!word && start >= 0) {
+        addTerm(terms, folded, start, i);
+        start = -1;
+      }
+      i += Character.charCount(c);
+    }
+    if (start >= 0) {
+      addTerm(terms, folded, start, length);
+    }
+
+    return terms;
+  }
+
+  private static void addTerm(@NonNull List<String> terms, @NonNull String folded, int start, int end) {
+    // overlong terms, eg. encoded data, are cut instead of bloating the dictionary
+    if (end - start > MAX_TERM_LENGTH) {
+      end = start + MAX_TERM_LENGTH;
+      if (Character.isHighSurrogate(folded.charAt(end - 1))) end--;
+    }
+    terms.add(folded.substring(start, end));
+  }
+
+  /**
+   * @return true if the text contains characters of scripts without spaces between words,
+   *         a word inside such text is only found by a substring search.
+   */
+  static boolean hasUnsegmentedText(@NonNull String text) {
+    for (int i = 0; i < text.length(); ) {
+      int c = text.codePointAt(i);
+      if (isUnsegmented(c)) return true;
+      i += Character.charCount(c);
+    }
+    return false;
+  }
+
+  private static boolean isUnsegmented(int codePoint) {
+    // scripts of the blocks are all above U+0E00, skip the lookup for latin, greek, cyrillic and the like
+    return codePoint >= 0x0E00 && UNSEGMENTED_BLOCKS.contains(Character.UnicodeBlock.of(codePoint));
+  }
+
+  private static boolean isAscii(@NonNull String text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) >= 0x80) return false;
+    }
+    return true;
+  }
+}
@@ -8,7 +8,6 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.ColorFilter;
 import android.graphics.ImageFormat;
-import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffColorFilter;
@@ -27,19 +26,15 @@ import android.util.Log;
 import android.util.Pair;
 import android.view.View;
 
-import com.b44t.messenger.DcMsg;
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.bumptech.glide.load.resource.bitmap.DownsampleStrategy;
 
-import org.thoughtcrime.securesms.connect.DcHelper;
 import org.thoughtcrime.securesms.mms.GlideApp;
 import org.thoughtcrime.securesms.mms.MediaConstraints;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.concurrent.ExecutionException;
@@ -383,86 +378,6 @@ public class BitmapUtil {
     }
   }
 
-  // recode jpeg
-  //////////////////////////////////////////////////////////////////////////////////////////////////
-
-  public static void recodeImageMsg(Context context, DcMsg msg)
-  {
-    int desiredWH = 1280;
-    int desiredJpegQuality = 85;
-
-    if (Prefs.isHardCompressionEnabled(context)) {
-      desiredWH = 640;
-      desiredJpegQuality = 75;
-    }
-
-    try {
-      String inPath = msg.getFile();
-      if(inPath==null || !new File(inPath).exists()) {
-        return;
-      }
-
-      Matrix matrix = new Matrix();
-
-      // find out scaling
-      BitmapFactory.Options bmOptions = new BitmapFactory.Options();
-      bmOptions.inJustDecodeBounds = true;
-      BitmapFactory.decodeFile(inPath, bmOptions);
-
-      if( bmOptions.outWidth<1 || bmOptions.outHeight<1
-       || (bmOptions.outWidth <= desiredWH && bmOptions.outHeight <= desiredWH)) {
-        Log.i(TAG, String.format("recoding of %s not needed, image is small enough", inPath));
-        return;
-      }
-
-      float scaleFactor = Math.min((float)desiredWH/(float)bmOptions.outWidth, (float)desiredWH/(float)bmOptions.outHeight);
-      matrix.postScale(scaleFactor, scaleFactor);
-
-      // find out rotating
-      {
-        android.media.ExifInterface exif;
-        try {
-          exif = new android.media.ExifInterface(inPath);
-          int orientation = exif.getAttributeInt(android.media.ExifInterface.TAG_ORIENTATION, 1);
-          switch (orientation) {
-            case android.media.ExifInterface.ORIENTATION_ROTATE_90:
-              matrix.postRotate(90);
-              break;
-            case android.media.ExifInterface.ORIENTATION_ROTATE_180:
-              matrix.postRotate(180);
-              break;
-            case android.media.ExifInterface.ORIENTATION_ROTATE_270:
-              matrix.postRotate(270);
-              break;
-          }
-        } catch (Throwable e) {
-          Log.i(TAG, String.format("cannot get exif information for %s", inPath));
-        }
-      }
-
-      // recode file
-      Bitmap inBitmap = BitmapFactory.decodeFile(inPath, null);
-      Bitmap outBitmap = Bitmap.createBitmap(inBitmap, 0, 0, inBitmap.getWidth(), inBitmap.getHeight(), matrix, false);
-      inBitmap.recycle();
-
-      String outPath = DcHelper.getContext(context).getBlobdirFile(inPath);
-      FileOutputStream outStream = new FileOutputStream(outPath);
-      if(!outBitmap.compress(Bitmap.CompressFormat.JPEG, desiredJpegQuality, outStream)) {
-        return;
-      }
-
-      msg.setDimension(outBitmap.getWidth(), outBitmap.getHeight());
-      msg.setFile(outPath, null);
-      outBitmap.recycle();
-
-      Log.i(TAG, String.format("recoding for %s done", inPath));
-    }
-    catch(Exception e) {
-      e.printStackTrace();
-    }
-  }
-
-
   /**
    * Generate a Bitmap from an Android SDK View.
    *
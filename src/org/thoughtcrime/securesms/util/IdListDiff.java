@@ -0,0 +1,92 @@
+package org.thoughtcrime.securesms.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Computes the differences between two lists of ids, eg. the message ids of a chat
+ * before and after a DC_EVENT_MSGS_CHANGED.
+ *
+ * The lists are expected to differ only in a few places (new messages appended, some messages
+ * deleted), so the common prefix and suffix are skipped in linear time and only the remaining
+ * middle part is compared. Ids that are in both lists are expected to keep their relative order;
+ * if they do not, the whole middle part is reported as removed and inserted again.
+ *
+ * The reported operations are to be applied one after another,
+ * the indices always refer to the list with all previous operations applied.
+ */
+public class IdListDiff {
+
+  public interface Callback {
+    void onRemoved(int index, int count);
+    void onInserted(int index, int count);
+  }
+
+  /**
+   * @return true if there were any differences, false if both lists are equal.
+   */
+  public static boolean dispatch(@NonNull int[] oldIds, @NonNull int[] newIds, @NonNull Callback callback) {
+    int oldEnd = oldIds.length;
+    int newEnd = newIds.length;
+
+    int start = 0;
+    while (start < oldEnd && start < newEnd && oldIds[start] == newIds[start]) {
+      start++;
+    }
+
+    while (oldEnd > start && newEnd > start && oldIds[oldEnd-1] == newIds[newEnd-1]) {
+      oldEnd--;
+      newEnd--;
+    }
+
+    if (start == oldEnd && start == newEnd) {
+      return false;
+    }
+
+    int[] oldSorted = Arrays.copyOfRange(oldIds, start, oldEnd);
+    int[] newSorted = Arrays.copyOfRange(newIds, start, newEnd);
+    Arrays.sort(oldSorted);
+    Arrays.sort(newSorted);
+
+    int pos = start;
+    int i   = start;
+    int j   = start;
+    while (i < oldEnd || j < newEnd) {
+      if (i < oldEnd && Arrays.binarySearch(newSorted, oldIds[i]) < 0) {
+        int run = 1;
+        while (i + run < oldEnd && Arrays.binarySearch(newSorted, oldIds[i + run]) < 0) {
+          run++;
+        }
+        callback.onRemoved(pos, run);
+        i += run;
+      }
+      else if (j < newEnd && Arrays.binarySearch(oldSorted, newIds[j]) < 0) {
+        int run = 1;
+        while (j + run < newEnd && Arrays.binarySearch(oldSorted, newIds[j + run]) < 0) {
+          run++;
+        }
+        callback.onInserted(pos, run);
+        pos += run;
+        j += run;
+      }
+      else if (i < oldEnd && j < newEnd && oldIds[i] == newIds[j]) {
+        pos++;
+        i++;
+        j++;
+      }
+      else {
+        // the order of the remaining ids has changed, replace them as a whole
+        if (i < oldEnd) {
+          callback.onRemoved(pos, oldEnd - i);
+        }
+        if (j < newEnd) {
+          callback.onInserted(pos, newEnd - j);
+        }
+        break;
+      }
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,231 @@
+package org.thoughtcrime.securesms.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.exifinterface.media.ExifInterface;
+
+import com.b44t.messenger.DcMsg;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
+
+import org.thoughtcrime.securesms.connect.DcHelper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Recodes images to JPEG files of at most 1280 (or 640 with hard compression) pixels.
+ *
+ * The image is decoded with the largest power-of-two inSampleSize that keeps it above the target size,
+ * the EXIF orientation and the remaining scale are then applied in one pass into the output bitmap.
+ * Decoded and output bitmaps are taken from and returned to Glide's BitmapPool.
+ *
+ * All recodings share a memory budget, a quarter of the heap;
+ * a recoding waits until its bitmaps fit into the budget or no other recoding is running.
+ */
+public class ImageRecoder {
+
+  private static final String TAG = ImageRecoder.class.getSimpleName();
+
+  private static final int BYTES_PER_PIXEL = 4; // ARGB_8888
+
+  private static final Object budgetLock = new Object();
+  private static final long   budget     = Runtime.getRuntime().maxMemory() / 4;
+  private static       long   budgetUsed;
+
+  /**
+   * Recodes the file of the message if it is larger than the target size,
+   * the message is updated to the new file and dimensions.
+   */
+  @WorkerThread
+  public static void recodeImageMsg(@NonNull Context context, @NonNull DcMsg msg) {
+    int desiredWH = 1280;
+    int desiredJpegQuality = 85;
+
+    if (Prefs.isHardCompressionEnabled(context)) {
+      desiredWH = 640;
+      desiredJpegQuality = 75;
+    }
+
+    String inPath = msg.getFile();
+    if (inPath == null || !new File(inPath).exists()) {
+      return;
+    }
+
+    BitmapFactory.Options bounds = new BitmapFactory.Options();
+    bounds.inJustDecodeBounds = true;
+    BitmapFactory.decodeFile(inPath, bounds);
+
+    if (bounds.outWidth < 1 || bounds.outHeight < 1
+     || (bounds.outWidth <= desiredWH && bounds.outHeight <= desiredWH)) {
+      Log.i(TAG, String.format("recoding of %s not needed, image is small enough", inPath));
+      return;
+    }
+
+    int sampleSize = getSampleSize(bounds.outWidth, bounds.outHeight, desiredWH);
+    int decodedW   = (bounds.outWidth  + sampleSize - 1) / sampleSize;
+    int decodedH   = (bounds.outHeight + sampleSize - 1) / sampleSize;
+    float scale    = Math.min((float) desiredWH / decodedW, (float) desiredWH / decodedH);
+    long needed    = ((long) decodedW * decodedH + (long) Math.ceil(decodedW * scale) * (long) Math.ceil(decodedH * scale)) * BYTES_PER_PIXEL;
+
+    BitmapPool pool = Glide.get(context).getBitmapPool();
+    Bitmap decoded  = null;
+    Bitmap out      = null;
+
+    acquireBudget(needed);
+    try {
+      decoded = decode(pool, inPath, sampleSize, decodedW, decodedH);
+      if (decoded == null) {
+        Log.w(TAG, String.format("cannot decode %s", inPath));
+        return;
+      }
+
+      Matrix matrix = new Matrix();
+      matrix.postScale(scale, scale);
+      applyOrientation(matrix, getOrientation(inPath));
+
+      RectF rect = new RectF(0, 0, decoded.getWidth(), decoded.getHeight());
+      matrix.mapRect(rect);
+      matrix.postTranslate(-rect.left, -rect.top);
+
+      out = pool.get(Math.max(1, Math.round(rect.width())), Math.max(1, Math.round(rect.height())), Bitmap.Config.ARGB_8888);
+      new Canvas(out).drawBitmap(decoded, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+
+      pool.put(decoded);
+      decoded = null;
+
+      String outPath = DcHelper.getContext(context).getBlobdirFile(inPath);
+      OutputStream outStream = new FileOutputStream(outPath);
+      boolean compressed;
+      try {
+        compressed = out.compress(Bitmap.CompressFormat.JPEG, desiredJpegQuality, outStream);
+      } finally {
+        outStream.close();
+      }
+      if (!compressed) {
+        return;
+      }
+
+      msg.setDimension(out.getWidth(), out.getHeight());
+      msg.setFile(outPath, null);
+
+      Log.i(TAG, String.format("recoding for %s done, sample size %d", inPath, sampleSize));
+    } catch (Exception e) {
+      Log.w(TAG, String.format("cannot recode %s", inPath), e);
+    } finally {
+      if (decoded != null) pool.put(decoded);
+      if (out != null) pool.put(out);
+      releaseBudget(needed);
+    }
+  }
+
+  /**
+   * @return the largest power of two the image can be subsampled by without getting below the desired size.
+   */
+  static int getSampleSize(int width, int height, int desiredWH) {
+    int sampleSize = 1;
+    while (Math.max(width, height) / (sampleSize * 2) >= desiredWH) {
+      sampleSize *= 2;
+    }
+    return sampleSize;
+  }
+
+  private static @Nullable Bitmap decode(@NonNull BitmapPool pool, @NonNull String path, int sampleSize, int width, int height) {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inSampleSize      = sampleSize;
+    options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    options.inMutable         = true;
+
+    // before KitKat, inBitmap is only supported for images of the same size and without subsampling
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+      options.inBitmap = pool.getDirty(width, height, Bitmap.Config.ARGB_8888);
+      try {
+        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+        if (bitmap == null) pool.put(options.inBitmap);
+        return bitmap;
+      } catch (IllegalArgumentException e) {
+        Log.w(TAG, "cannot reuse bitmap: " + e.getMessage());
+        pool.put(options.inBitmap);
+        options.inBitmap = null;
+      }
+    }
+
+    return BitmapFactory.decodeFile(path, options);
+  }
+
+  /**
+   * @return the EXIF orientation of the image file, ORIENTATION_NORMAL if unknown.
+   */
+  public static int getOrientation(@NonNull String path) {
+    try {
+      return new ExifInterface(path).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+    } catch (Throwable e) {
+      Log.i(TAG, String.format("cannot get exif information for %s", path));
+      return ExifInterface.ORIENTATION_NORMAL;
+    }
+  }
+
+  /**
+   * Adds the transformation displaying an image with the given EXIF orientation upright to the matrix.
+   */
+  public static void applyOrientation(@NonNull Matrix matrix, int orientation) {
+    switch (orientation) {
+      case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+        matrix.postScale(-1, 1);
+        break;
+      case ExifInterface.ORIENTATION_ROTATE_180:
+        matrix.postRotate(180);
+        break;
+      case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+        matrix.postScale(1, -1);
+        break;
+      case ExifInterface.ORIENTATION_TRANSPOSE:
+        matrix.postRotate(90);
+        matrix.postScale(-1, 1);
+        break;
+      case ExifInterface.ORIENTATION_ROTATE_90:
+        matrix.postRotate(90);
+        break;
+      case ExifInterface.ORIENTATION_TRANSVERSE:
+        matrix.postRotate(-90);
+        matrix.postScale(-1, 1);
+        break;
+      case ExifInterface.ORIENTATION_ROTATE_270:
+        matrix.postRotate(270);
+        break;
+    }
+  }
+
+  private static void acquireBudget(long bytes) {
+    synchronized (budgetLock) {
+      // an image exceeding the whole budget is recoded when no other recoding is running
+      while (budgetUsed > 0 && budgetUsed + bytes > budget) {
+        try {
+          budgetLock.wait();
+        } catch (InterruptedException e) {
+          Log.w(TAG, e);
+        }
+      }
+      budgetUsed += bytes;
+    }
+  }
+
+  private static void releaseBudget(long bytes) {
+    synchronized (budgetLock) {
+      budgetUsed -= bytes;
+      budgetLock.notifyAll();
+    }
+  }
+}
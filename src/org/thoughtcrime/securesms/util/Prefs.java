@@ -1,12 +1,10 @@
 package org.thoughtcrime.securesms.util;
 
-import android.content.ContentUris;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.hardware.Camera.CameraInfo;
 import android.net.Uri;
 import android.preference.PreferenceManager;
-import android.provider.ContactsContract;
 import android.provider.Settings;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -19,10 +17,7 @@ import com.mapbox.mapboxsdk.geometry.LatLng;
 import org.thoughtcrime.securesms.connect.DcHelper;
 import org.thoughtcrime.securesms.preferences.widgets.NotificationPrivacyPreference;
 
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 import static com.mapbox.mapboxsdk.constants.MapboxConstants.MINIMUM_ZOOM;
@@ -65,6 +60,7 @@ public class Prefs {
   public static final String SCREEN_LOCK         = "pref_android_screen_lock";
 
   private static final String PREF_CONTACT_PHOTO_IDENTIFIERS = "pref_contact_photo_identifiers";
+  private static final String ADDRESS_BOOK_SYNCED_PREF       = "pref_address_book_synced_"; // followed by account-db-name
 
   private static final String MAP_CENTER_LATITUDE = "pref_map_center_latitude";
   private static final String MAP_CENTER_LONGITUDE = "pref_map_center_longitude";
@@ -312,6 +308,20 @@ public class Prefs {
     return Double.longBitsToDouble(zoom);
   }
 
+  // address book
+
+  public static long getAddressBookSyncedTimestamp(Context context, String accountDbName) {
+    return getLongPreference(context, ADDRESS_BOOK_SYNCED_PREF+accountDbName, 0);
+  }
+
+  public static void setAddressBookSyncedTimestamp(Context context, String accountDbName, long timestamp) {
+    setLongPreference(context, ADDRESS_BOOK_SYNCED_PREF+accountDbName, timestamp);
+  }
+
+  public static void removeAddressBookSyncedTimestamp(Context context, String accountDbName) {
+    PreferenceManager.getDefaultSharedPreferences(context).edit().remove(ADDRESS_BOOK_SYNCED_PREF+accountDbName).apply();
+  }
+
   // misc.
 
   public static String getBackgroundImagePath(Context context) {
@@ -373,20 +383,9 @@ public class Prefs {
     }
   }
 
-  public static void setSystemContactPhotos(Context context, Set<String> contactPhotoIdentifiers) {
-    PreferenceManager.getDefaultSharedPreferences(context).edit().putStringSet(PREF_CONTACT_PHOTO_IDENTIFIERS, contactPhotoIdentifiers).apply();
-  }
-
-  public static Uri getSystemContactPhoto(Context context, String identifier) {
-    List<String> contactPhotoIdentifiers = new ArrayList<>(getStringSetPreference(context, PREF_CONTACT_PHOTO_IDENTIFIERS, new HashSet<>()));
-    for(String contactPhotoIdentifier : contactPhotoIdentifiers) {
-      if (contactPhotoIdentifier.contains(identifier)) {
-        String[] parts = contactPhotoIdentifier.split("\\|");
-        long contactId = Long.valueOf(parts[1]);
-        return ContentUris.withAppendedId(ContactsContract.Contacts.CONTENT_URI, contactId);
-      }
-    }
-    return null;
+  // the photos of system contacts are kept by ContactPhotoIndex now
+  public static void removeSystemContactPhotos(Context context) {
+    PreferenceManager.getDefaultSharedPreferences(context).edit().remove(PREF_CONTACT_PHOTO_IDENTIFIERS).apply();
   }
 
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.util;
 
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.app.AlarmManager;
 import android.app.NotificationManager;
 import android.content.Context;
@@ -43,4 +44,8 @@ public class ServiceUtil {
   public static Vibrator getVibrator(Context context) {
     return  (Vibrator)context.getSystemService(Context.VIBRATOR_SERVICE);
   }
+
+  public static ActivityManager getActivityManager(Context context) {
+    return (ActivityManager)context.getSystemService(Context.ACTIVITY_SERVICE);
+  }
 }
@@ -9,7 +9,14 @@ import java.util.concurrent.TimeUnit;
 public class ThreadUtil {
 
   public static ExecutorService newDynamicSingleThreadedExecutor() {
-    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+    return newDynamicThreadPoolExecutor(1);
+  }
+
+  /**
+   * @return an executor running up to `threads` tasks at a time, its threads end when idle.
+   */
+  public static ExecutorService newDynamicThreadPoolExecutor(int threads) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
                                                          new LinkedBlockingQueue<Runnable>());
     executor.allowCoreThreadTimeOut(true);
 
@@ -24,7 +24,6 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 import android.graphics.Typeface;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Build.VERSION;
 import android.os.Build.VERSION_CODES;
 import android.os.Handler;
@@ -39,6 +38,8 @@ import android.util.Log;
 
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.components.ComposeText;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -114,6 +115,15 @@ public class Util {
     return ret;
   }
 
+  public static @NonNull int[] toIntArray(@NonNull Collection<Integer> values) {
+    int[] array = new int[values.size()];
+    int   i     = 0;
+    for (int value : values) {
+      array[i++] = value;
+    }
+    return array;
+  }
+
   public static void wait(Object lock, long timeout) {
     try {
       lock.wait(timeout);
@@ -318,7 +328,11 @@ public class Util {
   }
 
   public static void runOnBackground(final @NonNull Runnable runnable) {
-    AsyncTask.THREAD_POOL_EXECUTOR.execute(runnable);
+    runOnBackground(Priority.INTERACTIVE, runnable);
+  }
+
+  public static void runOnBackground(final @NonNull Priority priority, final @NonNull Runnable runnable) {
+    BackgroundScheduler.execute(priority, runnable);
   }
 
   public static void runOnAnyBackgroundThread(final @NonNull Runnable runnable) {
@@ -331,7 +345,7 @@ public class Util {
 
   public static void runOnBackgroundDelayed(final @NonNull Runnable runnable, long delayMillis) {
     handler.postDelayed(() -> {
-      AsyncTask.THREAD_POOL_EXECUTOR.execute(runnable);
+      runOnBackground(runnable);
     }, delayMillis);
   }
 
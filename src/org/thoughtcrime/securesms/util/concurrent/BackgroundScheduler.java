@@ -0,0 +1,277 @@
+package org.thoughtcrime.securesms.util.concurrent;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The app-wide pool for background work, replacing AsyncTask.THREAD_POOL_EXECUTOR and ad-hoc threads.
+ *
+ * Tasks are queued in lanes by priority; an idle worker takes the oldest task
+ * of the most important lane that has queued tasks and is below its concurrency limit.
+ * To avoid starvation, a task that has been waiting for longer than STARVATION_MS is taken first.
+ *
+ * Each lane has a queue of a given capacity. When it is full, additional workers are started
+ * up to MAX_POOL_SIZE, as far as the lane's concurrency limit allows.
+ * In the lanes without a limit, a task that does not find a worker then is rejected
+ * with a RejectedExecutionException, as AsyncTask.THREAD_POOL_EXECUTOR did;
+ * the limited lanes keep such tasks queued beyond their capacity instead.
+ *
+ * Tasks that block for an unbounded time (eg. ongoing processes or recording loops)
+ * should still use their own thread.
+ */
+public class BackgroundScheduler {
+
+  private static final String TAG = BackgroundScheduler.class.getSimpleName();
+
+  public enum Priority {
+    // loading data that is about to be shown
+    INTERACTIVE (128, Integer.MAX_VALUE, Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE),
+    // preparing and sending outgoing messages
+    SEND        (64,  Integer.MAX_VALUE, Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE),
+    // recoding images and videos, loading large media
+    MEDIA       (64,  2,                 Process.THREAD_PRIORITY_BACKGROUND),
+    // everything that is not waited for, eg. cleanup, prefetching or syncing
+    HOUSEKEEPING(128, 1,                 Process.THREAD_PRIORITY_LOWEST);
+
+    private final int capacity;
+    private final int maxRunning;
+    private final int threadPriority;
+
+    Priority(int capacity, int maxRunning, int threadPriority) {
+      this.capacity       = capacity;
+      this.maxRunning     = maxRunning;
+      this.threadPriority = threadPriority;
+    }
+
+    private boolean isLimited() {
+      return maxRunning != Integer.MAX_VALUE;
+    }
+  }
+
+  private static final int  CPU_COUNT       = Runtime.getRuntime().availableProcessors();
+  // large enough that MEDIA and HOUSEKEEPING at their limits leave a worker for the other lanes
+  private static final int  CORE_POOL_SIZE  = Math.max(4, Math.min(CPU_COUNT, 6));
+  private static final int  MAX_POOL_SIZE   = Math.max(CORE_POOL_SIZE, CPU_COUNT * 2 + 1);
+  private static final long KEEP_ALIVE_MS   = 30 * 1000;
+  private static final long STARVATION_MS   = 2 * 1000;
+
+  private static final BackgroundScheduler instance = new BackgroundScheduler();
+
+  private final Lane[]     lanes     = new Lane[Priority.values().length];
+  private final Executor[] executors = new Executor[Priority.values().length];
+  private int              workers;
+  private int              idleWorkers;
+  private int              workerCount;
+
+  private BackgroundScheduler() {
+    for (Priority priority : Priority.values()) {
+      lanes[priority.ordinal()]     = new Lane(priority);
+      executors[priority.ordinal()] = runnable -> execute(priority, runnable);
+    }
+  }
+
+  public static void execute(@NonNull Priority priority, @NonNull Runnable runnable) {
+    instance.enqueue(priority, runnable);
+  }
+
+  /**
+   * @return an Executor running the tasks in the given lane, eg. for AsyncTask.executeOnExecutor()
+   */
+  public static @NonNull Executor executor(@NonNull Priority priority) {
+    return instance.executors[priority.ordinal()];
+  }
+
+  /**
+   * @return queue depth, running tasks and wait times of each lane, for the log.
+   */
+  public static @NonNull String getStats() {
+    return instance.stats();
+  }
+
+  private synchronized void enqueue(@NonNull Priority priority, @NonNull Runnable runnable) {
+    Lane lane = lanes[priority.ordinal()];
+    Task task = new Task(lane, runnable, SystemClock.elapsedRealtime());
+
+    if (lane.queue.size() >= priority.capacity) {
+      if (lane.running < priority.maxRunning && workers < MAX_POOL_SIZE) {
+        // the lane is congested, run the task on an additional worker directly
+        lane.submitted++;
+        take(task, task.enqueuedAt);
+        startWorker(task);
+        return;
+      }
+      if (!priority.isLimited()) {
+        lane.rejected++;
+        throw new RejectedExecutionException(priority + " queue is full, " + stats());
+      }
+      // a limited lane is busy up to its limit, the task waits until one of its tasks finishes
+    }
+
+    lane.queue.add(task);
+    lane.submitted++;
+    lane.maxQueued = Math.max(lane.maxQueued, lane.queue.size());
+
+    if (idleWorkers > 0) {
+      notifyAll();
+    }
+    if (idleWorkers < getQueuedCount() && workers < CORE_POOL_SIZE) {
+      startWorker(null);
+    }
+  }
+
+  private void startWorker(Task firstTask) {
+    workers++;
+    Thread thread = new Thread(() -> work(firstTask), "BackgroundScheduler-" + (++workerCount));
+    thread.start();
+  }
+
+  private void work(Task firstTask) {
+    Task task = firstTask;
+    while (task != null || (task = next()) != null) {
+      Process.setThreadPriority(task.lane.priority.threadPriority);
+      boolean completed = false;
+      try {
+        task.runnable.run();
+        completed = true;
+      } finally {
+        // an exception is passed on to the uncaught exception handler and ends this worker
+        finish(task, !completed);
+      }
+      task = null;
+    }
+  }
+
+  /**
+   * Waits for the next task to run,
+   * returns null if the worker is not needed any longer and should terminate.
+   */
+  private synchronized Task next() {
+    long idleSince = SystemClock.elapsedRealtime();
+    while (true) {
+      long now = SystemClock.elapsedRealtime();
+      Task task = poll(now);
+      if (task != null) {
+        return task;
+      }
+
+      long wait = 0;
+      if (workers > CORE_POOL_SIZE) {
+        wait = idleSince + KEEP_ALIVE_MS - now;
+        if (wait <= 0) {
+          workers--;
+          return null;
+        }
+      }
+
+      idleWorkers++;
+      try {
+        wait(wait);
+      } catch (InterruptedException e) {
+        // go on, the scheduler's workers are never interrupted on purpose
+      } finally {
+        idleWorkers--;
+      }
+    }
+  }
+
+  private Task poll(long now) {
+    for (Lane lane : lanes) {
+      Task head = lane.queue.peek();
+      if (head != null && lane.running < lane.priority.maxRunning && now - head.enqueuedAt >= STARVATION_MS) {
+        return take(lane.queue.poll(), now);
+      }
+    }
+
+    for (Lane lane : lanes) {
+      if (!lane.queue.isEmpty() && lane.running < lane.priority.maxRunning) {
+        return take(lane.queue.poll(), now);
+      }
+    }
+
+    return null;
+  }
+
+  private Task take(@NonNull Task task, long now) {
+    Lane lane = task.lane;
+    long waited = now - task.enqueuedAt;
+    lane.running++;
+    lane.totalWaitMs += waited;
+    lane.maxWaitMs = Math.max(lane.maxWaitMs, waited);
+    return task;
+  }
+
+  private synchronized void finish(@NonNull Task task, boolean workerTerminates) {
+    Lane lane = task.lane;
+    lane.running--;
+    lane.completed++;
+    if (workerTerminates) {
+      workers--;
+      Log.w(TAG, "task in " + lane.priority + " failed, worker terminates");
+    }
+
+    // a lane at its concurrency limit may have become available
+    if (idleWorkers > 0) {
+      notifyAll();
+    } else if (workers < CORE_POOL_SIZE && getQueuedCount() > 0) {
+      startWorker(null);
+    }
+  }
+
+  private int getQueuedCount() {
+    int count = 0;
+    for (Lane lane : lanes) {
+      count += lane.queue.size();
+    }
+    return count;
+  }
+
+  private synchronized @NonNull String stats() {
+    StringBuilder builder = new StringBuilder("workers=" + workers + " idle=" + idleWorkers);
+    for (Lane lane : lanes) {
+      long started = Math.max(lane.completed + lane.running, 1);
+      builder.append("\n").append(lane.priority)
+             .append(": queued=").append(lane.queue.size()).append(" (max ").append(lane.maxQueued).append(")")
+             .append(" running=").append(lane.running)
+             .append(" submitted=").append(lane.submitted)
+             .append(" rejected=").append(lane.rejected)
+             .append(" wait avg=").append(lane.totalWaitMs / started).append("ms")
+             .append(" max=").append(lane.maxWaitMs).append("ms");
+    }
+    return builder.toString();
+  }
+
+  private static class Lane {
+    final Priority         priority;
+    final ArrayDeque<Task> queue = new ArrayDeque<>();
+    int  running;
+    int  maxQueued;
+    long submitted;
+    long completed;
+    long rejected;
+    long totalWaitMs;
+    long maxWaitMs;
+
+    Lane(Priority priority) {
+      this.priority = priority;
+    }
+  }
+
+  private static class Task {
+    final Lane     lane;
+    final Runnable runnable;
+    final long     enqueuedAt;
+
+    Task(Lane lane, Runnable runnable, long enqueuedAt) {
+      this.lane       = lane;
+      this.runnable   = runnable;
+      this.enqueuedAt = enqueuedAt;
+    }
+  }
+}
@@ -1,6 +1,8 @@
 package org.thoughtcrime.securesms.util.task;
 
 import org.thoughtcrime.securesms.util.views.ProgressDialog;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
 import android.os.AsyncTask;
 import androidx.annotation.Nullable;
 import com.google.android.material.snackbar.Snackbar;
@@ -89,7 +91,7 @@ public abstract class SnackbarAsyncTask<Params>
           progressDialog = null;
         }
       }
-    }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }.executeOnExecutor(BackgroundScheduler.executor(Priority.INTERACTIVE));
   }
 
   protected abstract void executeAction(@Nullable Params parameter);
@@ -4,11 +4,9 @@ import android.annotation.TargetApi;
 import android.media.MediaCodec;
 import android.media.MediaFormat;
 
-import com.coremedia.iso.BoxParser;
 import com.coremedia.iso.IsoFile;
 import com.coremedia.iso.IsoTypeWriter;
 import com.coremedia.iso.boxes.Box;
-import com.coremedia.iso.boxes.Container;
 import com.coremedia.iso.boxes.DataEntryUrlBox;
 import com.coremedia.iso.boxes.DataInformationBox;
 import com.coremedia.iso.boxes.DataReferenceBox;
@@ -27,32 +25,47 @@ import com.coremedia.iso.boxes.SyncSampleBox;
 import com.coremedia.iso.boxes.TimeToSampleBox;
 import com.coremedia.iso.boxes.TrackBox;
 import com.coremedia.iso.boxes.TrackHeaderBox;
-import com.googlecode.mp4parser.DataSource;
 import com.googlecode.mp4parser.util.Matrix;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 
+/**
+ * Writes the samples of an Mp4Movie to an MP4 file in one pass.
+ *
+ * All samples go to a single mdat box through a direct staging buffer;
+ * a sample not fitting into the buffer is written together with the staged bytes by one gathering write.
+ * The moov box is built from the sample tables of the tracks when the movie is finished.
+ * If the movie has an estimated sample count, space for the moov box is reserved in front of the mdat box,
+ * so that the file can be played without seeking to its end ("fast start");
+ * if the moov box does not fit there, it is appended and the reserved space stays a free box.
+ */
 @TargetApi(16)
 public class MP4Builder {
 
-    private InterleaveChunkMdat mdat = null;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MDAT_HEADER_SIZE = 16;
+    private static final int FREE_HEADER_SIZE = 8;
+    // upper bound for the moov box: stsz, stco and a stts entry per sample plus headers and sample descriptions
+    private static final int MOOV_BYTES_PER_SAMPLE = 16;
+    private static final int MOOV_BYTES_FIXED = 4096;
+
     private Mp4Movie currentMp4Movie = null;
     private FileOutputStream fos = null;
     private FileChannel fc = null;
+    private ByteBuffer buffer = null;
+    private final ByteBuffer[] gatherBuffers = new ByteBuffer[2];
+    private long reservedOffset = 0;
+    private long reservedSize = 0;
+    private long mdatOffset = 0;
     private long dataOffset = 0;
-    private long writedSinceLastMdat = 0;
-    private boolean writeNewMdat = true;
-    private HashMap<Track, long[]> track2SampleSizes = new HashMap<>();
-    private ByteBuffer sizeBuffer = null;
 
     public MP4Builder createMovie(Mp4Movie mp4Movie) throws Exception {
         currentMp4Movie = mp4Movie;
@@ -62,163 +75,121 @@ public class MP4Builder {
 
         FileTypeBox fileTypeBox = createFileTypeBox();
         fileTypeBox.getBox(fc);
-        dataOffset += fileTypeBox.getSize();
-        writedSinceLastMdat += dataOffset;
+        mdatOffset = fileTypeBox.getSize();
 
-        mdat = new InterleaveChunkMdat();
+        if (mp4Movie.getEstimatedSampleCount() > 0) {
+            reservedOffset = mdatOffset;
+            reservedSize = MOOV_BYTES_FIXED + (long) mp4Movie.getEstimatedSampleCount() * MOOV_BYTES_PER_SAMPLE;
+            writeFreeBox(reservedOffset, reservedSize);
+            mdatOffset += reservedSize;
+        }
 
-        sizeBuffer = ByteBuffer.allocateDirect(4);
+        // the size of the mdat box is set when finishing
+        fc.position(mdatOffset);
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buffer.put(createMdatHeader(0));
+        dataOffset = mdatOffset + MDAT_HEADER_SIZE;
 
         return this;
     }
 
-    private void flushCurrentMdat() throws Exception {
-        long oldPosition = fc.position();
-        fc.position(mdat.getOffset());
-        mdat.getBox(fc);
-        fc.position(oldPosition);
-        mdat.setDataOffset(0);
-        mdat.setContentSize(0);
-        fos.flush();
-    }
-
-    public boolean writeSampleData(int trackIndex, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo, boolean isAudio) throws Exception {
-        if (writeNewMdat) {
-            mdat.setContentSize(0);
-            mdat.getBox(fc);
-            mdat.setDataOffset(dataOffset);
-            dataOffset += 16;
-            writedSinceLastMdat += 16;
-            writeNewMdat = false;
-        }
-
-        mdat.setContentSize(mdat.getContentSize() + bufferInfo.size);
-        writedSinceLastMdat += bufferInfo.size;
-
-        boolean flush = false;
-        if (writedSinceLastMdat >= 32 * 1024) {
-            flushCurrentMdat();
-            writeNewMdat = true;
-            flush = true;
-            writedSinceLastMdat -= 32 * 1024;
-        }
-
+    /**
+     * @return true if the buffered data were written to the file.
+     */
+    public synchronized boolean writeSampleData(int trackIndex, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo, boolean isAudio) throws Exception {
         currentMp4Movie.addSample(trackIndex, dataOffset, bufferInfo);
         byteBuf.position(bufferInfo.offset + (isAudio ? 0 : 4));
         byteBuf.limit(bufferInfo.offset + bufferInfo.size);
 
+        // video samples get a length prefix instead of the start code
         if (!isAudio) {
-            sizeBuffer.position(0);
-            sizeBuffer.putInt(bufferInfo.size - 4);
-            sizeBuffer.position(0);
-            fc.write(sizeBuffer);
+            if (buffer.remaining() < 4) {
+                flushBuffer();
+            }
+            buffer.putInt(bufferInfo.size - 4);
         }
-
-        fc.write(byteBuf);
         dataOffset += bufferInfo.size;
 
-        if (flush) {
-            fos.flush();
+        if (byteBuf.remaining() <= buffer.remaining()) {
+            buffer.put(byteBuf);
+            return false;
         }
-        return flush;
+
+        buffer.flip();
+        gatherBuffers[0] = buffer;
+        gatherBuffers[1] = byteBuf;
+        while (buffer.hasRemaining() || byteBuf.hasRemaining()) {
+            fc.write(gatherBuffers);
+        }
+        gatherBuffers[1] = null;
+        buffer.clear();
+        return true;
     }
 
-    public int addTrack(MediaFormat mediaFormat, boolean isAudio) throws Exception {
+    public synchronized int addTrack(MediaFormat mediaFormat, boolean isAudio) throws Exception {
         return currentMp4Movie.addTrack(mediaFormat, isAudio);
     }
 
-    public void finishMovie(boolean error) throws Exception {
-        if (mdat.getContentSize() != 0) {
-            flushCurrentMdat();
-        }
+    public synchronized void finishMovie(boolean error) throws Exception {
+        flushBuffer();
 
-        for (Track track : currentMp4Movie.getTracks()) {
-            List<Sample> samples = track.getSamples();
-            long[] sizes = new long[samples.size()];
-            for (int i = 0; i < sizes.length; i++) {
-                sizes[i] = samples.get(i).getSize();
-            }
-            track2SampleSizes.put(track, sizes);
+        ByteBuffer mdatHeader = createMdatHeader(dataOffset - mdatOffset);
+        while (mdatHeader.hasRemaining()) {
+            fc.write(mdatHeader, mdatOffset + mdatHeader.position());
         }
 
         Box moov = createMovieBox(currentMp4Movie);
-        moov.getBox(fc);
+        long moovSize = moov.getSize();
+        if (moovSize == reservedSize || moovSize + FREE_HEADER_SIZE <= reservedSize) {
+            fc.position(reservedOffset);
+            moov.getBox(fc);
+            if (moovSize < reservedSize) {
+                writeFreeBox(reservedOffset + moovSize, reservedSize - moovSize);
+            }
+        } else {
+            fc.position(dataOffset);
+            moov.getBox(fc);
+        }
         fos.flush();
 
         fc.close();
         fos.close();
     }
 
-    protected FileTypeBox createFileTypeBox() {
-        LinkedList<String> minorBrands = new LinkedList<>();
-        minorBrands.add("isom");
-        minorBrands.add("3gp4");
-        return new FileTypeBox("isom", 0, minorBrands);
-    }
-
-    private class InterleaveChunkMdat implements Box {
-        private Container parent;
-        private long contentSize = 1024 * 1024 * 1024;
-        private long dataOffset = 0;
-
-        public Container getParent() {
-            return parent;
-        }
-
-        public long getOffset() {
-            return dataOffset;
-        }
-
-        public void setDataOffset(long offset) {
-            dataOffset = offset;
-        }
-
-        public void setParent(Container parent) {
-            this.parent = parent;
-        }
-
-        public void setContentSize(long contentSize) {
-            this.contentSize = contentSize;
-        }
-
-        public long getContentSize() {
-            return contentSize;
-        }
-
-        public String getType() {
-            return "mdat";
-        }
-
-        public long getSize() {
-            return 16 + contentSize;
-        }
-
-        private boolean isSmallBox(long contentSize) {
-            return (contentSize + 8) < 4294967296L;
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            fc.write(buffer);
         }
+        buffer.clear();
+    }
 
-        @Override
-        public void parse(DataSource dataSource, ByteBuffer header, long contentSize, BoxParser boxParser) throws IOException {
+    // the mdat box always uses a 64 bit size, so that its header does not change when the size is known
+    private static ByteBuffer createMdatHeader(long size) {
+        ByteBuffer header = ByteBuffer.allocate(MDAT_HEADER_SIZE);
+        IsoTypeWriter.writeUInt32(header, 1);
+        header.put(IsoFile.fourCCtoBytes("mdat"));
+        IsoTypeWriter.writeUInt64(header, size);
+        header.rewind();
+        return header;
+    }
 
+    // only the header is written, the content of a free box is ignored
+    private void writeFreeBox(long offset, long size) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FREE_HEADER_SIZE);
+        IsoTypeWriter.writeUInt32(header, size);
+        header.put(IsoFile.fourCCtoBytes("free"));
+        header.rewind();
+        while (header.hasRemaining()) {
+            fc.write(header, offset + header.position());
         }
+    }
 
-        public void getBox(WritableByteChannel writableByteChannel) throws IOException {
-            ByteBuffer bb = ByteBuffer.allocate(16);
-            long size = getSize();
-            if (isSmallBox(size)) {
-                IsoTypeWriter.writeUInt32(bb, size);
-            } else {
-                IsoTypeWriter.writeUInt32(bb, 1);
-            }
-            bb.put(IsoFile.fourCCtoBytes("mdat"));
-            if (isSmallBox(size)) {
-                bb.put(new byte[8]);
-            } else {
-                IsoTypeWriter.writeUInt64(bb, size);
-            }
-            bb.rewind();
-            writableByteChannel.write(bb);
-        }
+    protected FileTypeBox createFileTypeBox() {
+        LinkedList<String> minorBrands = new LinkedList<>();
+        minorBrands.add("isom");
+        minorBrands.add("3gp4");
+        return new FileTypeBox("isom", 0, minorBrands);
     }
 
     public static long gcd(long a, long b) {
@@ -344,7 +315,9 @@ public class MP4Builder {
         TimeToSampleBox.Entry lastEntry = null;
         List<TimeToSampleBox.Entry> entries = new ArrayList<>();
 
-        for (long delta : track.getSampleDurations()) {
+        int samplesCount = track.getSampleCount();
+        for (int a = 0; a < samplesCount; a++) {
+            long delta = track.getSampleDuration(a);
             if (lastEntry != null && lastEntry.getDelta() == delta) {
                 lastEntry.setCount(lastEntry.getCount() + 1);
             } else {
@@ -376,19 +349,17 @@ public class MP4Builder {
 
         int previousWritedChunkCount = -1;
 
-        int samplesCount = track.getSamples().size();
+        int samplesCount = track.getSampleCount();
         for (int a = 0; a < samplesCount; a++) {
-            Sample sample = track.getSamples().get(a);
-            long offset = sample.getOffset();
-            long size = sample.getSize();
+            long offset = track.getSampleOffset(a);
+            long size = track.getSampleSize(a);
 
             lastOffset = offset + size;
             lastSampleCount++;
 
             boolean write = false;
             if (a != samplesCount - 1) {
-                Sample nextSample = track.getSamples().get(a + 1);
-                if (lastOffset != nextSample.getOffset()) {
+                if (lastOffset != track.getSampleOffset(a + 1)) {
                     write = true;
                 }
             } else {
@@ -408,27 +379,23 @@ public class MP4Builder {
 
     protected void createStsz(Track track, SampleTableBox stbl) {
         SampleSizeBox stsz = new SampleSizeBox();
-        stsz.setSampleSizes(track2SampleSizes.get(track));
+        stsz.setSampleSizes(track.getSampleSizes());
         stbl.addBox(stsz);
     }
 
     protected void createStco(Track track, SampleTableBox stbl) {
-        ArrayList<Long> chunksOffsets = new ArrayList<>();
+        int samplesCount = track.getSampleCount();
+        long[] chunkOffsetsLong = new long[samplesCount];
+        int chunksCount = 0;
         long lastOffset = -1;
-        for (Sample sample : track.getSamples()) {
-            long offset = sample.getOffset();
-            if (lastOffset != -1 && lastOffset != offset) {
-                lastOffset = -1;
-            }
-            if (lastOffset == -1) {
-                chunksOffsets.add(offset);
+        for (int a = 0; a < samplesCount; a++) {
+            long offset = track.getSampleOffset(a);
+            if (lastOffset != offset) {
+                chunkOffsetsLong[chunksCount++] = offset;
             }
-            lastOffset = offset + sample.getSize();
-        }
-        long[] chunkOffsetsLong = new long[chunksOffsets.size()];
-        for (int a = 0; a < chunksOffsets.size(); a++) {
-            chunkOffsetsLong[a] = chunksOffsets.get(a);
+            lastOffset = offset + track.getSampleSize(a);
         }
+        chunkOffsetsLong = Arrays.copyOf(chunkOffsetsLong, chunksCount);
 
         StaticChunkOffsetBox stco = new StaticChunkOffsetBox();
         stco.setChunkOffsets(chunkOffsetsLong);
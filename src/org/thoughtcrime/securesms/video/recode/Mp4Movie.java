@@ -16,6 +16,7 @@ public class Mp4Movie {
     private File cacheFile;
     private int width;
     private int height;
+    private int estimatedSampleCount;
 
     public Matrix getMatrix() {
         return matrix;
@@ -50,6 +51,18 @@ public class Mp4Movie {
         height = h;
     }
 
+    /**
+     * Sets the number of samples the movie is expected to have, so that space for the moov box can be
+     * reserved at the start of the file; 0 if unknown.
+     */
+    public void setEstimatedSampleCount(int count) {
+        estimatedSampleCount = count;
+    }
+
+    public int getEstimatedSampleCount() {
+        return estimatedSampleCount;
+    }
+
     public ArrayList<Track> getTracks() {
         return tracks;
     }
@@ -1,19 +0,0 @@
-package org.thoughtcrime.securesms.video.recode;
-
-public class Sample {
-    private long offset = 0;
-    private long size = 0;
-
-    public Sample(long offset, long size) {
-        this.offset = offset;
-        this.size = size;
-    }
-
-    public long getOffset() {
-        return offset;
-    }
-
-    public long getSize() {
-        return size;
-    }
-}
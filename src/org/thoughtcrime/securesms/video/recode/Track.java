@@ -19,26 +19,37 @@ import com.googlecode.mp4parser.boxes.mp4.objectdescriptors.SLConfigDescriptor;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
 
+/**
+ * A track of an Mp4Movie; the sample tables are kept in primitive arrays,
+ * so that long videos do not need an object per sample.
+ */
 @TargetApi(16)
 public class Track {
+    private static final int INITIAL_CAPACITY = 256;
+
     private long trackId = 0;
-    private ArrayList<Sample> samples = new ArrayList<>();
+    private int sampleCount = 0;
+    private long[] sampleOffsets = new long[INITIAL_CAPACITY];
+    private int[] sampleSizes = new int[INITIAL_CAPACITY];
+    // the duration of a sample is the delta to the next one, the last sample has a default duration
+    private int[] sampleDeltas = new int[INITIAL_CAPACITY];
+    private long lastSampleDuration;
     private long duration = 0;
     private String handler;
     private AbstractMediaHeaderBox headerBox = null;
     private SampleDescriptionBox sampleDescriptionBox = null;
-    private LinkedList<Integer> syncSamples = null;
+    private int[] syncSamples = null;
+    private int syncSampleCount = 0;
     private int timeScale;
     private Date creationTime = new Date();
     private int height;
     private int width;
     private float volume = 0;
-    private ArrayList<Long> sampleDurations = new ArrayList<>();
     private boolean isAudio = false;
     private static Map<Integer, Integer> samplingFrequencyIndexMap = new HashMap<>();
     private long lastPresentationTimeUs = 0;
@@ -63,12 +74,12 @@ public class Track {
         trackId = id;
         isAudio = audio;
         if (!isAudio) {
-            sampleDurations.add((long) 3015);
+            lastSampleDuration = 3015;
             duration = 3015;
             width = format.getInteger(MediaFormat.KEY_WIDTH);
             height = format.getInteger(MediaFormat.KEY_HEIGHT);
             timeScale = 90000;
-            syncSamples = new LinkedList<>();
+            syncSamples = new int[INITIAL_CAPACITY / 8];
             handler = "vide";
             headerBox = new VideoMediaHeaderBox();
             sampleDescriptionBox = new SampleDescriptionBox();
@@ -127,7 +138,7 @@ public class Track {
                 sampleDescriptionBox.addBox(visualSampleEntry);
             }
         } else {
-            sampleDurations.add((long) 1024);
+            lastSampleDuration = 1024;
             duration = 1024;
             volume = 1;
             timeScale = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
@@ -181,22 +192,53 @@ public class Track {
             return;
         }
         boolean isSyncFrame = !isAudio && (bufferInfo.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0;
-        samples.add(new Sample(offset, bufferInfo.size));
+        if (sampleCount == sampleOffsets.length) {
+            int capacity = sampleCount * 2;
+            sampleOffsets = Arrays.copyOf(sampleOffsets, capacity);
+            sampleSizes = Arrays.copyOf(sampleSizes, capacity);
+            sampleDeltas = Arrays.copyOf(sampleDeltas, capacity);
+        }
+        sampleOffsets[sampleCount] = offset;
+        sampleSizes[sampleCount] = bufferInfo.size;
+        sampleCount++;
         if (syncSamples != null && isSyncFrame) {
-            syncSamples.add(samples.size());
+            if (syncSampleCount == syncSamples.length) {
+                syncSamples = Arrays.copyOf(syncSamples, syncSampleCount * 2);
+            }
+            syncSamples[syncSampleCount++] = sampleCount;
         }
 
         delta = (delta * timeScale + 500000L) / 1000000L;
         lastPresentationTimeUs = bufferInfo.presentationTimeUs;
         if (!first) {
-            sampleDurations.add(sampleDurations.size() - 1, delta);
+            sampleDeltas[sampleCount - 2] = (int) delta;
             duration += delta;
         }
         first = false;
     }
 
-    public ArrayList<Sample> getSamples() {
-        return samples;
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public long getSampleOffset(int index) {
+        return sampleOffsets[index];
+    }
+
+    public int getSampleSize(int index) {
+        return sampleSizes[index];
+    }
+
+    public long[] getSampleSizes() {
+        long[] sizes = new long[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            sizes[i] = sampleSizes[i];
+        }
+        return sizes;
+    }
+
+    public long getSampleDuration(int index) {
+        return index < sampleCount - 1 ? sampleDeltas[index] : lastSampleDuration;
     }
 
     public long getDuration() {
@@ -216,12 +258,12 @@ public class Track {
     }
 
     public long[] getSyncSamples() {
-        if (syncSamples == null || syncSamples.isEmpty()) {
+        if (syncSamples == null || syncSampleCount == 0) {
             return null;
         }
-        long[] returns = new long[syncSamples.size()];
-        for (int i = 0; i < syncSamples.size(); i++) {
-            returns[i] = syncSamples.get(i);
+        long[] returns = new long[syncSampleCount];
+        for (int i = 0; i < syncSampleCount; i++) {
+            returns[i] = syncSamples[i];
         }
         return returns;
     }
@@ -246,10 +288,6 @@ public class Track {
         return volume;
     }
 
-    public ArrayList<Long> getSampleDurations() {
-        return sampleDurations;
-    }
-
     public boolean isAudio() {
         return isAudio;
     }
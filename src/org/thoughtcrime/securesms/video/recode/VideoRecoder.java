@@ -29,12 +29,25 @@ import org.thoughtcrime.securesms.util.Util;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.HashMap;
 import java.util.List;
-
+import java.util.Map;
+
+/**
+ * Recodes videos to H.264 with a bitrate and size fitting the recommended message size.
+ *
+ * Conversions of different chats may run in parallel,
+ * limited by the number of codec instances the device supports.
+ * A running conversion can be cancelled by cancel(msgId), eg. when the message is deleted.
+ */
 public class VideoRecoder {
 
   private static final String TAG = VideoRecoder.class.getSimpleName();
 
+  private static final Object                       runningLock = new Object();
+  private static final Map<Integer, VideoRecoder>   running     = new HashMap<>();
+  private static       int                          codecSlots  = -1;
+
   private boolean videoConvertFirstWrite = true;
   private final static String MIME_TYPE = "video/avc";
   private final static int PROCESSOR_TYPE_OTHER = 0;
@@ -43,17 +56,91 @@ public class VideoRecoder {
   private final static int PROCESSOR_TYPE_MTK = 3;
   private final static int PROCESSOR_TYPE_SEC = 4;
   private final static int PROCESSOR_TYPE_TI = 5;
-  private boolean cancelCurrentVideoConversion = false;
-  private final Object videoConvertSync = new Object();
+  private volatile boolean canceled;
+  // set when the video track cannot be converted, stops copying the audio track concurrently
+  private volatile boolean failed;
+  private int              loggedProgress;
 
   private void checkConversionCanceled() throws Exception {
-    boolean cancelConversion;
-    synchronized (videoConvertSync) {
-      cancelConversion = cancelCurrentVideoConversion;
-    }
-    if (cancelConversion) {
+    if (canceled) {
       throw new RuntimeException("canceled conversion");
     }
+    if (failed) {
+      throw new RuntimeException("failed conversion");
+    }
+  }
+
+  /**
+   * Cancels the conversion of the video message, if it is running or waiting for a codec.
+   */
+  public static void cancel(int msgId) {
+    synchronized (runningLock) {
+      VideoRecoder videoRecoder = running.get(msgId);
+      if (videoRecoder != null) {
+        Log.i(TAG, "cancel recoding of msg " + msgId);
+        videoRecoder.canceled = true;
+        runningLock.notifyAll();
+      }
+    }
+  }
+
+  private void updateProgress(long presentationTimeUs, long startTimeUs, float durationMs) {
+    if (durationMs <= 0) {
+      return;
+    }
+    float progress = Util.clamp((presentationTimeUs - Math.max(startTimeUs, 0)) / (durationMs * 1000), 0f, 1f);
+    int percent = (int) (progress * 100);
+    if (percent >= loggedProgress + 10) {
+      loggedProgress = percent - percent % 10;
+      Log.i(TAG, "recoding progress " + loggedProgress + "%");
+    }
+  }
+
+  /**
+   * Waits until one of the codec instances is available.
+   *
+   * @return false if the conversion was canceled while waiting.
+   */
+  private boolean acquireCodec() throws InterruptedException {
+    synchronized (runningLock) {
+      if (codecSlots < 0) {
+        codecSlots = getMaxCodecInstances();
+        Log.i(TAG, "up to " + codecSlots + " parallel video conversions");
+      }
+      while (codecSlots == 0 && !canceled) {
+        runningLock.wait();
+      }
+      if (canceled) {
+        return false;
+      }
+      codecSlots--;
+      return true;
+    }
+  }
+
+  private static void releaseCodec() {
+    synchronized (runningLock) {
+      codecSlots++;
+      runningLock.notifyAll();
+    }
+  }
+
+  @SuppressLint("NewApi")
+  private static int getMaxCodecInstances() {
+    // before Marshmallow, the number of instances is unknown; one conversion at a time is always possible
+    int instances = 1;
+    if (Build.VERSION.SDK_INT >= 23) {
+      try {
+        MediaCodecInfo codecInfo = selectCodec(MIME_TYPE);
+        if (codecInfo != null) {
+          // each conversion needs an encoder and a decoder, which may share the hardware
+          instances = codecInfo.getCapabilitiesForType(MIME_TYPE).getMaxSupportedInstances() / 2;
+        }
+      } catch (Exception e) {
+        Log.w(TAG, e);
+      }
+    }
+    return Util.clamp(Math.min(instances, Runtime.getRuntime().availableProcessors() / 2), 1, 2);
   }
 
   @TargetApi(16)
@@ -253,6 +340,7 @@ public class VideoRecoder {
     if (resultWidth != 0 && resultHeight != 0) {
       MP4Builder mediaMuxer = null;
       MediaExtractor extractor = null;
+      AudioCopy audioCopy = null;
 
       try {
         MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
@@ -260,12 +348,20 @@ public class VideoRecoder {
         movie.setCacheFile(cacheFile);
         movie.setRotation(rotationValue);
         movie.setSize(resultWidth, resultHeight);
+        // ~30 video and ~47 audio samples (AAC at 48 kHz) per second; if there are more, the file is just not fast-start
+        movie.setEstimatedSampleCount((int) ((videoEditedInfo.originalDurationMs / 1000 + 1) * (30 + 47)));
         mediaMuxer = new MP4Builder().createMovie(movie);
         extractor = new MediaExtractor();
         extractor.setDataSource(inputFile.toString());
 
         checkConversionCanceled();
 
+        // without trimming, the audio does not depend on the first video frame and is copied concurrently
+        if (startTime <= 0) {
+          audioCopy = new AudioCopy(inputFile.toString(), mediaMuxer, endTime, cacheFile);
+          audioCopy.start();
+        }
+
         if (resultVideoBitrate<originalVideoBitrate || resultWidth != originalWidth || resultHeight != originalHeight || rotateRender != 0) {
           int videoIndex;
           videoIndex = selectTrack(extractor, false);
@@ -544,6 +640,7 @@ public class VideoRecoder {
                             outputSurface.drawImage(false);
                             inputSurface.setPresentationTime(info.presentationTimeUs * 1000);
                             inputSurface.swapBuffers();
+                            updateProgress(info.presentationTimeUs, startTime, videoEditedInfo.originalDurationMs);
                           } else {
                             return false; // TODO: this should be caught much earlier
                             /*
@@ -611,13 +708,24 @@ public class VideoRecoder {
             videoStartTime = videoTime;
           }
         }
-        if (!error) {
+        if (audioCopy == null && !error) {
           readAndWriteTrack(extractor, mediaMuxer, info, videoStartTime, endTime, cacheFile, true);
         }
       } catch (Exception e) {
         error = true;
 
       } finally {
+        if (audioCopy != null) {
+          if (error) {
+            // the video is not sent, there is no need to copy the rest of the audio
+            failed = true;
+          }
+          try {
+            error |= !audioCopy.await(); // the muxer must not be finished while the audio is written
+          } catch (InterruptedException e) {
+            error = true;
+          }
+        }
         if (extractor != null) {
           extractor.release();
         }
@@ -635,7 +743,49 @@ public class VideoRecoder {
       return false;
     }
     //didWriteData(messageObject, cacheFile, true, error);
-    return true;
+    return !error;
+  }
+
+  /**
+   * Copies the audio track with an extractor and a thread of its own, concurrently to the video conversion.
+   */
+  private class AudioCopy extends Thread {
+
+    private final String     path;
+    private final MP4Builder mediaMuxer;
+    private final long       endTime;
+    private final File       cacheFile;
+    private Exception        exception;
+
+    AudioCopy(String path, MP4Builder mediaMuxer, long endTime, File cacheFile) {
+      super(TAG + "-audio");
+      this.path       = path;
+      this.mediaMuxer = mediaMuxer;
+      this.endTime    = endTime;
+      this.cacheFile  = cacheFile;
+    }
+
+    @Override
+    public void run() {
+      MediaExtractor extractor = new MediaExtractor();
+      try {
+        extractor.setDataSource(path);
+        readAndWriteTrack(extractor, mediaMuxer, new MediaCodec.BufferInfo(), 0, endTime, cacheFile, true);
+      } catch (Exception e) {
+        Log.w(TAG, "cannot copy audio track", e);
+        exception = e;
+      } finally {
+        extractor.release();
+      }
+    }
+
+    /**
+     * @return false if the audio track could not be copied.
+     */
+    boolean await() throws InterruptedException {
+      join();
+      return exception == null;
+    }
   }
 
   private static class VideoEditedInfo {
@@ -761,6 +911,12 @@ public class VideoRecoder {
     return size;
   }
 
+  // the video bitrate resulting in the given size, the inverse of calculateEstimatedSize() for the whole video
+  private static int calculateBitrateForSize(long bytes, float originalDurationMs, long originalAudioBytes) {
+    long videoFramesSize = bytes - originalAudioBytes;
+    return (int) Math.max(0, videoFramesSize * 8 / Math.max(1, originalDurationMs / 1000));
+  }
+
   private static void logNtoast(Context context, String str)
   {
     Log.w(TAG, str);
@@ -809,23 +965,21 @@ public class VideoRecoder {
         return true;
       }
 
-      // calculate new video bitrate, sth. between 200 kbps and 1500 kbps
+      // calculate new video bitrate, sth. between 200 kbps and 1500 kbps:
+      // the bitrate resulting in the recommended size, but not more than needed for the duration
       long resultDurationMs = (long) vei.originalDurationMs;
-      long maxVideoBytes = MAX_BYTES - vei.originalAudioBytes - resultDurationMs /*10 kbps codec overhead*/;
-      vei.resultVideoBitrate = (int) (maxVideoBytes / Math.max(1, resultDurationMs / 1000) * 8);
-
-      if (vei.resultVideoBitrate < 200000) {
-        vei.resultVideoBitrate = 200000;
-      } else if (vei.resultVideoBitrate > 500000) {
-        boolean hardCompression = Prefs.isHardCompressionEnabled(context);
-        if (resultDurationMs < 30 * 1000 && !hardCompression) {
-          vei.resultVideoBitrate = MAX_KBPS; // ~ 12 MB/minute, plus Audio
-        } else if (resultDurationMs < 60 * 1000 && !hardCompression) {
-          vei.resultVideoBitrate = 1000000; // ~ 8 MB/minute, plus Audio
-        } else {
-          vei.resultVideoBitrate = 500000; // ~ 3.7 MB/minute, plus Audio
-        }
+      long maxVideoBytes = MAX_BYTES - resultDurationMs /*10 kbps codec overhead*/;
+      int maxBitrate;
+      boolean hardCompression = Prefs.isHardCompressionEnabled(context);
+      if (resultDurationMs < 30 * 1000 && !hardCompression) {
+        maxBitrate = MAX_KBPS; // ~ 12 MB/minute, plus Audio
+      } else if (resultDurationMs < 60 * 1000 && !hardCompression) {
+        maxBitrate = 1000000; // ~ 8 MB/minute, plus Audio
+      } else {
+        maxBitrate = 500000; // ~ 3.7 MB/minute, plus Audio
       }
+      vei.resultVideoBitrate = Util.clamp(calculateBitrateForSize(maxVideoBytes, vei.originalDurationMs, vei.originalAudioBytes),
+                                          200000, maxBitrate);
 
       // calculate video dimensions
       int maxSide = vei.resultVideoBitrate > 400000 ? 640 : 480;
@@ -858,9 +1012,34 @@ public class VideoRecoder {
       // recode
       String tempPath = DcHelper.getContext(context).getBlobdirFile(inPath);
       VideoRecoder videoRecoder = new VideoRecoder();
-      if (!videoRecoder.convertVideo(vei, tempPath)) {
-        logNtoast(context, String.format("recoding for %s failed: cannot convert to temporary file %s", inPath, tempPath));
-        return false;
+      int msgId = msg.getId();
+      synchronized (runningLock) {
+        running.put(msgId, videoRecoder);
+      }
+      try {
+        if (!videoRecoder.acquireCodec()) {
+          Log.i(TAG, String.format("recoding for %s canceled", inPath));
+          return false;
+        }
+        boolean converted;
+        try {
+          converted = videoRecoder.convertVideo(vei, tempPath);
+        } finally {
+          releaseCodec();
+        }
+        if (!converted) {
+          new File(tempPath).delete();
+          if (videoRecoder.canceled) {
+            Log.i(TAG, String.format("recoding for %s canceled", inPath));
+          } else {
+            logNtoast(context, String.format("recoding for %s failed: cannot convert to temporary file %s", inPath, tempPath));
+          }
+          return false;
+        }
+      } finally {
+        synchronized (runningLock) {
+          running.remove(msgId);
+        }
       }
 
       if (!Util.moveFile(tempPath, inPath)) {
@@ -0,0 +1,131 @@
+package org.thoughtcrime.securesms.components.emoji;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.thoughtcrime.securesms.components.emoji.parsing.CompiledEmojiTree;
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiDrawInfo;
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiTree;
+import org.thoughtcrime.securesms.util.Pair;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EmojiTreeTest {
+
+  private static final char TERMINATOR = '\ufe0f';
+
+  private EmojiDrawInfo[]   emojis;
+  private EmojiTree         tree;
+  private CompiledEmojiTree compiled;
+
+  @Before
+  public void setUp() {
+    List<EmojiDrawInfo> drawInfos = new ArrayList<>();
+    tree     = buildTree(drawInfos);
+    emojis   = drawInfos.toArray(new EmojiDrawInfo[0]);
+    compiled = tree.compile(emojis);
+  }
+
+  /**
+   * Builds the tree from EmojiPages like EmojiProvider does, the sprites are not needed for matching.
+   */
+  private static EmojiTree buildTree(List<EmojiDrawInfo> emojis) {
+    EmojiTree tree = new EmojiTree();
+    for (EmojiPageModel page : EmojiPages.PAGES) {
+      if (page.hasSpriteMap()) {
+        for (String emoji : page.getEmoji()) {
+          EmojiDrawInfo drawInfo = new EmojiDrawInfo(null, emojis.size());
+          emojis.add(drawInfo);
+          tree.add(emoji, drawInfo);
+        }
+      }
+    }
+
+    for (Pair<String,String> obsolete : EmojiPages.OBSOLETE) {
+      tree.add(obsolete.first(), tree.getEmoji(obsolete.second(), 0, obsolete.second().length()));
+    }
+    return tree;
+  }
+
+  @Test
+  public void testMatchesEmojiTreeOnAllEmojis() {
+    for (EmojiPageModel page : EmojiPages.PAGES) {
+      if (page.hasSpriteMap()) {
+        for (String emoji : page.getEmoji()) {
+          assertNotNull(emoji, compiled.getEmoji(emoji, 0, emoji.length()));
+          assertMatchesPrefixes(emoji);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testMatchesEmojiTreeWithoutTerminator() {
+    int count = 0;
+    for (EmojiPageModel page : EmojiPages.PAGES) {
+      if (page.hasSpriteMap()) {
+        for (String emoji : page.getEmoji()) {
+          if (emoji.indexOf(TERMINATOR) >= 0) {
+            assertMatchesPrefixes(emoji.replace(String.valueOf(TERMINATOR), ""));
+            count++;
+          }
+        }
+      }
+    }
+    assertTrue(count > 0);
+  }
+
+  @Test
+  public void testMatchesEmojiTreeOnObsoleteAliases() {
+    for (Pair<String,String> obsolete : EmojiPages.OBSOLETE) {
+      String alias = obsolete.first();
+      assertMatchesPrefixes(alias);
+      assertSame(alias, tree.getEmoji(obsolete.second(), 0, obsolete.second().length()),
+                 compiled.getEmoji(alias, 0, alias.length()));
+    }
+  }
+
+  @Test
+  public void testReadWrittenTree() throws Exception {
+    File file = File.createTempFile("emoji", ".tree");
+    try {
+      compiled.write(file, 1);
+      assertNull(CompiledEmojiTree.read(file, 2, emojis));
+
+      CompiledEmojiTree read = CompiledEmojiTree.read(file, 1, emojis);
+      assertNotNull(read);
+      for (EmojiPageModel page : EmojiPages.PAGES) {
+        if (page.hasSpriteMap()) {
+          for (String emoji : page.getEmoji()) {
+            assertSame(emoji, compiled.getEmoji(emoji, 0, emoji.length()), read.getEmoji(emoji, 0, emoji.length()));
+          }
+        }
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Compares the trees on every prefix of the sequence, which covers the inner nodes of the tree.
+   */
+  private void assertMatchesPrefixes(String sequence) {
+    for (int end = 1; end <= sequence.length(); end++) {
+      String prefix = sequence.substring(0, end);
+      boolean exact = tree.isEmoji(prefix, 0, end).exactMatch();
+
+      assertSame(prefix, tree.getEmoji(prefix, 0, end), compiled.getEmoji(prefix, 0, end));
+      assertEquals(prefix, exact, compiled.getEmoji(prefix, 0, end) != null);
+      if (exact) {
+        assertEquals(prefix, end, compiled.getEmojiEnd(prefix, 0));
+      }
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority.HOUSEKEEPING;
+
+public class JobJournalTest {
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("journal", ".journal");
+    file.delete();
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+    new File(file.getPath() + ".tmp").delete();
+  }
+
+  @Test
+  public void testLoadReturnsPendingJobsInOrder() throws IOException {
+    JobJournal journal = new JobJournal(file);
+    assertTrue(journal.load().isEmpty());
+
+    TestJob first  = new TestJob("first", HOUSEKEEPING, null);
+    TestJob second = new TestJob("second", HOUSEKEEPING, "group");
+    TestJob third  = new TestJob("third", HOUSEKEEPING, null);
+    journal.add(first);
+    journal.add(second);
+    journal.add(third);
+    journal.remove(second);
+
+    List<Job> loaded = new JobJournal(file).load();
+    assertEquals(2, loaded.size());
+    assertEquals("first", ((TestJob) loaded.get(0)).name);
+    assertEquals(first.getPersistentId(), loaded.get(0).getPersistentId());
+    assertEquals("third", ((TestJob) loaded.get(1)).name);
+    assertEquals(third.getPersistentId(), loaded.get(1).getPersistentId());
+  }
+
+  @Test
+  public void testLoadIgnoresTruncatedRecord() throws IOException {
+    JobJournal journal = new JobJournal(file);
+    journal.load();
+    journal.add(new TestJob("first", HOUSEKEEPING, null));
+    long complete = file.length();
+    journal.add(new TestJob("second", HOUSEKEEPING, null));
+
+    // the process died while the second record was written
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(complete + (file.length() - complete) / 2);
+    raf.close();
+
+    JobJournal replayed = new JobJournal(file);
+    List<Job>  loaded   = replayed.load();
+    assertEquals(1, loaded.size());
+    assertEquals("first", ((TestJob) loaded.get(0)).name);
+
+    // the compacted journal can be appended to again
+    TestJob third = new TestJob("third", HOUSEKEEPING, null);
+    replayed.add(third);
+    assertNotEquals(loaded.get(0).getPersistentId(), third.getPersistentId());
+
+    loaded = new JobJournal(file).load();
+    assertEquals(2, loaded.size());
+    assertEquals("first", ((TestJob) loaded.get(0)).name);
+    assertEquals("third", ((TestJob) loaded.get(1)).name);
+  }
+
+  @Test
+  public void testRemovingLastJobTruncates() throws IOException {
+    JobJournal journal = new JobJournal(file);
+    journal.load();
+    TestJob job = new TestJob("job", HOUSEKEEPING, null);
+    journal.add(job);
+    journal.remove(job);
+
+    assertEquals(4, file.length());
+    assertTrue(new JobJournal(file).load().isEmpty());
+  }
+}
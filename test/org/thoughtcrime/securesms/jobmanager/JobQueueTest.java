@@ -0,0 +1,175 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority.HOUSEKEEPING;
+import static org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority.INTERACTIVE;
+import static org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority.MEDIA;
+import static org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority.SEND;
+
+public class JobQueueTest {
+
+  private final JobQueue queue = new JobQueue();
+
+  @Test
+  public void testGetNextInPriorityOrder() {
+    Job housekeeping = new TestJob("housekeeping", HOUSEKEEPING, null);
+    Job media        = new TestJob("media", MEDIA, null);
+    Job interactive  = new TestJob("interactive", INTERACTIVE, null);
+    Job send         = new TestJob("send", SEND, null);
+    queue.add(housekeeping);
+    queue.add(media);
+    queue.add(interactive);
+    queue.add(send);
+
+    assertSame(interactive, queue.getNext());
+    assertSame(send, queue.getNext());
+    assertSame(media, queue.getNext());
+    assertSame(housekeeping, queue.getNext());
+    assertNull(queue.getNext());
+  }
+
+  @Test
+  public void testGetNextFirstInFirstOutWithinPriority() {
+    Job first  = new TestJob("first", SEND, null);
+    Job second = new TestJob("second", SEND, null);
+    Job third  = new TestJob("third", SEND, null);
+    queue.add(first);
+    queue.add(second);
+    queue.add(third);
+
+    assertSame(first, queue.getNext());
+    assertSame(second, queue.getNext());
+    assertSame(third, queue.getNext());
+    assertNull(queue.getNext());
+  }
+
+  @Test
+  public void testOneCandidatePerGroup() {
+    Job first  = new TestJob("first", SEND, "group");
+    Job second = new TestJob("second", SEND, "group");
+    Job other  = new TestJob("other", SEND, "other group");
+    queue.add(first);
+    queue.add(second);
+    queue.add(other);
+
+    assertSame(first, queue.getNext());
+    assertSame(other, queue.getNext());
+    assertNull(queue.getNext());
+  }
+
+  @Test
+  public void testOnFinishedMakesNextGroupJobReady() {
+    Job first  = new TestJob("first", HOUSEKEEPING, "group");
+    Job second = new TestJob("second", INTERACTIVE, "group");
+    Job third  = new TestJob("third", HOUSEKEEPING, "group");
+    queue.add(first);
+    queue.add(second);
+    queue.add(third);
+
+    assertSame(first, queue.getNext());
+    assertNull(queue.getNext());
+
+    queue.onFinished(first);
+    assertSame(second, queue.getNext());
+    assertNull(queue.getNext());
+
+    queue.onFinished(second);
+    assertSame(third, queue.getNext());
+
+    queue.onFinished(third);
+    Job later = new TestJob("later", HOUSEKEEPING, "group");
+    queue.add(later);
+    assertSame(later, queue.getNext());
+  }
+
+  @Test
+  public void testUnmetRequirementsWaitForStatusChange() {
+    TestJob.SwitchRequirement requirement = new TestJob.SwitchRequirement();
+    Job gated = new TestJob("gated", INTERACTIVE, null, requirement);
+    Job other = new TestJob("other", HOUSEKEEPING, null);
+    queue.add(gated);
+    queue.add(other);
+
+    assertSame(other, queue.getNext());
+    assertNull(queue.getNext());
+
+    requirement.present = true;
+    assertNull(queue.getNext());
+
+    queue.onRequirementStatusChanged();
+    assertSame(gated, queue.getNext());
+    assertNull(queue.getNext());
+  }
+
+  @Test
+  public void testGatedGroupHeadBlocksGroup() {
+    TestJob.SwitchRequirement requirement = new TestJob.SwitchRequirement();
+    Job gated = new TestJob("gated", SEND, "group", requirement);
+    Job next  = new TestJob("next", SEND, "group");
+    queue.add(gated);
+    queue.add(next);
+
+    assertNull(queue.getNext());
+
+    requirement.present = true;
+    queue.onRequirementStatusChanged();
+    assertSame(gated, queue.getNext());
+    assertNull(queue.getNext());
+
+    queue.onFinished(gated);
+    assertSame(next, queue.getNext());
+  }
+
+  @Test
+  public void testPushedJobWaitsForStatusChange() {
+    Job deferred = new TestJob("deferred", SEND, "group");
+    Job next     = new TestJob("next", SEND, "group");
+    queue.add(deferred);
+    queue.add(next);
+
+    assertSame(deferred, queue.getNext());
+    queue.push(deferred);
+    assertNull(queue.getNext());
+
+    queue.onRequirementStatusChanged();
+    assertSame(deferred, queue.getNext());
+  }
+
+  @Test
+  public void testRequirementStatusChangeKeepsOrder() {
+    TestJob.SwitchRequirement requirement = new TestJob.SwitchRequirement();
+    Job first  = new TestJob("first", SEND, null, requirement);
+    Job second = new TestJob("second", SEND, null, requirement);
+    queue.add(first);
+    queue.add(second);
+    assertNull(queue.getNext());
+
+    Job third = new TestJob("third", SEND, null);
+    queue.add(third);
+
+    requirement.present = true;
+    queue.onRequirementStatusChanged();
+    assertSame(first, queue.getNext());
+    assertSame(second, queue.getNext());
+    assertSame(third, queue.getNext());
+  }
+
+  @Test
+  public void testPutBackReturnsJobToFront() {
+    Job first  = new TestJob("first", MEDIA, null);
+    Job second = new TestJob("second", MEDIA, null);
+    queue.add(first);
+    queue.add(second);
+
+    Job taken = queue.getNext();
+    assertSame(first, taken);
+    queue.putBack(taken);
+
+    assertSame(first, queue.getNext());
+    assertSame(second, queue.getNext());
+    assertNull(queue.getNext());
+  }
+}
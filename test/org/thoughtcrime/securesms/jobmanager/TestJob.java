@@ -0,0 +1,58 @@
+package org.thoughtcrime.securesms.jobmanager;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.jobmanager.requirements.Requirement;
+import org.thoughtcrime.securesms.util.concurrent.BackgroundScheduler.Priority;
+
+class TestJob extends Job {
+
+  final String name;
+
+  TestJob(String name, Priority priority, String groupId, Requirement... requirements) {
+    super(createParameters(priority, groupId, requirements));
+    this.name = name;
+  }
+
+  private static JobParameters createParameters(Priority priority, String groupId, Requirement... requirements) {
+    JobParameters.Builder builder = JobParameters.newBuilder()
+                                                 .withPriority(priority)
+                                                 .withGroupId(groupId)
+                                                 .withPersistence();
+    for (Requirement requirement : requirements) {
+      builder.withRequirement(requirement);
+    }
+    return builder.create();
+  }
+
+  @Override
+  public void onAdded() {}
+
+  @Override
+  protected void onRun() {}
+
+  @Override
+  public boolean onShouldRetry(Exception exception) {
+    return false;
+  }
+
+  @Override
+  public void onCanceled() {}
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  static class SwitchRequirement implements Requirement {
+    boolean present;
+
+    @Override
+    public boolean isPresent(@NonNull Job job) {
+      return present;
+    }
+
+    @Override
+    public void onRetry(@NonNull Job job) {}
+  }
+}
@@ -0,0 +1,32 @@
+package org.thoughtcrime.securesms.search.index;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenizerTest {
+
+  @Test
+  public void testTokenizeFoldsCaseAndDiacritics() {
+    assertEquals(Arrays.asList("cafe", "creme", "brulee", "42"), Tokenizer.tokenize("Caf\u00e9 cr\u00e8me-BR\u00dbL\u00c9E, 42!"));
+  }
+
+  @Test
+  public void testTokenizeSkipsUnsegmentedScripts() {
+    // the latin words next to the japanese text are terms of their own
+    assertEquals(Arrays.asList("abc", "tokyo"), Tokenizer.tokenize("ABC\u4f1a\u8b70\u306f\u6771\u4eac\u99c5Tokyo"));
+    assertEquals(Arrays.asList("ok"), Tokenizer.tokenize("\u0e2a\u0e27\u0e31\u0e2a\u0e14\u0e35\u0e04\u0e23\u0e31\u0e1a ok"));
+  }
+
+  @Test
+  public void testHasUnsegmentedText() {
+    assertTrue(Tokenizer.hasUnsegmentedText("\u6771\u4eac"));
+    assertTrue(Tokenizer.hasUnsegmentedText("meet \u0e2a\u0e27\u0e31\u0e2a\u0e14\u0e35"));
+    assertTrue(Tokenizer.hasUnsegmentedText("\uc548\ub155"));
+    assertFalse(Tokenizer.hasUnsegmentedText("caf\u00e9 \u043f\u0440\u0438\u0432\u0435\u0442 \u03b3\u03b5\u03b9\u03b1"));
+  }
+}
@@ -0,0 +1,229 @@
+package org.thoughtcrime.securesms.video.recode;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import com.coremedia.iso.IsoFile;
+import com.coremedia.iso.boxes.Box;
+import com.coremedia.iso.boxes.SampleTableBox;
+import com.coremedia.iso.boxes.SampleToChunkBox;
+import com.coremedia.iso.boxes.TrackBox;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Writes a synthetic recoding with MP4Builder: 3 seconds of 720p H.264 at 30 fps with a sync frame
+ * every second, interleaved with 44.1 kHz AAC, and reads the samples back from the written file.
+ */
+public class MP4BuilderTest {
+
+    private static final int DURATION_SEC = 3;
+    private static final int FRAME_RATE = 30;
+    private static final int SAMPLE_RATE = 44100;
+    private static final int AAC_FRAME_SAMPLES = 1024;
+
+    private final List<Frame> frames = new ArrayList<>();
+    private final long[] expectedCrc = new long[2];
+    private final int[] expectedCount = new int[2];
+
+    private MediaFormat videoFormat;
+    private MediaFormat audioFormat;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        videoFormat = mock(MediaFormat.class);
+        when(videoFormat.getInteger(MediaFormat.KEY_WIDTH)).thenReturn(1280);
+        when(videoFormat.getInteger(MediaFormat.KEY_HEIGHT)).thenReturn(720);
+        when(videoFormat.getString(MediaFormat.KEY_MIME)).thenReturn("video/avc");
+
+        audioFormat = mock(MediaFormat.class);
+        when(audioFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE)).thenReturn(SAMPLE_RATE);
+        when(audioFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT)).thenReturn(2);
+
+        createFrames();
+        file = File.createTempFile("mp4builder", ".mp4");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testWritesAllSamples() throws Exception {
+        write();
+        long[][] syncSamples = verify();
+
+        long[] expectedSyncSamples = new long[DURATION_SEC];
+        for (int i = 0; i < DURATION_SEC; i++) {
+            expectedSyncSamples[i] = i * FRAME_RATE + 1;
+        }
+        assertArrayEquals(expectedSyncSamples, syncSamples[0]);
+        assertEquals(0, syncSamples[1].length);
+        assertEquals(Arrays.asList("ftyp", "moov", "free", "mdat"), boxTypes());
+    }
+
+    @Test
+    public void testAppendsMoovIfReservedSpaceIsTooSmall() throws Exception {
+        write(1);
+        verify();
+        assertEquals(Arrays.asList("ftyp", "free", "mdat", "moov"), boxTypes());
+    }
+
+    private void write() throws Exception {
+        write((DURATION_SEC + 1) * (FRAME_RATE + 47));
+    }
+
+    private void write(int estimatedSampleCount) throws Exception {
+        Mp4Movie movie = new Mp4Movie();
+        movie.setCacheFile(file);
+        movie.setSize(1280, 720);
+        movie.setEstimatedSampleCount(estimatedSampleCount);
+        MP4Builder builder = new MP4Builder().createMovie(movie);
+        int videoTrack = builder.addTrack(videoFormat, false);
+        int audioTrack = builder.addTrack(audioFormat, true);
+        for (Frame frame : frames) {
+            frame.data.clear();
+            builder.writeSampleData(frame.audio ? audioTrack : videoTrack, frame.data, frame.info, frame.audio);
+        }
+        builder.finishMovie(false);
+    }
+
+    /**
+     * Reads the samples of both tracks back through stsc, stco and stsz and compares them with the written ones.
+     *
+     * @return the sync samples of the video and the audio track.
+     */
+    private long[][] verify() throws Exception {
+        long[][] syncSamples = new long[2][];
+        IsoFile isoFile = new IsoFile(file.getAbsolutePath());
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            List<TrackBox> trackBoxes = isoFile.getMovieBox().getBoxes(TrackBox.class);
+            assertEquals(2, trackBoxes.size());
+            for (int t = 0; t < 2; t++) {
+                SampleTableBox stbl = trackBoxes.get(t).getSampleTableBox();
+                long[] sizes = stbl.getSampleSizeBox().getSampleSizes();
+                long[] chunkOffsets = stbl.getChunkOffsetBox().getChunkOffsets();
+                List<SampleToChunkBox.Entry> entries = stbl.getSampleToChunkBox().getEntries();
+                assertEquals(expectedCount[t], sizes.length);
+
+                CRC32 crc = new CRC32();
+                int sample = 0;
+                int entry = 0;
+                for (int chunk = 1; chunk <= chunkOffsets.length; chunk++) {
+                    if (entry + 1 < entries.size() && entries.get(entry + 1).getFirstChunk() == chunk) {
+                        entry++;
+                    }
+                    long offset = chunkOffsets[chunk - 1];
+                    for (long i = 0; i < entries.get(entry).getSamplesPerChunk(); i++) {
+                        byte[] bytes = new byte[(int) sizes[sample++]];
+                        raf.seek(offset);
+                        raf.readFully(bytes);
+                        crc.update(bytes);
+                        offset += bytes.length;
+                    }
+                }
+                assertEquals(sizes.length, sample);
+                assertEquals(expectedCrc[t], crc.getValue());
+
+                syncSamples[t] = stbl.getSyncSampleBox() != null ? stbl.getSyncSampleBox().getSampleNumber() : new long[0];
+            }
+        } finally {
+            raf.close();
+            isoFile.close();
+        }
+        assertTrue(file.length() > 0);
+        return syncSamples;
+    }
+
+    private List<String> boxTypes() throws Exception {
+        List<String> types = new ArrayList<>();
+        IsoFile isoFile = new IsoFile(file.getAbsolutePath());
+        try {
+            for (Box box : isoFile.getBoxes()) {
+                types.add(box.getType());
+            }
+        } finally {
+            isoFile.close();
+        }
+        return types;
+    }
+
+    private void createFrames() {
+        Random random = new Random(42);
+        CRC32 videoCrc = new CRC32();
+        CRC32 audioCrc = new CRC32();
+        int videoFrames = DURATION_SEC * FRAME_RATE;
+        int audioFrames = DURATION_SEC * SAMPLE_RATE / AAC_FRAME_SAMPLES;
+
+        int v = 0;
+        int a = 0;
+        while (v < videoFrames || a < audioFrames) {
+            long videoUs = v * 1000000L / FRAME_RATE;
+            long audioUs = a * AAC_FRAME_SAMPLES * 1000000L / SAMPLE_RATE;
+            if (v < videoFrames && (a >= audioFrames || videoUs <= audioUs)) {
+                boolean sync = v % FRAME_RATE == 0;
+                int size = sync ? 60000 + random.nextInt(20000) : 4000 + random.nextInt(16000);
+                byte[] payload = new byte[size];
+                random.nextBytes(payload);
+                // the encoder output starts with an Annex B start code, the builder replaces it by the length
+                payload[0] = 0;
+                payload[1] = 0;
+                payload[2] = 0;
+                payload[3] = 1;
+                videoCrc.update(ByteBuffer.allocate(4).putInt(size - 4).array());
+                videoCrc.update(payload, 4, size - 4);
+                frames.add(new Frame(payload, videoUs, sync ? MediaCodec.BUFFER_FLAG_SYNC_FRAME : 0, false));
+                v++;
+            } else {
+                byte[] payload = new byte[300 + random.nextInt(150)];
+                random.nextBytes(payload);
+                audioCrc.update(payload);
+                frames.add(new Frame(payload, audioUs, 0, true));
+                a++;
+            }
+        }
+
+        expectedCrc[0] = videoCrc.getValue();
+        expectedCrc[1] = audioCrc.getValue();
+        expectedCount[0] = videoFrames;
+        expectedCount[1] = audioFrames;
+    }
+
+    private static class Frame {
+        final ByteBuffer            data;
+        final MediaCodec.BufferInfo info;
+        final boolean               audio;
+
+        Frame(byte[] payload, long presentationTimeUs, int flags, boolean audio) {
+            // encoder output buffers are direct
+            data = ByteBuffer.allocateDirect(payload.length);
+            data.put(payload);
+            info = new MediaCodec.BufferInfo();
+            info.offset = 0;
+            info.size = payload.length;
+            info.presentationTimeUs = presentationTimeUs;
+            info.flags = flags;
+            this.audio = audio;
+        }
+    }
+}